@@ -18,6 +18,7 @@ import org.jikesrvm.VM;
 import org.jikesrvm.mm.mminterface.Selected;
 import org.jikesrvm.runtime.Magic;
 import org.jikesrvm.util.Services;
+import org.mmtk.plan.CollectorContext;
 import org.mmtk.plan.TraceLocal;
 import org.vmmagic.pragma.NoInline;
 import org.vmmagic.pragma.Uninterruptible;
@@ -66,6 +67,9 @@ public final class FinalizableProcessor extends org.mmtk.vm.FinalizableProcessor
   /** The table of ready objects */
   protected volatile Object[] readyForFinalize = new Object[INITIAL_SIZE];
 
+  /** Splits the table among the collector threads during GC */
+  private final ParallelTablePartition partition = new ParallelTablePartition();
+
   /** Index of first entry created since last collection */
   protected int nurseryIndex = 0;
 
@@ -153,19 +157,27 @@ public final class FinalizableProcessor extends org.mmtk.vm.FinalizableProcessor
     maxIndex = 0;
   }
 
+  @Override
+  public boolean isParallel() {
+    return true;
+  }
+
   /**
    * {@inheritDoc}.
    * <p>
    * Currently ignores the nursery hint.
    * <p>
-   * TODO parallelise this code?
+   * All collector threads forward the entries in their chunk of the table.
    *
    * @param trace The trace
    * @param nursery Is this a nursery collection ?
    */
   @Override
   public void forward(TraceLocal trace, boolean nursery) {
-    for (int i = 0 ; i < maxIndex; i++) {
+    CollectorContext collector = ParallelTablePartition.currentCollector();
+    int start = ParallelTablePartition.chunkStart(0, maxIndex, collector);
+    int end = ParallelTablePartition.chunkEnd(0, maxIndex, collector);
+    for (int i = start; i < end; i++) {
       ObjectReference ref = table.get(i).toObjectReference();
       table.set(i, trace.getForwardedFinalizable(ref).toAddress());
     }
@@ -179,21 +191,27 @@ public final class FinalizableProcessor extends org.mmtk.vm.FinalizableProcessor
    * Depending on the value of <code>nursery</code>, we will either
    * scan all references, or just those created since the last scan.
    * <p>
-   * TODO parallelise this code
+   * All collector threads process the entries in their chunk of the
+   * table, see {@link ParallelTablePartition}.
    *
    * @param nursery Scan only the newly created references
    */
   @Override
   @UninterruptibleNoWarn
   public void scan(TraceLocal trace, boolean nursery) {
-    int toIndex = nursery ? nurseryIndex : 0;
-
-    for (int fromIndex = toIndex; fromIndex < maxIndex; fromIndex++) {
-      ObjectReference ref = table.get(fromIndex).toObjectReference();
+    int fromIndex = nursery ? nurseryIndex : 0;
+    int toIndex = maxIndex;
+    CollectorContext collector = ParallelTablePartition.currentCollector();
+    int start = ParallelTablePartition.chunkStart(fromIndex, toIndex, collector);
+    int end = ParallelTablePartition.chunkEnd(fromIndex, toIndex, collector);
+
+    int keptIndex = start;
+    for (int i = start; i < end; i++) {
+      ObjectReference ref = table.get(i).toObjectReference();
 
       /* Determine liveness (and forward if necessary) */
       if (trace.isLive(ref)) {
-        table.set(toIndex++, trace.getForwardedFinalizable(ref).toAddress());
+        table.set(keptIndex++, trace.getForwardedFinalizable(ref).toAddress());
         continue;
       }
 
@@ -201,14 +219,20 @@ public final class FinalizableProcessor extends org.mmtk.vm.FinalizableProcessor
       ref = trace.retainForFinalize(ref);
 
       /* Add to object table */
+      lock.acquire();
       Offset offset = Word.fromIntZeroExtend(lastReadyIndex).lsh(LOG_BYTES_IN_ADDRESS).toOffset();
       Selected.Plan.get().storeObjectReference(Magic.objectAsAddress(readyForFinalize).plus(offset), ref);
       lastReadyIndex = (lastReadyIndex + 1) % readyForFinalize.length;
+      lock.release();
     }
-    nurseryIndex = maxIndex = toIndex;
 
-    /* Possible schedule finalizers to run */
-    Collection.scheduleFinalizerThread();
+    int newMaxIndex = partition.compact(table, fromIndex, toIndex, keptIndex);
+    if (collector.parallelWorkerOrdinal() == 0) {
+      nurseryIndex = maxIndex = newMaxIndex;
+
+      /* Possible schedule finalizers to run */
+      Collection.scheduleFinalizerThread();
+    }
   }
 
   /**
@@ -0,0 +1,104 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.mm.mmtk;
+
+import org.jikesrvm.scheduler.RVMThread;
+import org.mmtk.plan.CollectorContext;
+import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.AddressArray;
+
+/**
+ * Splits a table of object addresses, such as the tables of the
+ * {@link ReferenceProcessor} and the {@link FinalizableProcessor}, among
+ * the collector threads.
+ * <p>
+ * Like {@link ScanStatics}, each collector thread processes one contiguous
+ * chunk of the table, chosen by its {@link CollectorContext#parallelWorkerOrdinal()}.
+ * Each thread compacts the entries it keeps to the start of its chunk. When
+ * all threads are done, the first thread moves the compacted chunks together.
+ */
+@Uninterruptible
+final class ParallelTablePartition {
+
+  /** The end of the kept entries of each chunk, indexed by worker ordinal */
+  private final int[] compactedEnds = new int[RVMThread.MAX_THREADS];
+
+  /**
+   * @return the collector context of the current thread
+   */
+  @Inline
+  static CollectorContext currentCollector() {
+    return RVMThread.getCurrentThread().getCollectorContext();
+  }
+
+  /**
+   * @param from the start of the part of the table that is processed
+   * @param to the end (exclusive) of the part of the table that is processed
+   * @param collector the collector context of the current thread
+   * @return the start of the chunk of the current thread
+   */
+  static int chunkStart(int from, int to, CollectorContext collector) {
+    return chunkBoundary(from, to, collector.parallelWorkerOrdinal(), collector.parallelWorkerCount());
+  }
+
+  /**
+   * @param from the start of the part of the table that is processed
+   * @param to the end (exclusive) of the part of the table that is processed
+   * @param collector the collector context of the current thread
+   * @return the end (exclusive) of the chunk of the current thread
+   */
+  static int chunkEnd(int from, int to, CollectorContext collector) {
+    return chunkBoundary(from, to, collector.parallelWorkerOrdinal() + 1, collector.parallelWorkerCount());
+  }
+
+  private static int chunkBoundary(int from, int to, int ordinal, int workers) {
+    return from + (int) (((long) (to - from) * ordinal) / workers);
+  }
+
+  /**
+   * Waits until all collector threads have compacted their chunks and moves
+   * the kept entries of all chunks together. Must be called by all collector
+   * threads.
+   * <p>
+   * Only the first collector thread writes to the table. The table is
+   * complete when the collector threads leave the current phase.
+   *
+   * @param table the table
+   * @param from the start of the part of the table that was processed
+   * @param to the end (exclusive) of the part of the table that was processed
+   * @param compactedEnd the end (exclusive) of the entries that the current
+   *  thread kept in its chunk
+   * @return the end (exclusive) of the kept entries of the table
+   */
+  int compact(AddressArray table, int from, int to, int compactedEnd) {
+    CollectorContext collector = currentCollector();
+    int workers = collector.parallelWorkerCount();
+    compactedEnds[collector.parallelWorkerOrdinal()] = compactedEnd;
+    collector.rendezvous();
+
+    boolean move = collector.parallelWorkerOrdinal() == 0;
+    int end = from;
+    for (int worker = 0; worker < workers; worker++) {
+      int start = chunkBoundary(from, to, worker, workers);
+      int keptEnd = compactedEnds[worker];
+      if (move && start != end) {
+        for (int i = start; i < keptEnd; i++) {
+          table.set(end + i - start, table.get(i));
+        }
+      }
+      end += keptEnd - start;
+    }
+    return end;
+  }
+}
@@ -12,6 +12,7 @@
  */
 package org.jikesrvm.mm.mmtk;
 
+import org.mmtk.plan.CollectorContext;
 import org.mmtk.plan.TraceLocal;
 import org.mmtk.utility.options.Options;
 
@@ -113,6 +114,11 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
    */
   private volatile boolean growingTable = false;
 
+  /**
+   * Splits the table among the collector threads during GC
+   */
+  private final ParallelTablePartition partition = new ParallelTablePartition();
+
   /**
    * Semantics
    */
@@ -275,8 +281,7 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
    * <p>
    * Currently ignores the nursery hint.
    * <p>
-   * TODO parallelise this code
-   *
+   * All collector threads forward the references in their chunk of the table.
    */
   @Override
   public void forward(TraceLocal trace, boolean nursery) {
@@ -288,7 +293,10 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
       VM.sysWriteln("unforwardedReferences is ",
           Magic.objectAsAddress(unforwardedReferences));
     }
-    for (int i = 0; i < maxIndex; i++) {
+    CollectorContext collector = ParallelTablePartition.currentCollector();
+    int start = ParallelTablePartition.chunkStart(0, maxIndex, collector);
+    int end = ParallelTablePartition.chunkEnd(0, maxIndex, collector);
+    for (int i = start; i < end; i++) {
       if (TRACE_DETAIL) VM.sysWrite("slot ",i,": ");
       ObjectReference reference = unforwardedReferences.get(i).toObjectReference();
       if (TRACE_DETAIL) VM.sysWriteln("forwarding ",reference);
@@ -297,7 +305,10 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
       unforwardedReferences.set(i, newReference.toAddress());
     }
     if (TRACE) VM.sysWriteln("Ending ReferenceGlue.forward(",semanticsStr,")");
-    unforwardedReferences = null;
+    collector.rendezvous();
+    if (collector.parallelWorkerOrdinal() == 0) {
+      unforwardedReferences = null;
+    }
   }
 
   @Override
@@ -305,6 +316,11 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
     maxIndex = 0;
   }
 
+  @Override
+  public boolean isParallel() {
+    return true;
+  }
+
   /**
    * {@inheritDoc} Calls ReferenceProcessor's
    * processReference method for each reference and builds a new
@@ -313,7 +329,8 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
    * Depending on the value of <code>nursery</code>, we will either
    * scan all references, or just those created since the last scan.
    * <p>
-   * TODO parallelise this code
+   * All collector threads process the references in their chunk of the
+   * table, see {@link ParallelTablePartition}.
    *
    * @param nursery Scan only the newly created references
    */
@@ -322,36 +339,44 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
     unforwardedReferences = references;
 
     if (TRACE) VM.sysWriteln("Starting ReferenceGlue.scan(",semanticsStr,")");
-    int toIndex = nursery ? nurseryIndex : 0;
+    int fromIndex = nursery ? nurseryIndex : 0;
+    int toIndex = maxIndex;
+    CollectorContext collector = ParallelTablePartition.currentCollector();
+    int start = ParallelTablePartition.chunkStart(fromIndex, toIndex, collector);
+    int end = ParallelTablePartition.chunkEnd(fromIndex, toIndex, collector);
 
     if (TRACE_DETAIL) VM.sysWriteln(semanticsStr," Reference table is ",Magic.objectAsAddress(references));
     if (retain) {
-      for (int fromIndex = toIndex; fromIndex < maxIndex; fromIndex++) {
-          ObjectReference reference = getReference(fromIndex);
-          retainReferent(trace, reference);
-        }
+      for (int i = start; i < end; i++) {
+        ObjectReference reference = getReference(i);
+        retainReferent(trace, reference);
+      }
     } else {
-      for (int fromIndex = toIndex; fromIndex < maxIndex; fromIndex++) {
-        ObjectReference reference = getReference(fromIndex);
+      int keptIndex = start;
+      for (int i = start; i < end; i++) {
+        ObjectReference reference = getReference(i);
 
         /* Determine liveness (and forward if necessary) the reference */
         ObjectReference newReference = processReference(trace,reference);
         if (!newReference.isNull()) {
-          setReference(toIndex++,newReference);
+          setReference(keptIndex++,newReference);
           if (TRACE_DETAIL) {
-            int index = toIndex - 1;
+            int index = keptIndex - 1;
             VM.sysWrite("SCANNED ",index);
             VM.sysWrite(" ",references.get(index));
             VM.sysWrite(" -> ");
             VM.sysWriteln(getReferent(references.get(index).toObjectReference()));
           }
-               }
-             }
-      if (Options.verbose.getValue() >= 3) {
-        VM.sysWrite(semanticsStr);
-        VM.sysWriteln(" references: ",maxIndex," -> ",toIndex);
+        }
+      }
+      int newMaxIndex = partition.compact(references, fromIndex, toIndex, keptIndex);
+      if (collector.parallelWorkerOrdinal() == 0) {
+        if (Options.verbose.getValue() >= 3) {
+          VM.sysWrite(semanticsStr);
+          VM.sysWriteln(" references: ",maxIndex," -> ",newMaxIndex);
+        }
+        nurseryIndex = maxIndex = newMaxIndex;
       }
-      nurseryIndex = maxIndex = toIndex;
     }
 
     /* flush out any remset entries generated during the above activities */
@@ -411,7 +436,11 @@ public final class ReferenceProcessor extends org.mmtk.vm.ReferenceProcessor {
    */
   public boolean enqueueReference(ObjectReference addr) {
     Reference<?> reference = (Reference<?>)addr.toObject();
-    return reference.enqueueInternal();
+    /* Collector threads may enqueue references on the same queue in parallel */
+    lock.acquire();
+    boolean enqueued = reference.enqueueInternal();
+    lock.release();
+    return enqueued;
   }
 
   /**
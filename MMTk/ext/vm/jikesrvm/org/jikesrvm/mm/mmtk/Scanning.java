@@ -25,6 +25,7 @@ import org.jikesrvm.mm.mminterface.HandInlinedScanning;
 import org.jikesrvm.mm.mminterface.Selected;
 import org.jikesrvm.mm.mminterface.SpecializedScanMethod;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.runtime.Time;
 import org.jikesrvm.scheduler.RVMThread;
 import org.mmtk.plan.CollectorContext;
 import org.mmtk.plan.TraceLocal;
@@ -64,6 +65,17 @@ public final class Scanning extends org.mmtk.vm.Scanning {
   @Override
   @Inline
   public void specializedScanObject(int id, TransitiveClosure trace, ObjectReference object) {
+    if (SpecializedScanMethod.STATS) {
+      long start = Time.cycles();
+      specializedScan(id, trace, object);
+      SpecializedScanMethod.recordScan(Time.cycles() - start);
+    } else {
+      specializedScan(id, trace, object);
+    }
+  }
+
+  @Inline
+  private void specializedScan(int id, TransitiveClosure trace, ObjectReference object) {
     if (HandInlinedScanning.ENABLED) {
       int tibCode = AlignmentEncoding.getTibCode(object);
       HandInlinedScanning.scanObject(tibCode, id, object.toObject(), trace);
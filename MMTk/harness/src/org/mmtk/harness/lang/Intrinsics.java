@@ -21,6 +21,7 @@ import org.mmtk.harness.lang.runtime.WeakReferenceValue;
 import org.mmtk.harness.scheduler.Scheduler;
 import org.mmtk.harness.vm.Collection;
 import org.mmtk.plan.Plan;
+import org.mmtk.plan.markcompact.MC;
 
 /**
  * "built in" intrinsic functions
@@ -185,4 +186,15 @@ public class Intrinsics {
   public static int barrierWait(Env env, String name, int threadCount) {
     return Scheduler.mutatorRendezvous(name, threadCount);
   }
+
+  /**
+   * The number of collectors that compacted regions of the mark-compact space
+   * in the last collection.  Only valid with the MC plan, so this is not a
+   * built-in and must be declared by the scripts that use it.
+   * @param env Thread-local environment (language-dependent mutator context)
+   * @return The number of collectors that compacted at least one region
+   */
+  public static int compactingCollectors(Env env) {
+    return MC.mcSpace.getCompactingCollectors();
+  }
 }
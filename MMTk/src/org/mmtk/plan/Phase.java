@@ -764,6 +764,15 @@ public abstract class Phase {
   /** Do we want to allow new concurrent workers to become active */
   private static boolean allowConcurrentPhase;
 
+  /**
+   * Run the concurrent phases of the current collection as their
+   * associated non-concurrent phases.  Must be called by a single thread
+   * before the first concurrent phase of the collection is scheduled.
+   */
+  public static void disallowConcurrentPhase() {
+    allowConcurrentPhase = false;
+  }
+
   /**
    * @return the current phase Id.
    */
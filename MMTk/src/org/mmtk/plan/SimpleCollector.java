@@ -72,7 +72,7 @@ public abstract class SimpleCollector extends ParallelCollector {
     }
 
     if (phaseId == Simple.SOFT_REFS) {
-      if (primary) {
+      if (primary || VM.softReferences.isParallel()) {
         if (!Options.noReferenceTypes.getValue()) {
           if (!Plan.isEmergencyCollection()) {
             VM.softReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(),true);
@@ -83,51 +83,62 @@ public abstract class SimpleCollector extends ParallelCollector {
     }
 
     if (phaseId == Simple.WEAK_REFS) {
-      if (primary) {
-        if (Options.noReferenceTypes.getValue()) {
+      if (Options.noReferenceTypes.getValue()) {
+        if (primary) {
           VM.softReferences.clear();
           VM.weakReferences.clear();
-        } else {
-            VM.softReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(), false);
-            VM.weakReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(), false);
+        }
+      } else {
+        if (primary || VM.softReferences.isParallel()) {
+          VM.softReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(), false);
+        }
+        if (primary || VM.weakReferences.isParallel()) {
+          VM.weakReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(), false);
         }
       }
       return;
     }
 
     if (phaseId == Simple.FINALIZABLE) {
-      if (primary) {
-        if (Options.noFinalizer.getValue())
+      if (Options.noFinalizer.getValue()) {
+        if (primary)
           VM.finalizableProcessor.clear();
-        else
-          VM.finalizableProcessor.scan(getCurrentTrace(),global().isCurrentGCNursery());
+      } else if (primary || VM.finalizableProcessor.isParallel()) {
+        VM.finalizableProcessor.scan(getCurrentTrace(),global().isCurrentGCNursery());
       }
       return;
     }
 
     if (phaseId == Simple.PHANTOM_REFS) {
-      if (primary) {
-        if (Options.noReferenceTypes.getValue())
+      if (Options.noReferenceTypes.getValue()) {
+        if (primary)
           VM.phantomReferences.clear();
-        else
-          VM.phantomReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(),false);
+      } else if (primary || VM.phantomReferences.isParallel()) {
+        VM.phantomReferences.scan(getCurrentTrace(),global().isCurrentGCNursery(),false);
       }
       return;
     }
 
     if (phaseId == Simple.FORWARD_REFS) {
-      if (primary && !Options.noReferenceTypes.getValue() &&
+      if (!Options.noReferenceTypes.getValue() &&
           VM.activePlan.constraints().needsForwardAfterLiveness()) {
-        VM.softReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
-        VM.weakReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
-        VM.phantomReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
+        if (primary || VM.softReferences.isParallel()) {
+          VM.softReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
+        }
+        if (primary || VM.weakReferences.isParallel()) {
+          VM.weakReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
+        }
+        if (primary || VM.phantomReferences.isParallel()) {
+          VM.phantomReferences.forward(getCurrentTrace(),global().isCurrentGCNursery());
+        }
       }
       return;
     }
 
     if (phaseId == Simple.FORWARD_FINALIZABLE) {
-      if (primary && !Options.noFinalizer.getValue() &&
-          VM.activePlan.constraints().needsForwardAfterLiveness()) {
+      if (!Options.noFinalizer.getValue() &&
+          VM.activePlan.constraints().needsForwardAfterLiveness() &&
+          (primary || VM.finalizableProcessor.isParallel())) {
         VM.finalizableProcessor.forward(getCurrentTrace(),global().isCurrentGCNursery());
       }
       return;
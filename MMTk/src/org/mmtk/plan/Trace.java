@@ -34,7 +34,7 @@ public class Trace {
    *  instance
    */
   public Trace(RawPageSpace metaDataSpace) {
-    valuePool = new SharedDeque("valuePool",metaDataSpace, 1);
+    valuePool = new SharedDeque("valuePool", metaDataSpace, 1, true);
     rootLocationPool = new SharedDeque("rootLocations", metaDataSpace, 1);
   }
 
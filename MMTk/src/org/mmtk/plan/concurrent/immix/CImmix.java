@@ -0,0 +1,162 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.plan.concurrent.immix;
+
+import org.mmtk.plan.*;
+import org.mmtk.plan.concurrent.Concurrent;
+import org.mmtk.policy.Space;
+import org.mmtk.policy.immix.ImmixSpace;
+import org.mmtk.policy.immix.ObjectHeader;
+import org.mmtk.utility.heap.VMRequest;
+
+import org.vmmagic.pragma.*;
+import org.vmmagic.unboxed.*;
+
+/**
+ * This class implements the global state of a concurrent immix collector.<p>
+ *
+ * Marking of the immix space runs concurrently with the mutators, using
+ * the snapshot-at-the-beginning barrier of {@link Concurrent}.  Lines and
+ * blocks are marked as in the stop-the-world {@link org.mmtk.plan.immix.Immix}
+ * collector, and objects allocated while marking is in progress are
+ * allocated black.  The final pause completes the closure and processes
+ * references.<p>
+ *
+ * Defragmentation moves objects and is therefore never done while
+ * mutators run: a collection that decides to defragment runs its
+ * closure in the pause, as the stop-the-world collector does.
+ */
+@Uninterruptible
+public class CImmix extends Concurrent {
+
+  /****************************************************************************
+   * Constants
+   */
+
+  /****************************************************************************
+   * Class variables
+   */
+
+  /**
+   *
+   */
+  public static final ImmixSpace immixSpace = new ImmixSpace("immix", VMRequest.discontiguous());
+  public static final int IMMIX = immixSpace.getDescriptor();
+
+  public static final int SCAN_IMMIX = 0;
+  public static final int SCAN_DEFRAG = 1;
+
+  static {
+    smallCodeSpace.makeAllocAsMarked();
+    nonMovingSpace.makeAllocAsMarked();
+  }
+
+  /****************************************************************************
+   * Instance variables
+   */
+
+  /**
+   *
+   */
+  public final Trace immixTrace = new Trace(metaDataSpace);
+  protected boolean lastGCWasDefrag = false;
+
+  /*****************************************************************************
+   *
+   * Collection
+   */
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @Inline
+  public void collectionPhase(short phaseId) {
+    if (phaseId == SET_COLLECTION_KIND) {
+      super.collectionPhase(phaseId);
+      immixSpace.decideWhetherToDefrag(emergencyCollection, true, collectionAttempt, userTriggeredCollection);
+      if (immixSpace.decidedToDefrag()) {
+        /* Objects may only be moved while the mutators are stopped */
+        Phase.disallowConcurrentPhase();
+      }
+      return;
+    }
+
+    if (phaseId == PREPARE) {
+      super.collectionPhase(phaseId);
+      immixTrace.prepareNonBlocking();
+      immixSpace.prepare(true);
+      return;
+    }
+
+    if (phaseId == RELEASE) {
+      immixTrace.release();
+      lastGCWasDefrag = immixSpace.release(true);
+      super.collectionPhase(phaseId);
+      return;
+    }
+
+    super.collectionPhase(phaseId);
+  }
+
+  @Override
+  public boolean lastCollectionWasExhaustive() {
+    return lastGCWasDefrag;
+  }
+
+  /*****************************************************************************
+   *
+   * Accounting
+   */
+
+  /**
+   * {@inheritDoc}
+   * The superclass accounts for its spaces, we just
+   * augment this with the immix space's contribution.
+   */
+  @Override
+  public int getPagesUsed() {
+    return immixSpace.reservedPages() + super.getPagesUsed();
+  }
+
+  /**
+   * Return the number of pages reserved for collection.
+   */
+  @Override
+  public int getCollectionReserve() {
+    return super.getCollectionReserve() + immixSpace.defragHeadroomPages();
+  }
+
+  @Override
+  public boolean willNeverMove(ObjectReference object) {
+    if (Space.isInSpace(IMMIX, object)) {
+      ObjectHeader.pinObject(object);
+      return true;
+    } else
+      return super.willNeverMove(object);
+  }
+
+  @Override
+  @Interruptible
+  protected void registerSpecializedMethods() {
+    TransitiveClosure.registerSpecializedScan(SCAN_IMMIX, CImmixTraceLocal.class);
+    TransitiveClosure.registerSpecializedScan(SCAN_DEFRAG, CImmixDefragTraceLocal.class);
+    super.registerSpecializedMethods();
+  }
+
+  @Override
+  @Interruptible
+  public void preCollectorSpawn() {
+    immixSpace.initializeDefrag();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.plan.concurrent.immix;
+
+import org.mmtk.plan.*;
+import org.mmtk.plan.concurrent.ConcurrentCollector;
+import org.mmtk.policy.ImmortalLocal;
+import org.mmtk.policy.immix.CollectorLocal;
+import org.mmtk.utility.alloc.BumpPointer;
+import org.mmtk.utility.alloc.ImmixAllocator;
+import org.mmtk.vm.VM;
+
+import org.vmmagic.pragma.*;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.ObjectReference;
+
+/**
+ * This class implements <i>per-collector thread</i> behavior
+ * and state for the <i>CImmix</i> plan, which implements a full-heap
+ * concurrent immix collector.<p>
+ *
+ * Concurrent workers always use the non-moving trace; the defragmenting
+ * trace is only used by collections whose closure runs in the pause.
+ *
+ * @see CImmix
+ * @see ConcurrentCollector
+ */
+@Uninterruptible
+public class CImmixCollector extends ConcurrentCollector {
+
+  /****************************************************************************
+   * Instance fields
+   */
+
+  /**
+   *
+   */
+  protected final CImmixTraceLocal fastTrace;
+  protected final CImmixDefragTraceLocal defragTrace;
+  protected final CollectorLocal immix;
+  protected final ImmixAllocator copy;
+  protected final BumpPointer immortal;
+  protected TraceLocal currentTrace;
+
+  /****************************************************************************
+   * Initialization
+   */
+
+  /**
+   * Constructor
+   */
+  public CImmixCollector() {
+    fastTrace = new CImmixTraceLocal(global().immixTrace);
+    defragTrace = new CImmixDefragTraceLocal(global().immixTrace);
+    immix = new CollectorLocal(CImmix.immixSpace);
+    copy = new ImmixAllocator(CImmix.immixSpace, true, true);
+    immortal = new ImmortalLocal(Plan.immortalSpace);
+    currentTrace = fastTrace;
+  }
+
+ /****************************************************************************
+  *
+  * Collection-time allocation
+  */
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @Inline
+  public Address allocCopy(ObjectReference original, int bytes,
+      int align, int offset, int allocator) {
+    if (VM.VERIFY_ASSERTIONS) {
+      VM.assertions._assert(bytes <= Plan.MAX_NON_LOS_COPY_BYTES);
+      VM.assertions._assert(allocator == CImmix.ALLOC_DEFAULT);
+      VM.assertions._assert(CImmix.immixSpace.inImmixDefragCollection());
+    }
+    return copy.alloc(bytes, align, offset);
+  }
+
+  @Override
+  @Inline
+  public void postCopy(ObjectReference object, ObjectReference typeRef,
+      int bytes, int allocator) {
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(allocator == CImmix.ALLOC_DEFAULT);
+    CImmix.immixSpace.postCopy(object, bytes, true);
+
+    if (VM.VERIFY_ASSERTIONS) {
+      VM.assertions._assert(getCurrentTrace().isLive(object));
+      VM.assertions._assert(getCurrentTrace().willNotMoveInCurrentCollection(object));
+    }
+  }
+
+  /****************************************************************************
+   *
+   * Collection
+   */
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @Inline
+  public void collectionPhase(short phaseId, boolean primary) {
+    if (phaseId == CImmix.PREPARE) {
+      super.collectionPhase(phaseId, primary);
+      currentTrace = CImmix.immixSpace.inImmixDefragCollection() ? defragTrace : fastTrace;
+      immix.prepare(true);
+      currentTrace.prepare();
+      copy.reset();
+      return;
+    }
+
+    if (phaseId == CImmix.CLOSURE) {
+      currentTrace.completeTrace();
+      return;
+    }
+
+    if (phaseId == CImmix.RELEASE) {
+      currentTrace.release();
+      immix.release(true);
+      super.collectionPhase(phaseId, primary);
+      currentTrace = fastTrace;
+      return;
+    }
+
+    super.collectionPhase(phaseId, primary);
+  }
+
+  @Override
+  protected boolean concurrentTraceComplete() {
+    return !global().immixTrace.hasWork();
+  }
+
+  /****************************************************************************
+   *
+   * Miscellaneous
+   */
+
+  /** @return The active global plan as a <code>CImmix</code> instance. */
+  @Inline
+  private static CImmix global() {
+    return (CImmix) VM.activePlan.global();
+  }
+
+  /** @return The current trace instance. */
+  @Override
+  @Inline
+  public final TraceLocal getCurrentTrace() {
+    return currentTrace;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.plan.concurrent.immix;
+
+import static org.mmtk.policy.immix.ImmixConstants.MARK_LINE_AT_SCAN_TIME;
+
+import org.mmtk.plan.TraceLocal;
+import org.mmtk.plan.Trace;
+import org.mmtk.policy.Space;
+import org.mmtk.vm.VM;
+
+import org.vmmagic.pragma.*;
+import org.vmmagic.unboxed.*;
+
+/**
+ * This class implements the thread-local functionality for a non-moving
+ * transitive closure over an immix space that may run concurrently with
+ * the mutators.
+ */
+@Uninterruptible
+public final class CImmixTraceLocal extends TraceLocal {
+
+  /**
+   * @param trace the global trace class to use
+   */
+  public CImmixTraceLocal(Trace trace) {
+    super(CImmix.SCAN_IMMIX, trace);
+  }
+
+  /****************************************************************************
+   *
+   * Externally visible Object processing and tracing
+   */
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * Reference fields must not be written while mutators may be running.
+   */
+  @Override
+  protected boolean overwriteReferenceDuringTrace() {
+    return false;
+  }
+
+  @Override
+  public boolean isLive(ObjectReference object) {
+    if (object.isNull()) return false;
+    if (Space.isInSpace(CImmix.IMMIX, object)) {
+      return CImmix.immixSpace.fastIsLive(object);
+    }
+    return super.isLive(object);
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * In this instance, we refer objects in the immix space to the
+   * immixSpace for tracing, and defer to the superclass for all others.
+   */
+  @Override
+  @Inline
+  public ObjectReference traceObject(ObjectReference object) {
+    if (object.isNull()) return object;
+    if (Space.isInSpace(CImmix.IMMIX, object))
+      return CImmix.immixSpace.concurrentTraceObject(this, object);
+    return super.traceObject(object);
+  }
+
+  @Inline
+  @Override
+  public boolean willNotMoveInCurrentCollection(ObjectReference object) {
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(!CImmix.immixSpace.inImmixDefragCollection());
+    return true;
+  }
+
+  @Inline
+  @Override
+  protected void scanObject(ObjectReference object) {
+    super.scanObject(object);
+    if (MARK_LINE_AT_SCAN_TIME && Space.isInSpace(CImmix.IMMIX, object))
+      CImmix.immixSpace.markLines(object);
+  }
+}
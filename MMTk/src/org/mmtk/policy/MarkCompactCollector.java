@@ -36,8 +36,12 @@ import org.vmmagic.unboxed.ObjectReference;
  *<p>
  * Each collector thread maintains a private list of the pages that it compacts.
  * If it runs out of work during the calculateForwardingPointers pass, it requests
- * a new region from the global MarkCompactSpace.  Regions compacted by a collector
- * remain local to the collector.
+ * a new region from the global MarkCompactSpace.  Regions are claimed one at a
+ * time, so all collector threads share the work of a collection, and objects
+ * only move between regions on the same private list.  This makes the lists
+ * independent of each other in both the calculate and the compact pass.
+ * After compaction the surviving regions are returned to the global list, so
+ * that the next collection distributes the whole heap afresh.
  *
  * @see MarkCompactSpace
  * @see MarkCompactLocal
@@ -52,7 +56,7 @@ public final class MarkCompactCollector {
   private final MarkCompactSpace space;
 
   /**
-   * This collector's work list
+   * This collector's work list during a collection
    */
   private Address regions = Address.zero();
 
@@ -553,5 +557,12 @@ public final class MarkCompactCollector {
       space.release(region);
       region = nextRegion;
     }
+
+    /*
+     * Hand the compacted regions back, so that the next collection does
+     * not tie them to this collector.  Only our own list is walked.
+     */
+    space.prepend(regions);
+    regions = Address.zero();
   }
 }
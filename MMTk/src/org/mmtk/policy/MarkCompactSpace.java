@@ -50,6 +50,12 @@ import org.vmmagic.pragma.*;
   /** The list of occupied regions */
   private Address regionList = Address.zero();
 
+  /**
+   * The number of collectors that have handed back compacted regions
+   * in the current collection
+   */
+  private int compactingCollectors;
+
   // TODO - maintain a separate list of partially allocated regions
   // for threads to allocate into immediately after a collection.
 
@@ -84,6 +90,7 @@ import org.vmmagic.pragma.*;
    * Prepare for a collection
    */
   public void prepare() {
+    compactingCollectors = 0;
   }
 
   /**
@@ -350,6 +357,41 @@ import org.vmmagic.pragma.*;
     lock.release();
   }
 
+  /**
+   * Link a list of regions onto the front of the global list.  The
+   * list is walked to its tail before the lock is taken, so the time
+   * spent holding the lock does not grow with the size of the global
+   * list.
+   *
+   * @param list the first region of the list to add
+   */
+  public void prepend(Address list) {
+    if (list.isZero()) return;
+    Address tail = list;
+    while (!BumpPointer.getNextRegion(tail).isZero()) {
+      tail = BumpPointer.getNextRegion(tail);
+    }
+    lock.acquire();
+    if (MarkCompactCollector.VERBOSE) {
+      Log.write("Prepending regions "); Log.write(list);
+      Log.write(".."); Log.write(tail);
+      Log.writeln(" to global list");
+    }
+    BumpPointer.setNextRegion(tail, regionList);
+    regionList = list;
+    compactingCollectors++;
+    lock.release();
+  }
+
+  /**
+   * @return the number of collectors that compacted at least one region
+   *   in the last collection.  Used by the harness to check that the
+   *   regions are spread across the collectors.
+   */
+  public int getCompactingCollectors() {
+    return compactingCollectors;
+  }
+
   public static void appendRegion(Address listHead, Address region) {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(!listHead.isZero());
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(!region.isZero());
@@ -190,6 +190,14 @@ public final class ImmixSpace extends Space {
     defrag.decideWhetherToDefrag(emergencyCollection, collectWholeHeap, collectionAttempt, userTriggeredCollection, exhaustedReusableSpace);
   }
 
+  /**
+   * @return whether the collection being set up by
+   * {@link #decideWhetherToDefrag} will defragment
+   */
+  public boolean decidedToDefrag() {
+    return defrag.inDefrag();
+  }
+
   /**
    * Return the amount of headroom required to allow defrag, so this can be included in a collection reserve.
    *
@@ -393,6 +401,22 @@ public final class ImmixSpace extends Space {
     if (VM.VERIFY_ASSERTIONS && HeaderByte.NEEDS_UNLOGGED_BIT) VM.assertions._assert(HeaderByte.isUnlogged(object));
   }
 
+  /**
+   * Perform post allocation initialization for an object allocated while a
+   * concurrent collection is marking.  The object is allocated black: it is
+   * marked and its lines are marked, so that the collection retains it
+   * without tracing it.
+   *
+   * @param object the object ref to the storage to be initialized
+   * @param bytes size of the allocated object in bytes
+   */
+  @Inline
+  public void postAllocMarked(ObjectReference object, int bytes) {
+    postAlloc(object, bytes);
+    ObjectHeader.testAndMarkAtomically(object, markState);
+    markLines(object);
+  }
+
   /****************************************************************************
    *
    * Object tracing
@@ -441,6 +465,31 @@ public final class ImmixSpace extends Space {
     return object;
   }
 
+  /**
+   * Trace a reference to an object while mutators may be running, as a
+   * concurrent collection does.  Objects are marked atomically and never
+   * moved.  Lines are marked as for the fast trace.
+   *
+   * @param trace The trace performing the transitive closure
+   * @param object The object to be traced.
+   * @return The object (there is no object forwarding in this
+   * trace method, so we always return the same object: this could be a
+   * void method but for compliance to a more general interface).
+   */
+  @Inline
+  public ObjectReference concurrentTraceObject(TransitiveClosure trace, ObjectReference object) {
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(defrag.determined(false));
+    byte markValue = markState;
+    byte oldMarkState = ObjectHeader.testAndMarkAtomically(object, markValue);
+    if (oldMarkState != markValue) {
+      if (!MARK_LINE_AT_SCAN_TIME)
+        markLines(object);
+      trace.processNode(object);
+    }
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(!ForwardingWord.isForwardedOrBeingForwarded(object));
+    return object;
+  }
+
   /**
    * Trace a reference to an object during a nursery collection for
    * a sticky mark bits implementation of immix.  If the object header
@@ -18,6 +18,7 @@ import org.mmtk.vm.VM;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.ObjectReference;
+import org.vmmagic.unboxed.Word;
 
 @Uninterruptible
 public class ObjectHeader {
@@ -81,6 +82,28 @@ public class ObjectHeader {
     return oldMarkState;
   }
 
+  /**
+   * Atomically test and set the mark bits of an object.  This is required
+   * while mutators run, since they may update other bits of the header.
+   *
+   * @param object The object whose mark bits are to be written
+   * @param markState The value to which the mark bits will be set
+   * @return the old mark state
+   */
+  static byte testAndMarkAtomically(ObjectReference object, byte markState) {
+    Word oldValue, newValue;
+    byte oldMarkState;
+    do {
+      oldValue = VM.objectModel.prepareAvailableBits(object);
+      oldMarkState = (byte) (oldValue.toInt() & MARK_MASK);
+      if (oldMarkState == markState) return oldMarkState;
+      newValue = oldValue.and(Word.fromIntZeroExtend(MARK_MASK & 0xFF).not()).or(Word.fromIntZeroExtend(markState & 0xFF));
+      if (HeaderByte.NEEDS_UNLOGGED_BIT)
+        newValue = newValue.or(Word.fromIntZeroExtend(HeaderByte.UNLOGGED_BIT & 0xFF));
+    } while (!VM.objectModel.attemptAvailableBits(object, oldValue, newValue));
+    return oldMarkState;
+  }
+
   static void setMarkStateUnlogAndUnlock(ObjectReference object, byte gcByte, byte markState) {
     byte oldGCByte = gcByte;
     byte newGCByte = (byte) ((oldGCByte & ~MARK_AND_FORWARDING_MASK) | markState);
@@ -14,9 +14,11 @@ package org.mmtk.utility.deque;
 
 import static org.mmtk.utility.Constants.*;
 
+import org.mmtk.plan.CollectorContext;
 import org.mmtk.policy.RawPageSpace;
 import org.mmtk.policy.Space;
 import org.mmtk.utility.Log;
+import org.mmtk.utility.statistics.EventCounter;
 import org.mmtk.vm.Lock;
 import org.mmtk.vm.VM;
 import org.vmmagic.pragma.Entrypoint;
@@ -28,7 +30,14 @@ import org.vmmagic.unboxed.Offset;
 /**
  * This supports <i>unsynchronized</i> enqueuing and dequeuing of buffers
  * for shared use.  The data can be added to and removed from either end
- * of the deque.
+ * of the deque.<p>
+ *
+ * A work-stealing shared deque additionally gives each parallel collector
+ * worker a {@link WorkStealingDeque}.  Buffers enqueued by a worker go to
+ * its own deque and are dequeued from there without taking the lock.  A
+ * worker that runs out of buffers tries the lock-protected list and then
+ * steals from the other workers.  Processing is complete when all
+ * consumers wait and no buffer is left to steal.
  */
 @Uninterruptible
 public class SharedDeque extends Deque {
@@ -40,6 +49,14 @@ public class SharedDeque extends Deque {
   private static final boolean TRACE_DETAIL = false;
   private static final boolean TRACE_BLOCKERS = false;
 
+  /** The number of workers that get a work-stealing deque */
+  private static final int MAX_STEALING_WORKERS = 64;
+
+  /** Statistics of all work-stealing shared deques */
+  private static final EventCounter stealAttempts = new EventCounter("stealAttempts");
+  private static final EventCounter steals = new EventCounter("steals");
+  private static final EventCounter idleTime = new EventCounter("idleTimeUs");
+
   /****************************************************************************
    *
    * Public instance methods
@@ -51,6 +68,17 @@ public class SharedDeque extends Deque {
    * @param arity the arity (number of words per entry) of this queue
    */
   public SharedDeque(String name, RawPageSpace rps, int arity) {
+    this(name, rps, arity, false);
+  }
+
+  /**
+   * @param name the queue's human-readable name
+   * @param rps the space to get pages from
+   * @param arity the arity (number of words per entry) of this queue
+   * @param workStealing whether parallel collector workers get their
+   *  own work-stealing deques
+   */
+  public SharedDeque(String name, RawPageSpace rps, int arity, boolean workStealing) {
     this.rps = rps;
     this.arity = arity;
     this.name = name;
@@ -58,6 +86,14 @@ public class SharedDeque extends Deque {
     clearCompletionFlag();
     head = HEAD_INITIAL_VALUE;
     tail = TAIL_INITIAL_VALUE;
+    if (workStealing) {
+      workers = new WorkStealingDeque[MAX_STEALING_WORKERS];
+      for (int i = 0; i < workers.length; i++) {
+        workers[i] = new WorkStealingDeque(this);
+      }
+    } else {
+      workers = null;
+    }
   }
 
   /** @return the arity (words per entry) of this queue */
@@ -75,6 +111,10 @@ public class SharedDeque extends Deque {
    */
   final void enqueue(Address buf, int arity, boolean toTail) {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(arity == this.arity);
+    if (workers != null) {
+      WorkStealingDeque deque = workerDeque();
+      if (deque != null && deque.push(buf)) return;
+    }
     lock();
     if (toTail) {
       // Add to the tail of the queue
@@ -116,6 +156,7 @@ public class SharedDeque extends Deque {
 
   final Address dequeue(int arity, boolean fromTail) {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(arity == this.arity);
+    if (workers != null) return dequeueStealing(false, fromTail);
     return dequeue(false, fromTail);
   }
 
@@ -126,6 +167,7 @@ public class SharedDeque extends Deque {
 
   final Address dequeueAndWait(int arity, boolean fromTail) {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(arity == this.arity);
+    if (workers != null) return dequeueStealing(!complete(), fromTail);
     Address buf = dequeue(false, fromTail);
     if (buf.isZero() && (!complete())) {
       buf = dequeue(true, fromTail);  // Wait inside dequeue
@@ -136,10 +178,11 @@ public class SharedDeque extends Deque {
   /**
    * Prepare for parallel processing. All active GC threads will
    * participate, and pop operations will block until all work
-   * is complete.
+   * is complete.  Waiting is always enabled for work-stealing deques,
+   * where waiting consumers steal from the others.
    */
   public final void prepare() {
-    if (DISABLE_WAITING) {
+    if (DISABLE_WAITING && workers == null) {
       prepareNonBlocking();
     } else {
       /* This should be the normal mode of operation once performance is fixed */
@@ -164,6 +207,10 @@ public class SharedDeque extends Deque {
   private void prepare(int consumers) {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(numConsumersWaiting == 0);
     setNumConsumers(consumers);
+    if (workers != null) {
+      int count = VM.activePlan.collector().parallelWorkerCount();
+      activeWorkers = (count < workers.length) ? count : workers.length;
+    }
     clearCompletionFlag();
   }
 
@@ -172,10 +219,20 @@ public class SharedDeque extends Deque {
     clearCompletionFlag();
     setNumConsumersWaiting(0);
     assertExhausted();
+    if (workers != null) {
+      for (WorkStealingDeque deque : workers) {
+        stealAttempts.inc(deque.getStealAttempts());
+        steals.inc(deque.getSteals());
+        idleTime.inc((int) (deque.getIdleNanos() / 1000));
+        deque.resetStatistics();
+        deque.release();
+      }
+    }
   }
 
   public final void assertExhausted() {
     if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(head.isZero() && tail.isZero());
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(workerBuffers() == 0);
   }
 
   @Inline
@@ -197,7 +254,7 @@ public class SharedDeque extends Deque {
 
   @Inline
   public final int enqueuedPages() {
-    return bufsenqueued * PAGES_PER_BUFFER;
+    return (bufsenqueued + workerBuffers()) * PAGES_PER_BUFFER;
   }
 
   /****************************************************************************
@@ -237,6 +294,15 @@ public class SharedDeque extends Deque {
   private volatile int bufsenqueued;
   private final Lock lock;
 
+  /** Work-stealing deques indexed by worker ordinal, or null */
+  private final WorkStealingDeque[] workers;
+
+  /**
+   * The number of work-stealing deques that belong to the workers of the
+   * collector group that prepared this deque.  Only these are stolen from.
+   */
+  private int activeWorkers = 1;
+
   private static final long WARN_PERIOD = (long)(2 * 1E9);
   private static final long TIMEOUT_PERIOD = 10 * WARN_PERIOD;
 
@@ -324,6 +390,170 @@ public class SharedDeque extends Deque {
     return rtn;
   }
 
+  /**
+   * @return the work-stealing deque of the current collector worker, or
+   * null if the current thread has none.  A worker claims the deque for
+   * its ordinal on first use; a worker of another collector group with
+   * the same ordinal uses the shared list instead.
+   */
+  @Inline
+  private WorkStealingDeque workerDeque() {
+    if (VM.activePlan.isMutator()) return null;
+    CollectorContext collector = VM.activePlan.collector();
+    int ordinal = collector.parallelWorkerOrdinal();
+    if (ordinal >= workers.length) return null;
+    WorkStealingDeque deque = workers[ordinal];
+    if (!deque.isOwnedBy(collector)) {
+      if (deque.isOwned()) return null;
+      lock();
+      if (!deque.isOwned()) deque.claim(collector);
+      unlock();
+      if (!deque.isOwnedBy(collector)) return null;
+    }
+    return deque;
+  }
+
+  /**
+   * Dequeue a block from the own work-stealing deque, the shared list or
+   * another worker's deque.  If 'waiting' is true and no block is found,
+   * keep trying to steal until all other consumers join us.
+   *
+   * @param waiting whether to wait to dequeue a block if none is present
+   * @param fromTail whether to dequeue from the tail of the shared list
+   * @return the Address of the block
+   */
+  private Address dequeueStealing(boolean waiting, boolean fromTail) {
+    WorkStealingDeque deque = workerDeque();
+    Address buf = (deque == null) ? Address.zero() : deque.pop();
+    if (buf.isZero()) buf = dequeue(false, fromTail);
+    if (buf.isZero()) buf = steal(deque, false);
+    if (buf.isZero() && waiting) buf = waitAndSteal(deque, fromTail);
+    return buf;
+  }
+
+  /**
+   * Try once to steal a block from each other active worker.
+   *
+   * @param thief the work-stealing deque of the current worker, or null
+   * @param waiting whether the current worker is counted as waiting
+   * @return the Address of the stolen block, or zero
+   */
+  private Address steal(WorkStealingDeque thief, boolean waiting) {
+    int active = activeWorkers;
+    int start = (thief == null) ? 0 : VM.activePlan.collector().parallelWorkerOrdinal() + 1;
+    for (int i = 0; i < active; i++) {
+      WorkStealingDeque victim = workers[(start + i) % active];
+      if (victim == thief || victim.size() == 0) continue;
+      if (waiting) leaveWaiting();
+      Address buf = victim.steal();
+      if (thief != null) thief.recordSteal(!buf.isZero());
+      if (!buf.isZero()) return buf;
+      if (waiting) joinWaiting();
+    }
+    return Address.zero();
+  }
+
+  @Inline
+  private void joinWaiting() {
+    lock();
+    setNumConsumersWaiting(numConsumersWaiting + 1);
+    unlock();
+  }
+
+  @Inline
+  private void leaveWaiting() {
+    lock();
+    setNumConsumersWaiting(numConsumersWaiting - 1);
+    unlock();
+  }
+
+  /**
+   * Join the waiting consumers and steal until a block shows up or all
+   * consumers wait with nothing left to steal.  A consumer leaves the
+   * waiting consumers before it takes a block and rejoins them if it
+   * finds none, so it is never counted as waiting while it holds a block
+   * and completion cannot be signalled while work is in flight.<p>
+   *
+   * Like {@link #spinWait(boolean)}, this polls against the cycle counter
+   * and only consults nanoTime, under the lock, to warn about and time out
+   * long waits.
+   *
+   * @param thief the work-stealing deque of the current worker, or null
+   * @param fromTail whether to dequeue from the tail of the shared list
+   * @return the Address of the block, or zero if processing is complete
+   */
+  private Address waitAndSteal(WorkStealingDeque thief, boolean fromTail) {
+    long idleStartNano = (thief == null) ? 0 : VM.statistics.nanoTime();
+    joinWaiting();
+    Address buf = Address.zero();
+    long startNano = 0;
+    long lastElapsedNano = 0;
+    while (true) {
+      long startCycles = VM.statistics.cycles();
+      long endCycles = startCycles + ((long) 1e9); // a few hundred milliseconds more or less.
+      long nowCycles;
+      do {
+        VM.memory.isync();
+        if (!((fromTail) ? tail : head).isZero()) {
+          leaveWaiting();
+          buf = dequeue(false, fromTail);
+          if (!buf.isZero()) break;
+          joinWaiting();
+        }
+        buf = steal(thief, true);
+        if (!buf.isZero() || complete()) break;
+        if (numConsumersWaiting == numConsumers) {
+          lock();
+          if (numConsumersWaiting == numConsumers && head.isZero() && workerBuffers() == 0)
+            setCompletionFlag();
+          unlock();
+        }
+        nowCycles = VM.statistics.cycles();
+      } while (startCycles < nowCycles && nowCycles < endCycles); /* check against both ends to guard against CPU migration */
+      if (!buf.isZero() || complete()) break;
+
+      /*
+       * According to the cycle counter, we've been stealing for a while.
+       * Time to check nanoTime and see if we should print a warning and/or fail.
+       */
+      lock();
+      if (startNano == 0) {
+        startNano = VM.statistics.nanoTime();
+      } else {
+        long elapsedNano = VM.statistics.nanoTime() - startNano;
+        if (elapsedNano - lastElapsedNano > WARN_PERIOD) {
+          Log.write("GC Warning: SharedDeque("); Log.write(name);
+          Log.write(") steal has reached "); Log.write(VM.statistics.nanosToSecs(elapsedNano));
+          Log.write(", "); Log.write(numConsumersWaiting); Log.write("/");
+          Log.write(numConsumers); Log.writeln(" threads waiting");
+          lastElapsedNano = elapsedNano;
+        }
+        if (elapsedNano > TIMEOUT_PERIOD) {
+          unlock();   // To allow other GC threads to die in turn
+          VM.assertions.fail("GC Error: SharedDeque Timeout");
+        }
+      }
+      unlock();
+    }
+    /* A consumer that found a block has already left the waiting consumers */
+    if (buf.isZero()) leaveWaiting();
+    if (thief != null) thief.recordIdle(VM.statistics.nanoTime() - idleStartNano);
+    return buf;
+  }
+
+  /**
+   * @return the number of blocks in the work-stealing deques.  Only a
+   * snapshot unless all workers are quiescent.
+   */
+  private int workerBuffers() {
+    if (workers == null) return 0;
+    int buffers = 0;
+    for (WorkStealingDeque deque : workers) {
+      buffers += deque.size();
+    }
+    return buffers;
+  }
+
   /**
    * Spinwait for GC work to arrive
    *
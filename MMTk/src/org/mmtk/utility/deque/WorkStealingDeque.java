@@ -0,0 +1,286 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.utility.deque;
+
+import static org.mmtk.utility.Constants.*;
+
+import org.mmtk.plan.CollectorContext;
+import org.mmtk.vm.VM;
+import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+import org.vmmagic.unboxed.Offset;
+
+/**
+ * A Chase-Lev style work-stealing deque of buffers that belongs to one
+ * parallel collector worker of a {@link SharedDeque}.<p>
+ *
+ * The owner pushes and pops buffers at the bottom of the deque without
+ * taking a lock.  Other workers steal buffers from the top, racing with
+ * each other and with the owner for the last buffer by a compare-and-swap
+ * on the top index.<p>
+ *
+ * The indices and the slots live in a single page acquired from the
+ * shared deque's raw page space when the owner first pushes a buffer.
+ * The deque does not grow: {@link #push(Address)} fails when the deque
+ * is full and the caller falls back to the lock-protected list of the
+ * shared deque.
+ */
+@Uninterruptible
+public final class WorkStealingDeque {
+
+  /****************************************************************************
+   *
+   * Class variables
+   */
+
+  /** Offset of the top index (the next slot to steal from) */
+  private static final Offset TOP_OFFSET = Offset.zero();
+
+  /** Offset of the bottom index (the next free slot of the owner) */
+  private static final Offset BOTTOM_OFFSET = Offset.fromIntSignExtend(BYTES_IN_INT);
+
+  /** Offset of the first slot */
+  private static final Offset SLOTS_OFFSET = Offset.fromIntSignExtend(2 * BYTES_IN_INT);
+
+  /** The number of buffers a deque can hold */
+  static final int CAPACITY = (Deque.BUFFER_SIZE - 2 * BYTES_IN_INT) >> LOG_BYTES_IN_ADDRESS;
+
+  /****************************************************************************
+   *
+   * Instance variables
+   */
+
+  /** The shared deque this deque belongs to */
+  private final SharedDeque queue;
+
+  /** The collector context that owns this deque, or null if unclaimed */
+  private CollectorContext owner;
+
+  /** The page holding the indices and slots, or zero if none is allocated */
+  private volatile Address storage = Address.zero();
+
+  /** The number of steals the owner attempted */
+  private int stealAttempts;
+
+  /** The number of steals of the owner that returned a buffer */
+  private int steals;
+
+  /** The time the owner spent waiting for work, in nanoseconds */
+  private long idleNanos;
+
+  /****************************************************************************
+   *
+   * Initialization
+   */
+
+  /**
+   * @param queue the shared deque this deque belongs to
+   */
+  WorkStealingDeque(SharedDeque queue) {
+    this.queue = queue;
+  }
+
+  /****************************************************************************
+   *
+   * Ownership
+   */
+
+  /**
+   * @param context a collector context
+   * @return whether the given context owns this deque
+   */
+  @Inline
+  boolean isOwnedBy(CollectorContext context) {
+    return owner == context;
+  }
+
+  /**
+   * @return whether some collector context owns this deque
+   */
+  @Inline
+  boolean isOwned() {
+    return owner != null;
+  }
+
+  /**
+   * Make the given context the owner of this deque.  The caller must hold
+   * the lock of the shared deque.
+   *
+   * @param context the new owner
+   */
+  void claim(CollectorContext context) {
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(owner == null);
+    owner = context;
+  }
+
+  /**
+   * Give up ownership and return the storage to the shared deque.  Must
+   * only be called while no other thread uses this deque.
+   */
+  void release() {
+    if (VM.VERIFY_ASSERTIONS) VM.assertions._assert(size() == 0);
+    if (!storage.isZero()) {
+      queue.free(storage);
+      storage = Address.zero();
+    }
+    owner = null;
+  }
+
+  /****************************************************************************
+   *
+   * Deque operations
+   */
+
+  /**
+   * Push a buffer onto the bottom of the deque.  Must only be called by
+   * the owner.
+   *
+   * @param buf the buffer to push
+   * @return {@code false} if the deque is full
+   */
+  boolean push(Address buf) {
+    Address s = storage;
+    if (s.isZero()) {
+      s = queue.alloc();
+      s.store(0, TOP_OFFSET);
+      s.store(0, BOTTOM_OFFSET);
+      VM.memory.sync();
+      storage = s;
+    }
+    int b = s.loadInt(BOTTOM_OFFSET);
+    int t = s.loadInt(TOP_OFFSET);
+    if (b - t >= CAPACITY) return false;
+    s.store(buf, slot(b));
+    VM.memory.sync();
+    s.store(b + 1, BOTTOM_OFFSET);
+    return true;
+  }
+
+  /**
+   * Pop the most recently pushed buffer from the bottom of the deque.
+   * Must only be called by the owner.
+   *
+   * @return the buffer, or zero if the deque is empty
+   */
+  Address pop() {
+    Address s = storage;
+    if (s.isZero()) return Address.zero();
+    int b = s.loadInt(BOTTOM_OFFSET) - 1;
+    if (s.loadInt(TOP_OFFSET) > b) return Address.zero();
+    /* Publish the claim on slot b before reading top; the
+       compare-and-swap doubles as a full fence */
+    s.prepareInt(BOTTOM_OFFSET);
+    s.attempt(b + 1, b, BOTTOM_OFFSET);
+    VM.memory.sync();
+    int t = s.prepareInt(TOP_OFFSET);
+    if (t > b) {
+      // A thief took the last buffer
+      s.store(b + 1, BOTTOM_OFFSET);
+      return Address.zero();
+    }
+    Address buf = s.loadAddress(slot(b));
+    if (t == b) {
+      // Last buffer: race the thieves for it
+      if (!s.attempt(t, t + 1, TOP_OFFSET)) {
+        buf = Address.zero();
+      }
+      s.store(b + 1, BOTTOM_OFFSET);
+    }
+    return buf;
+  }
+
+  /**
+   * Steal the least recently pushed buffer from the top of the deque.
+   * Called by workers other than the owner.
+   *
+   * @return the buffer, or zero if the deque is empty or the steal lost a race
+   */
+  Address steal() {
+    Address s = storage;
+    if (s.isZero()) return Address.zero();
+    int t = s.prepareInt(TOP_OFFSET);
+    VM.memory.sync();
+    int b = s.loadInt(BOTTOM_OFFSET);
+    if (t >= b) return Address.zero();
+    Address buf = s.loadAddress(slot(t));
+    if (!s.attempt(t, t + 1, TOP_OFFSET)) return Address.zero();
+    return buf;
+  }
+
+  /**
+   * @return the number of buffers in the deque.  Only a snapshot unless
+   * all workers are quiescent.
+   */
+  int size() {
+    Address s = storage;
+    if (s.isZero()) return 0;
+    int size = s.loadInt(BOTTOM_OFFSET) - s.loadInt(TOP_OFFSET);
+    return size < 0 ? 0 : size;
+  }
+
+  /**
+   * @param index a top or bottom index
+   * @return the offset of the slot for the index
+   */
+  @Inline
+  private static Offset slot(int index) {
+    return SLOTS_OFFSET.plus((index % CAPACITY) << LOG_BYTES_IN_ADDRESS);
+  }
+
+  /****************************************************************************
+   *
+   * Statistics, maintained by the owner
+   */
+
+  /**
+   * Record a steal attempt of the owner.
+   *
+   * @param success whether the attempt returned a buffer
+   */
+  @Inline
+  void recordSteal(boolean success) {
+    stealAttempts++;
+    if (success) steals++;
+  }
+
+  /**
+   * @param nanos time the owner spent waiting for work
+   */
+  @Inline
+  void recordIdle(long nanos) {
+    idleNanos += nanos;
+  }
+
+  /** @return the number of steals the owner attempted since the last reset */
+  int getStealAttempts() {
+    return stealAttempts;
+  }
+
+  /** @return the number of successful steals of the owner since the last reset */
+  int getSteals() {
+    return steals;
+  }
+
+  /** @return the time the owner spent waiting for work since the last reset */
+  long getIdleNanos() {
+    return idleNanos;
+  }
+
+  /** Reset the statistics */
+  void resetStatistics() {
+    stealAttempts = 0;
+    steals = 0;
+    idleNanos = 0;
+  }
+}
@@ -43,4 +43,17 @@ public abstract class FinalizableProcessor {
    *  last scan. Otherwise, scan all references.
    */
   public abstract void forward(TraceLocal trace, boolean nursery);
+
+  /**
+   * Whether all collector threads take part in {@link #scan} and
+   * {@link #forward}. A parallel implementation must split the entries
+   * among the threads and synchronize them itself.
+   *
+   * @return {@code true} if all collector threads call {@link #scan} and
+   *  {@link #forward}, {@code false} if only the primary collector thread
+   *  calls them
+   */
+  public boolean isParallel() {
+    return false;
+  }
 }
@@ -48,6 +48,19 @@ public abstract class ReferenceProcessor {
    */
   public abstract void forward(TraceLocal trace, boolean nursery);
 
+  /**
+   * Whether all collector threads take part in {@link #scan} and
+   * {@link #forward}. A parallel implementation must split the references
+   * among the threads and synchronize them itself.
+   *
+   * @return {@code true} if all collector threads call {@link #scan} and
+   *  {@link #forward}, {@code false} if only the primary collector thread
+   *  calls them
+   */
+  public boolean isParallel() {
+    return false;
+  }
+
   /**
    * @return the number of references objects on the queue
    */
@@ -47,12 +47,33 @@ public final class AosEntrypoints {
       getField(org.jikesrvm.compilers.opt.specialization.SpecializedMethodPool.class,
                "specializedMethods",
                org.jikesrvm.compilers.common.CodeArray[].class);
-  public static final RVMField paramListenerSamplesLeftToTakeField =
-      getField(org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener.class, "samplesLeftToTake", int.class);
-  public static final RVMField paramListenerParamField =
-      getField(org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener.class, "nextParamIndex", int.class);
-  public static final RVMField activeUpdateCallsField =
-      getField(org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener.class, "activeUpdateCalls", int.class);
+  public static final RVMField specializationGuardHitCountsField =
+      getField(org.jikesrvm.compilers.opt.specialization.GuardHitCounters.class, "counts", int[].class);
+  public static final RVMField parameterProbesCountdownField =
+      getField(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "countdown", int.class);
+  public static final RVMField parameterProbesResetValueField =
+      getField(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "resetValue", int.class);
+  public static final NormalMethod parameterProbesStartSampleMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "startSample",
+                "(II)V");
+  public static final NormalMethod parameterProbesRecordIntLikeMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "recordIntLikeParameter",
+                "(III)V");
+  public static final NormalMethod parameterProbesRecordLongMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "recordLongParameter",
+                "(IJ)V");
+  public static final NormalMethod parameterProbesRecordFloatMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "recordFloatParameter",
+                "(IF)V");
+  public static final NormalMethod parameterProbesRecordDoubleMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "recordDoubleParameter",
+                "(ID)V");
+  public static final NormalMethod parameterProbesRecordObjectMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "recordObjectParameter",
+                "(IILjava/lang/Object;)V");
+  public static final NormalMethod parameterProbesCommitSampleMethod =
+      getMethod(org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes.class, "commitSample",
+                "()V");
 
   private AosEntrypoints() {
     // prevent instantiation
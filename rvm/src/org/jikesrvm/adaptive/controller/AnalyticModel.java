@@ -298,7 +298,17 @@ abstract class AnalyticModel extends RecompilationStrategy {
    * @return estimate of future execution time to be spent in this method
    */
   double futureTimeForMethod(HotMethodEvent hme) {
-    double numSamples = hme.getNumSamples();
+    return futureTimeForSamples(hme.getNumSamples());
+  }
+
+  /**
+   * How much time do we expect to spend in a method in the future, given
+   * the number of method samples that were taken for it so far?
+   *
+   * @param numSamples the number of samples for the method
+   * @return estimate of future execution time to be spent in the method
+   */
+  static double futureTimeForSamples(double numSamples) {
     double timePerSample = VM.interruptQuantum;
     if (!VM.UseEpilogueYieldPoints) {
       // NOTE: we take two samples per timer interrupt, so we have to
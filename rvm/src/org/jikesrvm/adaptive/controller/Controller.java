@@ -89,6 +89,12 @@ public class Controller implements Callbacks.ExitMonitor,
    */
   public static CompilationThread compilationThread = null;
 
+  /**
+   * Thread that compiles specialized versions of methods in the background
+   * (the controller thread sets this field when it creates the thread.)
+   */
+  public static CompilationThread specializationCompilationThread = null;
+
   /**
    * Thread collecting osr request and pass it to controllerThread
    */
@@ -113,6 +119,12 @@ public class Controller implements Callbacks.ExitMonitor,
    */
   public static BlockingPriorityQueue compilationQueue;
 
+  /**
+   * A blocking priority queue where specialized versions of methods
+   * are placed to be compiled in the background
+   */
+  public static BlockingPriorityQueue specializationCompilationQueue;
+
   /**
    * The strategy used to make recompilation decisions
    */
@@ -165,6 +177,8 @@ public class Controller implements Callbacks.ExitMonitor,
 
     compilationQueue = new BlockingPriorityQueue();
 
+    specializationCompilationQueue = new BlockingPriorityQueue();
+
     // Create the analytic model used to make cost/benefit decisions.
     recompilationStrategy = new MultiLevelAdaptiveModel();
 
@@ -56,6 +56,13 @@ public final class ControllerMemory {
   private static int numOpt3 = 0;
   private static int numOpt4 = 0;
 
+  // statistics about the time that plans wait in the compilation queue,
+  // guarded by the lock on queueLatencyLock
+  private static final Object queueLatencyLock = new Object();
+  private static int numQueuedPlansStarted = 0;
+  private static long totalQueueLatency = 0;
+  private static long maxQueueLatency = 0;
+
   public static int getNumAwoken() {
     return awoken;
   }
@@ -96,6 +103,48 @@ public final class ControllerMemory {
     return numOpt4;
   }
 
+  /**
+   * Records how long a plan waited in the compilation queue before a
+   * compilation thread started it.
+   *
+   * @param latency the time in nanoseconds
+   */
+  static void recordQueueLatency(long latency) {
+    synchronized (queueLatencyLock) {
+      numQueuedPlansStarted++;
+      totalQueueLatency += latency;
+      if (latency > maxQueueLatency) {
+        maxQueueLatency = latency;
+      }
+    }
+  }
+
+  public static int getNumQueuedPlansStarted() {
+    synchronized (queueLatencyLock) {
+      return numQueuedPlansStarted;
+    }
+  }
+
+  /**
+   * @return the average time in nanoseconds that the started plans
+   *  waited in the compilation queue
+   */
+  public static long getAverageQueueLatency() {
+    synchronized (queueLatencyLock) {
+      return numQueuedPlansStarted == 0 ? 0 : totalQueueLatency / numQueuedPlansStarted;
+    }
+  }
+
+  /**
+   * @return the maximum time in nanoseconds that a plan waited in the
+   *  compilation queue
+   */
+  public static long getMaxQueueLatency() {
+    synchronized (queueLatencyLock) {
+      return maxQueueLatency;
+    }
+  }
+
   static void incrementNumAwoken() {
     awoken++;
   }
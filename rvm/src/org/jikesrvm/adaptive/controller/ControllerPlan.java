@@ -20,6 +20,7 @@ import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
 import org.jikesrvm.compilers.common.RuntimeCompiler;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
+import org.jikesrvm.runtime.Time;
 
 /**
  * An instance of this class describes a compilation decision made by
@@ -82,6 +83,18 @@ public final class ControllerPlan {
    */
   private int timeCompleted = -1;
 
+  /**
+   *  The value of {@link Time#nanoTime()} when this plan was inserted into
+   *  the compilation queue or -1 if the plan was not queued
+   */
+  private long timeQueued = -1;
+
+  /**
+   *  How long this plan waited in the compilation queue (in nanoseconds)
+   *  or -1 if the plan was not queued
+   */
+  private long queueLatency = -1;
+
   /**
    *  The speedup we were expecting
    */
@@ -151,6 +164,7 @@ public final class ControllerPlan {
     if (Controller.options
         .BACKGROUND_RECOMPILATION ||
                                   getCompPlan().getMethod().getDeclaringClass().isInBootImage()) {
+      timeQueued = Time.nanoTime();
       Controller.compilationQueue.insert(getPriority(), this);
       AOSLogging.logger.recompilationScheduled(getCompPlan(), getPriority());
       return true;
@@ -177,7 +191,11 @@ public final class ControllerPlan {
     CompilationPlan cp = getCompPlan();
 
     setTimeInitiated(Controller.controllerClock);
-    AOSLogging.logger.recompilationStarted(cp);
+    if (timeQueued != -1) {
+      queueLatency = Time.nanoTime() - timeQueued;
+      ControllerMemory.recordQueueLatency(queueLatency);
+    }
+    AOSLogging.logger.recompilationStarted(cp, queueLatency);
 
     if (cp.options.PRINT_METHOD) {
       VM.sysWrite("-oc:O" + cp.options.getOptLevel() + " \n");
@@ -257,6 +275,14 @@ public final class ControllerPlan {
     return timeCreated;
   }
 
+  /**
+   * @return how long this plan waited in the compilation queue (in
+   *  nanoseconds) or -1 if the plan was not queued or has not been started
+   */
+  public long getQueueLatency() {
+    return queueLatency;
+  }
+
   /**
    * @return the time (according to the controller clock) compilation of this plan
    * began.
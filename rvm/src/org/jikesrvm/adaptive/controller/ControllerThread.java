@@ -24,6 +24,7 @@ import org.jikesrvm.adaptive.measurements.listeners.YieldCounterListener;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener;
 import org.jikesrvm.adaptive.measurements.organizers.AccumulatingMethodSampleOrganizer;
 import org.jikesrvm.adaptive.measurements.organizers.DecayOrganizer;
+import org.jikesrvm.adaptive.measurements.organizers.DespecializationOrganizer;
 import org.jikesrvm.adaptive.measurements.organizers.DynamicCallGraphOrganizer;
 import org.jikesrvm.adaptive.measurements.organizers.MethodSampleOrganizer;
 import org.jikesrvm.adaptive.measurements.organizers.Organizer;
@@ -35,6 +36,7 @@ import org.jikesrvm.adaptive.recompilation.InvocationCounts;
 import org.jikesrvm.adaptive.util.AOSGenerator;
 import org.jikesrvm.adaptive.util.AOSLogging;
 import org.jikesrvm.adaptive.util.AOSOptions;
+import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
 import org.jikesrvm.runtime.Callbacks;
 import org.jikesrvm.scheduler.SoftLatch;
 import org.jikesrvm.scheduler.SystemThread;
@@ -222,11 +224,34 @@ public final class ControllerThread extends SystemThread {
 
   /**
    *  Creates and schedules the compilationThread.
+   *  <p>
+   *  Plans are performed by a single thread because the opt compiler is
+   *  not reentrant: the opt entry points of RuntimeCompiler are
+   *  synchronized, so further threads could not compile in parallel.
    */
   private void createCompilationThread() {
     CompilationThread ct = new CompilationThread();
     Controller.compilationThread = ct;
     ct.start();
+    createSpecializationCompilationThread();
+  }
+
+  /**
+   *  Creates and schedules the thread that compiles specialized versions
+   *  of methods, if they are compiled in the background.
+   *  <p>
+   *  There is only one such thread: the opt compiler is not reentrant, so
+   *  more threads would only wait for each other.
+   */
+  private void createSpecializationCompilationThread() {
+    if (!Controller.options.SPECIALIZATION_BACKGROUND_COMPILATION) {
+      return;
+    }
+    CompilationThread ct = new CompilationThread("SpecializationCompilationThread",
+                                                 Controller.specializationCompilationQueue);
+    Controller.specializationCompilationThread = ct;
+    ct.start();
+    SpecializationDatabase.enableBackgroundCompilation(Controller.specializationCompilationQueue);
   }
 
   /**
@@ -287,6 +312,11 @@ public final class ControllerThread extends SystemThread {
 
         ParameterProfileOrganizer parameterProfileOrganizer = new ParameterProfileOrganizer();
         Controller.organizers.addElement(parameterProfileOrganizer);
+
+        if (opts.DESPECIALIZATION_FREQUENCY > 0) {
+          YieldCounterListener listener = new YieldCounterListener(opts.DESPECIALIZATION_FREQUENCY);
+          Controller.organizers.addElement(new DespecializationOrganizer(listener));
+        }
       } else {
         VM.sysFail("Trying to use parameter profiling for an untested configuration." +
             "Please modify the source code to support your platform");
@@ -0,0 +1,78 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.controller;
+
+import org.jikesrvm.adaptive.recompilation.CompilerDNA;
+import org.jikesrvm.adaptive.util.AOSLogging;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.compilers.common.CompiledMethod;
+
+/**
+ * Applies the cost/benefit model of the {@link AnalyticModel} to the decision
+ * whether a specialized version of a method should be compiled.
+ * <p>
+ * Like a {@link RecompilationChoice}, specializing is worth it if the cost of
+ * the compilation plus the expected future execution time of the method is
+ * lower than the future execution time when doing nothing. The future time
+ * is estimated from the method samples as for recompilation and the
+ * compilation cost is estimated with the {@link CompilerDNA}. The caller
+ * provides the fraction of the execution time that the specialized version
+ * saves.
+ */
+public final class SpecializationCostModel {
+
+  /** Describes specialization in the log of the controller */
+  private static final String CHOICE_DESCRIPTION = "Specialize";
+
+  private SpecializationCostModel() {
+    // prevent instantiation
+  }
+
+  /**
+   * Decides whether it pays off to compile a specialized version of a method.
+   *
+   * @param method the method that would be specialized
+   * @param optLevel the opt level that the specialized version is
+   *  compiled at
+   * @param savedFraction the expected fraction of the future execution time
+   *  of the method that specialization saves. This must already account for
+   *  the guards in the general version of the method and may be negative.
+   * @return {@code true} if the expected benefit of the specialized version
+   *  is greater than its compilation cost
+   */
+  public static boolean isProfitable(NormalMethod method, int optLevel, double savedFraction) {
+    double futureTimeForMethod = futureTimeForMethod(method);
+    int compiler = CompilerDNA.getCompilerConstant(optLevel);
+    double cost = CompilerDNA.estimateCompileTime(compiler, method);
+    double futureTimeSpecialized = futureTimeForMethod * (1.0 - savedFraction);
+
+    AOSLogging.logger.recordControllerEstimateCostDoNothing(method, optLevel, futureTimeForMethod);
+    AOSLogging.logger.recordControllerEstimateCostOpt(method, CHOICE_DESCRIPTION, cost, cost + futureTimeSpecialized);
+
+    return cost + futureTimeSpecialized < futureTimeForMethod;
+  }
+
+  /**
+   * @param method a method
+   * @return the estimated future execution time of the method based on the
+   *  samples for its current compiled version
+   */
+  private static double futureTimeForMethod(NormalMethod method) {
+    CompiledMethod cm = method.getCurrentCompiledMethod();
+    if (cm == null || Controller.methodSamples == null) {
+      return 0.0;
+    }
+    return AnalyticModel.futureTimeForSamples(Controller.methodSamples.getData(cm.getId()));
+  }
+
+}
@@ -22,4 +22,15 @@ public abstract class AbstractParameterInfo {
    */
   public abstract boolean hasTypeInformation();
 
+  /**
+   * Does this instance describe a property of the parameter, e.g. the length
+   * of an array, instead of its type or value?
+   *
+   * @return <code>true</code> if and only if the class is a
+   *    {@link org.jikesrvm.adaptive.parameterprofiling.AbstractParameterProperty AbstractParameterProperty}
+   */
+  public boolean hasPropertyInformation() {
+    return false;
+  }
+
 }
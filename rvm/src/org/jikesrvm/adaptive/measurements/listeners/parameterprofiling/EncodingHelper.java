@@ -127,6 +127,9 @@ public final class EncodingHelper implements ParameterDecoder, ParameterEncoder
       return BYTES_IN_LONG;
     } else if (ref.isShortType()) {
       return BYTES_IN_SHORT;
+    } else if (ref.isArrayType()) {
+      // saved as type id and length, which are ints
+      return 2 * BYTES_IN_INT;
     } else if (ref.isReferenceType()) {
       // saved as type id, which is an int
       return BYTES_IN_INT;
@@ -17,44 +17,45 @@ import static org.jikesrvm.compilers.common.CompiledMethod.BASELINE;
 import static org.jikesrvm.compilers.common.CompiledMethod.JNI;
 import static org.jikesrvm.compilers.common.CompiledMethod.OPT;
 import static org.jikesrvm.compilers.common.CompiledMethod.TRAP;
-import static org.jikesrvm.ia32.StackframeLayoutConstants.INVISIBLE_METHOD_ID;
-import static org.jikesrvm.ia32.StackframeLayoutConstants.STACKFRAME_SENTINEL_FP;
-import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_DOUBLE;
-import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_FLOAT;
 import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_INT;
-import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_LONG;
-import static org.jikesrvm.runtime.UnboxedSizeConstants.BYTES_IN_ADDRESS;
 import static org.jikesrvm.scheduler.RVMThread.BACKEDGE;
 import static org.jikesrvm.scheduler.RVMThread.EPILOGUE;
 import static org.jikesrvm.scheduler.RVMThread.PROLOGUE;
 
 import org.jikesrvm.VM;
-import org.jikesrvm.adaptive.AosEntrypoints;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.measurements.listeners.ContextListener;
+import org.jikesrvm.architecture.StackFrameLayout;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.baseline.BaselineCompiledMethod;
-import org.jikesrvm.compilers.baseline.ia32.BaselineCompilerImpl;
+import org.jikesrvm.compilers.baseline.BaselineFrameAccessor;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
-import org.jikesrvm.ia32.StackframeLayoutConstants;
-import org.jikesrvm.mm.mmtk.Lock;
 import org.jikesrvm.objectmodel.ObjectModel;
 import org.jikesrvm.runtime.Magic;
-import org.jikesrvm.scheduler.Synchronization;
+import org.jikesrvm.runtime.Time;
+import org.jikesrvm.scheduler.RVMThread;
 import org.vmmagic.pragma.Inline;
-import org.vmmagic.pragma.NoCheckStore;
+import org.vmmagic.pragma.Interruptible;
 import org.vmmagic.pragma.Uninterruptible;
 import org.vmmagic.unboxed.Address;
 import org.vmmagic.unboxed.ObjectReference;
-import org.vmmagic.unboxed.Offset;
 
 /**
  * A listener that extracts parameter values from methods on the stack.
  * <p>
+ * Samples are recorded in the {@link ParameterSampleBuffer} of the sampled
+ * thread, so sampling does not need any locks or atomic operations. When a
+ * buffer is full, the listener activates its organizer which collects the
+ * buffers of all threads via {@link #harvestSampleBuffers()}. The listener
+ * stays active while the organizer processes the samples.
+ * <p>
+ * Each sample also records the return address into the caller of the sampled
+ * method so that the organizer can attribute the sample to a call site.
+ * <p>
  * Note that all internal methods are marked with {@link Inline} because listeners
  * are supposed to be as fast as possible.
  */
@@ -63,15 +64,6 @@ public final class ParameterListener extends ContextListener {
 
   private static final boolean DEBUG = false;
 
-  private static final int CAPACITY = 20000;
-
-  /**
-   * The number of samples a listener takes before activating its organizer.
-   */
-  protected static final int SAMPLE_COUNT = 1000;
-
-  private static final Lock indexCalculation = new Lock("Index calculation");
-
   public static final int NO_ENTRY = -1;
 
   /**
@@ -79,35 +71,7 @@ public final class ParameterListener extends ContextListener {
    */
   private static boolean PROFILE_VM_METHODS;
 
-  protected RVMMethod[] methods;
-
-  protected int[] paramStartIndexes;
-
-  private final EncodingHelper encodingHelper;
-
-  /**
-   * The number of samples that this listener will take before activating its
-   * organizer the next time.
-   * <p>
-   * Accessed via {@link AosEntrypoints}.
-   */
-  protected int samplesLeftToTake;
-
-  /**
-   * The number of update calls that are currently active.
-   * <p>
-   * Accessed via {@link AosEntrypoints}.
-   */
-  protected int activeUpdateCalls;
-
-  private static final Lock dumpLock = new Lock("ParameterDumping");
-
-  private static final Lock updateCalls = new Lock("UpdateCalls");
-
-  /**
-   * Accessed via {@link AosEntrypoints}.
-   */
-  protected int nextParamIndex;
+  private final ParameterSampleHarvester harvester;
 
   //TODO consider extracting counters to separate class
 
@@ -139,23 +103,60 @@ public final class ParameterListener extends ContextListener {
 
   protected int skippedSamplesOptEpilogue;
 
-  protected int skippedSamplesOrganizerBusy;
+  /**
+   * The number of samples that were skipped because the buffer of the thread
+   * was full or the thread had not been given a buffer yet.
+   */
+  protected int skippedSamplesBufferFull;
+
+  /**
+   * The number of samples that were skipped because some parameters of the
+   * baseline-compiled method were held in registers instead of the stack frame.
+   */
+  protected int skippedSamplesParametersInRegisters;
 
   protected int takenSamples;
 
+  /**
+   * Should the cycles spent in {@link #update(Address, int)} be measured?
+   * Reading the cycle counter is cheap but not free, so this is only done
+   * when the report of the listener will be printed.
+   */
+  private final boolean measureUpdateCycles;
+
+  /**
+   * The number of cycles spent in {@link #update(Address, int)}. Only
+   * maintained if {@link #measureUpdateCycles} is set.
+   */
+  protected long updateCycles;
+
   public static void enableProfilingOfVMMethods() {
     PROFILE_VM_METHODS = true;
   }
 
+  /**
+   * Should the parameters of the given method be profiled? This applies the
+   * same filters as {@link #update(Address, int)} except for those that need
+   * a stack frame.
+   *
+   * @param m a method
+   * @return {@code true} if the parameters of the method are of interest
+   */
+  public static boolean isProfiledMethod(RVMMethod m) {
+    if (isUninteresting(m) || usesUnboxedTypes(m) || impossibleToSpecialize(m) || isUnsafeToSpecialize(m)) {
+      return false;
+    }
+    boolean isVMMethod = m.getDeclaringClass().getDescriptor().isRVMDescriptor();
+    return !isVMMethod || PROFILE_VM_METHODS;
+  }
+
   /**
    * Constructs a listener that extracts parameter information from methods on
    * the stack.
    */
   public ParameterListener() {
-    encodingHelper = new EncodingHelper(CAPACITY);
-    methods = new RVMMethod[SAMPLE_COUNT];
-    paramStartIndexes = new int[SAMPLE_COUNT];
-    reset();
+    harvester = new ParameterSampleHarvester();
+    measureUpdateCycles = Controller.options.LOGGING_LEVEL >= 1;
   }
 
   /**
@@ -167,6 +168,17 @@ public final class ParameterListener extends ContextListener {
    */
   @Override
   public void update(Address sfp, int whereFrom) {
+    if (measureUpdateCycles) {
+      long start = Time.cycles();
+      takeSample(sfp, whereFrom);
+      updateCycles += Time.cycles() - start;
+    } else {
+      takeSample(sfp, whereFrom);
+    }
+  }
+
+  @Inline
+  private void takeSample(Address sfp, int whereFrom) {
     if (whereFrom == PROLOGUE) {
       prologue++;
     } else if (whereFrom == BACKEDGE) {
@@ -226,80 +238,83 @@ public final class ParameterListener extends ContextListener {
       return;
     }
 
-    BaselineCompiledMethod baselineCompMethod = (BaselineCompiledMethod) compiledMethod;
-    int spaceNeeded = calculateSpaceNeededForParameters(compiledMethod);
-
-    boolean registered = attemptToRegisterUpdateCall();
-    if (!registered) {
+    if (stackEndReached(sfp)) {
+      if (VM.VerifyAssertions) {
+        VM.sysFail("ParameterListener attempted to walk off the stack");
+      }
+      ParameterUtilities.writeForDebuggingLn("ParameterListener attempted to walk off the stack, returning now to cancel attempt");
       skippedSamples++;
-      skippedSamplesOrganizerBusy++;
       return;
     }
 
-    // Need to ensure that all parts of index calculation match. It is unproblematic
-    // if the sample ends up not being taken. This just means that no index will be written
-    // and the "gap" in the indexes will be skipped when the organizer processes the data.
-    indexCalculation.acquire();
-    int paramIndexForThisSample = Synchronization.fetchAndAdd(this, AosEntrypoints.paramListenerParamField.getOffset(),
-        spaceNeeded);
-    int samplesLeft = Synchronization.fetchAndDecrement(this, AosEntrypoints.paramListenerSamplesLeftToTakeField.getOffset(),
-        1);
-    indexCalculation.release();
-
-    int index = SAMPLE_COUNT - samplesLeft;
-    if (noSpaceForParameters(paramIndexForThisSample) || samplesLeft <= 0) {
-      unregisterUpdateCall(true);
-
-      // Must discard this sample because there is no space for its information
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer == null) {
+      // The organizer gives buffers to all threads when it collects samples
       skippedSamples++;
+      skippedSamplesBufferFull++;
+      activateOrganizer();
       return;
     }
 
-    if (stackEndReached(sfp)) {
-      if (VM.VerifyAssertions) {
-        VM.sysFail("ParameterListener attempted to walk off the stack");
-      }
-      ParameterUtilities.writeForDebuggingLn("ParameterListener attempted to walk off the stack, returning now to cancel attempt");
+    BaselineCompiledMethod baselineCompMethod = (BaselineCompiledMethod) compiledMethod;
+    if (!BaselineFrameAccessor.areParametersInMemory(baselineCompMethod)) {
       skippedSamples++;
+      skippedSamplesParametersInRegisters++;
       return;
     }
 
-    dumpLock.acquire();
-
-    storeRVMMethod(compiledMethod.getMethod(), index);
-    paramStartIndexes[index] = paramIndexForThisSample;
-
-    dumpParameters(sfp, baselineCompMethod, paramIndexForThisSample);
-
-    dumpLock.release();
+    int spaceNeeded = calculateSpaceNeededForParameters(compiledMethod);
+    int paramIndexForThisSample = buffer.reserve(spaceNeeded);
+    if (paramIndexForThisSample == NO_ENTRY) {
+      // Must discard this sample because there is no space for its information
+      skippedSamples++;
+      skippedSamplesBufferFull++;
+      if (buffer.requestHarvest()) {
+        activateOrganizer();
+      }
+      return;
+    }
 
-    unregisterUpdateCall(false);
+    dumpParameters(sfp, baselineCompMethod, buffer.getEncoder(), paramIndexForThisSample);
+    int callerCMID = findCallerCMID(sfp);
+    int callSiteOffset = 0;
+    if (callerCMID != ParameterSampleBuffer.UNKNOWN_CALLER) {
+      CompiledMethod callerCM = CompiledMethods.getCompiledMethod(callerCMID);
+      callSiteOffset = callerCM.getInstructionOffset(Magic.getReturnAddress(sfp)).toInt();
+    }
+    buffer.commit(compiledMethod.getMethod(), paramIndexForThisSample, callerCMID, callSiteOffset);
 
     takenSamples++;
-  }
 
-  @Inline
-  private boolean attemptToRegisterUpdateCall() {
-    updateCalls.acquire();
-    if (!isActive()) {
-      updateCalls.release();
-      return false;
+    if (buffer.isFull() && buffer.requestHarvest()) {
+      activateOrganizer();
     }
-    Synchronization.fetchAndAdd(this, AosEntrypoints.activeUpdateCallsField.getOffset(), 1);
-    updateCalls.release();
-    return true;
   }
 
+  /**
+   * Finds the caller of the method that is executing in the given frame. This
+   * is the same stack walk that the
+   * {@link org.jikesrvm.adaptive.measurements.listeners.EdgeListener EdgeListener}
+   * does for the edges of the dynamic call graph. The caller of the frame must
+   * exist, i.e. the end of the stack must not have been reached.
+   *
+   * @param sfp pointer to the stack frame of the sampled method
+   * @return the compiled method id of the caller or
+   *  {@link ParameterSampleBuffer#UNKNOWN_CALLER} if the caller is assembler
+   *  code, native code or a hardware trap
+   */
   @Inline
-  private void unregisterUpdateCall(boolean activateOrganizer) {
-    updateCalls.acquire();
-    int preDecrementValue = Synchronization.fetchAndDecrement(this, AosEntrypoints.activeUpdateCallsField.getOffset(), 1);
-    if (preDecrementValue == 1 && activateOrganizer) {
-      if (isActive()) {
-        activateOrganizer();
-      }
+  protected static int findCallerCMID(Address sfp) {
+    Address callerFP = Magic.getCallerFramePointer(sfp);
+    int callerCMID = Magic.getCompiledMethodID(callerFP);
+    if (!methodExistsForID(callerCMID)) {
+      return ParameterSampleBuffer.UNKNOWN_CALLER;
     }
-    updateCalls.release();
+    CompiledMethod callerCM = CompiledMethods.getCompiledMethod(callerCMID);
+    if (isNativeOrTrap(callerCM)) {
+      return ParameterSampleBuffer.UNKNOWN_CALLER;
+    }
+    return callerCMID;
   }
 
   /**
@@ -364,22 +379,6 @@ public final class ParameterListener extends ContextListener {
     return returnType.isUnboxedType() || returnType.isUnboxedArrayType();
   }
 
-
-  @NoCheckStore
-  @Uninterruptible
-  @Inline
-  private void storeRVMMethod(RVMMethod method, int index) {
-    if (VM.VerifyAssertions) {
-      VM._assert(method != null, "storeRVMMethod: Method was null!");
-    }
-    methods[index] = method;
-  }
-
-  @Inline
-  protected boolean noSpaceForParameters(int paramIndexForThisSample) {
-    return paramIndexForThisSample >= SAMPLE_COUNT;
-  }
-
   @Inline
   protected static int calculateSpaceNeededForParameters(CompiledMethod compiledMethod) {
     RVMMethod method = compiledMethod.getMethod();
@@ -431,37 +430,38 @@ public final class ParameterListener extends ContextListener {
   }
 
   /**
-   * Dump all parameters of the compiled method except the "implicit this"
-   * pointer for instance methods.
+   * Dump all parameters of the compiled method, including the "implicit this"
+   * pointer for instance methods. All parameters must be stored in the
+   * stack frame.
    *
    * @param sfp
    *          pointer to the stack frame
    * @param baselineCompMethod
    *          the (baseline) compiled method that is being examined
+   * @param encoder
+   *          the encoder of the sample buffer of the current thread
    * @param indexForParams
    *          starting index where parameters should be saved
-   * @see ParameterListener#dumpImplicitThisParameter(Address, Offset, int)
+   * @see BaselineFrameAccessor#areParametersInMemory(BaselineCompiledMethod)
    */
   @Inline
-  protected void dumpParameters(Address sfp, BaselineCompiledMethod baselineCompMethod, int indexForParams) {
-    Offset zeroOffset = Offset.zero();
-    short paramStartOffset = baselineCompMethod.getGeneralLocalLocation(0);
-    Offset paramStart = zeroOffset.plus(BaselineCompilerImpl.locationToOffset(paramStartOffset));
-
-    Offset currentParamOffset = paramStart;
-
+  protected void dumpParameters(Address sfp, BaselineCompiledMethod baselineCompMethod, EncodingHelper encoder,
+      int indexForParams) {
+    int localIndex = 0;
     int currentIndexForParams = indexForParams;
     if (!baselineCompMethod.getMethod().isStatic()) {
-      currentParamOffset = dumpImplicitThisParameter(sfp, currentParamOffset, currentIndexForParams);
+      dumpImplicitThisParameter(sfp, baselineCompMethod, encoder, currentIndexForParams);
       currentIndexForParams = newIndexForParams(currentIndexForParams, TypeReference.Class);
+      localIndex++;
     }
 
     TypeReference[] parameterTypes = baselineCompMethod.getMethod().getParameterTypes();
 
-    for (int typeIndex = 0; typeIndex < parameterTypes.length; typeIndex++, currentParamOffset = offsetForNextStackframeSlot(currentParamOffset)) {
+    for (int typeIndex = 0; typeIndex < parameterTypes.length; typeIndex++) {
       TypeReference ref = parameterTypes[typeIndex];
-      currentParamOffset = dumpPararameter(sfp, currentParamOffset, ref, currentIndexForParams);
+      dumpPararameter(sfp, baselineCompMethod, localIndex, ref, encoder, currentIndexForParams);
       currentIndexForParams = newIndexForParams(currentIndexForParams, ref);
+      localIndex += ref.getStackWords();
     }
 
   }
@@ -486,7 +486,7 @@ public final class ParameterListener extends ContextListener {
     } else if (ref.isShortType()) {
       newIndex += EncodingHelper.getBytesForTypeReference(TypeReference.Short);
     } else if (ref.isReferenceType()) {
-      newIndex += EncodingHelper.getBytesForTypeReference(TypeReference.Class);
+      newIndex += EncodingHelper.getBytesForTypeReference(ref);
     } else {
       if (ref.isWordLikeType()) {
         // do nothing
@@ -505,59 +505,72 @@ public final class ParameterListener extends ContextListener {
    *
    * @param sfp
    *          stack frame pointer
-   * @param currentParamOffset
-   *          offset for the this parameter
+   * @param baselineCompMethod
+   *          the (baseline) compiled method that is being examined
+   * @param encoder
+   *          the encoder to save the parameter with
    * @param indexForParams
    *          starting index for saving of implicit this parameter
-   * @return offset for the next parameter
    */
   @Inline
-  protected Offset dumpImplicitThisParameter(Address sfp, Offset currentParamOffset, int indexForParams) {
-    int typeSize = BYTES_IN_ADDRESS;
+  protected void dumpImplicitThisParameter(Address sfp, BaselineCompiledMethod baselineCompMethod, EncodingHelper encoder,
+      int indexForParams) {
     // First parameter should be the "implicit this" pointer
-
-    Address implicitThisParameterAddr = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
+    Address implicitThisParameterAddr = BaselineFrameAccessor.getLocalAddress(sfp, baselineCompMethod, 0,
+        TypeReference.JavaLangObject);
     Object implicitThisParameter = buildObjectFromAddress(loadObjectAddressFromAddress(implicitThisParameterAddr));
 
     if (implicitThisParameter != null) {
       RVMType type = ObjectModel.getObjectType(implicitThisParameter);
 
-      encodingHelper.encodeType(indexForParams, type);
+      encoder.encodeType(indexForParams, type);
 
     } else {
       if (VM.VerifyAssertions) {
         VM._assert(NOT_REACHED, "Implicit this parameter could not be found!");
       }
     }
-    return offsetForNextStackframeSlot(currentParamOffset);
   }
 
   /**
-   * Dump a parameter.
+   * Dump a parameter. Reference parameters are saved as the id of their
+   * type. The length of arrays is saved as well if the parameter is declared
+   * as an array.
    *
    * @param sfp
    *          stack frame pointer
-   * @param currentParamOffset
-   *          offset for the current parameter
+   * @param baselineCompMethod
+   *          the (baseline) compiled method that is being examined
+   * @param localIndex
+   *          the index of the local that holds the parameter
    * @param ref
    *          type reference for the current parameter
+   * @param encoder
+   *          the encoder to save the parameter with
    * @param indexForParams
    *          starting index to save a single parameter
-   * @return Offset for the next Parameter
    */
   @Inline
-  protected Offset dumpPararameter(Address sfp, Offset currentParamOffset, TypeReference ref, int indexForParams) {
-    int typeSize;
+  protected void dumpPararameter(Address sfp, BaselineCompiledMethod baselineCompMethod, int localIndex,
+      TypeReference ref, EncodingHelper encoder, int indexForParams) {
+    if (ref.isWordLikeType() || ref.isCodeType()) {
+      // Unboxed types are not currently supported. It would be possible to
+      // support them but it's probably not worth the effort for an initial
+      // implementation, especially because there's no specialization during
+      // bootimage writing.
+      VM.sysFail("Saw unsupported type in ParameterListener!");
+    }
+    Address paramAddress = BaselineFrameAccessor.getLocalAddress(sfp, baselineCompMethod, localIndex, ref);
     if (ref.isReferenceType()) {
-      typeSize = BYTES_IN_ADDRESS;
-      Address stackSlot = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
       Object obj = null;
 
       boolean done = false;
-      Address objectsAddress = loadObjectAddressFromAddress(stackSlot);
+      Address objectsAddress = loadObjectAddressFromAddress(paramAddress);
       if (objectsAddress.isZero()) {
-        encodingHelper.encodeType(indexForParams, null);
+        encoder.encodeType(indexForParams, null);
+        if (ref.isArrayType()) {
+          encoder.encodeInt(indexForParams + BYTES_IN_INT, -1);
+        }
         done = true;
       }
 
@@ -568,7 +581,10 @@ public final class ParameterListener extends ContextListener {
         if (obj != null) {
           realType = ObjectModel.getObjectType(obj);
 
-          encodingHelper.encodeType(indexForParams, realType);
+          encoder.encodeType(indexForParams, realType);
+          if (ref.isArrayType()) {
+            encoder.encodeInt(indexForParams + BYTES_IN_INT, ObjectModel.getArrayLength(obj));
+          }
 
           // writeForDebugging(realType.getDescriptor());
           // writeForDebuggingLn();
@@ -576,87 +592,31 @@ public final class ParameterListener extends ContextListener {
       }
 
     } else if (ref.isBooleanType()) {
-      typeSize = BYTES_IN_INT;
-      Address booleanAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      int tempInt = booleanAddress.loadInt();
+      int tempInt = paramAddress.loadInt();
       boolean bool = (tempInt != 0);
-      encodingHelper.encodeBoolean(indexForParams, bool);
+      encoder.encodeBoolean(indexForParams, bool);
     } else if (ref.isByteType()) {
-      typeSize = BYTES_IN_INT;
-      Address byteAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      byte b = (byte) byteAddress.loadInt();
-      encodingHelper.encodeByte(indexForParams, b);
+      byte b = (byte) paramAddress.loadInt();
+      encoder.encodeByte(indexForParams, b);
     } else if (ref.isCharType()) {
-      typeSize = BYTES_IN_INT;
-      Address charAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      char c = (char) charAddress.loadInt();
-      encodingHelper.encodeChar(indexForParams, c);
-
+      char c = (char) paramAddress.loadInt();
+      encoder.encodeChar(indexForParams, c);
     } else if (ref.isDoubleType()) {
-      typeSize = BYTES_IN_DOUBLE;
-      Address doubleAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      double d = doubleAddress.loadDouble();
-      encodingHelper.encodeDouble(indexForParams, d);
-
-      // double occupies two slots, so skip a slot
-      currentParamOffset = offsetForNextStackframeSlot(currentParamOffset);
+      double d = paramAddress.loadDouble();
+      encoder.encodeDouble(indexForParams, d);
     } else if (ref.isFloatType()) {
-      typeSize = BYTES_IN_FLOAT;
-      Address floatAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      float f = floatAddress.loadFloat();
-      encodingHelper.encodeFloat(indexForParams, f);
+      float f = paramAddress.loadFloat();
+      encoder.encodeFloat(indexForParams, f);
     } else if (ref.isIntType()) {
-      typeSize = BYTES_IN_INT;
-      Address intAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      int i = intAddress.loadInt();
-      encodingHelper.encodeInt(indexForParams, i);
+      int i = paramAddress.loadInt();
+      encoder.encodeInt(indexForParams, i);
     } else if (ref.isLongType()) {
-      typeSize = BYTES_IN_LONG;
-      Address longAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      long l = longAddress.loadLong();
-      encodingHelper.encodeLong(indexForParams, l);
-
-      // long occupies two slots, so skip a slot
-      currentParamOffset = offsetForNextStackframeSlot(currentParamOffset);
+      long l = paramAddress.loadLong();
+      encoder.encodeLong(indexForParams, l);
     } else if (ref.isShortType()) {
-      typeSize = BYTES_IN_INT;
-      Address shortAddress = calulcateParameterAddress(sfp, currentParamOffset, typeSize);
-
-      short s = (short) shortAddress.loadInt();
-      encodingHelper.encodeShort(indexForParams, s);
-    } else {
-      // Unboxed types are not currently supported. It would be possible to
-      // support them but it's probably not worth the effort for an initial
-      // implementation, especially because there's no specialization during
-      // bootimage writing.
-      VM.sysFail("Saw unsupported type in ParameterListener!");
+      short s = (short) paramAddress.loadInt();
+      encoder.encodeShort(indexForParams, s);
     }
-    return currentParamOffset;
-  }
-
-  /**
-   * Calculates the address on the stack that should be used to load a
-   * parameter.
-   *
-   * @param sfp
-   *          stack frame pointer
-   * @param currentParamOffset
-   *          the offset for the current parameter, relative to the stack frame
-   *          pointer
-   * @param typeSize
-   *          the size of the parameter's type, in bytes
-   * @return the address to load the parameter from
-   */
-  @Inline
-  protected static Address calulcateParameterAddress(Address sfp, Offset currentParamOffset, int typeSize) {
-    return sfp.plus(currentParamOffset.minus(typeSize));
   }
 
   /**
@@ -699,21 +659,6 @@ public final class ParameterListener extends ContextListener {
     return objAddress;
   }
 
-  /**
-   * Calculates the offset for the next stack frame slot. This method assumes
-   * all parameters are 1 word wide, i.e. it does <b>NOT</b> do special handling
-   * for long and double which are 2 words wide.
-   *
-   * @param currentParamOffset
-   *          the offset for the current parameter
-   * @return the offset for the next slot in the stack frame, assuming the
-   *         current parameter was 1 word wide
-   */
-  @Inline
-  protected Offset offsetForNextStackframeSlot(Offset currentParamOffset) {
-    return currentParamOffset.minus(StackframeLayoutConstants.BYTES_IN_STACKSLOT);
-  }
-
   /**
    * Calculates the total number of parameter words for a given method.
    *
@@ -781,7 +726,7 @@ public final class ParameterListener extends ContextListener {
    */
   @Inline
   protected static boolean methodExistsForID(int methodCMID) {
-    return methodCMID != INVISIBLE_METHOD_ID;
+    return methodCMID != StackFrameLayout.getInvisibleMethodID();
   }
 
   /**
@@ -794,7 +739,7 @@ public final class ParameterListener extends ContextListener {
    */
   @Inline
   protected static boolean stackEndReached(Address sfp) {
-    return sfp.loadAddress().EQ(STACKFRAME_SENTINEL_FP);
+    return sfp.loadAddress().EQ(StackFrameLayout.getStackFrameSentinelFP());
   }
 
   @Override
@@ -803,7 +748,7 @@ public final class ParameterListener extends ContextListener {
       ParameterUtilities.writeForDebuggingLn();
       ParameterUtilities.writeForDebugging("Parameter Listener Report\n");
 
-      int totalPotentialSamples = (prologue - skippedSamplesOptPrologue) + skippedSamplesOrganizerBusy;
+      int totalPotentialSamples = (prologue - skippedSamplesOptPrologue) + skippedSamplesBufferFull;
       ParameterUtilities.writeForDebugging("TOTAL_POTENTIAL_SAMPLES");
       ParameterUtilities.writeForDebugging("\t");
       ParameterUtilities.writeForDebugging(totalPotentialSamples);
@@ -811,11 +756,11 @@ public final class ParameterListener extends ContextListener {
       ParameterUtilities.writeForDebugging("(Total number of samples that could have been taken, i.e. samples from prologue yieldpoints in baseline compiled methods)");
       ParameterUtilities.writeForDebugging("\n");
 
-      ParameterUtilities.writeForDebugging("SKIPPED_ORGANIZER_BUSY");
+      ParameterUtilities.writeForDebugging("SKIPPED_BUFFER_FULL");
       ParameterUtilities.writeForDebugging("\t");
-      ParameterUtilities.writeForDebugging(skippedSamplesOrganizerBusy);
+      ParameterUtilities.writeForDebugging(skippedSamplesBufferFull);
       ParameterUtilities.writeForDebugging("\t");
-      ParameterUtilities.writeForDebugging("(Samples that were skipped because organizer was busy processing the current buffer)");
+      ParameterUtilities.writeForDebugging("(Samples that were skipped because the buffer of the thread was full or not yet assigned)");
       ParameterUtilities.writeForDebugging("\n");
 
       ParameterUtilities.writeForDebugging("SAMPLES_PROLOGUE");
@@ -874,7 +819,15 @@ public final class ParameterListener extends ContextListener {
       ParameterUtilities.writeForDebugging("(Samples that came from interesting yieldpoints but were skipped because methods were opt-compiled)");
       ParameterUtilities.writeForDebugging("\n");
 
-      int samplesSkippedForOtherReasons = skippedSamples - skippedSamplesOrganizerBusy - skippedSamplesOpt -
+      ParameterUtilities.writeForDebugging("SKIPPED_PARAMETERS_IN_REGISTERS");
+      ParameterUtilities.writeForDebugging("\t");
+      ParameterUtilities.writeForDebugging(skippedSamplesParametersInRegisters);
+      ParameterUtilities.writeForDebugging("\t");
+      ParameterUtilities.writeForDebugging("(Samples that were skipped because parameters were held in registers)");
+      ParameterUtilities.writeForDebugging("\n");
+
+      int samplesSkippedForOtherReasons = skippedSamples - skippedSamplesBufferFull - skippedSamplesOpt -
+          skippedSamplesParametersInRegisters -
           (backedge - skippedSamplesOptBackedge) - (epilogue  - skippedSamplesOptEpilogue) - otherYieldpoints;
 
       ParameterUtilities.writeForDebugging("TOTAL_SKIPPED_REST");
@@ -891,47 +844,57 @@ public final class ParameterListener extends ContextListener {
       ParameterUtilities.writeForDebugging("(Samples that were taken)");
       ParameterUtilities.writeForDebugging("\n");
 
+      if (measureUpdateCycles) {
+        ParameterUtilities.writeForDebugging("TOTAL_UPDATE_CYCLES");
+        ParameterUtilities.writeForDebugging("\t");
+        ParameterUtilities.writeForDebugging(updateCycles);
+        ParameterUtilities.writeForDebugging("\t");
+        ParameterUtilities.writeForDebugging("(Cycles spent in the listener, as measured by the cycle counter)");
+        ParameterUtilities.writeForDebugging("\n");
+
+        int yieldpoints = prologue + backedge + epilogue + otherYieldpoints;
+        long cyclesPerYieldpoint = yieldpoints == 0 ? 0 : updateCycles / yieldpoints;
+        ParameterUtilities.writeForDebugging("UPDATE_CYCLES_PER_YIELDPOINT");
+        ParameterUtilities.writeForDebugging("\t");
+        ParameterUtilities.writeForDebugging(cyclesPerYieldpoint);
+        ParameterUtilities.writeForDebugging("\t");
+        ParameterUtilities.writeForDebugging("(Average cycles spent in the listener per yieldpoint that called it)");
+        ParameterUtilities.writeForDebugging("\n");
+      }
+
 
       ParameterUtilities.writeForDebuggingLn();
     }
   }
 
+  /**
+   * Does nothing: the samples are kept in the buffers of the threads which
+   * the organizer empties after processing them.
+   */
   @Override
   public void reset() {
-    // Don't reset counters for backedge, prologue, epilogue and skippedSamples
-    // because these are supposed to be persistent
-
-    // Reset fields using synchronization primitives - for consistency with other accesses of the fields
-    Synchronization.fetchAndStore(this, AosEntrypoints.paramListenerSamplesLeftToTakeField.getOffset(),
-        SAMPLE_COUNT);
-    Synchronization.fetchAndStore(this, AosEntrypoints.paramListenerParamField.getOffset(),
-        0);
-
-    clearSavedMethods();
-    for (int i = 0; i < paramStartIndexes.length; i++) {
-      paramStartIndexes[i] = NO_ENTRY;
-    }
-
-    encodingHelper.reset();
   }
 
-  @NoCheckStore
-  private void clearSavedMethods() {
-    for (int i = 0; i < methods.length; i++) {
-      methods[i] = null;
-    }
-  }
-
-  public ParameterDecoder getParameterDecoder() {
-    return encodingHelper;
-  }
-
-  public int[] getParamStartIndexes() {
-    return paramStartIndexes;
+  /**
+   * Collects the sample buffers of all threads that have taken samples
+   * since the last call. Each of these threads is given an empty buffer.
+   *
+   * @return the collected buffers
+   */
+  @Interruptible
+  public ParameterSampleBuffer[] harvestSampleBuffers() {
+    return harvester.harvest();
   }
 
-  public RVMMethod[] getMethods() {
-    return methods;
+  /**
+   * Makes buffers available for reuse once their samples have
+   * been processed.
+   *
+   * @param buffers the buffers returned by {@link #harvestSampleBuffers()}
+   */
+  @Interruptible
+  public void recycleSampleBuffers(ParameterSampleBuffer[] buffers) {
+    harvester.recycle(buffers);
   }
 
 }
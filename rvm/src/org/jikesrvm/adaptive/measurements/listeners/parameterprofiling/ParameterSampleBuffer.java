@@ -0,0 +1,236 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.measurements.listeners.parameterprofiling;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterSampleBatch;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.scheduler.RVMThread;
+import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.NoCheckStore;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * A buffer for the samples that the {@link ParameterListener} takes on a
+ * single thread.
+ * <p>
+ * Each thread that is sampled owns one buffer (see
+ * {@link RVMThread#parameterSampleBuffer}) and is the only thread that writes
+ * to it. Space for a sample is allocated by bumping a pointer, so taking a
+ * sample neither needs a lock nor atomic operations. The
+ * {@link org.jikesrvm.adaptive.measurements.organizers.ParameterProfileOrganizer
+ * ParameterProfileOrganizer} collects the buffers in batches via a soft
+ * handshake (see {@link ParameterSampleHarvester}) and gives each thread an
+ * empty buffer in return.
+ * <p>
+ * The samples of the parameter probes in opt-compiled code (see
+ * {@link org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes
+ * ParameterProbes}) are kept in a separate {@link ParameterSampleBatch} of
+ * the buffer and are collected in the same way.
+ */
+@Uninterruptible
+public final class ParameterSampleBuffer {
+
+  /**
+   * The number of samples that fit into a buffer.
+   */
+  static final int SAMPLE_COUNT = 250;
+
+  /**
+   * The number of bytes that are available for the parameters of the samples.
+   */
+  static final int CAPACITY = 20 * SAMPLE_COUNT;
+
+  /**
+   * Marks samples whose caller is unknown, e.g. because the sampled method
+   * was called from assembler code.
+   */
+  public static final int UNKNOWN_CALLER = 0;
+
+  private final EncodingHelper encodingHelper;
+
+  private final RVMMethod[] methods;
+
+  private final int[] paramStartIndexes;
+
+  /**
+   * The compiled method ids of the callers of the sampled methods
+   */
+  private final int[] callerCMIDs;
+
+  /**
+   * The offsets of the return addresses in the machine code of the callers
+   */
+  private final int[] callSiteOffsets;
+
+  /** The samples of the parameter probes */
+  private final ParameterSampleBatch probeSamples;
+
+  /** The number of samples in this buffer */
+  private int sampleCount;
+
+  /** The index of the first byte that is not used by a sample */
+  private int nextParamIndex;
+
+  /**
+   * Has the organizer been asked to collect this buffer?
+   */
+  private boolean harvestRequested;
+
+  public ParameterSampleBuffer() {
+    encodingHelper = new EncodingHelper(CAPACITY);
+    methods = new RVMMethod[SAMPLE_COUNT];
+    paramStartIndexes = new int[SAMPLE_COUNT];
+    callerCMIDs = new int[SAMPLE_COUNT];
+    callSiteOffsets = new int[SAMPLE_COUNT];
+    probeSamples = new ParameterSampleBatch();
+  }
+
+  /**
+   * Reserves space for the parameters of a new sample.
+   *
+   * @param spaceNeeded the number of bytes that the parameters need
+   * @return the index of the first byte for the parameters or
+   *  {@link ParameterListener#NO_ENTRY} if the buffer is full
+   */
+  @Inline
+  int reserve(int spaceNeeded) {
+    if (sampleCount >= SAMPLE_COUNT || nextParamIndex + spaceNeeded > CAPACITY) {
+      return ParameterListener.NO_ENTRY;
+    }
+    int paramIndex = nextParamIndex;
+    nextParamIndex += spaceNeeded;
+    return paramIndex;
+  }
+
+  /**
+   * Records a sample whose parameters have been encoded.
+   *
+   * @param method the sampled method
+   * @param paramIndex the index that {@link #reserve(int)} returned for
+   *  the sample
+   * @param callerCMID the compiled method id of the caller or
+   *  {@link #UNKNOWN_CALLER}
+   * @param callSiteOffset the offset of the return address in the machine
+   *  code of the caller
+   */
+  @Inline
+  @NoCheckStore
+  void commit(RVMMethod method, int paramIndex, int callerCMID, int callSiteOffset) {
+    if (VM.VerifyAssertions) {
+      VM._assert(method != null, "commit: Method was null!");
+    }
+    methods[sampleCount] = method;
+    paramStartIndexes[sampleCount] = paramIndex;
+    callerCMIDs[sampleCount] = callerCMID;
+    callSiteOffsets[sampleCount] = callSiteOffset;
+    sampleCount++;
+  }
+
+  /**
+   * @return whether this buffer cannot take any more samples
+   */
+  @Inline
+  boolean isFull() {
+    return sampleCount >= SAMPLE_COUNT;
+  }
+
+  /**
+   * Notes that the organizer needs to collect this buffer, because either
+   * the buffer or its batch of probe samples is full.
+   *
+   * @return {@code true} if this is the first request since the buffer
+   *  was last reset
+   */
+  @Inline
+  public boolean requestHarvest() {
+    if (harvestRequested) {
+      return false;
+    }
+    harvestRequested = true;
+    return true;
+  }
+
+  EncodingHelper getEncoder() {
+    return encodingHelper;
+  }
+
+  public ParameterDecoder getParameterDecoder() {
+    return encodingHelper;
+  }
+
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  public ParameterSampleBatch getProbeSamples() {
+    return probeSamples;
+  }
+
+  /**
+   * @return whether neither the listener nor the probes have taken
+   *  samples since this buffer was last reset
+   */
+  boolean isEmpty() {
+    return sampleCount == 0 && probeSamples.getSampleCount() == 0;
+  }
+
+  public RVMMethod getMethod(int sample) {
+    return methods[sample];
+  }
+
+  public int getParamStartIndex(int sample) {
+    return paramStartIndexes[sample];
+  }
+
+  public int getCallerCMID(int sample) {
+    return callerCMIDs[sample];
+  }
+
+  public int getCallSiteOffset(int sample) {
+    return callSiteOffsets[sample];
+  }
+
+  /**
+   * Empties this buffer so that it can be given to a thread again.
+   */
+  @NoCheckStore
+  void reset() {
+    for (int i = 0; i < sampleCount; i++) {
+      methods[i] = null;
+    }
+    sampleCount = 0;
+    nextParamIndex = 0;
+    harvestRequested = false;
+    encodingHelper.reset();
+    probeSamples.reset();
+  }
+
+  /**
+   * Replaces the sample buffer of the given thread with the buffer
+   * that the organizer provided. The full buffer is left in
+   * {@link RVMThread#exchangedParameterSampleBuffer} for the organizer.
+   * <p>
+   * Called by the thread when it acknowledges the soft handshake or by
+   * the organizer on behalf of a thread that is stuck in native.
+   *
+   * @param t the thread whose buffer is exchanged
+   */
+  public static void exchange(RVMThread t) {
+    ParameterSampleBuffer full = t.parameterSampleBuffer;
+    t.parameterSampleBuffer = t.exchangedParameterSampleBuffer;
+    t.exchangedParameterSampleBuffer = full;
+    t.parameterSampleBufferExchangeRequested = false;
+  }
+
+}
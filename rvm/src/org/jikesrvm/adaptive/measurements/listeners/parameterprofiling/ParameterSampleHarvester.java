@@ -0,0 +1,156 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.measurements.listeners.parameterprofiling;
+
+import org.jikesrvm.scheduler.RVMThread;
+import org.vmmagic.pragma.Interruptible;
+import org.vmmagic.pragma.NoCheckStore;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * Collects the {@link ParameterSampleBuffer}s of all threads.
+ * <p>
+ * Each thread with a non-empty buffer is given an empty buffer via a soft
+ * handshake and swaps its buffers when it acknowledges the handshake at its
+ * next yieldpoint. Threads that do not have a buffer yet are given one
+ * directly. All buffers are allocated before the handshake starts, so
+ * the visitor does not need to allocate.
+ */
+@Uninterruptible
+final class ParameterSampleHarvester extends RVMThread.SoftHandshakeVisitor {
+
+  /**
+   * The number of additional spare buffers for threads that are started
+   * while a harvest is in progress.
+   */
+  private static final int SPARE_BUFFERS_FOR_NEW_THREADS = 4;
+
+  private ParameterSampleBuffer[] spareBuffers = new ParameterSampleBuffer[0];
+
+  private int spareCount;
+
+  /** The threads that were asked to exchange their buffers */
+  private RVMThread[] exchangingThreads = new RVMThread[0];
+
+  private int exchangingCount;
+
+  /**
+   * Collects the buffers of all threads that have taken samples since
+   * the last harvest, including the current thread.
+   *
+   * @return the collected buffers
+   */
+  @Interruptible
+  ParameterSampleBuffer[] harvest() {
+    prepareSpareBuffers();
+    handOverBufferOfCurrentThread();
+    RVMThread.softHandshake(this);
+    return collectExchangedBuffers();
+  }
+
+  /**
+   * Makes the given buffers available for the next harvest.
+   *
+   * @param buffers buffers returned by {@link #harvest()} whose samples
+   *  have been processed
+   */
+  @Interruptible
+  void recycle(ParameterSampleBuffer[] buffers) {
+    ensureCapacity(spareCount + buffers.length);
+    for (ParameterSampleBuffer buffer : buffers) {
+      buffer.reset();
+      spareBuffers[spareCount++] = buffer;
+    }
+  }
+
+  @Interruptible
+  private void prepareSpareBuffers() {
+    int needed = RVMThread.numThreads + SPARE_BUFFERS_FOR_NEW_THREADS;
+    ensureCapacity(needed);
+    while (spareCount < needed) {
+      spareBuffers[spareCount++] = new ParameterSampleBuffer();
+    }
+    exchangingCount = 0;
+  }
+
+  @Interruptible
+  private void ensureCapacity(int capacity) {
+    if (spareBuffers.length < capacity) {
+      ParameterSampleBuffer[] newSpareBuffers = new ParameterSampleBuffer[capacity];
+      System.arraycopy(spareBuffers, 0, newSpareBuffers, 0, spareCount);
+      spareBuffers = newSpareBuffers;
+      exchangingThreads = new RVMThread[capacity];
+    }
+  }
+
+  /**
+   * The current thread is excluded from soft handshakes. Exchanging its
+   * buffer here is safe because no yieldpoint (and thus no sample) can
+   * occur in uninterruptible code.
+   */
+  private void handOverBufferOfCurrentThread() {
+    RVMThread me = RVMThread.getCurrentThread();
+    if (checkAndSignal(me)) {
+      ParameterSampleBuffer.exchange(me);
+    }
+  }
+
+  @Interruptible
+  private ParameterSampleBuffer[] collectExchangedBuffers() {
+    ParameterSampleBuffer[] exchanged = new ParameterSampleBuffer[exchangingCount];
+    for (int i = 0; i < exchangingCount; i++) {
+      RVMThread t = exchangingThreads[i];
+      exchangingThreads[i] = null;
+      exchanged[i] = t.exchangedParameterSampleBuffer;
+      t.exchangedParameterSampleBuffer = null;
+    }
+    exchangingCount = 0;
+    return exchanged;
+  }
+
+  /**
+   * Gives the thread a buffer if it has none yet or requests an exchange
+   * if it has taken samples since the last harvest.
+   * <p>
+   * Threads that are seen after the spare buffers have run out are
+   * handled by the next harvest.
+   */
+  @Override
+  @NoCheckStore
+  public boolean checkAndSignal(RVMThread t) {
+    if (spareCount == 0 || exchangingCount == exchangingThreads.length) {
+      return false;
+    }
+    ParameterSampleBuffer current = t.parameterSampleBuffer;
+    if (current != null && current.isEmpty()) {
+      return false;
+    }
+
+    ParameterSampleBuffer spare = spareBuffers[--spareCount];
+    spareBuffers[spareCount] = null;
+    if (current == null) {
+      t.parameterSampleBuffer = spare;
+      return false;
+    }
+    t.exchangedParameterSampleBuffer = spare;
+    t.parameterSampleBufferExchangeRequested = true;
+    exchangingThreads[exchangingCount++] = t;
+    return true;
+  }
+
+  @Override
+  public void notifyStuckInNative(RVMThread t) {
+    ParameterSampleBuffer.exchange(t);
+  }
+
+}
@@ -12,6 +12,7 @@
  */
 package org.jikesrvm.adaptive.measurements.listeners.parameterprofiling;
 
+import org.jikesrvm.adaptive.parameterprofiling.ArrayLengthParameterProperty;
 import org.jikesrvm.adaptive.parameterprofiling.BooleanParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.ByteParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.CharParameterValue;
@@ -20,6 +21,7 @@ import org.jikesrvm.adaptive.parameterprofiling.FloatParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.IntParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.LongParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.NullParameterValue;
+import org.jikesrvm.adaptive.parameterprofiling.ObjectIdentityParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.ShortParameterValue;
 import org.jikesrvm.adaptive.parameterprofiling.TypeValueForObjectParameter;
 import org.jikesrvm.classloader.RVMType;
@@ -46,4 +48,13 @@ public interface ParameterValueFactory {
 
   NullParameterValue createNullParameter();
 
+  ArrayLengthParameterProperty createArrayLengthParameter(int length);
+
+  /**
+   * @param object a reference parameter
+   * @return the value for the object if it is an object literal in the JTOC,
+   *  <code>null</code> otherwise
+   */
+  ObjectIdentityParameterValue createObjectIdentityParameter(Object object);
+
 }
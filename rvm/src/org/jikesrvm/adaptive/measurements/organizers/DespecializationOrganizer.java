@@ -0,0 +1,53 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.measurements.organizers;
+
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.measurements.RuntimeMeasurements;
+import org.jikesrvm.adaptive.measurements.listeners.YieldCounterListener;
+import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
+import org.vmmagic.pragma.NonMoving;
+
+/**
+ * An organizer that periodically checks how often the specialized versions
+ * of methods are called from their general versions. Specialized versions
+ * whose values no longer occur, e.g. after a phase change, are retired and
+ * the general versions are recompiled without the checks for them.
+ */
+@NonMoving
+public final class DespecializationOrganizer extends Organizer {
+
+  /**
+   * @param listener the associated listener
+   */
+  public DespecializationOrganizer(YieldCounterListener listener) {
+    this.listener = listener;
+    listener.setOrganizer(this);
+  }
+
+  /**
+   * Initialization: install and activate our listener.
+   */
+  @Override
+  public void initialize() {
+    RuntimeMeasurements.installTimerNullListener((YieldCounterListener) listener);
+  }
+
+  /**
+   * Retires the specialized versions that are rarely called.
+   */
+  @Override
+  void thresholdReached() {
+    SpecializationDatabase.retireRarelyHitVersions(Controller.options.DESPECIALIZATION_HIT_RATE);
+  }
+}
@@ -12,12 +12,15 @@
  */
 package org.jikesrvm.adaptive.measurements.organizers;
 
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_INT;
+
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -27,25 +30,53 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.measurements.RuntimeMeasurements;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.EncodingHelper;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterDecoder;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterSampleBuffer;
+import org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes;
 import org.jikesrvm.adaptive.parameterprofiling.MethodDataProviderImpl;
 import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
 import org.jikesrvm.adaptive.parameterprofiling.MethodProfile.CandidateType;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfile;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileFile;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterSampleBatch;
+import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.baseline.BaselineCompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
 import org.jikesrvm.compilers.opt.OptimizingCompilerException;
+import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
+import org.jikesrvm.compilers.opt.runtimesupport.OptMachineCodeMap;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
 import org.jikesrvm.runtime.Callbacks;
+import org.jikesrvm.runtime.Time;
 import org.vmmagic.pragma.NonMoving;
+import org.vmmagic.unboxed.Offset;
 
 /**
  * This class organizes information gained from {@link ParameterListener} to
- * build value and type profiles for methods.
+ * build value and type profiles for methods. If enabled, samples from
+ * {@link ParameterProbes parameter probes} in opt-compiled code are recorded in
+ * the same profiles.
+ * <p>
+ * Profiles and the contexts of the specialized versions that were created can
+ * be saved at exit and restored in a later run (see {@link ParameterProfileFile}).
+ * Restored profiles seed the profiles of their methods and restored
+ * specializations are created when their method is opt compiled for the
+ * first time.
+ * <p>
+ * Samples from the {@link ParameterListener} are also attributed to the call
+ * site that the sampled method was called from. The call site is found in the
+ * same way as the {@link DynamicCallGraphOrganizer} finds the call sites of
+ * the edges of the dynamic call graph. The profiles of the call sites allow
+ * specialized versions that are only called from a single call site.
  * <p>
  * TODO Consider cleaning / throwing away data regularly.
  */
@@ -53,11 +84,48 @@ import org.vmmagic.pragma.NonMoving;
 public class ParameterProfileOrganizer extends Organizer {
 
   private Map<RVMMethod, List<ParameterProfileInformation>> profilesForAllMethods;
+
+  /**
+   * The profiles of the calls from single call sites, in addition to the
+   * profiles of the methods
+   */
+  private final Map<RVMMethod, Map<CallSite, MethodProfile>> profilesForCallSites;
+
+  /**
+   * The maximum number of call sites of a method that are profiled separately.
+   * Samples from other call sites are only recorded in the profile of the method.
+   */
+  private static final int MAX_PROFILED_CALL_SITES = 8;
+
+  /**
+   * The listener that takes the samples. It is not registered as
+   * {@link #listener} because it must stay active while this organizer
+   * processes samples.
+   */
+  private ParameterListener paramListener;
   private File fileForProfileInfo;
   private static final boolean DEBUG = false;
 
   private SpecializedMethodCreater specializedMethodCreater;
 
+  /** The number of samples that were added to the profiles */
+  private long processedSamples;
+
+  /** The time spent processing samples, in nanoseconds */
+  private long processingTime;
+
+  /**
+   * The contexts of the specialized versions that were created in this run,
+   * written to the profile file at exit.
+   */
+  private final Map<RVMMethod, List<ParameterValueSpecializationContext>> specializationPlans;
+
+  /**
+   * The profiles and specializations of an earlier run or {@code null}
+   * if none were loaded.
+   */
+  private ParameterProfileFile savedProfiles;
+
   /**
    * If this option is set, all data from the {@link ParameterListener} will be
    * summarized at the method level using {@link MethodProfile}s. Otherwise, the
@@ -82,6 +150,30 @@ public class ParameterProfileOrganizer extends Organizer {
 
 
     profilesForAllMethods = new ConcurrentHashMap<RVMMethod, List<ParameterProfileInformation>>(initialCapacity, defaultLoadFactor, concurrencyLevelForUpdates);
+    specializationPlans = new ConcurrentHashMap<RVMMethod, List<ParameterValueSpecializationContext>>(initialCapacity, defaultLoadFactor, concurrencyLevelForUpdates);
+    profilesForCallSites = new ConcurrentHashMap<RVMMethod, Map<CallSite, MethodProfile>>(initialCapacity, defaultLoadFactor, concurrencyLevelForUpdates);
+  }
+
+  /**
+   * Writes all summarized profiles and the contexts of all specialized
+   * versions that were created to a {@link ParameterProfileFile}.
+   *
+   * @param fileName the name of the file
+   */
+  public synchronized void writeProfileFile(String fileName) {
+    Map<RVMMethod, MethodProfile> methodProfiles = new HashMap<RVMMethod, MethodProfile>();
+    for (Map.Entry<RVMMethod, List<ParameterProfileInformation>> entry : profilesForAllMethods.entrySet()) {
+      for (ParameterProfileInformation profile : entry.getValue()) {
+        if (profile instanceof MethodProfile) {
+          methodProfiles.put(entry.getKey(), (MethodProfile) profile);
+        }
+      }
+    }
+    try {
+      ParameterProfileFile.write(fileName, methodProfiles, specializationPlans);
+    } catch (IOException e) {
+      VM.sysWriteln("Could not write parameter profile file " + fileName + ": " + e.getMessage());
+    }
   }
 
   public void reportProfiles() {
@@ -144,9 +236,14 @@ public class ParameterProfileOrganizer extends Organizer {
   @Override
   public void report() {
     if (Controller.options.LOGGING_LEVEL >= 1) {
-      if (listener != null) {
+      VM.sysWriteln("Parameter Profile Organizer Report");
+      VM.sysWriteln("PROCESSED_SAMPLES\t", processedSamples);
+      VM.sysWriteln("PROCESSING_TIME_NS\t", processingTime);
+      long samplesPerMillisecond = processingTime == 0 ? 0 : (processedSamples * 1000000) / processingTime;
+      VM.sysWriteln("PROCESSED_SAMPLES_PER_MS\t", samplesPerMillisecond);
+      if (paramListener != null) {
         VM.sysWriteln("\t Report of my listener:");
-        listener.report();
+        paramListener.report();
       }
     }
   }
@@ -165,18 +262,29 @@ public class ParameterProfileOrganizer extends Organizer {
       }
     }
 
-    ParameterListener paramListener = new ParameterListener();
-    listener = paramListener;
-    listener.setOrganizer(this);
+    paramListener = new ParameterListener();
+    paramListener.setOrganizer(this);
+    paramListener.activate();
 
     specializedMethodCreater = new SpecializedMethodCreater(this);
     Callbacks.addMethodCompileMonitor(specializedMethodCreater);
 
     RuntimeMeasurements.installCBSContextListenerOnParamTicks(paramListener);
 
-    if (DEBUG) {
-      createFileForProfileInfo();
-      Runtime.getRuntime().addShutdownHook(new Thread(new ProfileShutdownHook(this)));
+    if (Controller.options.PARAMETER_PROFILING_OPT) {
+      ParameterProbes.boot(this, Controller.options);
+    }
+
+    if (Controller.options.PARAMETER_PROFILE_FILE_INPUT != null) {
+      savedProfiles = ParameterProfileFile.read(Controller.options.PARAMETER_PROFILE_FILE_INPUT);
+    }
+
+    String profileFileOutput = Controller.options.PARAMETER_PROFILE_FILE_OUTPUT;
+    if (DEBUG || profileFileOutput != null) {
+      if (DEBUG) {
+        createFileForProfileInfo();
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(new ProfileShutdownHook(this, DEBUG, profileFileOutput)));
     }
   }
 
@@ -200,24 +308,30 @@ public class ParameterProfileOrganizer extends Organizer {
     }
   }
 
+  /**
+   * Collects the sample buffers of all threads and adds their samples to
+   * the profiles.
+   */
   @Override
   void thresholdReached() {
-    ParameterListener paramListener = ((ParameterListener) listener);
-    ParameterDecoder decoder = paramListener.getParameterDecoder();
-    decoder.switchToDecodeMode();
+    long start = Time.nanoTime();
+    ParameterSampleBuffer[] buffers = paramListener.harvestSampleBuffers();
+    for (ParameterSampleBuffer buffer : buffers) {
+      processedSamples += buffer.getSampleCount() + buffer.getProbeSamples().getSampleCount();
+      processSamples(buffer);
+      processProbeSamples(buffer.getProbeSamples());
+    }
+    paramListener.recycleSampleBuffers(buffers);
+    processingTime += Time.nanoTime() - start;
+  }
 
-    RVMMethod[] methods = paramListener.getMethods();
-    int[] paramStartIndexes = paramListener.getParamStartIndexes();
-    for (int index = 0; index < paramStartIndexes.length; index++) {
-      int paramStartIndex = paramStartIndexes[index];
-      if (paramStartIndex == ParameterListener.NO_ENTRY) {
-        if (DEBUG) {
-          VM.sysWriteln("Skipping \"sample\" because no sample was taken!");
-        }
-        continue;
-      }
+  private void processSamples(ParameterSampleBuffer buffer) {
+    ParameterDecoder decoder = buffer.getParameterDecoder();
+    decoder.switchToDecodeMode();
 
-      RVMMethod method = methods[index];
+    for (int index = 0; index < buffer.getSampleCount(); index++) {
+      int paramStartIndex = buffer.getParamStartIndex(index);
+      RVMMethod method = buffer.getMethod(index);
       if (method == null) {
         if (DEBUG) {
           VM.sysWriteln("Method for a profile not found, skipping method");
@@ -230,6 +344,11 @@ public class ParameterProfileOrganizer extends Organizer {
       // TODO extract following lines to separate method
       if (USE_SUMMARIZED_PROFILES) {
         pp = getSummarizedProfile(method);
+        CallSite callSite = findCallSite(buffer.getCallerCMID(index), buffer.getCallSiteOffset(index));
+        MethodProfile callSiteProfile = (callSite == null) ? null : getCallSiteProfile(method, callSite);
+        if (callSiteProfile != null) {
+          pp = new CallSiteAttributingProfile(pp, callSiteProfile);
+        }
       } else {
         pp = new ParameterProfile(method);
       }
@@ -262,8 +381,88 @@ public class ParameterProfileOrganizer extends Organizer {
     }
 
     checkThatEncodingsAndDecodingsMatch(decoder);
+  }
 
-    listener.reset();
+  /**
+   * Adds the samples of the parameter probes to the profiles of their methods.
+   * Public so that samples can be processed without an organizer thread,
+   * e.g. in tests.
+   *
+   * @param batch the probe samples of a thread
+   */
+  public void processProbeSamples(ParameterSampleBatch batch) {
+    batch.resolveObjectLiterals();
+    for (int index = 0; index < batch.getSampleCount(); index++) {
+      getMethodProfile(batch.getMethod(index)).addSample(batch, index);
+    }
+  }
+
+  /**
+   * Finds the call site that a sample was taken for. Like the
+   * {@link DynamicCallGraphOrganizer}, this maps the return address to the
+   * bytecode index of the call. For opt-compiled callers, the call site is
+   * in the method that was inlined at the return address.
+   *
+   * @param callerCMID the compiled method id of the caller
+   * @param callSiteOffset the offset of the return address in the caller
+   * @return the call site or {@code null} if it is unknown
+   */
+  private static CallSite findCallSite(int callerCMID, int callSiteOffset) {
+    if (callerCMID == ParameterSampleBuffer.UNKNOWN_CALLER) {
+      return null;
+    }
+    CompiledMethod compiledMethod = CompiledMethods.getCompiledMethod(callerCMID);
+    if (compiledMethod == null) {
+      return null;
+    }
+    Offset mcOffset = Offset.fromIntSignExtend(callSiteOffset);
+    int bytecodeIndex;
+    RVMMethod caller;
+    switch (compiledMethod.getCompilerType()) {
+      case CompiledMethod.BASELINE:
+        // note: the following call expects the offset in INSTRUCTIONS!
+        bytecodeIndex = ((BaselineCompiledMethod) compiledMethod).findBytecodeIndexForInstruction(mcOffset);
+        caller = compiledMethod.getMethod();
+        break;
+      case CompiledMethod.OPT:
+        OptMachineCodeMap mcMap = ((OptCompiledMethod) compiledMethod).getMCMap();
+        try {
+          bytecodeIndex = mcMap.getBytecodeIndexForMCOffset(mcOffset);
+          caller = mcMap.getMethodForMCOffset(mcOffset);
+        } catch (ArrayIndexOutOfBoundsException e) {
+          return null;
+        } catch (OptimizingCompilerException e) {
+          return null;
+        }
+        break;
+      default:
+        return null;
+    }
+    if (bytecodeIndex < 0 || caller == null) {
+      // e.g. a call from a runtime service routine
+      return null;
+    }
+    return new CallSite(caller, bytecodeIndex);
+  }
+
+  /**
+   * @param method a method
+   * @param callSite a call site of the method
+   * @return the profile of the calls from the call site or {@code null} if
+   *  too many call sites of the method are profiled already
+   */
+  private MethodProfile getCallSiteProfile(RVMMethod method, CallSite callSite) {
+    Map<CallSite, MethodProfile> profiles = profilesForCallSites.get(method);
+    if (profiles == null) {
+      profiles = new ConcurrentHashMap<CallSite, MethodProfile>();
+      profilesForCallSites.put(method, profiles);
+    }
+    MethodProfile profile = profiles.get(callSite);
+    if (profile == null && profiles.size() < MAX_PROFILED_CALL_SITES) {
+      profile = new MethodProfile(new MethodDataProviderImpl(method), profileType);
+      profiles.put(callSite, profile);
+    }
+    return profile;
   }
 
   private void checkThatEncodingsAndDecodingsMatch(ParameterDecoder decoder) {
@@ -282,13 +481,21 @@ public class ParameterProfileOrganizer extends Organizer {
     }
   }
 
-  protected ParameterProfileInformation getSummarizedProfile(RVMMethod method) {
+  /**
+   * @param method a method
+   * @return the summarized profile for the method
+   */
+  public MethodProfile getMethodProfile(RVMMethod method) {
+    return (MethodProfile) getSummarizedProfile(method);
+  }
+
+  protected synchronized ParameterProfileInformation getSummarizedProfile(RVMMethod method) {
     ParameterProfileInformation pp;
     List<ParameterProfileInformation> profiles = profilesForAllMethods.get(method);
     if (profiles == null) {
       profiles = new ArrayList<ParameterProfileInformation>(1);
       profilesForAllMethods.put(method, profiles);
-      pp = new MethodProfile(new MethodDataProviderImpl(method), profileType);
+      pp = createSummarizedProfile(method);
       profiles.add(pp);
     } else {
       if (VM.VerifyAssertions) {
@@ -299,6 +506,14 @@ public class ParameterProfileOrganizer extends Organizer {
     return pp;
   }
 
+  private MethodProfile createSummarizedProfile(RVMMethod method) {
+    MethodProfile profile = new MethodProfile(new MethodDataProviderImpl(method), profileType);
+    if (savedProfiles != null && !savedProfiles.restoreProfile(method, profile)) {
+      profile = new MethodProfile(new MethodDataProviderImpl(method), profileType);
+    }
+    return profile;
+  }
+
   public boolean tryMergingProfile(ParameterProfileInformation ppi, List<ParameterProfileInformation> profileList) {
     boolean merged = false;
     ParameterProfile profileToMerge = (ParameterProfile) ppi;
@@ -315,9 +530,17 @@ public class ParameterProfileOrganizer extends Organizer {
   protected static int addCurrentValue(ParameterDecoder decoder, int currentParamIndex, ParameterProfileInformation pp, TypeReference ref) {
     if (ref.isReferenceType()) {
       RVMType type = decoder.decodeType(currentParamIndex);
-      currentParamIndex += EncodingHelper.getBytesForTypeReference(TypeReference.Class);
-
-      pp.addNewType(type);
+      if (ref.isArrayType()) {
+        int length = decoder.decodeInt(currentParamIndex + BYTES_IN_INT);
+        if (type == null) {
+          pp.addNewType(null);
+        } else {
+          pp.addNewArrayLength(length);
+        }
+      } else {
+        pp.addNewType(type);
+      }
+      currentParamIndex += EncodingHelper.getBytesForTypeReference(ref);
     } else if (ref.isBooleanType()) {
       boolean b = decoder.decodeBoolean(currentParamIndex);
       currentParamIndex += EncodingHelper.getBytesForTypeReference(TypeReference.Boolean);
@@ -380,12 +603,133 @@ public class ParameterProfileOrganizer extends Organizer {
     return profiles;
   }
 
+  /**
+   * @param method a method
+   * @return the profiles of the calls from the call sites of the method that
+   *  were profiled separately or {@code null} if there are none
+   */
+  Map<CallSite, MethodProfile> getCallSiteProfiles(RVMMethod method) {
+    return profilesForCallSites.get(method);
+  }
+
   void throwAwayDataForMethod(RVMMethod method) {
     if (DEBUG) {
       System.out.println("Specialization Profiling: Throwing away all data for " + method);
     }
 
     profilesForAllMethods.remove(method);
+    profilesForCallSites.remove(method);
+  }
+
+  /**
+   * Records that a specialized version was created so that it can be
+   * created again in a later run. Versions that were already recorded
+   * are ignored.
+   *
+   * @param method the specialized method
+   * @param context the context of the specialized version
+   */
+  synchronized void recordSpecializationPlan(RVMMethod method, ParameterValueSpecializationContext context) {
+    List<ParameterValueSpecializationContext> contexts = specializationPlans.get(method);
+    if (contexts == null) {
+      contexts = new ArrayList<ParameterValueSpecializationContext>(1);
+      specializationPlans.put(method, contexts);
+    }
+    for (ParameterValueSpecializationContext recorded : contexts) {
+      if (Arrays.equals(recorded.getParameterInformation(), context.getParameterInformation()) &&
+          recorded.getReceiverType() == context.getReceiverType()) {
+        return;
+      }
+    }
+    contexts.add(context);
+  }
+
+  /**
+   * @param method a method that is about to be opt compiled
+   * @return the contexts of the specialized versions that were created for
+   *  the method in the run that saved the loaded profiles or {@code null}
+   *  if there are none. The contexts are only returned once.
+   */
+  List<ParameterValueSpecializationContext> takeSavedSpecializationPlans(NormalMethod method) {
+    if (savedProfiles == null) {
+      return null;
+    }
+    return savedProfiles.takeSpecializationPlans(method);
+  }
+
+  /**
+   * Records the values of a sample in the profile of the sampled method and
+   * in the profile of the call site that the sample was taken for.
+   */
+  private static final class CallSiteAttributingProfile implements ParameterProfileInformation {
+
+    private final ParameterProfileInformation methodProfile;
+    private final ParameterProfileInformation callSiteProfile;
+
+    CallSiteAttributingProfile(ParameterProfileInformation methodProfile, ParameterProfileInformation callSiteProfile) {
+      this.methodProfile = methodProfile;
+      this.callSiteProfile = callSiteProfile;
+    }
+
+    @Override
+    public void addNewIntValue(int intValue) {
+      methodProfile.addNewIntValue(intValue);
+      callSiteProfile.addNewIntValue(intValue);
+    }
+
+    @Override
+    public void addNewByteValue(byte byteValue) {
+      methodProfile.addNewByteValue(byteValue);
+      callSiteProfile.addNewByteValue(byteValue);
+    }
+
+    @Override
+    public void addNewCharValue(char charValue) {
+      methodProfile.addNewCharValue(charValue);
+      callSiteProfile.addNewCharValue(charValue);
+    }
+
+    @Override
+    public void addNewShortValue(short shortValue) {
+      methodProfile.addNewShortValue(shortValue);
+      callSiteProfile.addNewShortValue(shortValue);
+    }
+
+    @Override
+    public void addNewLongValue(long longValue) {
+      methodProfile.addNewLongValue(longValue);
+      callSiteProfile.addNewLongValue(longValue);
+    }
+
+    @Override
+    public void addNewBooleanValue(boolean booleanValue) {
+      methodProfile.addNewBooleanValue(booleanValue);
+      callSiteProfile.addNewBooleanValue(booleanValue);
+    }
+
+    @Override
+    public void addNewDoubleValue(double doubleValue) {
+      methodProfile.addNewDoubleValue(doubleValue);
+      callSiteProfile.addNewDoubleValue(doubleValue);
+    }
+
+    @Override
+    public void addNewFloatValue(float floatValue) {
+      methodProfile.addNewFloatValue(floatValue);
+      callSiteProfile.addNewFloatValue(floatValue);
+    }
+
+    @Override
+    public void addNewType(RVMType objectType) {
+      methodProfile.addNewType(objectType);
+      callSiteProfile.addNewType(objectType);
+    }
+
+    @Override
+    public void addNewArrayLength(int length) {
+      methodProfile.addNewArrayLength(length);
+      callSiteProfile.addNewArrayLength(length);
+    }
   }
 
 }
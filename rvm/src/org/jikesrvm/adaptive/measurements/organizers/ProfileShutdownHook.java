@@ -16,13 +16,26 @@ class ProfileShutdownHook implements Runnable {
 
   private final ParameterProfileOrganizer ppo;
 
-  ProfileShutdownHook(ParameterProfileOrganizer ppo) {
+  /** Whether to write the human-readable report of the profiles */
+  private final boolean report;
+
+  /** The name of the profile file to write or {@code null} */
+  private final String profileFile;
+
+  ProfileShutdownHook(ParameterProfileOrganizer ppo, boolean report, String profileFile) {
     this.ppo = ppo;
+    this.report = report;
+    this.profileFile = profileFile;
   }
 
   @Override
   public void run() {
-    ppo.reportProfiles();
+    if (report) {
+      ppo.reportProfiles();
+    }
+    if (profileFile != null) {
+      ppo.writeProfileFile(profileFile);
+    }
   }
 
 }
@@ -12,19 +12,25 @@
  */
 package org.jikesrvm.adaptive.measurements.organizers;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
+import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
+import org.jikesrvm.compilers.opt.specialization.CostBenefitSpecializationOracle;
 import org.jikesrvm.compilers.opt.specialization.DebugSpecializationOracle;
 import org.jikesrvm.compilers.opt.specialization.DebugSpecializeEagerlyOracle;
 import org.jikesrvm.compilers.opt.specialization.DefaultSpecializationOracle;
 import org.jikesrvm.compilers.opt.specialization.NeverSpecializeOracle;
 import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
 import org.jikesrvm.compilers.opt.specialization.SpecializationDecision;
 import org.jikesrvm.compilers.opt.specialization.SpecializationDecisionShutdownHook;
 import org.jikesrvm.compilers.opt.specialization.SpecializationOracle;
@@ -59,6 +65,8 @@ public class SpecializedMethodCreater implements MethodCompileMonitor {
       oracle = new NeverSpecializeOracle();
     } else if (Controller.options.atMostOneVersionPerOptCompiledMethod()) {
       oracle = new DefaultSpecializationOracle();
+    } else if (Controller.options.costBenefit()) {
+      oracle = new CostBenefitSpecializationOracle();
     } else {
       if (VM.VerifyAssertions) {
         VM._assert(VM.NOT_REACHED, "Unknown specialization mode!");
@@ -90,6 +98,14 @@ public class SpecializedMethodCreater implements MethodCompileMonitor {
       return;
     }
 
+    List<ParameterValueSpecializationContext> savedPlans = organizer.takeSavedSpecializationPlans((NormalMethod) method);
+    if (savedPlans != null) {
+      for (ParameterValueSpecializationContext context : savedPlans) {
+        context.findOrCreateSpecializedVersion((NormalMethod) method);
+        organizer.recordSpecializationPlan(method, context);
+      }
+    }
+
     List<ParameterProfileInformation> profiles = organizer.getProfiles(method);
     SpecializationDecision decision = oracle.shouldSpecialize(method, profiles, plan);
 
@@ -101,8 +117,47 @@ public class SpecializedMethodCreater implements MethodCompileMonitor {
     if (specialize) {
       ParameterValueSpecializationContext context = decision.getContext();
       context.findOrCreateSpecializedVersion((NormalMethod) method);
+      organizer.recordSpecializationPlan(method, context);
+    }
+    if (specializeForCallSites((NormalMethod) method, plan)) {
+      specialize = true;
+    }
+    if (specialize) {
       organizer.throwAwayDataForMethod(method);
     }
   }
 
+  /**
+   * Creates specialized versions for the call sites of the method whose
+   * profiles the oracle accepts. Versions for call sites are not recorded
+   * in the profile file.
+   *
+   * @param method the method that is opt compiled
+   * @param plan the compilation plan for the method
+   * @return whether a version was created
+   */
+  private boolean specializeForCallSites(NormalMethod method, CompilationPlan plan) {
+    Map<CallSite, MethodProfile> callSiteProfiles = organizer.getCallSiteProfiles(method);
+    if (callSiteProfiles == null) {
+      return false;
+    }
+    boolean specialized = false;
+    for (Map.Entry<CallSite, MethodProfile> entry : callSiteProfiles.entrySet()) {
+      CallSite callSite = entry.getKey();
+      if (!SpecializationDatabase.getSpecialVersionsForCallSite(method, callSite.getMethod(), callSite.getBytecodeIndex()).isEmpty()) {
+        continue;
+      }
+      List<ParameterProfileInformation> profiles = Collections.<ParameterProfileInformation>singletonList(entry.getValue());
+      SpecializationDecision decision = oracle.shouldSpecializeCallSite(method, callSite, profiles, plan);
+      if (Controller.options.SPEC_DECISIONS_LOGGING) {
+        decisionHook.addDecision(decision);
+      }
+      if (decision.isYES()) {
+        decision.getContext().findOrCreateSpecializedVersion(method);
+        specialized = true;
+      }
+    }
+    return specialized;
+  }
+
 }
@@ -0,0 +1,56 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+
+/**
+ * Information about a property of a reference parameter that is neither
+ * its exact type nor its value, e.g. the length of an array. A specialized
+ * version for a property keeps the parameter in a register but lets the
+ * optimizing compiler assume the property.
+ */
+public abstract class AbstractParameterProperty extends AbstractParameterInfo {
+
+  /**
+   * Is the parameter known to be non-<code>null</code> when the property
+   * holds?
+   *
+   * @return <code>true</code> for all properties that are currently supported
+   */
+  public boolean impliesNonNull() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return <code>false</code> because this class and its subclasses represent
+   *  properties of parameters (and not types)
+   */
+  @Override
+  public boolean hasTypeInformation() {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return <code>true</code>
+   */
+  @Override
+  public boolean hasPropertyInformation() {
+    return true;
+  }
+
+}
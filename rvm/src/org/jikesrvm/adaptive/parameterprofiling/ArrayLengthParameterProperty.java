@@ -0,0 +1,62 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+/**
+ * The property that an array parameter is not <code>null</code> and has a
+ * certain length.
+ * <p>
+ * The optimizing compiler folds the <code>arraylength</code> of the parameter
+ * in the specialized version, which gives loops over the array a constant
+ * trip count and removes bounds checks for constant indexes.
+ */
+public final class ArrayLengthParameterProperty extends AbstractParameterProperty {
+
+  private final int length;
+
+  ArrayLengthParameterProperty(int length) {
+    this.length = length;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    return "length " + length;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + length;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ArrayLengthParameterProperty other = (ArrayLengthParameterProperty) obj;
+    if (length != other.length)
+      return false;
+    return true;
+  }
+
+}
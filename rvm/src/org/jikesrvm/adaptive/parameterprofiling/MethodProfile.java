@@ -12,13 +12,14 @@
  */
 package org.jikesrvm.adaptive.parameterprofiling;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.MethodDataProvider;
@@ -26,13 +27,61 @@ import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.util.Pair;
 
+/**
+ * A summary of the parameter values that were sampled for a method.
+ * <p>
+ * The most frequent values of each parameter are kept in a
+ * {@link ParameterValueSketch} and combinations of values are kept in
+ * flat arrays of the same format, so adding samples does not allocate and
+ * the memory needed per method is bounded. Objects for the values are only
+ * created when the profile is queried.
+ */
 public class MethodProfile implements ParameterProfileInformation {
 
-  private static final PairComparator pairComp = new PairComparator();
+  /**
+   * The maximum number of distinct combinations of parameter values that are
+   * recorded for a method. Once this limit is reached, a new combination
+   * replaces the least frequent one, as in {@link ParameterValueSketch}.
+   */
+  static final int MAX_COMBINATIONS = 64;
+
+  private static final int INITIAL_COMBINATIONS = 4;
+
+  private final int parameterCount;
+
+  private final ParameterValueSketch[] parameters;
+
+  private int currentParam;
+
+  /**
+   * The kinds and bits of the values for the sample that is currently being
+   * added via the <code>addNew*</code> methods.
+   */
+  private final byte[] currentKinds;
+  private final long[] currentBits;
 
-  private Map<Integer, Map<AbstractParameterInfo, Integer>> parameters;
+  /** A sample that was added and can be handed out again */
+  private ParameterSample spareSample;
 
-  private Integer currentParam;
+  /** Scratch space for reading profiles and for queries that use value objects */
+  private final byte[] otherKinds;
+  private final long[] otherBits;
+
+  /**
+   * Combinations of values that were seen together, i.e. complete samples.
+   * Each combination occupies {@link #parameterCount} consecutive entries.
+   * Combinations are kept in descending order of their counts. Like the
+   * entries of a {@link ParameterValueSketch}, a combination that replaced
+   * another one inherits its count, which is recorded as the error of the
+   * combination.
+   */
+  private byte[] combinationKinds;
+  private long[] combinationBits;
+  private int[] combinationCounts;
+  private int[] combinationErrors;
+  private int combinationCount;
+
+  private int completeSamples;
 
   private final MethodDataProvider methodData;
 
@@ -48,142 +97,388 @@ public class MethodProfile implements ParameterProfileInformation {
 
   public MethodProfile(MethodDataProvider methodData, CandidateType candidateType) {
     this.methodData = methodData;
-    parameters = new HashMap<Integer, Map<AbstractParameterInfo, Integer>>();
-    for (int i = 0; i < methodData.getParameterCountIncludingThis(); i++) {
-      parameters.put(Integer.valueOf(i), new HashMap<AbstractParameterInfo, Integer>());
+    parameterCount = methodData.getParameterCountIncludingThis();
+    parameters = new ParameterValueSketch[parameterCount];
+    for (int i = 0; i < parameterCount; i++) {
+      parameters[i] = new ParameterValueSketch();
     }
-    currentParam = Integer.valueOf(0);
+    currentKinds = new byte[parameterCount];
+    currentBits = new long[parameterCount];
+    otherKinds = new byte[parameterCount];
+    otherBits = new long[parameterCount];
+    combinationKinds = new byte[INITIAL_COMBINATIONS * parameterCount];
+    combinationBits = new long[INITIAL_COMBINATIONS * parameterCount];
+    combinationCounts = new int[INITIAL_COMBINATIONS];
+    combinationErrors = new int[INITIAL_COMBINATIONS];
 
     this.candidateType = candidateType;
   }
 
   @Override
-  public void addNewByteValue(byte byteValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
-
-    ByteParameterValue bpv = new ByteParameterValue(byteValue);
-    increaseCountForParameterValue(currentParamMap, bpv);
-
-    switchToNextParameter();
+  public synchronized void addNewByteValue(byte byteValue) {
+    addValueForCurrentParameter(ParameterValueSketch.BYTE, byteValue);
   }
 
   @Override
-  public void addNewCharValue(char charValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
-
-    CharParameterValue cpv = new CharParameterValue(charValue);
-    increaseCountForParameterValue(currentParamMap, cpv);
+  public synchronized void addNewCharValue(char charValue) {
+    addValueForCurrentParameter(ParameterValueSketch.CHAR, charValue);
+  }
 
-    switchToNextParameter();
+  @Override
+  public synchronized void addNewIntValue(int i) {
+    addValueForCurrentParameter(ParameterValueSketch.INT, i);
   }
 
   @Override
-  public void addNewIntValue(int i) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  public synchronized void addNewLongValue(long l) {
+    addValueForCurrentParameter(ParameterValueSketch.LONG, l);
+  }
 
-    IntParameterValue ipv = new IntParameterValue(i);
-    increaseCountForParameterValue(currentParamMap, ipv);
+  @Override
+  public synchronized void addNewShortValue(short shortValue) {
+    addValueForCurrentParameter(ParameterValueSketch.SHORT, shortValue);
+  }
 
-    switchToNextParameter();
+  @Override
+  public synchronized void addNewBooleanValue(boolean booleanValue) {
+    addValueForCurrentParameter(ParameterValueSketch.BOOLEAN, booleanValue ? 1 : 0);
   }
 
   @Override
-  public void addNewLongValue(long l) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  public synchronized void addNewDoubleValue(double doubleValue) {
+    addValueForCurrentParameter(ParameterValueSketch.DOUBLE, Double.doubleToLongBits(doubleValue));
+  }
 
-    LongParameterValue lpv = new LongParameterValue(l);
-    increaseCountForParameterValue(currentParamMap, lpv);
+  @Override
+  public synchronized void addNewFloatValue(float floatValue) {
+    addValueForCurrentParameter(ParameterValueSketch.FLOAT, Float.floatToIntBits(floatValue));
+  }
 
-    switchToNextParameter();
+  @Override
+  public synchronized void addNewType(RVMType objectType) {
+    if (objectType == null) {
+      addValueForCurrentParameter(ParameterValueSketch.NULL, 0);
+    } else {
+      addValueForCurrentParameter(ParameterValueSketch.TYPE, objectType.getId());
+    }
   }
 
   @Override
-  public void addNewShortValue(short shortValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  public synchronized void addNewArrayLength(int length) {
+    addValueForCurrentParameter(ParameterValueSketch.ARRAY_LENGTH, length);
+  }
 
-    ShortParameterValue spv = new ShortParameterValue(shortValue);
-    increaseCountForParameterValue(currentParamMap, spv);
+  /**
+   * Returns an empty sample for this method's parameters. A sample can be
+   * filled by the client and then added to the profile via
+   * {@link #addSample(ParameterSample)} which recycles it, so a new sample
+   * is only allocated if several threads sample the method at the same time.
+   *
+   * @return a sample in which the values of all parameters are unknown
+   */
+  public synchronized ParameterSample acquireSample() {
+    ParameterSample sample = spareSample;
+    if (sample == null) {
+      return new ParameterSample(parameterCount);
+    }
+    spareSample = null;
+    sample.clear();
+    return sample;
+  }
 
-    switchToNextParameter();
+  /**
+   * Adds a complete sample to this profile. Unlike the <code>addNew*</code>
+   * methods, this neither uses nor changes the current parameter, so samples
+   * from different sources can be added concurrently.
+   *
+   * @param sample the sample, as returned by {@link #acquireSample()}. It
+   *  must not be used after this call.
+   */
+  public synchronized void addSample(ParameterSample sample) {
+    for (int i = 0; i < parameterCount; i++) {
+      if (sample.kinds[i] != ParameterValueSketch.UNKNOWN) {
+        parameters[i].add(sample.kinds[i], sample.bits[i]);
+      }
+    }
+    addCombination(sample.kinds, sample.bits);
+    spareSample = sample;
   }
 
-  @Override
-  public void addNewBooleanValue(boolean booleanValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  /**
+   * Adds a sample that was recorded in a batch, like
+   * {@link #addSample(ParameterSample)}.
+   *
+   * @param batch a batch whose object literals have been resolved
+   * @param sample the index of a sample of this profile's method in the batch
+   */
+  public synchronized void addSample(ParameterSampleBatch batch, int sample) {
+    ParameterSample copy = acquireSample();
+    for (int i = 0; i < parameterCount; i++) {
+      copy.kinds[i] = batch.getKind(sample, i);
+      copy.bits[i] = batch.getBits(sample, i);
+    }
+    addSample(copy);
+  }
 
-    BooleanParameterValue bpv = new BooleanParameterValue(booleanValue);
-    increaseCountForParameterValue(currentParamMap, bpv);
+  private void encodeValues(AbstractParameterInfo[] values) {
+    for (int i = 0; i < parameterCount; i++) {
+      otherKinds[i] = ParameterValueSketch.kindOf(values[i]);
+      otherBits[i] = ParameterValueSketch.bitsOf(values[i]);
+    }
+  }
 
+  private void addValueForCurrentParameter(byte kind, long valueBits) {
+    parameters[currentParam].add(kind, valueBits);
+    currentKinds[currentParam] = kind;
+    currentBits[currentParam] = valueBits;
     switchToNextParameter();
   }
 
-  @Override
-  public void addNewDoubleValue(double doubleValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
-
-    DoubleParameterValue dpv = new DoubleParameterValue(doubleValue);
-    increaseCountForParameterValue(currentParamMap, dpv);
+  private void switchToNextParameter() {
+    currentParam++;
+    if (currentParam >= parameterCount) {
+      currentParam = 0;
+      addCombination(currentKinds, currentBits);
+      Arrays.fill(currentKinds, ParameterValueSketch.UNKNOWN);
+    }
+  }
 
-    switchToNextParameter();
+  /**
+   * Records the combination of values from a complete sample.
+   *
+   * @param kinds the kinds of the values of all parameters for one invocation
+   * @param bits the bits of the values
+   */
+  private void addCombination(byte[] kinds, long[] bits) {
+    completeSamples++;
+    int c = findCombination(kinds, bits);
+    if (c < 0) {
+      if (combinationCount < MAX_COMBINATIONS) {
+        if (combinationCount == combinationCounts.length) {
+          growCombinations();
+        }
+        c = combinationCount++;
+        combinationCounts[c] = 0;
+        combinationErrors[c] = 0;
+      } else {
+        // evict the combination with the lowest count
+        c = MAX_COMBINATIONS - 1;
+        combinationErrors[c] = combinationCounts[c];
+      }
+      System.arraycopy(kinds, 0, combinationKinds, c * parameterCount, parameterCount);
+      System.arraycopy(bits, 0, combinationBits, c * parameterCount, parameterCount);
+    }
+    combinationCounts[c]++;
+    while (c > 0 && combinationCounts[c - 1] < combinationCounts[c]) {
+      swapCombinations(c - 1, c);
+      c--;
+    }
   }
 
-  @Override
-  public void addNewFloatValue(float floatValue) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  private int findCombination(byte[] kinds, long[] bits) {
+    for (int c = 0; c < combinationCount; c++) {
+      int start = c * parameterCount;
+      int i = 0;
+      while (i < parameterCount && combinationKinds[start + i] == kinds[i] && combinationBits[start + i] == bits[i]) {
+        i++;
+      }
+      if (i == parameterCount) {
+        return c;
+      }
+    }
+    return -1;
+  }
 
-    FloatParameterValue fpv = new FloatParameterValue(floatValue);
-    increaseCountForParameterValue(currentParamMap, fpv);
+  private void growCombinations() {
+    int newLength = Math.min(2 * combinationCounts.length, MAX_COMBINATIONS);
+    combinationKinds = Arrays.copyOf(combinationKinds, newLength * parameterCount);
+    combinationBits = Arrays.copyOf(combinationBits, newLength * parameterCount);
+    combinationCounts = Arrays.copyOf(combinationCounts, newLength);
+    combinationErrors = Arrays.copyOf(combinationErrors, newLength);
+  }
 
-    switchToNextParameter();
+  private void swapCombinations(int c, int d) {
+    for (int i = 0; i < parameterCount; i++) {
+      int first = c * parameterCount + i;
+      int second = d * parameterCount + i;
+      byte kind = combinationKinds[first];
+      combinationKinds[first] = combinationKinds[second];
+      combinationKinds[second] = kind;
+      long valueBits = combinationBits[first];
+      combinationBits[first] = combinationBits[second];
+      combinationBits[second] = valueBits;
+    }
+    int count = combinationCounts[c];
+    combinationCounts[c] = combinationCounts[d];
+    combinationCounts[d] = count;
+    int error = combinationErrors[c];
+    combinationErrors[c] = combinationErrors[d];
+    combinationErrors[d] = error;
   }
 
-  @Override
-  public void addNewType(RVMType objectType) {
-    Map<AbstractParameterInfo, Integer> currentParamMap = parameters.get(currentParam);
+  /**
+   * Writes this profile in the format of {@link ParameterProfileFile}.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  synchronized void write(DataOutputStream out) throws IOException {
+    out.writeInt(parameterCount);
+    out.writeInt(completeSamples);
+    for (ParameterValueSketch sketch : parameters) {
+      sketch.write(out);
+    }
+    out.writeInt(combinationCount);
+    for (int c = 0; c < combinationCount; c++) {
+      for (int i = 0; i < parameterCount; i++) {
+        int index = c * parameterCount + i;
+        ParameterValueSketch.writeValue(out, combinationKinds[index], combinationBits[index]);
+      }
+      out.writeInt(combinationCounts[c]);
+      out.writeInt(combinationErrors[c]);
+    }
+  }
 
-    AbstractParameterInfo abstractParamInfo = null;
-    if (objectType == null) {
-      abstractParamInfo = NullParameterValue.NULL;
-    } else {
-      abstractParamInfo = new TypeValueForObjectParameter(objectType);
+  /**
+   * Reads a profile that was written by {@link #write(DataOutputStream)}
+   * into this profile, which must be empty. Values of types that are not
+   * loaded are dropped, as are the combinations that contain them.
+   *
+   * @param in the stream to read from
+   * @param cl the class loader of the method
+   * @throws IOException if reading fails or the profile does not fit the
+   *  parameters of the method
+   */
+  synchronized void read(DataInputStream in, ClassLoader cl) throws IOException {
+    int savedParameterCount = in.readInt();
+    if (savedParameterCount != parameterCount) {
+      throw new IOException("Profile has " + savedParameterCount + " parameters instead of " + parameterCount);
+    }
+    completeSamples = in.readInt();
+    for (ParameterValueSketch sketch : parameters) {
+      sketch.read(in, cl);
+    }
+    int savedCombinations = in.readInt();
+    if (savedCombinations < 0 || savedCombinations > MAX_COMBINATIONS) {
+      throw new IOException("Invalid number of combinations: " + savedCombinations);
+    }
+    for (int c = 0; c < savedCombinations; c++) {
+      boolean known = true;
+      for (int i = 0; i < parameterCount; i++) {
+        known &= ParameterValueSketch.readValue(in, cl, otherKinds, otherBits, i);
+      }
+      int count = in.readInt();
+      int error = in.readInt();
+      if (!known) {
+        continue;
+      }
+      if (combinationCount == combinationCounts.length) {
+        growCombinations();
+      }
+      System.arraycopy(otherKinds, 0, combinationKinds, combinationCount * parameterCount, parameterCount);
+      System.arraycopy(otherBits, 0, combinationBits, combinationCount * parameterCount, parameterCount);
+      combinationCounts[combinationCount] = count;
+      combinationErrors[combinationCount++] = error;
     }
+  }
 
-    increaseCountForParameterValue(currentParamMap, abstractParamInfo);
+  /**
+   * @return the number of complete samples that were added to this profile
+   */
+  public synchronized int getSampleCount() {
+    return completeSamples;
+  }
 
-    switchToNextParameter();
+  /**
+   * @param c the index of a combination in the list returned by
+   *  {@link #getDataForParameterCombinations()}
+   * @return the maximum amount by which the count of the combination may
+   *  exceed the true count
+   */
+  synchronized int getCombinationError(int c) {
+    return combinationErrors[c];
   }
 
-  protected void increaseCountForParameterValue(Map<AbstractParameterInfo, Integer> currentParamMap, AbstractParameterInfo apv) {
-    Integer count = currentParamMap.get(apv);
-    if (count == null) {
-      count = Integer.valueOf(1);
-    } else {
-      count = Integer.valueOf(++count);
+  /**
+   * @return the recorded combinations of parameter values, sorted by
+   *  descending count
+   */
+  public synchronized List<Pair<ParameterValueCombination, Integer>> getDataForParameterCombinations() {
+    List<Pair<ParameterValueCombination, Integer>> list = new LinkedList<Pair<ParameterValueCombination, Integer>>();
+    AbstractParameterInfo[] values = new AbstractParameterInfo[parameterCount];
+    for (int c = 0; c < combinationCount; c++) {
+      for (int i = 0; i < parameterCount; i++) {
+        int index = c * parameterCount + i;
+        values[i] = ParameterValueSketch.toParameterInfo(combinationKinds[index], combinationBits[index]);
+      }
+      ParameterValueCombination combination = new ParameterValueCombination(values);
+      list.add(new Pair<ParameterValueCombination, Integer>(combination, Integer.valueOf(combinationCounts[c])));
     }
-    currentParamMap.put(apv, count);
+    return list;
   }
 
-  private void switchToNextParameter() {
-    int nextValue = currentParam.intValue() + 1;
-    if (nextValue >= methodData.getParameterCountIncludingThis()) {
-      nextValue = 0;
+  /**
+   * Counts the samples in which the given parameters had the given values at
+   * the same time.
+   *
+   * @param values the values, indexed by parameter number (including
+   *  <code>this</code>). Parameters with <code>null</code> entries are ignored.
+   *  {@link NonNullParameterProperty#NON_NULL} matches all non-<code>null</code>
+   *  references.
+   * @return the number of recorded samples that match all given values
+   */
+  public synchronized int getCountForParameterValues(AbstractParameterInfo[] values) {
+    encodeValues(values);
+    int count = 0;
+    for (int c = 0; c < combinationCount; c++) {
+      if (combinationMatches(c)) {
+        count += combinationCounts[c];
+      }
+    }
+    return count;
+  }
+
+  private boolean combinationMatches(int c) {
+    for (int i = 0; i < parameterCount; i++) {
+      int index = c * parameterCount + i;
+      if (otherKinds[i] == ParameterValueSketch.NON_NULL) {
+        if (!ParameterValueSketch.isNonNullReference(combinationKinds[index])) {
+          return false;
+        }
+      } else if (otherKinds[i] != ParameterValueSketch.UNKNOWN &&
+          (combinationKinds[index] != otherKinds[i] || combinationBits[index] != otherBits[i])) {
+        return false;
+      }
     }
-    currentParam = Integer.valueOf(nextValue);
+    return true;
   }
 
-  public List<Pair<AbstractParameterInfo, Integer>> getDataForParameter(int i) {
-    Map<AbstractParameterInfo, Integer> parameterMap = parameters.get(i);
+  /**
+   * @param i the index of the parameter (including <code>this</code>)
+   * @return the most frequent values of the parameter, sorted by descending
+   *  count. The counts are estimates that may be slightly too high once more
+   *  than {@link ParameterValueSketch#CAPACITY} distinct values were seen.
+   */
+  public synchronized List<Pair<AbstractParameterInfo, Integer>> getDataForParameter(int i) {
+    ParameterValueSketch sketch = parameters[i];
 
     List<Pair<AbstractParameterInfo, Integer>> list = new LinkedList<Pair<AbstractParameterInfo, Integer>>();
-    for (Entry<AbstractParameterInfo, Integer> e : parameterMap.entrySet()) {
-      Pair<AbstractParameterInfo, Integer> pair = new Pair<AbstractParameterInfo, Integer>(e.getKey(), e.getValue());
-      list.add(pair);
+    for (int entry = 0; entry < sketch.size(); entry++) {
+      Integer count = Integer.valueOf(sketch.getCount(entry));
+      list.add(new Pair<AbstractParameterInfo, Integer>(sketch.getValue(entry), count));
     }
-    Collections.sort(list, pairComp);
-
     return list;
   }
 
+  /**
+   * @param i the index of the parameter (including <code>this</code>)
+   * @return the estimated number of samples in which the parameter was a
+   *  non-<code>null</code> reference
+   */
+  public synchronized int getNonNullCount(int i) {
+    return parameters[i].getNonNullCount();
+  }
+
   public List<Pair<AbstractParameterInfo, Integer>> getCandidatesForParameter(int i) {
     List<Pair<AbstractParameterInfo, Integer>> data = getDataForParameter(i);
 
@@ -207,6 +502,31 @@ public class MethodProfile implements ParameterProfileInformation {
     return data;
   }
 
+  /**
+   * Could the given value be used to specialize the method on the given
+   * parameter? This applies the same rules as
+   * {@link #getCandidatesForParameter(int)}.
+   *
+   * @param i the index of the parameter (including <code>this</code>)
+   * @param info a value or type for the parameter, may be <code>null</code>
+   * @return <code>true</code> if the value is a candidate for specialization
+   */
+  public boolean isCandidateForParameter(int i, AbstractParameterInfo info) {
+    if (info == null) {
+      return false;
+    }
+    boolean hasTypeInfo = info.hasTypeInformation();
+    if (!hasTypeInfo) {
+      return candidateType != CandidateType.TYPES_ONLY;
+    }
+    if (candidateType == CandidateType.VALUES_ONLY) {
+      return false;
+    }
+    TypeValueForObjectParameter tvfop = (TypeValueForObjectParameter) info;
+    int offset = methodData.isInstanceMethod() ? -1 : 0;
+    return tvfop.getObjectType().getTypeRef() != methodData.getParameterTypes()[i + offset];
+  }
+
   protected void removeTypesThatAreNotMorePreciseThanSignature(int i, Iterator<Pair<AbstractParameterInfo, Integer>> iterator, Pair<AbstractParameterInfo, Integer> pair) {
     if (pair.first.hasTypeInformation()) {
       TypeValueForObjectParameter tvfop = (TypeValueForObjectParameter) pair.first;
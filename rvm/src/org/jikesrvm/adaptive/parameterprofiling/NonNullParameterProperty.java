@@ -0,0 +1,35 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+/**
+ * The property that a reference parameter is not <code>null</code>.
+ * <p>
+ * This is used for parameters that are never <code>null</code> but vary in
+ * type and value. The specialized version does not need null checks for
+ * the parameter.
+ */
+public final class NonNullParameterProperty extends AbstractParameterProperty {
+
+  public static final NonNullParameterProperty NON_NULL = new NonNullParameterProperty();
+
+  private NonNullParameterProperty() {
+    // only one instance needed
+  }
+
+  @Override
+  public String toString() {
+    return "NON_NULL";
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import org.jikesrvm.compilers.opt.ir.operand.ConstantOperand;
+import org.jikesrvm.compilers.opt.ir.operand.ObjectConstantOperand;
+import org.jikesrvm.compilers.opt.ir.operand.StringConstantOperand;
+import org.jikesrvm.runtime.Statics;
+import org.vmmagic.unboxed.Offset;
+
+/**
+ * A reference parameter that is identical to an object literal in the JTOC,
+ * e.g. a string literal or a class literal.
+ * <p>
+ * Only literals are profiled by identity: they are immutable, they are kept
+ * alive by the JTOC and their number is bounded by the loaded classes. The
+ * specialized version sees the parameter as a constant, so comparisons with
+ * other literals and calls like {@link String#equals(Object)} can be folded.
+ */
+public final class ObjectIdentityParameterValue extends AbstractParameterValue {
+
+  private final Object literal;
+
+  /** The offset of the literal in the JTOC */
+  private final int offset;
+
+  ObjectIdentityParameterValue(Object literal, int offset) {
+    this.literal = literal;
+    this.offset = offset;
+  }
+
+  /**
+   * @param offset the offset of an object literal in the JTOC
+   * @return the value for the literal
+   */
+  static ObjectIdentityParameterValue forLiteralAt(int offset) {
+    Object literal = Statics.getSlotContentsAsObject(Offset.fromIntSignExtend(offset));
+    return new ObjectIdentityParameterValue(literal, offset);
+  }
+
+  public Object getLiteral() {
+    return literal;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return a new {@link StringConstantOperand} for strings, a new
+   *  {@link ObjectConstantOperand} otherwise
+   */
+  @Override
+  public ConstantOperand buildOperand() {
+    if (literal instanceof String) {
+      return new StringConstantOperand((String) literal, Offset.fromIntSignExtend(offset));
+    }
+    return new ObjectConstantOperand(literal, Offset.fromIntSignExtend(offset));
+  }
+
+  @Override
+  public String toString() {
+    if (literal instanceof String) {
+      return "\"" + literal + "\"";
+    }
+    return literal.toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return offset;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ObjectIdentityParameterValue other = (ObjectIdentityParameterValue) obj;
+    return literal == other.literal;
+  }
+
+}
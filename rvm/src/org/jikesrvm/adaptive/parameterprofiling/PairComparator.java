@@ -14,7 +14,6 @@ package org.jikesrvm.adaptive.parameterprofiling;
 
 import java.util.Comparator;
 
-import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.util.Pair;
 
 /**
@@ -22,7 +21,7 @@ import org.jikesrvm.util.Pair;
  * <p>
  * NOTE: This comparator imposes orderings that are inconsistent with equals!
  */
-public class PairComparator implements Comparator<Pair<AbstractParameterInfo, Integer>> {
+public class PairComparator<T> implements Comparator<Pair<T, Integer>> {
 
   /**
    * {@inheritDoc}
@@ -32,7 +31,7 @@ public class PairComparator implements Comparator<Pair<AbstractParameterInfo, In
    * NOTE: This comparator imposes orderings that are inconsistent with equals!
    */
   @Override
-  public int compare(Pair<AbstractParameterInfo, Integer> arg0, Pair<AbstractParameterInfo, Integer> arg1) {
+  public int compare(Pair<T, Integer> arg0, Pair<T, Integer> arg1) {
     Integer countForFirst = arg0.second;
     Integer countForSecond = arg1.second;
 
@@ -106,6 +106,11 @@ public class ParameterProfile implements ParameterProfileInformation {
     }
   }
 
+  @Override
+  public void addNewArrayLength(int length) {
+    parameterValues[numberOfParameters++] = paramValueFactory.createArrayLengthParameter(length);
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
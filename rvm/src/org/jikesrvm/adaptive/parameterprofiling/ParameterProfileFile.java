@@ -0,0 +1,299 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.ReceiverTypeSpecializationContext;
+
+/**
+ * A file that holds the {@link MethodProfile}s and the chosen
+ * {@link ParameterValueSpecializationContext specializations} of a run so that
+ * a later run can start with them instead of profiling again.
+ * <p>
+ * The file starts with a magic number and a version. It is followed by one
+ * record per method, keyed by the signature of the method (descriptor of the
+ * declaring class, name and descriptor of the method). A record consists of
+ * the profile of the method (if one was kept) and the parameter values and
+ * receiver classes of the specialized versions that were created for it.
+ * <p>
+ * Types are stored as descriptors because type ids differ from run to run.
+ * Records are decoded lazily when the method is first profiled or opt compiled
+ * because the types they refer to may not be loaded before that. Values of
+ * types that are still not loaded at that time are dropped. Object literals are
+ * dropped as well because their offsets in the JTOC differ from run to run.
+ */
+public final class ParameterProfileFile {
+
+  private static final int MAGIC = 0x4a505046;
+
+  /**
+   * The version of the format. Files with other versions are ignored.
+   */
+  private static final int VERSION = 4;
+
+  /** The encoded profiles, indexed by method signature */
+  private final Map<String, byte[]> profiles;
+
+  /** The encoded specialization plans, indexed by method signature */
+  private final Map<String, byte[]> plans;
+
+  private ParameterProfileFile(Map<String, byte[]> profiles, Map<String, byte[]> plans) {
+    this.profiles = profiles;
+    this.plans = plans;
+  }
+
+  /**
+   * Reads a file that was written by {@link #write(String, Map, Map)}.
+   * Unlike compiler advice, a profile file that cannot be read does not
+   * stop the VM: the file is only an optimization, so a warning is
+   * printed and the run starts without profiles.
+   *
+   * @param fileName the name of the file
+   * @return the contents of the file or {@code null} if it could not be read
+   */
+  public static ParameterProfileFile read(String fileName) {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+      if (in.readInt() != MAGIC) {
+        VM.sysWriteln("Ignoring parameter profile file " + fileName + ": not a parameter profile file");
+        return null;
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        VM.sysWriteln("Ignoring parameter profile file " + fileName + ": unsupported version " + version);
+        return null;
+      }
+      Map<String, byte[]> profiles = new HashMap<String, byte[]>();
+      Map<String, byte[]> plans = new HashMap<String, byte[]>();
+      int methods = in.readInt();
+      for (int i = 0; i < methods; i++) {
+        String signature = in.readUTF();
+        byte[] profile = readBytes(in);
+        if (profile != null) {
+          profiles.put(signature, profile);
+        }
+        byte[] plan = readBytes(in);
+        if (plan != null) {
+          plans.put(signature, plan);
+        }
+      }
+      return new ParameterProfileFile(profiles, plans);
+    } catch (FileNotFoundException e) {
+      VM.sysWriteln("Ignoring parameter profile file " + fileName + ": file not found");
+    } catch (EOFException e) {
+      VM.sysWriteln("Ignoring parameter profile file " + fileName + ": file is truncated");
+    } catch (IOException e) {
+      VM.sysWriteln("Ignoring parameter profile file " + fileName + ": " + e.getMessage());
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // nothing to do
+        }
+      }
+    }
+    return null;
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Writes profiles and specialization plans to a file.
+   *
+   * @param fileName the name of the file
+   * @param methodProfiles the profiles of the methods
+   * @param specializationPlans the contexts of the specialized versions
+   *  that were created for the methods
+   * @throws IOException if writing fails
+   */
+  public static void write(String fileName, Map<RVMMethod, MethodProfile> methodProfiles,
+      Map<RVMMethod, List<ParameterValueSpecializationContext>> specializationPlans) throws IOException {
+    Set<RVMMethod> methods = new HashSet<RVMMethod>(methodProfiles.keySet());
+    methods.addAll(specializationPlans.keySet());
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(methods.size());
+      for (RVMMethod method : methods) {
+        out.writeUTF(getSignature(method));
+
+        MethodProfile profile = methodProfiles.get(method);
+        if (profile == null) {
+          out.writeInt(-1);
+        } else {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          profile.write(new DataOutputStream(bytes));
+          out.writeInt(bytes.size());
+          bytes.writeTo(out);
+        }
+
+        List<ParameterValueSpecializationContext> contexts = specializationPlans.get(method);
+        if (contexts == null) {
+          out.writeInt(-1);
+        } else {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          writePlans(new DataOutputStream(bytes), contexts);
+          out.writeInt(bytes.size());
+          bytes.writeTo(out);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writePlans(DataOutputStream out, List<ParameterValueSpecializationContext> contexts) throws IOException {
+    out.writeInt(contexts.size());
+    for (ParameterValueSpecializationContext context : contexts) {
+      AbstractParameterInfo[] values = context.getParameterInformation();
+      out.writeInt(context.getProfiledFrequency());
+      out.writeInt(values.length);
+      for (AbstractParameterInfo value : values) {
+        ParameterValueSketch.writeValue(out, ParameterValueSketch.kindOf(value), ParameterValueSketch.bitsOf(value));
+      }
+      RVMClass receiverType = context.getReceiverType();
+      if (receiverType == null) {
+        ParameterValueSketch.writeValue(out, ParameterValueSketch.UNKNOWN, 0);
+      } else {
+        ParameterValueSketch.writeValue(out, ParameterValueSketch.TYPE, receiverType.getId());
+      }
+    }
+  }
+
+  /**
+   * Fills a new profile with the saved profile of a method. The saved profile
+   * is consumed, i.e. it is only restored once.
+   *
+   * @param method the method
+   * @param profile an empty profile for the method
+   * @return {@code false} if a saved profile exists but does not fit the
+   *  method. The given profile may then contain parts of the saved profile
+   *  and must be discarded.
+   */
+  public synchronized boolean restoreProfile(RVMMethod method, MethodProfile profile) {
+    byte[] bytes = profiles.remove(getSignature(method));
+    if (bytes == null) {
+      return true;
+    }
+    try {
+      profile.read(new DataInputStream(new ByteArrayInputStream(bytes)), method.getDeclaringClass().getClassLoader());
+      return true;
+    } catch (IOException e) {
+      VM.sysWriteln("Ignoring saved parameter profile for " + method + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Creates the contexts for the specialized versions that were created for a
+   * method in the run that wrote this file. The plans are consumed, i.e.
+   * they are only returned once. Plans that refer to types that are not
+   * loaded, including the class of the receiver, are dropped.
+   *
+   * @param method the method
+   * @return the contexts or {@code null} if there are no plans for the method
+   */
+  public synchronized List<ParameterValueSpecializationContext> takeSpecializationPlans(NormalMethod method) {
+    byte[] bytes = plans.remove(getSignature(method));
+    if (bytes == null) {
+      return null;
+    }
+    ClassLoader cl = method.getDeclaringClass().getClassLoader();
+    List<ParameterValueSpecializationContext> contexts = new ArrayList<ParameterValueSpecializationContext>();
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      int planCount = in.readInt();
+      int parameterCount = method.getParameterTypes().length;
+      for (int p = 0; p < planCount; p++) {
+        int frequency = in.readInt();
+        int valueCount = in.readInt();
+        if (valueCount != parameterCount) {
+          throw new IOException("Plan has " + valueCount + " parameters instead of " + parameterCount);
+        }
+        byte[] kinds = new byte[valueCount];
+        long[] bits = new long[valueCount];
+        boolean known = true;
+        for (int i = 0; i < valueCount; i++) {
+          known &= ParameterValueSketch.readValue(in, cl, kinds, bits, i);
+        }
+        byte[] receiverKind = new byte[1];
+        long[] receiverBits = new long[1];
+        known &= ParameterValueSketch.readValue(in, cl, receiverKind, receiverBits, 0);
+        if (!known) {
+          continue;
+        }
+        AbstractParameterInfo[] values = new AbstractParameterInfo[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+          values[i] = ParameterValueSketch.toParameterInfo(kinds[i], bits[i]);
+        }
+        ParameterValueSpecializationContext context;
+        if (receiverKind[0] == ParameterValueSketch.TYPE) {
+          RVMType receiverType = RVMType.getType((int) receiverBits[0]);
+          if (!receiverType.isClassType()) {
+            continue;
+          }
+          context = new ReceiverTypeSpecializationContext(method, receiverType.asClass(), values);
+        } else {
+          context = new ParameterValueSpecializationContext(method, values);
+        }
+        context.setProfiledFrequency(frequency);
+        contexts.add(context);
+      }
+    } catch (IOException e) {
+      VM.sysWriteln("Ignoring saved specialization plans for " + method + ": " + e.getMessage());
+      return null;
+    }
+    return contexts;
+  }
+
+  private static String getSignature(RVMMethod method) {
+    return method.getDeclaringClass().getDescriptor() + "." + method.getName() + method.getDescriptor();
+  }
+
+}
@@ -34,4 +34,12 @@ public interface ParameterProfileInformation {
 
   void addNewType(RVMType objectType);
 
+  /**
+   * Adds a non-<code>null</code> array, which is recorded by its length
+   * instead of its type.
+   *
+   * @param length the length of the array
+   */
+  void addNewArrayLength(int length);
+
 }
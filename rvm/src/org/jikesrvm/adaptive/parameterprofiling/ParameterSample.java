@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import java.util.Arrays;
+
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.runtime.Statics;
+
+/**
+ * The values of all parameters for one invocation of a method, in the raw
+ * format of {@link ParameterValueSketch}. Setting values does not allocate.
+ * <p>
+ * Samples are obtained via {@link MethodProfile#acquireSample()} and handed
+ * back via {@link MethodProfile#addSample(ParameterSample)} which recycles
+ * them. A sample must only be used by one thread at a time.
+ */
+public final class ParameterSample {
+
+  final byte[] kinds;
+  final long[] bits;
+
+  ParameterSample(int parameterCount) {
+    kinds = new byte[parameterCount];
+    bits = new long[parameterCount];
+  }
+
+  /**
+   * Marks the values of all parameters as unknown.
+   */
+  void clear() {
+    Arrays.fill(kinds, ParameterValueSketch.UNKNOWN);
+  }
+
+  private void set(int param, byte kind, long valueBits) {
+    kinds[param] = kind;
+    bits[param] = valueBits;
+  }
+
+  public void setBoolean(int param, boolean value) {
+    set(param, ParameterValueSketch.BOOLEAN, value ? 1 : 0);
+  }
+
+  public void setByte(int param, byte value) {
+    set(param, ParameterValueSketch.BYTE, value);
+  }
+
+  public void setChar(int param, char value) {
+    set(param, ParameterValueSketch.CHAR, value);
+  }
+
+  public void setShort(int param, short value) {
+    set(param, ParameterValueSketch.SHORT, value);
+  }
+
+  public void setInt(int param, int value) {
+    set(param, ParameterValueSketch.INT, value);
+  }
+
+  public void setLong(int param, long value) {
+    set(param, ParameterValueSketch.LONG, value);
+  }
+
+  public void setFloat(int param, float value) {
+    set(param, ParameterValueSketch.FLOAT, Float.floatToIntBits(value));
+  }
+
+  public void setDouble(int param, double value) {
+    set(param, ParameterValueSketch.DOUBLE, Double.doubleToLongBits(value));
+  }
+
+  /**
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param type the type of the object or {@code null} if the parameter
+   *  was <code>null</code>
+   */
+  public void setType(int param, RVMType type) {
+    if (type == null) {
+      set(param, ParameterValueSketch.NULL, 0);
+    } else {
+      set(param, ParameterValueSketch.TYPE, type.getId());
+    }
+  }
+
+  public void setArrayLength(int param, int length) {
+    set(param, ParameterValueSketch.ARRAY_LENGTH, length);
+  }
+
+  /**
+   * Records an object by its identity if it is an object literal.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param object a non-null object
+   * @return {@code true} if the object is a literal and was recorded,
+   *  {@code false} if the value of the parameter is unchanged
+   */
+  public boolean setObjectIdentity(int param, Object object) {
+    int offset = Statics.findObjectLiteral(object);
+    if (offset == 0) {
+      return false;
+    }
+    set(param, ParameterValueSketch.IDENTITY, offset);
+    return true;
+  }
+}
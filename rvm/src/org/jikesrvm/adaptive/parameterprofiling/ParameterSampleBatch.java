@@ -0,0 +1,292 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.objectmodel.ObjectModel;
+import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.runtime.Statics;
+import org.vmmagic.pragma.Inline;
+import org.vmmagic.pragma.Interruptible;
+import org.vmmagic.pragma.NoCheckStore;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * Complete samples of the parameters of several methods in the raw format of
+ * {@link ParameterValueSketch}. The values of all samples are kept in flat
+ * arrays and space for a sample is allocated by bumping a pointer, so taking
+ * a sample neither allocates nor needs a lock.
+ * <p>
+ * A batch is owned by a single thread which records the samples of the
+ * parameter probes in opt-compiled code (see
+ * {@link org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterSampleBuffer
+ * ParameterSampleBuffer}). A sample is started with {@link #open(RVMMethod, int)}
+ * and only becomes visible once it is closed with {@link #close()}. Values
+ * that are set while no sample is open are ignored.
+ * <p>
+ * Finding out if an object is an object literal needs a lock, so objects
+ * are kept as candidates and are only looked up by
+ * {@link #resolveObjectLiterals()} when the samples are processed.
+ */
+@Uninterruptible
+public final class ParameterSampleBatch {
+
+  /** The number of samples that fit into a batch */
+  static final int SAMPLE_COUNT = 64;
+
+  /** The number of parameter values that fit into a batch */
+  static final int CAPACITY = 4 * SAMPLE_COUNT;
+
+  private static final int NO_SAMPLE = -1;
+
+  /** The methods of the samples */
+  private final RVMMethod[] methods;
+
+  /** The index of the first value of each sample */
+  private final int[] valueStartIndexes;
+
+  private final byte[] kinds;
+  private final long[] bits;
+
+  /**
+   * Objects whose values are recorded by type but which may turn out to be
+   * object literals.
+   */
+  private final Object[] literalCandidates;
+
+  /** The number of closed samples */
+  private int sampleCount;
+
+  /** The index of the first value that is not used by a sample */
+  private int nextValueIndex;
+
+  /**
+   * The index of the first value of the open sample or {@link #NO_SAMPLE}
+   */
+  private int openStart = NO_SAMPLE;
+
+  /** The number of parameters of the open sample */
+  private int openParameterCount;
+
+  /** The method of the open sample */
+  private RVMMethod openMethod;
+
+  public ParameterSampleBatch() {
+    methods = new RVMMethod[SAMPLE_COUNT];
+    valueStartIndexes = new int[SAMPLE_COUNT];
+    kinds = new byte[CAPACITY];
+    bits = new long[CAPACITY];
+    literalCandidates = new Object[CAPACITY];
+  }
+
+  /**
+   * @param type an int-like type
+   * @return the kind that values of the type are recorded as, for use
+   *  with {@link #setIntLike(int, int, int)}
+   */
+  @Interruptible
+  public static int kindOfIntLike(TypeReference type) {
+    if (type.isBooleanType()) {
+      return ParameterValueSketch.BOOLEAN;
+    } else if (type.isByteType()) {
+      return ParameterValueSketch.BYTE;
+    } else if (type.isCharType()) {
+      return ParameterValueSketch.CHAR;
+    } else if (type.isShortType()) {
+      return ParameterValueSketch.SHORT;
+    }
+    if (VM.VerifyAssertions) VM._assert(type.isIntType());
+    return ParameterValueSketch.INT;
+  }
+
+  /**
+   * Starts a new sample whose values are all unknown.
+   *
+   * @param method the method whose parameters are sampled
+   * @param parameterCount the number of parameters of the method, including
+   *  <code>this</code>
+   * @return {@code false} if the batch is full and the sample was discarded
+   */
+  public boolean open(RVMMethod method, int parameterCount) {
+    if (sampleCount >= SAMPLE_COUNT || nextValueIndex + parameterCount > CAPACITY) {
+      openStart = NO_SAMPLE;
+      return false;
+    }
+    openStart = nextValueIndex;
+    openParameterCount = parameterCount;
+    for (int i = openStart; i < openStart + parameterCount; i++) {
+      kinds[i] = ParameterValueSketch.UNKNOWN;
+    }
+    openMethod = method;
+    return true;
+  }
+
+  /**
+   * Makes the open sample visible, if there is one.
+   */
+  @NoCheckStore
+  public void close() {
+    if (openStart == NO_SAMPLE) {
+      return;
+    }
+    methods[sampleCount] = openMethod;
+    valueStartIndexes[sampleCount] = openStart;
+    openMethod = null;
+    nextValueIndex = openStart + openParameterCount;
+    sampleCount++;
+    openStart = NO_SAMPLE;
+  }
+
+  @Inline
+  @NoCheckStore
+  private void set(int param, byte kind, long valueBits, Object candidate) {
+    if (openStart == NO_SAMPLE) {
+      return;
+    }
+    if (VM.VerifyAssertions) VM._assert(param < openParameterCount);
+    int index = openStart + param;
+    kinds[index] = kind;
+    bits[index] = valueBits;
+    literalCandidates[index] = candidate;
+  }
+
+  /**
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param kind the kind that {@link #kindOfIntLike(TypeReference)} returned
+   *  for the type of the parameter
+   * @param value the value of the parameter
+   */
+  public void setIntLike(int param, int kind, int value) {
+    if (kind == ParameterValueSketch.BOOLEAN) {
+      set(param, ParameterValueSketch.BOOLEAN, value != 0 ? 1 : 0, null);
+    } else {
+      set(param, (byte) kind, value, null);
+    }
+  }
+
+  public void setLong(int param, long value) {
+    set(param, ParameterValueSketch.LONG, value, null);
+  }
+
+  public void setFloat(int param, float value) {
+    set(param, ParameterValueSketch.FLOAT, Float.floatToIntBits(value), null);
+  }
+
+  public void setDouble(int param, double value) {
+    set(param, ParameterValueSketch.DOUBLE, Double.doubleToLongBits(value), null);
+  }
+
+  /**
+   * Records a reference parameter by its type only, as for the receiver.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  public void setType(int param, Object value) {
+    if (value == null) {
+      set(param, ParameterValueSketch.NULL, 0, null);
+    } else {
+      set(param, ParameterValueSketch.TYPE, Magic.getObjectType(value).getId(), null);
+    }
+  }
+
+  /**
+   * Records a parameter that is declared as an array by its length.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  public void setArray(int param, Object value) {
+    if (value == null) {
+      set(param, ParameterValueSketch.NULL, 0, null);
+    } else {
+      set(param, ParameterValueSketch.ARRAY_LENGTH, ObjectModel.getArrayLength(value), null);
+    }
+  }
+
+  /**
+   * Records a reference parameter by its identity if it is an object literal
+   * and by its type otherwise. The identity is only looked up by
+   * {@link #resolveObjectLiterals()}.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  public void setObject(int param, Object value) {
+    if (value == null) {
+      set(param, ParameterValueSketch.NULL, 0, null);
+    } else {
+      set(param, ParameterValueSketch.TYPE, Magic.getObjectType(value).getId(), value);
+    }
+  }
+
+  /**
+   * Records the objects that are object literals by their identity and
+   * drops the references to all candidates. Called before the samples are
+   * added to profiles.
+   */
+  @Interruptible
+  public void resolveObjectLiterals() {
+    for (int i = 0; i < nextValueIndex; i++) {
+      Object candidate = literalCandidates[i];
+      if (candidate == null) {
+        continue;
+      }
+      literalCandidates[i] = null;
+      int offset = Statics.findObjectLiteral(candidate);
+      if (offset != 0) {
+        kinds[i] = ParameterValueSketch.IDENTITY;
+        bits[i] = offset;
+      }
+    }
+  }
+
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  public boolean isFull() {
+    return sampleCount >= SAMPLE_COUNT;
+  }
+
+  public RVMMethod getMethod(int sample) {
+    return methods[sample];
+  }
+
+  byte getKind(int sample, int param) {
+    return kinds[valueStartIndexes[sample] + param];
+  }
+
+  long getBits(int sample, int param) {
+    return bits[valueStartIndexes[sample] + param];
+  }
+
+  /**
+   * Empties this batch so that it can be given to a thread again.
+   */
+  @NoCheckStore
+  public void reset() {
+    for (int i = 0; i < sampleCount; i++) {
+      methods[i] = null;
+    }
+    for (int i = 0; i < CAPACITY; i++) {
+      literalCandidates[i] = null;
+    }
+    sampleCount = 0;
+    nextValueIndex = 0;
+    openStart = NO_SAMPLE;
+    openMethod = null;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import java.util.Arrays;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+
+/**
+ * The values of all parameters of a method for a single invocation. Used by
+ * {@link MethodProfile} to record which values occur together.
+ */
+public final class ParameterValueCombination {
+
+  private final AbstractParameterInfo[] values;
+
+  ParameterValueCombination(AbstractParameterInfo[] values) {
+    this.values = values.clone();
+  }
+
+  /**
+   * @param param the index of a parameter (including <code>this</code>)
+   * @return the value of the parameter or <code>null</code> if it is unknown
+   */
+  public AbstractParameterInfo getValue(int param) {
+    return values[param];
+  }
+
+  /**
+   * @return the number of parameters (including <code>this</code>)
+   */
+  public int getParameterCount() {
+    return values.length;
+  }
+
+  /**
+   * Does this combination contain all of the given values?
+   *
+   * @param otherValues values indexed by parameter number. <code>null</code>
+   *  entries match everything, {@link NonNullParameterProperty#NON_NULL}
+   *  matches all non-<code>null</code> references.
+   * @return <code>true</code> if all non-<code>null</code> entries are equal
+   *  to the values of this combination
+   */
+  public boolean matches(AbstractParameterInfo[] otherValues) {
+    for (int i = 0; i < otherValues.length; i++) {
+      AbstractParameterInfo other = otherValues[i];
+      if (other == NonNullParameterProperty.NON_NULL) {
+        if (!ParameterValueSketch.isNonNullReference(ParameterValueSketch.kindOf(values[i]))) {
+          return false;
+        }
+      } else if (other != null && !other.equals(values[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    ParameterValueCombination other = (ParameterValueCombination) obj;
+    return Arrays.equals(values, other.values);
+  }
+
+}
@@ -14,6 +14,7 @@ package org.jikesrvm.adaptive.parameterprofiling;
 
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterValueFactory;
 import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.runtime.Statics;
 
 public class ParameterValueFactoryImpl implements ParameterValueFactory {
 
@@ -79,4 +80,18 @@ public class ParameterValueFactoryImpl implements ParameterValueFactory {
     return NullParameterValue.NULL;
   }
 
+  @Override
+  public ArrayLengthParameterProperty createArrayLengthParameter(int length) {
+    return new ArrayLengthParameterProperty(length);
+  }
+
+  @Override
+  public ObjectIdentityParameterValue createObjectIdentityParameter(Object object) {
+    int offset = Statics.findObjectLiteral(object);
+    if (offset == 0) {
+      return null;
+    }
+    return new ObjectIdentityParameterValue(object, offset);
+  }
+
 }
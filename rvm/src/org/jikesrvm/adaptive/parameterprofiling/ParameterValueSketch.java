@@ -0,0 +1,397 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.Atom;
+import org.jikesrvm.classloader.RVMClassLoader;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.classloader.TypeReference;
+
+/**
+ * A fixed-size summary of the most frequent values of a single parameter,
+ * maintained with the space-saving algorithm.
+ * <p>
+ * Values are stored as a kind (e.g. {@link #INT} or {@link #TYPE}) and
+ * their raw bits (the value itself for integral types, the IEEE bits for
+ * floating point types, the type id for types, the length for arrays and
+ * the JTOC offset for object literals), so adding a value does not
+ * allocate. The entries are kept in descending order of their counts.
+ * When the sketch is full, a new value replaces the entry with the lowest
+ * count and inherits that count as its error. Counts are therefore upper
+ * bounds that exceed the true count by at most the recorded error; values
+ * that occur in more than {@code 1 / CAPACITY} of all samples are always
+ * present.
+ */
+final class ParameterValueSketch {
+
+  /**
+   * The number of distinct values that are tracked per parameter.
+   */
+  static final int CAPACITY = 8;
+
+  /** Marks a value that is unknown, e.g. an unset parameter of a sample */
+  static final byte UNKNOWN = 0;
+  static final byte BOOLEAN = 1;
+  static final byte BYTE = 2;
+  static final byte CHAR = 3;
+  static final byte SHORT = 4;
+  static final byte INT = 5;
+  static final byte LONG = 6;
+  static final byte FLOAT = 7;
+  static final byte DOUBLE = 8;
+  /** An object of a type. The bits hold the id of the {@link RVMType}. */
+  static final byte TYPE = 9;
+  static final byte NULL = 10;
+  /** A non-<code>null</code> array. The bits hold its length. */
+  static final byte ARRAY_LENGTH = 11;
+  /** An object literal. The bits hold its offset in the JTOC. */
+  static final byte IDENTITY = 12;
+  /**
+   * Any non-<code>null</code> reference. Only used for queries, the
+   * profile never contains values of this kind.
+   */
+  static final byte NON_NULL = 13;
+
+  private final byte[] kinds = new byte[CAPACITY];
+
+  private final long[] bits = new long[CAPACITY];
+
+  private final int[] counts = new int[CAPACITY];
+
+  private final int[] errors = new int[CAPACITY];
+
+  private int size;
+
+  /**
+   * Counts one occurrence of a value.
+   *
+   * @param kind the kind of the value
+   * @param valueBits the bits of the value
+   */
+  void add(byte kind, long valueBits) {
+    int i = indexOf(kind, valueBits);
+    if (i < 0) {
+      if (size < CAPACITY) {
+        i = size++;
+        counts[i] = 0;
+        errors[i] = 0;
+      } else {
+        // evict the entry with the lowest count
+        i = CAPACITY - 1;
+        errors[i] = counts[i];
+      }
+      kinds[i] = kind;
+      bits[i] = valueBits;
+    }
+    counts[i]++;
+    while (i > 0 && counts[i - 1] < counts[i]) {
+      swap(i - 1, i);
+      i--;
+    }
+  }
+
+  private int indexOf(byte kind, long valueBits) {
+    for (int i = 0; i < size; i++) {
+      if (bits[i] == valueBits && kinds[i] == kind) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void swap(int i, int j) {
+    byte kind = kinds[i];
+    kinds[i] = kinds[j];
+    kinds[j] = kind;
+    long valueBits = bits[i];
+    bits[i] = bits[j];
+    bits[j] = valueBits;
+    int count = counts[i];
+    counts[i] = counts[j];
+    counts[j] = count;
+    int error = errors[i];
+    errors[i] = errors[j];
+    errors[j] = error;
+  }
+
+  /**
+   * @return the number of entries
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param i the index of an entry, entries are sorted by descending count
+   * @return the value of the entry
+   */
+  AbstractParameterInfo getValue(int i) {
+    return toParameterInfo(kinds[i], bits[i]);
+  }
+
+  /**
+   * @return the estimated number of samples in which the parameter was a
+   *  non-<code>null</code> reference
+   */
+  int getNonNullCount() {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (isNonNullReference(kinds[i])) {
+        count += counts[i];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param kind a kind of value
+   * @return <code>true</code> if values of the kind are non-<code>null</code>
+   *  references
+   */
+  static boolean isNonNullReference(byte kind) {
+    return kind == TYPE || kind == ARRAY_LENGTH || kind == IDENTITY;
+  }
+
+  /**
+   * @param i the index of an entry
+   * @return the estimated count of the entry's value
+   */
+  int getCount(int i) {
+    return counts[i];
+  }
+
+  /**
+   * @param i the index of an entry
+   * @return the maximum amount by which the count of the entry may exceed
+   *  the true count
+   */
+  int getError(int i) {
+    return errors[i];
+  }
+
+  /**
+   * Writes the entries of this sketch in the format of {@link ParameterProfileFile}.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      writeValue(out, kinds[i], bits[i]);
+      out.writeInt(counts[i]);
+      out.writeInt(errors[i]);
+    }
+  }
+
+  /**
+   * Reads entries that were written by {@link #write(DataOutputStream)} and
+   * adds them to this empty sketch. Entries for types that are not loaded
+   * are dropped.
+   *
+   * @param in the stream to read from
+   * @param cl the class loader of the method that the sketch belongs to
+   * @throws IOException if reading fails
+   */
+  void read(DataInputStream in, ClassLoader cl) throws IOException {
+    int entries = in.readInt();
+    if (entries < 0 || entries > CAPACITY) {
+      throw new IOException("Invalid number of values: " + entries);
+    }
+    byte[] kind = new byte[1];
+    long[] valueBits = new long[1];
+    for (int i = 0; i < entries; i++) {
+      boolean known = readValue(in, cl, kind, valueBits, 0);
+      int count = in.readInt();
+      int error = in.readInt();
+      if (known && kind[0] != UNKNOWN) {
+        kinds[size] = kind[0];
+        bits[size] = valueBits[0];
+        counts[size] = count;
+        errors[size] = error;
+        size++;
+      }
+    }
+  }
+
+  /**
+   * Writes a value in the format of {@link ParameterProfileFile}. Types are
+   * written as descriptors because type ids differ from run to run. Object
+   * literals are written but not read back because their JTOC offsets differ
+   * from run to run as well.
+   *
+   * @param out the stream to write to
+   * @param kind the kind of the value
+   * @param valueBits the bits of the value
+   * @throws IOException if writing fails
+   */
+  static void writeValue(DataOutputStream out, byte kind, long valueBits) throws IOException {
+    out.writeByte(kind);
+    if (kind == TYPE) {
+      out.writeUTF(RVMType.getType((int) valueBits).getDescriptor().toString());
+    } else {
+      out.writeLong(valueBits);
+    }
+  }
+
+  /**
+   * Reads a value that was written by {@link #writeValue(DataOutputStream, byte, long)}.
+   *
+   * @param in the stream to read from
+   * @param cl the class loader that is tried first to find types
+   * @param resultKinds the array that receives the kind of the value
+   * @param resultBits the array that receives the bits of the value
+   * @param index the index in the arrays
+   * @return {@code false} if the value is a type that is not loaded or an
+   *  object literal
+   * @throws IOException if reading fails
+   */
+  static boolean readValue(DataInputStream in, ClassLoader cl, byte[] resultKinds, long[] resultBits, int index) throws IOException {
+    byte kind = in.readByte();
+    if (kind < UNKNOWN || kind > NON_NULL) {
+      throw new IOException("Invalid kind of value: " + kind);
+    }
+    resultKinds[index] = kind;
+    if (kind != TYPE) {
+      resultBits[index] = in.readLong();
+      return kind != IDENTITY;
+    }
+    Atom descriptor = Atom.findOrCreateUnicodeAtom(in.readUTF());
+    RVMType type = TypeReference.findOrCreate(cl, descriptor).peekType();
+    if (type == null) {
+      type = TypeReference.findOrCreate(RVMClassLoader.getApplicationClassLoader(), descriptor).peekType();
+    }
+    if (type == null || !type.isResolved()) {
+      return false;
+    }
+    resultBits[index] = type.getId();
+    return true;
+  }
+
+  /**
+   * @param info a value or type, may be {@code null}
+   * @return the kind of the value
+   */
+  static byte kindOf(AbstractParameterInfo info) {
+    if (info == null) {
+      return UNKNOWN;
+    } else if (info instanceof TypeValueForObjectParameter) {
+      return TYPE;
+    } else if (info == NullParameterValue.NULL) {
+      return NULL;
+    } else if (info instanceof ArrayLengthParameterProperty) {
+      return ARRAY_LENGTH;
+    } else if (info instanceof ObjectIdentityParameterValue) {
+      return IDENTITY;
+    } else if (info == NonNullParameterProperty.NON_NULL) {
+      return NON_NULL;
+    } else if (info instanceof IntParameterValue) {
+      return INT;
+    } else if (info instanceof LongParameterValue) {
+      return LONG;
+    } else if (info instanceof BooleanParameterValue) {
+      return BOOLEAN;
+    } else if (info instanceof ByteParameterValue) {
+      return BYTE;
+    } else if (info instanceof CharParameterValue) {
+      return CHAR;
+    } else if (info instanceof ShortParameterValue) {
+      return SHORT;
+    } else if (info instanceof FloatParameterValue) {
+      return FLOAT;
+    } else if (info instanceof DoubleParameterValue) {
+      return DOUBLE;
+    }
+    return UNKNOWN;
+  }
+
+  /**
+   * @param info a value or type, may be {@code null}
+   * @return the bits of the value in the format that {@link #add(byte, long)}
+   *  expects
+   */
+  static long bitsOf(AbstractParameterInfo info) {
+    switch (kindOf(info)) {
+      case TYPE:
+        return ((TypeValueForObjectParameter) info).getObjectType().getId();
+      case ARRAY_LENGTH:
+        return ((ArrayLengthParameterProperty) info).getLength();
+      case IDENTITY:
+        return ((ObjectIdentityParameterValue) info).getOffset();
+      case INT:
+        return ((IntParameterValue) info).getIntValue();
+      case LONG:
+        return ((LongParameterValue) info).getLongValue();
+      case BOOLEAN:
+        return ((BooleanParameterValue) info).getBooleanValue() ? 1 : 0;
+      case BYTE:
+        return ((ByteParameterValue) info).getByteValue();
+      case CHAR:
+        return ((CharParameterValue) info).getCharValue();
+      case SHORT:
+        return ((ShortParameterValue) info).getShortValue();
+      case FLOAT:
+        return Float.floatToIntBits(((FloatParameterValue) info).getFloatValue());
+      case DOUBLE:
+        return Double.doubleToLongBits(((DoubleParameterValue) info).getDoubleValue());
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Creates an object for a value that was stored in a sketch.
+   *
+   * @param kind the kind of the value
+   * @param valueBits the bits of the value
+   * @return the value or {@code null} if the kind is {@link #UNKNOWN}
+   */
+  static AbstractParameterInfo toParameterInfo(byte kind, long valueBits) {
+    switch (kind) {
+      case TYPE:
+        return new TypeValueForObjectParameter(RVMType.getType((int) valueBits));
+      case NULL:
+        return NullParameterValue.NULL;
+      case ARRAY_LENGTH:
+        return new ArrayLengthParameterProperty((int) valueBits);
+      case IDENTITY:
+        return ObjectIdentityParameterValue.forLiteralAt((int) valueBits);
+      case NON_NULL:
+        return NonNullParameterProperty.NON_NULL;
+      case INT:
+        return new IntParameterValue((int) valueBits);
+      case LONG:
+        return new LongParameterValue(valueBits);
+      case BOOLEAN:
+        return new BooleanParameterValue(valueBits != 0);
+      case BYTE:
+        return new ByteParameterValue((byte) valueBits);
+      case CHAR:
+        return new CharParameterValue((char) valueBits);
+      case SHORT:
+        return new ShortParameterValue((short) valueBits);
+      case FLOAT:
+        return new FloatParameterValue(Float.intBitsToFloat((int) valueBits));
+      case DOUBLE:
+        return new DoubleParameterValue(Double.longBitsToDouble(valueBits));
+      default:
+        return null;
+    }
+  }
+
+}
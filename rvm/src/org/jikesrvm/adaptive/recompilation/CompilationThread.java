@@ -15,6 +15,8 @@ package org.jikesrvm.adaptive.recompilation;
 import org.jikesrvm.adaptive.OnStackReplacementPlan;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.controller.ControllerPlan;
+import org.jikesrvm.adaptive.util.BlockingPriorityQueue;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethodCompilationPlan;
 import org.jikesrvm.scheduler.SystemThread;
 import org.vmmagic.pragma.NonMoving;
 
@@ -24,34 +26,52 @@ import org.vmmagic.pragma.NonMoving;
  *  thread will pick the highest priority compilation plan from the queue
  *  and invoke the OPT compiler to perform the plan.
  *  <p>
+ *  Specialized versions of methods are compiled by a separate instance
+ *  of this class that monitors its own queue.
+ *  <p>
  *  No intelligence is contained in this class.  All policy decisions are
  *  made by the ControllerThread.
  */
 @NonMoving
 public final class CompilationThread extends SystemThread {
 
+  /**
+   * The queue of plans that this thread performs
+   */
+  private final BlockingPriorityQueue queue;
+
   /**
    * constructor
    */
   public CompilationThread() {
-    super("CompilationThread");
+    this("CompilationThread", Controller.compilationQueue);
+  }
+
+  /**
+   * @param name the name of the thread
+   * @param queue the queue of plans that the thread performs
+   */
+  public CompilationThread(String name, BlockingPriorityQueue queue) {
+    super(name);
+    this.queue = queue;
   }
 
   /**
    * This is the main loop of the compilation thread. Its job is to
-   * remove controller plans from the compilation queue and perform
-   * them.
+   * remove plans from its queue and perform them.
    */
   @Override
   public void run() {
     // Make a blocking call to deleteMin to get a plan and then execute it.
     // Repeat...
     while (true) {
-      Object plan = Controller.compilationQueue.deleteMin();
+      Object plan = queue.deleteMin();
       if (plan instanceof ControllerPlan) {
         ((ControllerPlan) plan).doRecompile();
       } else if (plan instanceof OnStackReplacementPlan) {
         ((OnStackReplacementPlan) plan).execute();
+      } else if (plan instanceof SpecializedMethodCompilationPlan) {
+        ((SpecializedMethodCompilationPlan) plan).execute();
       }
     }
   }
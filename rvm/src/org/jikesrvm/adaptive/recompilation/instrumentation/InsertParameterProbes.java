@@ -0,0 +1,253 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.recompilation.instrumentation;
+
+import static org.jikesrvm.compilers.opt.driver.OptConstants.RUNTIME_SERVICES_BCI;
+import static org.jikesrvm.compilers.opt.ir.Operators.CALL;
+import static org.jikesrvm.compilers.opt.ir.Operators.GETSTATIC;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_ADD;
+import static org.jikesrvm.compilers.opt.ir.Operators.INT_IFCMP;
+import static org.jikesrvm.compilers.opt.ir.Operators.PUTSTATIC;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.AosEntrypoints;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterSampleBatch;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMField;
+import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.opt.OptOptions;
+import org.jikesrvm.compilers.opt.driver.CompilerPhase;
+import org.jikesrvm.compilers.opt.ir.BasicBlock;
+import org.jikesrvm.compilers.opt.ir.Binary;
+import org.jikesrvm.compilers.opt.ir.Call;
+import org.jikesrvm.compilers.opt.ir.GetStatic;
+import org.jikesrvm.compilers.opt.ir.IR;
+import org.jikesrvm.compilers.opt.ir.IRTools;
+import org.jikesrvm.compilers.opt.ir.IfCmp;
+import org.jikesrvm.compilers.opt.ir.Instruction;
+import org.jikesrvm.compilers.opt.ir.Prologue;
+import org.jikesrvm.compilers.opt.ir.PutStatic;
+import org.jikesrvm.compilers.opt.ir.operand.AddressConstantOperand;
+import org.jikesrvm.compilers.opt.ir.operand.BranchProfileOperand;
+import org.jikesrvm.compilers.opt.ir.operand.ConditionOperand;
+import org.jikesrvm.compilers.opt.ir.operand.LocationOperand;
+import org.jikesrvm.compilers.opt.ir.operand.MethodOperand;
+import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
+
+/**
+ * A CompilerPhase that inserts sampling parameter probes at the entry
+ * of opt-compiled methods.
+ * <p>
+ * The {@link ParameterListener} only samples the parameters of baseline
+ * compiled methods, so the profile of a method does not change after it was
+ * opt compiled. The probes inserted by this phase allow the
+ * {@link org.jikesrvm.adaptive.measurements.organizers.ParameterProfileOrganizer
+ * ParameterProfileOrganizer} to continue profiling after recompilation.
+ * <p>
+ * The entry block is split as follows:
+ * <ol>
+ *   <li>A: the prologue, followed by a decrement of the global countdown
+ *    in {@link ParameterProbes} and a check of the countdown
+ *   <li>B: an infrequent block that resets the countdown and calls
+ *    the runtime to record the parameters as one sample. The method and
+ *    the kinds of its parameters are passed as constants, so the runtime
+ *    does not need to look them up
+ *   <li>C: the rest of the original entry block
+ * </ol>
+ * A jumps to C as long as the countdown has not run out.
+ */
+public class InsertParameterProbes extends CompilerPhase {
+
+  /**
+   * Return this instance of this phase. This phase contains no
+   * per-compilation instance fields.
+   * @param ir not used
+   * @return this
+   */
+  @Override
+  public CompilerPhase newExecution(IR ir) {
+    return this;
+  }
+
+  @Override
+  public final boolean shouldPerform(OptOptions options) {
+    return Controller.options.PARAMETER_PROFILING && Controller.options.PARAMETER_PROFILING_OPT;
+  }
+
+  @Override
+  public final String getName() {
+    return "InsertParameterProbes";
+  }
+
+  /**
+   * Insert parameter probes
+   *
+   * @param ir the governing IR
+   */
+  @Override
+  public final void perform(IR ir) {
+    if (!VM.runningVM || !ParameterProbes.isEnabled()) {
+      return;
+    }
+
+    // Specialized versions must not add their samples to the profile of the
+    // general version: their parameters are known and would skew the profile.
+    NormalMethod method = ir.method;
+    boolean isSpecializedVersion = ir.paramValues != null || ir.options.ESCAPE_INVOKEE_THREAD_LOCAL;
+    if (isSpecializedVersion || method.isForOsrSpecialization() || !ParameterListener.isProfiledMethod(method)) {
+      return;
+    }
+
+    BasicBlock A = ir.cfg.entry();
+    Instruction prologue = A.firstRealInstruction();
+    if (VM.VerifyAssertions) VM._assert(Prologue.conforms(prologue));
+
+    int formalCount = Prologue.getNumberOfFormals(prologue);
+    if (formalCount == 0) {
+      return;
+    }
+
+    // Build the contents of the probe block ('B', in comment above)
+    RegisterOperand resetValue = ir.regpool.makeTempInt();
+    Instruction last = prologue;
+    last = insertAfter(last, createGetStatic(resetValue, AosEntrypoints.parameterProbesResetValueField));
+    last = insertAfter(last, createPutStatic(resetValue.copyRO(), AosEntrypoints.parameterProbesCountdownField));
+
+    int probeID = ParameterProbes.register(method);
+    NormalMethod start = AosEntrypoints.parameterProbesStartSampleMethod;
+    last = insertAfter(last, createCall(Call.create2(CALL,
+                                                     null,
+                                                     IRTools.AC(start.getOffset()),
+                                                     MethodOperand.STATIC(start),
+                                                     IRTools.IC(probeID),
+                                                     IRTools.IC(formalCount)), prologue));
+    TypeReference[] parameterTypes = method.getParameterTypes();
+    int firstDeclared = method.isStatic() ? 0 : 1;
+    for (int param = 0; param < formalCount; param++) {
+      RegisterOperand formal = Prologue.getFormal(prologue, param);
+      TypeReference type = formal.getType();
+      NormalMethod target = getRecordMethod(type);
+      if (target == null) {
+        continue;
+      }
+      Instruction call;
+      if (type.isIntLikeType()) {
+        TypeReference declaredType = parameterTypes[param - firstDeclared];
+        call = Call.create3(CALL,
+                            null,
+                            IRTools.AC(target.getOffset()),
+                            MethodOperand.STATIC(target),
+                            IRTools.IC(param),
+                            IRTools.IC(ParameterSampleBatch.kindOfIntLike(declaredType)),
+                            formal.copyRO());
+      } else if (type.isReferenceType()) {
+        int how;
+        if (param < firstDeclared) {
+          how = ParameterProbes.RECORD_TYPE;
+        } else if (parameterTypes[param - firstDeclared].isArrayType()) {
+          how = ParameterProbes.RECORD_ARRAY_LENGTH;
+        } else {
+          how = ParameterProbes.RECORD_IDENTITY;
+        }
+        call = Call.create3(CALL,
+                            null,
+                            IRTools.AC(target.getOffset()),
+                            MethodOperand.STATIC(target),
+                            IRTools.IC(param),
+                            IRTools.IC(how),
+                            formal.copyRO());
+      } else {
+        call = Call.create2(CALL,
+                            null,
+                            IRTools.AC(target.getOffset()),
+                            MethodOperand.STATIC(target),
+                            IRTools.IC(param),
+                            formal.copyRO());
+      }
+      last = insertAfter(last, createCall(call, prologue));
+    }
+    NormalMethod commit = AosEntrypoints.parameterProbesCommitSampleMethod;
+    last = insertAfter(last, createCall(Call.create0(CALL,
+                                                     null,
+                                                     IRTools.AC(commit.getOffset()),
+                                                     MethodOperand.STATIC(commit)), prologue));
+
+    BasicBlock C = A.splitNodeWithLinksAt(last, ir);
+    A.recomputeNormalOut(ir);
+    BasicBlock B = A.splitNodeWithLinksAt(prologue, ir);
+    A.recomputeNormalOut(ir);
+    B.setInfrequent();
+    B.setCanThrowExceptions();
+    B.setMayThrowUncaughtException();
+
+    // Decrement the countdown in A and skip B while it is positive
+    RegisterOperand countdown = ir.regpool.makeTempInt();
+    A.appendInstruction(createGetStatic(countdown, AosEntrypoints.parameterProbesCountdownField));
+    A.appendInstruction(Binary.create(INT_ADD, countdown.copyRO(), countdown.copyRO(), IRTools.IC(-1)));
+    A.appendInstruction(createPutStatic(countdown.copyRO(), AosEntrypoints.parameterProbesCountdownField));
+    A.appendInstruction(IfCmp.create(INT_IFCMP,
+                                     ir.regpool.makeTempValidation(),
+                                     countdown.copyRO(),
+                                     IRTools.IC(0),
+                                     ConditionOperand.GREATER(),
+                                     C.makeJumpTarget(),
+                                     BranchProfileOperand.likely()));
+    A.recomputeNormalOut(ir);
+  }
+
+  private static Instruction insertAfter(Instruction last, Instruction next) {
+    last.insertAfter(next);
+    return next;
+  }
+
+  private static Instruction createCall(Instruction call, Instruction prologue) {
+    call.setSourcePosition(RUNTIME_SERVICES_BCI, prologue.position());
+    return call;
+  }
+
+  private static Instruction createGetStatic(RegisterOperand result, RVMField field) {
+    return GetStatic.create(GETSTATIC,
+                            result,
+                            new AddressConstantOperand(field.getOffset()),
+                            new LocationOperand(field));
+  }
+
+  private static Instruction createPutStatic(RegisterOperand value, RVMField field) {
+    return PutStatic.create(PUTSTATIC,
+                            value,
+                            new AddressConstantOperand(field.getOffset()),
+                            new LocationOperand(field));
+  }
+
+  /**
+   * @param type the type of a parameter
+   * @return the method that records values of parameters of the given type
+   *  or {@code null} if values of the type are not profiled
+   */
+  private static NormalMethod getRecordMethod(TypeReference type) {
+    if (type.isIntLikeType()) {
+      return AosEntrypoints.parameterProbesRecordIntLikeMethod;
+    } else if (type.isLongType()) {
+      return AosEntrypoints.parameterProbesRecordLongMethod;
+    } else if (type.isFloatType()) {
+      return AosEntrypoints.parameterProbesRecordFloatMethod;
+    } else if (type.isDoubleType()) {
+      return AosEntrypoints.parameterProbesRecordDoubleMethod;
+    } else if (type.isReferenceType() && !type.isUnboxedType()) {
+      return AosEntrypoints.parameterProbesRecordObjectMethod;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.recompilation.instrumentation;
+
+import org.jikesrvm.adaptive.AosEntrypoints;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterSampleBuffer;
+import org.jikesrvm.adaptive.measurements.organizers.ParameterProfileOrganizer;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterSampleBatch;
+import org.jikesrvm.adaptive.util.AOSOptions;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.scheduler.RVMThread;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * Runtime support for the parameter probes that {@link InsertParameterProbes}
+ * inserts into opt-compiled methods.
+ * <p>
+ * All probes share a global countdown that is decremented on every execution
+ * of a probe. When the countdown runs out, the probe resets it and records the
+ * values of all parameters of its method as one sample in the
+ * {@link ParameterSampleBatch} of the {@link ParameterSampleBuffer} of the
+ * current thread. Recording complete samples preserves the information which
+ * values occur together. The {@link ParameterProfileOrganizer} collects the
+ * buffers together with the samples of the {@link ParameterListener}, which
+ * can only sample baseline-compiled methods, and adds the samples to the
+ * profiles of their methods.
+ * <p>
+ * Everything that can be determined statically is determined when the probe
+ * is inserted: the method is registered once and identified by its probe id,
+ * and the kind of each parameter is passed to the runtime. Taking a sample
+ * thus neither looks up the method or its profile nor takes a lock. The
+ * runtime methods are uninterruptible, so a thread's buffer cannot be
+ * exchanged while a probe writes to it. A buffer that is exchanged between
+ * two calls has no open sample, so the rest of the sample is dropped.
+ * <p>
+ * As for counter-based sampling, updates of the countdown are not
+ * synchronized. Lost updates only change the sampling interval slightly.
+ */
+public final class ParameterProbes {
+
+  /** Reference parameters that are recorded by their type only */
+  static final int RECORD_TYPE = 0;
+
+  /** Reference parameters that are declared as arrays and recorded by their length */
+  static final int RECORD_ARRAY_LENGTH = 1;
+
+  /** Reference parameters that are recorded by identity if they are object literals */
+  static final int RECORD_IDENTITY = 2;
+
+  /**
+   * Holds the value that is used to reset the countdown after a
+   * sample is taken.
+   * <p>
+   * Accessed via {@link AosEntrypoints}.
+   */
+  static int resetValue = 1000;
+
+  /**
+   * The global countdown.
+   * <p>
+   * Accessed via {@link AosEntrypoints}.
+   */
+  static int countdown = resetValue;
+
+  /**
+   * The organizer that receives the samples or {@code null} if
+   * probes are disabled.
+   */
+  private static ParameterProfileOrganizer organizer;
+
+  /** The methods that probes were inserted into, indexed by probe id */
+  private static RVMMethod[] probedMethods = new RVMMethod[64];
+
+  private static int probedMethodCount;
+
+  private ParameterProbes() {
+    // prevent instantiation
+  }
+
+  /**
+   * Enables parameter probes.
+   *
+   * @param profileOrganizer the organizer that manages the profiles
+   * @param options the options for the AOS
+   */
+  public static void boot(ParameterProfileOrganizer profileOrganizer, AOSOptions options) {
+    resetValue = options.PARAMETER_PROBE_SAMPLE_INTERVAL - 1;
+    countdown = resetValue;
+    organizer = profileOrganizer;
+  }
+
+  /**
+   * @return {@code true} if probes should be inserted into opt-compiled code
+   */
+  public static boolean isEnabled() {
+    return organizer != null;
+  }
+
+  /**
+   * Registers a method that probes are inserted into. Called once per
+   * compilation of the method.
+   *
+   * @param method the method
+   * @return the probe id that the probes pass to {@link #startSample(int, int)}
+   */
+  static synchronized int register(RVMMethod method) {
+    if (probedMethodCount == probedMethods.length) {
+      RVMMethod[] newProbedMethods = new RVMMethod[probedMethods.length * 2];
+      System.arraycopy(probedMethods, 0, newProbedMethods, 0, probedMethodCount);
+      probedMethods = newProbedMethods;
+    }
+    probedMethods[probedMethodCount] = method;
+    return probedMethodCount++;
+  }
+
+  /**
+   * Called from opt-compiled code to start a new sample.
+   *
+   * @param probeID the id that {@link #register(RVMMethod)} returned for
+   *  the method whose parameters are recorded
+   * @param parameterCount the number of parameters of the method, including
+   *  <code>this</code>
+   */
+  @Uninterruptible
+  static void startSample(int probeID, int parameterCount) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer == null) {
+      // The organizer gives buffers to all threads when it collects samples
+      organizer.activate();
+      return;
+    }
+    if (!buffer.getProbeSamples().open(probedMethods[probeID], parameterCount) && buffer.requestHarvest()) {
+      organizer.activate();
+    }
+  }
+
+  /**
+   * Called from opt-compiled code to record the value of a boolean, byte,
+   * char, short or int parameter.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param kind the kind of the parameter, see
+   *  {@link ParameterSampleBatch#kindOfIntLike(org.jikesrvm.classloader.TypeReference)}
+   * @param value the value of the parameter
+   */
+  @Uninterruptible
+  static void recordIntLikeParameter(int param, int kind, int value) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer != null) {
+      buffer.getProbeSamples().setIntLike(param, kind, value);
+    }
+  }
+
+  /**
+   * Called from opt-compiled code to record the value of a long parameter.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  @Uninterruptible
+  static void recordLongParameter(int param, long value) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer != null) {
+      buffer.getProbeSamples().setLong(param, value);
+    }
+  }
+
+  /**
+   * Called from opt-compiled code to record the value of a float parameter.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  @Uninterruptible
+  static void recordFloatParameter(int param, float value) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer != null) {
+      buffer.getProbeSamples().setFloat(param, value);
+    }
+  }
+
+  /**
+   * Called from opt-compiled code to record the value of a double parameter.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param value the value of the parameter
+   */
+  @Uninterruptible
+  static void recordDoubleParameter(int param, double value) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer != null) {
+      buffer.getProbeSamples().setDouble(param, value);
+    }
+  }
+
+  /**
+   * Called from opt-compiled code to record a reference parameter. The
+   * receiver is recorded by its type, parameters that are declared as arrays
+   * by their length and other objects by identity if they are object literals
+   * and by their type otherwise.
+   *
+   * @param param the index of the parameter (including <code>this</code>)
+   * @param how one of {@link #RECORD_TYPE}, {@link #RECORD_ARRAY_LENGTH} and
+   *  {@link #RECORD_IDENTITY}
+   * @param value the value of the parameter
+   */
+  @Uninterruptible
+  static void recordObjectParameter(int param, int how, Object value) {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer == null) {
+      return;
+    }
+    ParameterSampleBatch batch = buffer.getProbeSamples();
+    if (how == RECORD_ARRAY_LENGTH) {
+      batch.setArray(param, value);
+    } else if (how == RECORD_IDENTITY) {
+      batch.setObject(param, value);
+    } else {
+      batch.setType(param, value);
+    }
+  }
+
+  /**
+   * Called from opt-compiled code after all parameters were recorded.
+   * Asks the organizer to collect the samples once the batch is full.
+   */
+  @Uninterruptible
+  static void commitSample() {
+    ParameterSampleBuffer buffer = RVMThread.getCurrentThread().parameterSampleBuffer;
+    if (buffer == null) {
+      return;
+    }
+    ParameterSampleBatch batch = buffer.getProbeSamples();
+    batch.close();
+    if (batch.isFull() && buffer.requestHarvest()) {
+      organizer.activate();
+    }
+  }
+}
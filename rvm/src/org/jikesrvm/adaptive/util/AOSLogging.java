@@ -194,7 +194,14 @@ public final class AOSLogging {
                   numOpt3 +
                   " (" +
                   ((int) ((float) numOpt3 / numMethodsScheduledForRecomp * 100)) +
-                  "%)\n\n");
+                  "%)\n" +
+                  "  Num queued plans started: " +
+                  ControllerMemory.getNumQueuedPlansStarted() +
+                  "\n\t Average time in queue: " +
+                  (ControllerMemory.getAverageQueueLatency() / 1000000.0) +
+                  " ms\n\t Maximum time in queue: " +
+                  (ControllerMemory.getMaxQueueLatency() / 1000000.0) +
+                  " ms\n\n");
 
         // Let the controller memory summarize itself to the log file
         ControllerMemory.printFinalMethodStats(log);
@@ -303,9 +310,24 @@ public final class AOSLogging {
    * @param plan the Compilation plan being executed.
    */
   public void recompilationStarted(CompilationPlan plan) {
+    recompilationStarted(plan, -1);
+  }
+
+  /**
+   * This method logs the beginning of an adaptively selected recompilation
+   * of a plan from the compilation queue
+   * @param plan the Compilation plan being executed.
+   * @param queueLatency how long the plan waited in the compilation queue
+   *  (in nanoseconds) or -1 if it was not queued
+   */
+  public void recompilationStarted(CompilationPlan plan, long queueLatency) {
     if (Controller.options.LOGGING_LEVEL >= 2) {
       synchronized (log) {
-        log.println(getTime() + " Recompiling (at level " + plan.options.getOptLevel() + ") " + plan.method);
+        log.print(getTime() + " Recompiling (at level " + plan.options.getOptLevel() + ") " + plan.method);
+        if (queueLatency >= 0) {
+          log.print(" after waiting " + (queueLatency / 1000000.0) + " ms in the queue");
+        }
+        log.println();
       }
     }
   }
@@ -701,6 +701,12 @@ public abstract class RVMMethod extends RVMMember {
       Statics.setSlotContents(jtocOffset, getCurrentEntryCodeArray());
     }
 
+    // Calls to retired specialized versions now go to the new version
+    if (VM.BuildForOptCompiler && VM.runningVM) {
+      org.jikesrvm.compilers.opt.specialization.SpecializationDatabase.generalVersionReplaced(this,
+          compiledMethod, getCurrentEntryCodeArray());
+    }
+
     // Now that we've updated the JTOC/TIB, old version is obsolete
     if (oldCompiledMethod != null) {
       CompiledMethods.setCompiledMethodObsolete(oldCompiledMethod);
@@ -122,6 +122,32 @@ public abstract class BaselineCompiler extends TemplateCompilerFramework {
     }
   }
 
+  @Uninterruptible
+  public static int locationToOffset(short location) {
+    if (VM.BuildForIA32) {
+      return org.jikesrvm.compilers.baseline.ia32.BaselineCompilerImpl.locationToOffset(location);
+    } else {
+      if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
+      return org.jikesrvm.compilers.baseline.ppc.BaselineCompilerImpl.locationToOffset(location);
+    }
+  }
+
+  /**
+   * @param location a location of a local or stack slot
+   * @return {@code true} if the location is a register, {@code false}
+   *  if it is a slot in the stack frame
+   */
+  @Uninterruptible
+  public static boolean isRegister(short location) {
+    if (VM.BuildForIA32) {
+      // we currently do not use location arrays on Intel
+      return false;
+    } else {
+      if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
+      return org.jikesrvm.compilers.baseline.ppc.BaselineCompilerImpl.isRegister(location);
+    }
+  }
+
   protected final Offset getEdgeCounterOffset() {
     return Offset.fromIntZeroExtend(method.getId() << LOG_BYTES_IN_ADDRESS);
   }
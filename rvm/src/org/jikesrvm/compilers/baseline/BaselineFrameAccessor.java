@@ -0,0 +1,131 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.baseline;
+
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_DOUBLE;
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_FLOAT;
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_INT;
+import static org.jikesrvm.runtime.JavaSizeConstants.BYTES_IN_LONG;
+import static org.jikesrvm.runtime.UnboxedSizeConstants.BYTES_IN_ADDRESS;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.TypeReference;
+import org.vmmagic.pragma.Uninterruptible;
+import org.vmmagic.unboxed.Address;
+
+/**
+ * Architecture-neutral access to the values of locals in the stack frames
+ * of baseline-compiled methods.
+ * <p>
+ * The locations of the locals are taken from the
+ * {@link BaselineCompiledMethod}. The layout of the value in its stack slot
+ * differs between the architectures: IA32 pushes and pops whole stack slots
+ * so the value of a 32-bit local is found at the lowest address of its slot
+ * and a long or double occupies the second of its two slots. PowerPC stores
+ * the values at the top of their slots. Callers don't need to care about
+ * either as long as they access the locals through this class.
+ * <p>
+ * The PowerPC baseline compiler may keep locals in nonvolatile registers.
+ * The values of those locals are not in the frame and
+ * {@link #isLocalInMemory(BaselineCompiledMethod, int, TypeReference)} returns
+ * {@code false} for them.
+ */
+@Uninterruptible
+public final class BaselineFrameAccessor {
+
+  private BaselineFrameAccessor() {
+    // prevent instantiation
+  }
+
+  /**
+   * @param cm a baseline-compiled method
+   * @param localIndex the index of a local of the method
+   * @param type the type of the local
+   * @return {@code true} if the value of the local is stored in the stack
+   *  frame, {@code false} if it is held in a register
+   */
+  public static boolean isLocalInMemory(BaselineCompiledMethod cm, int localIndex, TypeReference type) {
+    return !BaselineCompiler.isRegister(getLocation(cm, localIndex, type));
+  }
+
+  /**
+   * Checks whether all parameters of the method (including <code>this</code>)
+   * are stored in the stack frame.
+   *
+   * @param cm a baseline-compiled method
+   * @return {@code true} if the values of all parameters can be read
+   *  from the frame
+   */
+  public static boolean areParametersInMemory(BaselineCompiledMethod cm) {
+    RVMMethod method = cm.getMethod();
+    int localIndex = 0;
+    if (!method.isStatic()) {
+      if (!isLocalInMemory(cm, localIndex, TypeReference.JavaLangObject)) {
+        return false;
+      }
+      localIndex++;
+    }
+    for (TypeReference type : method.getParameterTypes()) {
+      if (!isLocalInMemory(cm, localIndex, type)) {
+        return false;
+      }
+      localIndex += type.getStackWords();
+    }
+    return true;
+  }
+
+  /**
+   * Computes the address of the value of a local. The local must be stored
+   * in the stack frame.
+   *
+   * @param fp the frame pointer of a frame of the method
+   * @param cm the baseline-compiled method that is executing in the frame
+   * @param localIndex the index of a local of the method
+   * @param type the type of the local
+   * @return the address to load the value of the local from
+   */
+  public static Address getLocalAddress(Address fp, BaselineCompiledMethod cm, int localIndex, TypeReference type) {
+    short location = getLocation(cm, localIndex, type);
+    if (VM.VerifyAssertions) VM._assert(!BaselineCompiler.isRegister(location));
+    Address slotTop = fp.plus(BaselineCompiler.locationToOffset(location));
+    return slotTop.minus(getValueOffsetFromSlotTop(type));
+  }
+
+  private static short getLocation(BaselineCompiledMethod cm, int localIndex, TypeReference type) {
+    if (type.isFloatType() || type.isDoubleType()) {
+      return cm.getFloatLocalLocation(localIndex);
+    }
+    return cm.getGeneralLocalLocation(localIndex);
+  }
+
+  private static int getValueOffsetFromSlotTop(TypeReference type) {
+    boolean twoSlots = type.isLongType() || type.isDoubleType();
+    if (VM.BuildForIA32) {
+      return twoSlots ? 2 * BYTES_IN_ADDRESS : BYTES_IN_ADDRESS;
+    } else {
+      if (VM.VerifyAssertions) VM._assert(VM.BuildForPowerPC);
+      if (type.isReferenceType()) {
+        return BYTES_IN_ADDRESS;
+      } else if (type.isLongType()) {
+        return BYTES_IN_LONG;
+      } else if (type.isDoubleType()) {
+        return BYTES_IN_DOUBLE;
+      } else if (type.isFloatType()) {
+        return BYTES_IN_FLOAT;
+      }
+      return BYTES_IN_INT;
+    }
+  }
+
+}
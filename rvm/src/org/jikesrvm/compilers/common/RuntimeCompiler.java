@@ -609,6 +609,34 @@ public class RuntimeCompiler implements Callbacks.ExitMonitor {
     }
   }
 
+  /**
+   * Compiles a method with the optimizing compiler without installing the
+   * result, e.g. a specialized version of the method. This is serialized with
+   * all other opt compilations and may be called during an opt compilation
+   * of the same thread.
+   * <p>
+   * Don't handle OptimizingCompilerExceptions
+   *   (leave it up to caller to decide what to do)
+   *
+   * @param plan the plan to use for compiling the method
+   * @return the compiled method
+   */
+  public static synchronized CompiledMethod optCompileWithoutInstalling(CompilationPlan plan)
+      throws OptimizingCompilerException {
+    if (VM.BuildForOptCompiler) {
+      boolean nestedCompilation = compilationInProgress;
+      try {
+        compilationInProgress = true;
+        return OptimizingCompiler.compile(plan);
+      } finally {
+        compilationInProgress = nestedCompilation;
+      }
+    } else {
+      if (VM.VerifyAssertions) VM._assert(VM.NOT_REACHED);
+      return null;
+    }
+  }
+
   /**
    * This method uses the default compiler (baseline) to compile a method
    * It is typically called when a more aggressive compilation fails.
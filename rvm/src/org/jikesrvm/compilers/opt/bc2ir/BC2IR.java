@@ -27,13 +27,16 @@ import java.util.Enumeration;
 import java.util.List;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.AosEntrypoints;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.adaptive.parameterprofiling.AbstractParameterValue;
+import org.jikesrvm.adaptive.parameterprofiling.ArrayLengthParameterProperty;
 import org.jikesrvm.adaptive.parameterprofiling.TypeValueForObjectParameter;
 import org.jikesrvm.classloader.BytecodeStream;
 import org.jikesrvm.classloader.FieldReference;
 import org.jikesrvm.classloader.MethodReference;
+import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMField;
 import org.jikesrvm.classloader.RVMMethod;
@@ -112,9 +115,12 @@ import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TrapCodeOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TrueGuardOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TypeOperand;
+import org.jikesrvm.compilers.opt.specialization.CallSiteSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.GuardHitCounters;
 import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
 import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
 import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethodPool;
 import org.jikesrvm.osr.ObjectHolder;
 import org.jikesrvm.osr.bytecodes.InvokeStatic;
 import org.jikesrvm.runtime.Entrypoints;
@@ -274,6 +280,13 @@ public final class BC2IR {
 
   private boolean generateCallsToSpecializedMethods;
 
+  /**
+   * The specialized versions that the general version of the method calls,
+   * ordered by decreasing profiled frequency. Only set if
+   * {@link #generateCallsToSpecializedMethods} is {@code true}.
+   */
+  private List<SpecializedMethod> specializedMethodsToCall;
+
   /**
    *  Debugging with method_to_print. Switch following 2
    *  to both be non-final. Set {@link #DBG_SELECTIVE} to true.
@@ -329,6 +342,13 @@ public final class BC2IR {
     generateCallsToSpecializedMethods = isNotInlined && isGeneralVersion &&
         shouldCallSpecialVersions;
 
+    // Specialized versions that are still compiled in the background cannot
+    // be called yet. The method will be recompiled when they are installed.
+    if (generateCallsToSpecializedMethods) {
+      specializedMethodsToCall = SpecializationDatabase.getSpecialVersionsToCallFromGeneralMethod(gc.getMethod());
+      generateCallsToSpecializedMethods = !specializedMethodsToCall.isEmpty();
+    }
+
     if (DBG_SPEC) {
       if (generateCallsToSpecializedMethods) {
         VM.sysWriteln(gc.getMethod().getName() + ": will generated specialized calls.");
@@ -2034,6 +2054,9 @@ public final class BC2IR {
               return;
             }
           }
+          if (maybeRedirectToSpecializedVersion(s, instrIndex - bciAdjustment)) {
+            return;
+          }
 
           // noninlined CALL must be treated as potential throw of anything
           rectifyStateWithExceptionHandlers();
@@ -2080,6 +2103,9 @@ public final class BC2IR {
           if (maybeInlineMethod(shouldInline(s, false, instrIndex - bciAdjustment), s)) {
             return;
           }
+          if (maybeRedirectToSpecializedVersion(s, instrIndex - bciAdjustment)) {
+            return;
+          }
 
           // noninlined CALL must be treated as potential throw of anything
           rectifyStateWithExceptionHandlers();
@@ -2130,6 +2156,9 @@ public final class BC2IR {
               }
             }
           }
+          if (maybeRedirectToSpecializedVersion(s, instrIndex - bciAdjustment)) {
+            return;
+          }
           // noninlined CALL must be treated as potential throw of anything
           rectifyStateWithExceptionHandlers();
         }
@@ -2330,6 +2359,12 @@ public final class BC2IR {
         case JBC_arraylength: {
           Operand op1 = pop();
           clearCurrentGuard();
+          int knownLength = gc.getKnownArrayLength(op1);
+          if (knownLength >= 0) {
+            // a specialized parameter whose length is known, see GenerationContext
+            push(new IntConstantOperand(knownLength));
+            break;
+          }
           if (do_NullCheck(op1)) {
             break;
           }
@@ -4798,6 +4833,164 @@ public final class BC2IR {
     return d;
   }
 
+  /**
+   * Redirects a call that was not inlined to a compiled specialized version
+   * of its target if the arguments at the call site are known to match the
+   * specialized parameters of that version. The call then skips the checks
+   * in the general version of the target.
+   * <p>
+   * Versions that were created for this call site (see
+   * {@link CallSiteSpecializationContext}) are also called if the arguments
+   * are not known to match: the call is replaced by a check of the arguments
+   * that selects either the specialized or the general version.
+   * <p>
+   * Only calls to a single known target whose address is resolved are
+   * redirected. Calls that need dynamic linking must go through the
+   * resolution of the target.
+   *
+   * @param s the call instruction
+   * @param realBCI the real bytecode index of the call instruction, not adjusted because of OSR
+   * @return {@code true} if the call was replaced by a guarded call of a
+   *  version for this call site, {@code false} if s must still be appended
+   */
+  private boolean maybeRedirectToSpecializedVersion(Instruction s, int realBCI) {
+    if (!VM.runningVM || s == null || !Call.conforms(s)) {
+      return false;
+    }
+    MethodOperand methOp = Call.getMethod(s);
+    if (methOp == null || methOp.hasSpecialVersion() || !methOp.hasTarget()) {
+      return false;
+    }
+    boolean singleTarget = methOp.isStatic() || methOp.isSpecial() || methOp.hasPreciseTarget();
+    boolean resolved = Call.getAddress(s) instanceof AddressConstantOperand;
+    RVMMethod target = methOp.getTarget();
+    if (!singleTarget || !resolved || !(target instanceof NormalMethod)) {
+      return false;
+    }
+
+    List<SpecializedMethod> versions =
+        SpecializationDatabase.getSpecialVersionsThatNeedToBeCalledFromGeneralMethod((NormalMethod) target);
+    for (SpecializedMethod version : versions) {
+      if (SpecializedMethodPool.hasCompiledVersion(version.getSpecializedMethodIndex()) &&
+          argumentsMatchSpecializedVersion(s, version)) {
+        if (DBG_SPEC || DBG_SELECTED) {
+          db("redirecting call to specialized version " + version);
+        }
+        methOp.spMethod = version;
+        return false;
+      }
+    }
+
+    List<SpecializedMethod> callSiteVersions =
+        SpecializationDatabase.getSpecialVersionsForCallSite((NormalMethod) target, gc.getMethod(), realBCI);
+    for (SpecializedMethod version : callSiteVersions) {
+      if (!SpecializedMethodPool.hasCompiledVersion(version.getSpecializedMethodIndex())) {
+        continue;
+      }
+      if (argumentsMatchSpecializedVersion(s, version)) {
+        if (DBG_SPEC || DBG_SELECTED) {
+          db("redirecting call to specialized version for call site " + version);
+        }
+        methOp.spMethod = version;
+        return false;
+      }
+      if (Inliner.canGuardSpecializedCall(version)) {
+        if (DBG_SPEC || DBG_SELECTED) {
+          db("guarded call of specialized version for call site " + version);
+        }
+        GenerationContext guardedCall =
+            Inliner.executeGuardedSpecializedCall(version, gc, currentBBLE.block.exceptionHandlers(), s);
+        spliceInlinedContext(guardedCall, s);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param s a call instruction
+   * @param version a specialized version of the target of the call
+   * @return {@code true} if the arguments of the call are known to match
+   *  the specialized parameters of the version
+   */
+  private boolean argumentsMatchSpecializedVersion(Instruction s, SpecializedMethod version) {
+    int receiverOffset = Call.getMethod(s).getTarget().isStatic() ? 0 : 1;
+    ParameterValueSpecializationContext context =
+        (ParameterValueSpecializationContext) version.getSpecializationContext();
+    AbstractParameterInfo[] paramInfos = context.getParameterInformation();
+    RVMClass receiverType = context.getReceiverType();
+    boolean matches = receiverType == null || argumentIsExactlyOfClass(Call.getParam(s, 0), receiverType);
+    for (int param = 0; param < paramInfos.length && matches; param++) {
+      if (paramInfos[param] != null) {
+        matches = argumentMatchesSpecializedParameter(Call.getParam(s, param + receiverOffset), paramInfos[param]);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Is an argument known to be exactly of the given class whenever the call
+   * is executed? This is required for calls of versions that are customized
+   * for the class of their receiver.
+   *
+   * @param argument the receiver at the call site
+   * @param type the class of the receiver in the specialized version
+   * @return {@code true} if the type of the argument is precise and matches
+   */
+  private static boolean argumentIsExactlyOfClass(Operand argument, RVMClass type) {
+    if (!argument.isRegister()) {
+      return false;
+    }
+    RegisterOperand receiver = argument.asRegister();
+    return receiver.isPreciseType() && receiver.getType() == type.getTypeRef();
+  }
+
+  /**
+   * Is an argument known to match the value or type of a specialized parameter
+   * whenever the call is executed?
+   *
+   * @param argument the argument at the call site
+   * @param info the value or type of the parameter in the specialized version
+   * @return {@code true} if the check for the parameter in the general version
+   *  would always succeed for the argument
+   */
+  private boolean argumentMatchesSpecializedParameter(Operand argument, AbstractParameterInfo info) {
+    if (info.hasTypeInformation()) {
+      if (argument.isDefinitelyNull() || !isNonNull(argument)) {
+        return false;
+      }
+      TypeReference specializedType = ((TypeValueForObjectParameter) info).getObjectType().getTypeRef();
+      return ClassLoaderProxy.includesType(specializedType, argument.getType()) == YES;
+    } else if (info.hasPropertyInformation()) {
+      if (argument.isDefinitelyNull() || !isNonNull(argument)) {
+        return false;
+      }
+      if (info instanceof ArrayLengthParameterProperty) {
+        return gc.getKnownArrayLength(argument) == ((ArrayLengthParameterProperty) info).getLength();
+      }
+      return true;
+    }
+
+    ConstantOperand value = ((AbstractParameterValue) info).buildOperand();
+    if (value.isNullConstant()) {
+      return argument.isDefinitelyNull();
+    } else if (value.isObjectConstant()) {
+      return argument.isObjectConstant() && argument.asObjectConstant().value == value.asObjectConstant().value;
+    } else if (value.isIntConstant()) {
+      return argument.isIntConstant() && argument.asIntConstant().value == value.asIntConstant().value;
+    } else if (value.isLongConstant()) {
+      return argument.isLongConstant() && argument.asLongConstant().value == value.asLongConstant().value;
+    } else if (value.isFloatConstant()) {
+      // compare the bits to distinguish 0.0 from -0.0
+      return argument.isFloatConstant() &&
+          Float.floatToIntBits(argument.asFloatConstant().value) == Float.floatToIntBits(value.asFloatConstant().value);
+    } else if (value.isDoubleConstant()) {
+      return argument.isDoubleConstant() &&
+          Double.doubleToLongBits(argument.asDoubleConstant().value) == Double.doubleToLongBits(value.asDoubleConstant().value);
+    }
+    return false;
+  }
+
   /**
    * Attempt to inline a method. This may fail.
    *
@@ -4838,7 +5031,18 @@ public final class BC2IR {
     // unimplemented magic.
     GenerationContext inlinedContext =
         Inliner.execute(inlDec, gc, currentBBLE.block.exceptionHandlers(), callSite);
+    spliceInlinedContext(inlinedContext, callSite);
+    return true;
+  }
 
+  /**
+   * Links a generation context that replaces a call instruction, e.g. an
+   * inlined callee, into the current block and ends the block.
+   *
+   * @param inlinedContext the context that replaces the call
+   * @param callSite the call instruction
+   */
+  private void spliceInlinedContext(GenerationContext inlinedContext, Instruction callSite) {
     inlinedSomething = true;
     // TODO: We're currently not keeping track if any of the
     // enclosing exception handlers are actually reachable from
@@ -4908,7 +5112,6 @@ public final class BC2IR {
       currentBBLE.block.insertOut(inlinedCallee.gc.getCfg().firstInCodeOrder());
     }
     endOfBasicBlock = true;
-    return true;
   }
 
   /* create an OSR Barrier instruction at the current position.
@@ -5197,10 +5400,27 @@ public final class BC2IR {
 
     /* Error messages */
 
-    private static final String ERROR_ONLY_ONE_SPECIALIZED_PARAMETER_ALLOWED = "At most 1 specialized parameter supported!";
     private static final String ERROR_NO_SPECIALIZED_PARAMETER_FOUND = "No specialized parameter found!";
     private static final String ERROR_OPERAND_STACK_NOT_EMPTY = "The operand stack was not empty when inserting calls for specialized methods!";
 
+    /**
+     * The minimum number of specialized versions that must share a switchable
+     * parameter so that a single lookupswitch is generated for them instead of
+     * a chain of comparisons.
+     */
+    private static final int MIN_VERSIONS_FOR_SWITCH = 3;
+
+    /**
+     * Marks specialized versions that cannot be dispatched to via a switch.
+     */
+    private static final int NO_SWITCH = -1;
+
+    /**
+     * Marks specialized versions that are dispatched to via a switch on
+     * the class of the receiver.
+     */
+    private static final int RECEIVER = -2;
+
     /**
      *  The start bytecode index for basic blocks that contain checks for specialized parameters.
      *  Each basic block has its own index that it uses for all its instructions.
@@ -5215,22 +5435,10 @@ public final class BC2IR {
 
     /**
      * The specialized methods that can be called from the method after
-     * generation has finished.
+     * generation has finished, ordered by decreasing profiled frequency.
      */
     private final List<SpecializedMethod> specializedMethods;
 
-    /**
-     * The specialized method whose checks and whose call will be generated
-     * next.
-     */
-    private SpecializedMethod nextMethodToProcess;
-
-    /**
-     * Index of {@link #nextMethodToProcess} in {@link #specializedMethods}.
-     */
-    private int specializedMethodIndex;
-
-
     /**
      * Creates a new {@link SpecializationManager}. It's the clients'
      * responsibility to ensure that the startIndices are far enough away from
@@ -5248,17 +5456,7 @@ public final class BC2IR {
       this.startIndexChecks = startIndexChecks;
       this.startIndexCalls = startIndexCalls;
 
-      specializedMethods = SpecializationDatabase.getSpecialVersionsThatNeedToBeCalledFromGeneralMethod(gc.getMethod());
-      nextMethodToProcess = specializedMethods.get(specializedMethodIndex);
-    }
-
-    private void prepareForNextSpecializedVersion() {
-      specializedMethodIndex++;
-      if (specializedMethodIndex < specializedMethods.size()) {
-        nextMethodToProcess = specializedMethods.get(specializedMethodIndex);
-      } else {
-        nextMethodToProcess = null;
-      }
+      specializedMethods = specializedMethodsToCall;
     }
 
     private int getBCIForNextSpecializedCheckBlock() {
@@ -5300,40 +5498,21 @@ public final class BC2IR {
     }
 
 
-    private BasicBlockLE appendInstructionsForCheckBlockAndCallBlock(BasicBlockLE checkBBLE, GenerationContext gc) {
-      BasicBlockLE callBlock = insertCheckForSpecializedMethod(checkBBLE, gc, nextMethodToProcess);
-      return callBlock;
-    }
-
-    private BasicBlockLE insertCheckForSpecializedMethod(BasicBlockLE checkBBLE, GenerationContext gc, SpecializedMethod currentMethod) {
+    private BasicBlockLE insertCheckForSpecializedMethod(BasicBlockLE checkBBLE, GenerationContext gc,
+        SpecializedMethod currentMethod, Operand[] nullGuards) {
       instrIndex = checkBBLE.low;
       ParameterValueSpecializationContext pvsc = (ParameterValueSpecializationContext) currentMethod.getSpecializationContext();
       AbstractParameterInfo[] paramInfos = pvsc.getParameterInformation();
 
-      int indexInContext = determineIndexOfSpecializedParameter(paramInfos);
-      int argumentOffset = gc.getMethod().isStatic() ? 0 : 1;
-      int indexAsArgument = indexInContext + argumentOffset;
-
-      Operand argument = null;
-      for (int argIndex = argumentOffset, localIndex = argumentOffset; argIndex < gc.getArguments().length; argIndex++, localIndex++) {
-        Operand argumentFromGenerationContext = gc.getArguments()[argIndex];
-        Operand local = null;
-        if (isTwoWordWide(argumentFromGenerationContext)) {
-          local = getLocalDual(localIndex);
-          localIndex++;
-        } else {
-          local = getLocal(localIndex);
-        }
-
-        if (argIndex == indexAsArgument) {
-          argument = local;
-          break;
-        }
+      int[] indexesInContext = determineIndexesOfSpecializedParameters(pvsc);
+      if (indexesInContext.length > 1 || pvsc.getReceiverType() != null ||
+          paramInfos[indexesInContext[0]].hasPropertyInformation()) {
+        return insertCombinedCheckForSpecializedParameters(checkBBLE, pvsc.getReceiverType(), paramInfos,
+            indexesInContext, nullGuards);
       }
 
-      if (VM.VerifyAssertions) {
-        VM._assert(argument != null, "Did not find argument in locals!");
-      }
+      int indexInContext = indexesInContext[0];
+      Operand argument = findArgumentInLocals(indexInContext);
 
       Operand opToCompareWith = null;
       boolean generateInstanceOf = false;
@@ -5358,22 +5537,7 @@ public final class BC2IR {
         }
 
         TypeOperand typeOp = (TypeOperand) opToCompareWith;
-
-        boolean classLoading = couldCauseClassLoading(typeRef);
-        if (classLoading) {
-          comparison = InstanceOf.create(INSTANCEOF_UNRESOLVED, comparisonResult, typeOp, argument);
-          rectifyStateWithErrorHandler();
-        } else {
-          if (isNonNull(argument)) {
-            if (VM.VerifyAssertions) {
-              VM._assert(argument.isRegister(), "Argument was not a register!");
-            }
-            RegisterOperand argumentRegisterOp = argument.asRegister();
-            comparison = InstanceOf.create(INSTANCEOF_NOTNULL, comparisonResult, typeOp, argument, argumentRegisterOp.getGuard());
-          } else {
-            comparison = InstanceOf.create(INSTANCEOF, comparisonResult, typeOp, argument);
-          }
-        }
+        comparison = createInstanceOfForSpecializedParameter(comparisonResult, typeOp, argument, typeRef);
       }
 
       // Note that there's no refinement of the type here because a successful instanceof
@@ -5391,8 +5555,8 @@ public final class BC2IR {
         // it's the same for equals
         co.translateCMPG();
         comparisonNeeded = false;
-      } else if (opToCompareWith.isNullConstant()) {
-        // will use direct comparison with null
+      } else if (opToCompareWith.isNullConstant() || opToCompareWith.isObjectConstant()) {
+        // will use direct comparison of the references
         comparisonNeeded = false;
       } else if (opToCompareWith.isType()) {
         // NB: opToCompareWith cannot be ref because TypeOperands are used for reference values
@@ -5429,53 +5593,285 @@ public final class BC2IR {
       } else if (opToCompareWith.isDouble()) {
         ifCmp = IfCmp.create(Operators.DOUBLE_IFCMP, guard, opToCompareWith, argument, co, specializedCallsBlockTarget, branchProfile);
       } else if (opToCompareWith.isNullConstant()) {
-        RegisterOperand nullGuard = null;
+        RegisterOperand nullGuard = makeNullCheckGuardForArgument(argument);
+        ifCmp = IfCmp.create(REF_IFCMP, nullGuard, argument, opToCompareWith, co, specializedCallsBlockTarget, branchProfile);
+      } else if (opToCompareWith.isObjectConstant()) {
+        ifCmp = IfCmp.create(REF_IFCMP, guard, argument, opToCompareWith, co, specializedCallsBlockTarget, branchProfile);
+      }
+      appendInstruction(ifCmp);
+      return callBlock;
+    }
 
-        if (VM.VerifyAssertions) {
-          String badArgumentMsg = "Argument was not a reference: " + argument;
-          if (!argument.isRef()) {
-            VM._assert(VM.NOT_REACHED, badArgumentMsg);
-          }
-        }
-
-        if (argument.isRegister()) {
-          RegisterOperand argAsRegister = argument.asRegister();
-          if (argAsRegister.getRegister().isLocal()) {
-            int localNumber = gc.getLocalNumberFor(argAsRegister.getRegister(), argAsRegister.getType());
-            if (localNumber != -1) {
-              Operand local = getLocal(localNumber);
-              if (local.isRegister()) {
-                RegisterOperand locr = local.asRegister();
-                nullGuard = gc.makeNullCheckGuard(locr.getRegister());
-                locr.setGuard(nullGuard.copyD2U());
-                setLocal(localNumber, local);
-              } else {
-                if (VM.VerifyAssertions) {
-                  VM._assert(VM.NOT_REACHED, "Local was not register!");
-                }
-              }
+    /**
+     * Creates the guard for a comparison of a parameter with <code>null</code>.
+     * If possible, the guard is attached to the local that holds the parameter
+     * so that instructions that are generated for the non-null path can use it.
+     *
+     * @param argument the local that holds the parameter
+     * @return the guard for the comparison
+     */
+    private RegisterOperand makeNullCheckGuardForArgument(Operand argument) {
+      RegisterOperand nullGuard = null;
+
+      if (VM.VerifyAssertions) {
+        String badArgumentMsg = "Argument was not a reference: " + argument;
+        if (!argument.isRef()) {
+          VM._assert(VM.NOT_REACHED, badArgumentMsg);
+        }
+      }
+
+      if (argument.isRegister()) {
+        RegisterOperand argAsRegister = argument.asRegister();
+        if (argAsRegister.getRegister().isLocal()) {
+          int localNumber = gc.getLocalNumberFor(argAsRegister.getRegister(), argAsRegister.getType());
+          if (localNumber != -1) {
+            Operand local = getLocal(localNumber);
+            if (local.isRegister()) {
+              RegisterOperand locr = local.asRegister();
+              nullGuard = gc.makeNullCheckGuard(locr.getRegister());
+              locr.setGuard(nullGuard.copyD2U());
+              setLocal(localNumber, local);
             } else {
               if (VM.VerifyAssertions) {
-                VM._assert(VM.NOT_REACHED, "Local was not found, i.e. localNumber was -1");
+                VM._assert(VM.NOT_REACHED, "Local was not register!");
               }
             }
           } else {
             if (VM.VerifyAssertions) {
-              VM._assert(VM.NOT_REACHED, "Register for argument was not local!");
+              VM._assert(VM.NOT_REACHED, "Local was not found, i.e. localNumber was -1");
             }
           }
+        } else {
+          if (VM.VerifyAssertions) {
+            VM._assert(VM.NOT_REACHED, "Register for argument was not local!");
+          }
         }
+      }
 
-        if (nullGuard == null) {
-          nullGuard = gc.getTemps().makeTempValidation();
+      if (nullGuard == null) {
+        nullGuard = gc.getTemps().makeTempValidation();
+      }
+      return nullGuard;
+    }
+
+    /**
+     * Finds the local that holds the given parameter at the start of the method.
+     *
+     * @param indexInContext the index of the parameter in the specialization context,
+     *  i.e. not counting the receiver
+     * @return a copy of the local that holds the parameter
+     */
+    private Operand findArgumentInLocals(int indexInContext) {
+      int argumentOffset = gc.getMethod().isStatic() ? 0 : 1;
+      int indexAsArgument = indexInContext + argumentOffset;
+
+      Operand argument = null;
+      for (int argIndex = argumentOffset, localIndex = argumentOffset; argIndex < gc.getArguments().length; argIndex++, localIndex++) {
+        Operand argumentFromGenerationContext = gc.getArguments()[argIndex];
+        Operand local = null;
+        if (isTwoWordWide(argumentFromGenerationContext)) {
+          local = getLocalDual(localIndex);
+          localIndex++;
+        } else {
+          local = getLocal(localIndex);
         }
 
-        ifCmp = IfCmp.create(REF_IFCMP, nullGuard, argument, opToCompareWith, co, specializedCallsBlockTarget, branchProfile);
+        if (argIndex == indexAsArgument) {
+          argument = local;
+          break;
+        }
       }
-      appendInstruction(ifCmp);
+
+      if (VM.VerifyAssertions) {
+        VM._assert(argument != null, "Did not find argument in locals!");
+      }
+      return argument;
+    }
+
+    private Instruction createInstanceOfForSpecializedParameter(RegisterOperand result, TypeOperand typeOp,
+        Operand argument, TypeReference typeRef) {
+      Instruction instanceOf;
+      boolean classLoading = couldCauseClassLoading(typeRef);
+      if (classLoading) {
+        instanceOf = InstanceOf.create(INSTANCEOF_UNRESOLVED, result, typeOp, argument);
+        rectifyStateWithErrorHandler();
+      } else {
+        if (isNonNull(argument)) {
+          if (VM.VerifyAssertions) {
+            VM._assert(argument.isRegister(), "Argument was not a register!");
+          }
+          RegisterOperand argumentRegisterOp = argument.asRegister();
+          instanceOf = InstanceOf.create(INSTANCEOF_NOTNULL, result, typeOp, argument, argumentRegisterOp.getGuard());
+        } else {
+          instanceOf = InstanceOf.create(INSTANCEOF, result, typeOp, argument);
+        }
+      }
+      return instanceOf;
+    }
+
+    /**
+     * Generates a check for a specialized version that has more than one
+     * specialized parameter or is customized for the class of the receiver.
+     * Each parameter is compared separately, the results of the comparisons
+     * are combined with a bitwise and and a single branch leads to the call
+     * block.
+     * <p>
+     * Floating point values are compared via their bits. This is necessary to
+     * distinguish <code>0.0</code> from <code>-0.0</code> and works for NaN.
+     *
+     * @param checkBBLE the block for the check
+     * @param receiverType the exact class of the receiver or <code>null</code>
+     * @param paramInfos the information about the parameters from the context
+     * @param indexesInContext the indexes of the specialized parameters in the context
+     * @param nullGuards the guards of the parameters that were checked for <code>null</code>
+     *  before, indexed like the context, or <code>null</code> if no parameter was checked
+     * @return the block that contains the call to the specialized version
+     */
+    private BasicBlockLE insertCombinedCheckForSpecializedParameters(BasicBlockLE checkBBLE,
+        RVMClass receiverType, AbstractParameterInfo[] paramInfos, int[] indexesInContext, Operand[] nullGuards) {
+      RegisterOperand combinedResult = null;
+      if (receiverType != null) {
+        combinedResult = appendCheckForReceiverType(receiverType);
+      }
+      for (int indexInContext : indexesInContext) {
+        Operand argument = findArgumentInLocals(indexInContext);
+        Operand nullGuard = nullGuards == null ? null : nullGuards[indexInContext];
+        RegisterOperand result = appendCheckForSpecializedParameter(paramInfos[indexInContext], argument, nullGuard);
+        if (combinedResult == null) {
+          combinedResult = result;
+        } else {
+          RegisterOperand conjunction = gc.getTemps().makeTempInt();
+          appendInstruction(Binary.create(INT_AND, conjunction, combinedResult.copyRO(), result.copyRO()));
+          combinedResult = conjunction;
+        }
+      }
+
+      int realTarget = getBCIForNextSpecializedCallBlockInstruction();
+      BranchOperand specializedCallsBlockTarget = generateTarget(realTarget - instrIndex);
+      BasicBlockLE callBlock = blocks.getOrCreateBlock(realTarget, checkBBLE, stack, _localState);
+
+      RegisterOperand guard = gc.getTemps().makeTempValidation();
+      appendInstruction(IfCmp.create(INT_IFCMP, guard, combinedResult.copyRO(), new IntConstantOperand(1),
+          ConditionOperand.EQUAL(), specializedCallsBlockTarget, new BranchProfileOperand()));
       return callBlock;
     }
 
+    /**
+     * Appends instructions that compare the class of the receiver with the
+     * class that a specialized version is customized for. The comparison is
+     * exact, i.e. subclasses do not match.
+     *
+     * @param receiverType the class of the receiver in the specialized version
+     * @return a register that holds 1 if the receiver matches and 0 otherwise
+     */
+    private RegisterOperand appendCheckForReceiverType(RVMClass receiverType) {
+      Operand receiver = getLocal(0);
+      RegisterOperand typeId = appendLoadOfTypeId(receiver, getGuardForReceiver(receiver));
+      RegisterOperand result = gc.getTemps().makeTempInt();
+      appendInstruction(BooleanCmp.create(BOOLEAN_CMP_INT, result, typeId.copyD2U(),
+          new IntConstantOperand(receiverType.getId()), ConditionOperand.EQUAL(), new BranchProfileOperand()));
+      return result;
+    }
+
+    /**
+     * @param receiver the local that holds the receiver
+     * @return the guard that proves that the receiver is not <code>null</code>
+     */
+    private Operand getGuardForReceiver(Operand receiver) {
+      Operand guard = copyGuardFromOperand(receiver);
+      // the receiver of an instance method is non-null by definition
+      return guard == null ? new TrueGuardOperand() : guard;
+    }
+
+    /**
+     * Appends instructions that load the id of the type of an object from
+     * its TIB.
+     *
+     * @param object the object, must not be <code>null</code>
+     * @param nullGuard the guard that proves that the object is not <code>null</code>
+     * @return a register that holds the id of the type
+     */
+    private RegisterOperand appendLoadOfTypeId(Operand object, Operand nullGuard) {
+      RegisterOperand tib = gc.getTemps().makeTemp(TypeReference.TIB);
+      appendInstruction(GuardedUnary.create(GET_OBJ_TIB, tib, object, nullGuard));
+      RegisterOperand type = gc.getTemps().makeTemp(TypeReference.Type);
+      appendInstruction(Unary.create(GET_TYPE_FROM_TIB, type, tib.copyD2U()));
+      RegisterOperand typeId = gc.getTemps().makeTempInt();
+      appendInstruction(GetField.create(GETFIELD, typeId, type.copyD2U(),
+          new AddressConstantOperand(Entrypoints.idField.getOffset()),
+          new LocationOperand(Entrypoints.idField), new TrueGuardOperand()));
+      return typeId;
+    }
+
+    /**
+     * Appends instructions that compare a parameter with its specialized value.
+     *
+     * @param specializedParameterInfo the value, type or property of the parameter in the specialized version
+     * @param argument the local that holds the parameter
+     * @param nullGuard the guard that proves that the parameter is not <code>null</code>.
+     *  Only needed for properties that must be loaded from the parameter, e.g. the length of an array.
+     * @return a register that holds 1 if the parameter matches and 0 otherwise
+     */
+    private RegisterOperand appendCheckForSpecializedParameter(AbstractParameterInfo specializedParameterInfo, Operand argument,
+        Operand nullGuard) {
+      RegisterOperand result = gc.getTemps().makeTempInt();
+      ConditionOperand equal = ConditionOperand.EQUAL();
+
+      if (specializedParameterInfo.hasTypeInformation()) {
+        if (VM.VerifyAssertions) {
+          VM._assert(argument.isRef(), "Tried to generate instanceof on non-reference type!");
+        }
+        TypeValueForObjectParameter tvop = (TypeValueForObjectParameter) specializedParameterInfo;
+        TypeOperand typeOp = makeTypeOperand(tvop.getObjectType().getTypeRef().peekType());
+        appendInstruction(createInstanceOfForSpecializedParameter(result, typeOp, argument, argument.getType()));
+        return result;
+      }
+
+      if (specializedParameterInfo instanceof ArrayLengthParameterProperty) {
+        if (VM.VerifyAssertions) {
+          VM._assert(nullGuard != null, "Array was not checked for null before checking its length!");
+        }
+        RegisterOperand length = gc.getTemps().makeTempInt();
+        appendInstruction(GuardedUnary.create(ARRAYLENGTH, length, argument, nullGuard.copy()));
+        IntConstantOperand expectedLength = new IntConstantOperand(((ArrayLengthParameterProperty) specializedParameterInfo).getLength());
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_INT, result, length.copyD2U(), expectedLength, equal, new BranchProfileOperand()));
+        return result;
+      } else if (specializedParameterInfo.hasPropertyInformation()) {
+        // the parameter is known to be non-null
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_ADDR, result, argument, new NullConstantOperand(),
+            ConditionOperand.NOT_EQUAL(), new BranchProfileOperand()));
+        return result;
+      }
+
+      AbstractParameterValue apv = (AbstractParameterValue) specializedParameterInfo;
+      ConstantOperand value = apv.buildOperand();
+      if (value.isInt()) {
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_INT, result, argument, value, equal, new BranchProfileOperand()));
+      } else if (value.isLong()) {
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_LONG, result, argument, value, equal, new BranchProfileOperand()));
+      } else if (value.isFloat()) {
+        RegisterOperand bits = gc.getTemps().makeTempInt();
+        appendInstruction(Unary.create(FLOAT_AS_INT_BITS, bits, argument));
+        IntConstantOperand expectedBits = new IntConstantOperand(Float.floatToIntBits(((FloatConstantOperand) value).value));
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_INT, result, bits.copyRO(), expectedBits, equal, new BranchProfileOperand()));
+      } else if (value.isDouble()) {
+        RegisterOperand bits = gc.getTemps().makeTempLong();
+        appendInstruction(Unary.create(DOUBLE_AS_LONG_BITS, bits, argument));
+        LongConstantOperand expectedBits = new LongConstantOperand(Double.doubleToLongBits(((DoubleConstantOperand) value).value));
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_LONG, result, bits.copyRO(), expectedBits, equal, new BranchProfileOperand()));
+      } else if (value.isNullConstant() || value.isObjectConstant()) {
+        appendInstruction(BooleanCmp.create(BOOLEAN_CMP_ADDR, result, argument, value, equal, new BranchProfileOperand()));
+      } else {
+        final String unsupportedValue = "Unsupported value for specialized parameter: " + value;
+        if (VM.VerifyAssertions) {
+          VM._assert(VM.NOT_REACHED, unsupportedValue);
+        } else {
+          OptimizingCompilerException.UNREACHABLE(unsupportedValue);
+        }
+      }
+      return result;
+    }
+
     private void addStoresToCurrentBBLE() {
       initializeStackStateForCurrentBBLE();
       initializeLocalStateForCurrentBBLE();
@@ -5530,15 +5926,15 @@ public final class BC2IR {
         }
 
         AbstractParameterInfo api = gc.parameterValues[argIdx - offset];
-        if ((api != null) && (!api.hasTypeInformation())) {
+        if ((api != null) && !api.hasTypeInformation() && !api.hasPropertyInformation()) {
           AbstractParameterValue apv = (AbstractParameterValue) api;
           ConstantOperand co = apv.buildOperand();
           Instruction inst = null;
           if (argument.isRef()) {
             if (VM.VerifyAssertions) {
-              boolean constantIsNullConstant = co instanceof NullConstantOperand;
-              if (!constantIsNullConstant) {
-                String badConstantMsg = "Expected NullConstantOperand but was " + argument;
+              boolean constantIsReference = co.isNullConstant() || co.isObjectConstant();
+              if (!constantIsReference) {
+                String badConstantMsg = "Expected a null or object constant but was " + argument;
                 VM._assert(VM.NOT_REACHED, badConstantMsg);
               }
             }
@@ -5592,45 +5988,47 @@ public final class BC2IR {
       return operand.isDouble()  || operand.isLong();
     }
 
-    private int determineIndexOfSpecializedParameter(AbstractParameterInfo[] paramInfos) {
-      int argIndex = 0;
+    /**
+     * @param context the context of a specialized version
+     * @return the indexes of the specialized parameters in the context. Only
+     *  versions that are customized for the class of the receiver may have no
+     *  specialized parameters.
+     */
+    private int[] determineIndexesOfSpecializedParameters(ParameterValueSpecializationContext context) {
+      AbstractParameterInfo[] paramInfos = context.getParameterInformation();
       int specParamCount = 0;
       for (int paramInfo = 0; paramInfo < paramInfos.length; paramInfo++) {
         if (paramInfos[paramInfo] != null) {
           specParamCount++;
-          argIndex = paramInfo;
         }
       }
 
-      if (VM.VerifyAssertions) {
-        VM._assert(specParamCount != 0, ERROR_NO_SPECIALIZED_PARAMETER_FOUND);
-        VM._assert(specParamCount <= 1, ERROR_ONLY_ONE_SPECIALIZED_PARAMETER_ALLOWED);
-      } else {
-        if (specParamCount == 0) {
+      if (specParamCount == 0 && context.getReceiverType() == null) {
+        if (VM.VerifyAssertions) {
+          VM._assert(VM.NOT_REACHED, ERROR_NO_SPECIALIZED_PARAMETER_FOUND);
+        } else {
           OptimizingCompilerException.UNREACHABLE(ERROR_NO_SPECIALIZED_PARAMETER_FOUND);
-        } else if (specParamCount > 1) {
-          OptimizingCompilerException.UNREACHABLE(ERROR_ONLY_ONE_SPECIALIZED_PARAMETER_ALLOWED);
         }
       }
-      return argIndex;
+
+      int[] indexes = new int[specParamCount];
+      int nextIndex = 0;
+      for (int paramInfo = 0; paramInfo < paramInfos.length; paramInfo++) {
+        if (paramInfos[paramInfo] != null) {
+          indexes[nextIndex++] = paramInfo;
+        }
+      }
+      return indexes;
     }
 
-    private void changeMethodOpForSpecializedCall(MethodOperand methOp) {
+    private void changeMethodOpForSpecializedCall(MethodOperand methOp, SpecializedMethod spMethod) {
       if (VM.VerifyAssertions) {
-        VM._assert(nextMethodToProcess != null, "spMethod was null!");
+        VM._assert(spMethod != null, "spMethod was null!");
       }
 
       // Setting this enough to get a specialized call. The details are handled
       // by callHelper in ConvertToLowLevelIR.
-      methOp.spMethod = nextMethodToProcess;
-    }
-
-    private boolean hasUnprocessedSpecializedVersions() {
-      return nextMethodToProcess != null;
-    }
-
-    private boolean isLastSpecializedVersion() {
-      return specializedMethodIndex >= (specializedMethods.size() - 1);
+      methOp.spMethod = spMethod;
     }
 
     private void pushParameters() {
@@ -5651,7 +6049,7 @@ public final class BC2IR {
     }
 
 
-    private Instruction insertCallToSpecializedInstanceMethod(MethodReference methodRef) {
+    private Instruction insertCallToSpecializedInstanceMethod(MethodReference methodRef, SpecializedMethod spMethod) {
       Instruction callInstruction;
       RVMMethod target = methodRef.resolveInvokeSpecial();
 
@@ -5674,7 +6072,7 @@ public final class BC2IR {
         }
       } else {
         Call.setAddress(callInstruction, new AddressConstantOperand(target.getOffset()));
-        changeMethodOpForSpecializedCall(methOp);
+        changeMethodOpForSpecializedCall(methOp, spMethod);
       }
 
       // null check receiver
@@ -5703,7 +6101,7 @@ public final class BC2IR {
       }
     }
 
-    private Instruction insertCallToSpecializedStaticMethod(MethodReference methodRef) {
+    private Instruction insertCallToSpecializedStaticMethod(MethodReference methodRef, SpecializedMethod spMethod) {
       // A non-magical invokestatic.  Create call instruction.
       boolean unresolved = methodRef.needsDynamicLink(bcodes.getMethod());
       if (VM.VerifyAssertions) {
@@ -5729,31 +6127,58 @@ public final class BC2IR {
       MethodOperand methOp = Call.getMethod(callInstruction);
       if (methOp.getTarget() == target) {
         Call.setAddress(callInstruction, new AddressConstantOperand(target.getOffset()));
-        changeMethodOpForSpecializedCall(methOp);
+        changeMethodOpForSpecializedCall(methOp, spMethod);
       }
       return callInstruction;
     }
 
     /**
-     * Generates a basic block that contains the call to the specialized method that
-     * is currently being processed. The block ends with a GOTO to epilogue.
+     * Appends an increment of a guard counter to the current block, see
+     * {@link org.jikesrvm.compilers.opt.specialization.GuardHitCounters}.
+     * The increment is not synchronized: lost updates only make the hit
+     * rates slightly less precise. Nothing is appended unless rarely hit
+     * versions are retired.
+     *
+     * @param counter the id of the counter
+     */
+    private void appendGuardCounterIncrement(int counter) {
+      if (!GuardHitCounters.isEnabled()) {
+        return;
+      }
+      RVMField countsField = AosEntrypoints.specializationGuardHitCountsField;
+      RegisterOperand counts = gc.getTemps().makeTemp(TypeReference.IntArray);
+      appendInstruction(GetStatic.create(GETSTATIC, counts,
+          new AddressConstantOperand(countsField.getOffset()), new LocationOperand(countsField)));
+      RegisterOperand count = gc.getTemps().makeTempInt();
+      appendInstruction(ALoad.create(INT_ALOAD, count, counts.copyD2U(), new IntConstantOperand(counter),
+          new LocationOperand(TypeReference.Int), new TrueGuardOperand()));
+      appendInstruction(Binary.create(INT_ADD, count.copyRO(), count.copyD2U(), new IntConstantOperand(1)));
+      appendInstruction(AStore.create(INT_ASTORE, count.copyD2U(), counts.copyD2U(), new IntConstantOperand(counter),
+          new LocationOperand(TypeReference.Int), new TrueGuardOperand()));
+    }
+
+    /**
+     * Generates a basic block that contains the call to a specialized method.
+     * The block ends with a GOTO to epilogue.
      *
-     * @param checkBlock the {@link BasicBlockLE} with the checks that guard entry to this call block
      * @param callBlock the {@link BasicBlockLE} that the call will be generated into
+     * @param spMethod the specialized method to call
      */
-    private void generateCallBlock(BasicBlockLE checkBlock, BasicBlockLE callBlock) {
+    private void generateCallBlock(BasicBlockLE callBlock, SpecializedMethod spMethod) {
       currentBBLE = callBlock;
       initializeStackStateForCurrentBBLE();
       initializeLocalStateForCurrentBBLE();
       initStateForCurrentBlock();
       instrIndex = callBlock.low;
 
+      appendGuardCounterIncrement(spMethod.getHitCounter());
+
       MethodReference methodRef = gc.getMethod().getMemberRef().asMethodReference();
       Instruction s = null;
       if (gc.getMethod().isStatic()) {
-        s = insertCallToSpecializedStaticMethod(methodRef);
+        s = insertCallToSpecializedStaticMethod(methodRef, spMethod);
       } else {
-        s = insertCallToSpecializedInstanceMethod(methodRef);
+        s = insertCallToSpecializedInstanceMethod(methodRef, spMethod);
       }
 
       // noninlined CALL must be treated as potential throw of anything
@@ -5793,6 +6218,20 @@ public final class BC2IR {
       currentBBLE.fallThrough = null;
     }
 
+    /**
+     * Generates the blocks that dispatch to the specialized versions.
+     * <p>
+     * The versions are checked in the order of decreasing profiled frequency.
+     * Versions that are specialized on different int-like values of the same
+     * parameter share a single lookupswitch. The same applies to versions that
+     * are specialized on different final classes for the same parameter: the
+     * switch is done on the id of the type of the argument which is loaded from
+     * its TIB. Versions that are customized for different classes of the
+     * receiver share a switch on the id of the type of the receiver. All
+     * other versions are checked one after another.
+     *
+     * @param normalEntry the normal entry block of the method
+     */
     private void insertCallsToSpecializedMethods(BasicBlockLE normalEntry) {
       int index = getBCIForNextSpecializedCheckBlock();
 
@@ -5809,48 +6248,62 @@ public final class BC2IR {
       assertThatStackisEmpty();
       BasicBlockLE blockAtZero = null;
 
-
-      //TODO Some assignments to BC2IR's variables might be unnecessary.
-
       // Main generation loop for the basic blocks for checks and calls.
-      // When a check block is created, the call block is created at the same time. Before
-      // finishing (i.e. generating) the check block, the successor check block will be
-      // created, if necessary.
-
-      BasicBlockLE firstCheckBlock = currentBBLE;
-      BasicBlockLE checkBlock = firstCheckBlock;
-      BasicBlockLE fromBlock = null;
-      while (hasUnprocessedSpecializedVersions()) {
-        BasicBlockLE callBlock = startNewCheckAndNewCallBlock(checkBlock, index);
-        BasicBlockLE successorOfGeneratedCheckBlock = null;
-
-        fromBlock = checkBlock;
-
-        int indexForNextBlock = Integer.MAX_VALUE;
-        if (isLastSpecializedVersion()) {
-          blockAtZero = blocks.getOrCreateBlock(normalBytecodeIndex, currentBBLE, stack, _localState);
-          successorOfGeneratedCheckBlock = blockAtZero;
-          indexForNextBlock = 0;
-        } else {
-          indexForNextBlock = getBCIForNextSpecializedCheckBlock();
+      // Each step of the dispatch consists of one or two check blocks. The call
+      // blocks are created at the same time as the check blocks. Before finishing
+      // (i.e. generating) the last check block of a step, the first check block
+      // of the next step will be created, if necessary.
+
+      List<List<SpecializedMethod>> steps = planDispatchSteps();
+      BasicBlockLE checkBlock = currentBBLE;
+      for (int step = 0; step < steps.size(); step++) {
+        List<SpecializedMethod> versions = steps.get(step);
+        boolean isLastStep = step == steps.size() - 1;
+        initializeBBLEState(checkBlock, index);
+        if (step == 0) {
+          appendGuardCounterIncrement(SpecializationDatabase.getEntryCounter(gc.getMethod()));
+        }
+
+        BasicBlockLE[] callBlocks;
+        int indexForNextBlock;
+        if (versions.size() == 1) {
+          indexForNextBlock = isLastStep ? normalBytecodeIndex : getBCIForNextSpecializedCheckBlock();
+          Operand[] nullGuards = null;
+          if (needsNullChecksBeforeCheck(versions.get(0))) {
+            nullGuards = new Operand[getParameterInformation(versions.get(0)).length];
+            index = appendNullChecksForSpecializedParameters(versions.get(0), index, indexForNextBlock, nullGuards);
+            checkBlock = currentBBLE;
+          }
+          callBlocks = new BasicBlockLE[] {insertCheckForSpecializedMethod(checkBlock, gc, versions.get(0), nullGuards)};
+          endBasicBlockAtBCI(index);
           // NOTE: Normal stack can be used from now on because all BasicBlocks that are accessed
           // now have an associated BasicBlockLE.
-          BasicBlockLE successorCheckBlock = blocks.getOrCreateBlock(indexForNextBlock, fromBlock, stack, _localState);
-          successorOfGeneratedCheckBlock = successorCheckBlock;
+          updateRunoff();
+          createFallThroughToIndex(indexForNextBlock);
+        } else if (hasTypeInformationForSwitch(versions.get(0))) {
+          int indexForSwitch = getBCIForNextSpecializedCheckBlock();
+          indexForNextBlock = isLastStep ? normalBytecodeIndex : getBCIForNextSpecializedCheckBlock();
+          callBlocks = insertSwitchOnTypeOfSpecializedParameter(versions, index, indexForSwitch, indexForNextBlock);
+        } else {
+          indexForNextBlock = isLastStep ? normalBytecodeIndex : getBCIForNextSpecializedCheckBlock();
+          Operand argument = findArgumentInLocals(getParameterForSwitch(versions.get(0)));
+          callBlocks = appendSwitchForSpecializedVersions(argument, versions, indexForNextBlock);
+          endBasicBlockAtBCI(index);
+          updateRunoff();
         }
 
-        // currentBBLE is checkBlock at the moment
-
-        updateRunoff();
-        createFallThroughToIndex(indexForNextBlock);
-
-        generateCallBlock(checkBlock, callBlock);
+        // currentBBLE is the last check block of this step at the moment
+        BasicBlockLE successorOfGeneratedCheckBlock = getOrCreateBlock(indexForNextBlock);
 
-        prepareForNextSpecializedVersion();
+        for (int version = 0; version < versions.size(); version++) {
+          generateCallBlock(callBlocks[version], versions.get(version));
+        }
 
-        if (hasUnprocessedSpecializedVersions()) {
+        if (isLastStep) {
+          blockAtZero = successorOfGeneratedCheckBlock;
+        } else {
           checkBlock = successorOfGeneratedCheckBlock;
-          instrIndex = indexForNextBlock;
+          index = indexForNextBlock;
         }
       }
 
@@ -5859,6 +6312,272 @@ public final class BC2IR {
       reinitializeOperandStack();
     }
 
+    /**
+     * Groups the specialized versions into the steps of the dispatch. A step
+     * either contains a single version that is checked on its own or several
+     * versions that are dispatched to with a single switch. A switch is used
+     * when at least {@link #MIN_VERSIONS_FOR_SWITCH} versions are
+     * specialized on different switchable values of the same parameter. The
+     * order of the steps follows the order of their most frequent versions.
+     *
+     * @return the steps, in the order in which they must be generated
+     */
+    private List<List<SpecializedMethod>> planDispatchSteps() {
+      List<List<SpecializedMethod>> steps = new ArrayList<List<SpecializedMethod>>();
+      int versionCount = specializedMethods.size();
+      boolean[] planned = new boolean[versionCount];
+      for (int i = 0; i < versionCount; i++) {
+        if (planned[i]) {
+          continue;
+        }
+        planned[i] = true;
+
+        SpecializedMethod first = specializedMethods.get(i);
+        List<SpecializedMethod> step = new ArrayList<SpecializedMethod>();
+        step.add(first);
+        steps.add(step);
+
+        int param = getParameterForSwitch(first);
+        if (param == NO_SWITCH) {
+          continue;
+        }
+        List<Integer> others = new ArrayList<Integer>();
+        List<Integer> switchValues = new ArrayList<Integer>();
+        switchValues.add(getSwitchValue(first));
+        for (int j = i + 1; j < versionCount; j++) {
+          SpecializedMethod other = specializedMethods.get(j);
+          if (!planned[j] && getParameterForSwitch(other) == param &&
+              !switchValues.contains(getSwitchValue(other))) {
+            others.add(j);
+            switchValues.add(getSwitchValue(other));
+          }
+        }
+        if (others.size() + 1 >= MIN_VERSIONS_FOR_SWITCH) {
+          for (int other : others) {
+            planned[other] = true;
+            step.add(specializedMethods.get(other));
+          }
+        }
+      }
+      return steps;
+    }
+
+    /**
+     * Determines if a specialized version can be dispatched to via a switch.
+     * This is the case if the version is specialized on a single parameter
+     * and its value is int-like or it is specialized on a final class. For a
+     * final class, a comparison of the exact type is equivalent to an
+     * instanceof check. Versions that are only customized for the class of
+     * the receiver are dispatched to via a switch on the class of the receiver.
+     *
+     * @param spMethod a specialized version
+     * @return the index of the specialized parameter in the context,
+     *  {@link #RECEIVER} for a switch on the receiver or
+     *  {@link #NO_SWITCH} if a switch is not possible
+     */
+    private int getParameterForSwitch(SpecializedMethod spMethod) {
+      ParameterValueSpecializationContext context = getContext(spMethod);
+      AbstractParameterInfo[] paramInfos = context.getParameterInformation();
+      int[] indexesInContext = determineIndexesOfSpecializedParameters(context);
+      if (context.getReceiverType() != null) {
+        return indexesInContext.length == 0 ? RECEIVER : NO_SWITCH;
+      }
+      if (indexesInContext.length != 1) {
+        return NO_SWITCH;
+      }
+      int indexInContext = indexesInContext[0];
+      AbstractParameterInfo info = paramInfos[indexInContext];
+      if (info.hasTypeInformation()) {
+        RVMType type = getSpecializedType(info);
+        boolean isFinalClass = type != null && type.isClassType() && type.asClass().isFinal();
+        return isFinalClass ? indexInContext : NO_SWITCH;
+      } else if (info.hasPropertyInformation()) {
+        return NO_SWITCH;
+      }
+      return ((AbstractParameterValue) info).buildOperand().isInt() ? indexInContext : NO_SWITCH;
+    }
+
+    private boolean hasTypeInformationForSwitch(SpecializedMethod spMethod) {
+      int param = getParameterForSwitch(spMethod);
+      return param == RECEIVER || getParameterInformation(spMethod)[param].hasTypeInformation();
+    }
+
+    /**
+     * @param spMethod a specialized version that can be dispatched to via a switch
+     * @return the id of the specialized type or the specialized int-like value
+     */
+    private int getSwitchValue(SpecializedMethod spMethod) {
+      int param = getParameterForSwitch(spMethod);
+      if (param == RECEIVER) {
+        return getContext(spMethod).getReceiverType().getId();
+      }
+      AbstractParameterInfo info = getParameterInformation(spMethod)[param];
+      if (info.hasTypeInformation()) {
+        return getSpecializedType(info).getId();
+      }
+      return ((IntConstantOperand) ((AbstractParameterValue) info).buildOperand()).value;
+    }
+
+    private ParameterValueSpecializationContext getContext(SpecializedMethod spMethod) {
+      return (ParameterValueSpecializationContext) spMethod.getSpecializationContext();
+    }
+
+    private AbstractParameterInfo[] getParameterInformation(SpecializedMethod spMethod) {
+      return getContext(spMethod).getParameterInformation();
+    }
+
+    private RVMType getSpecializedType(AbstractParameterInfo info) {
+      return ((TypeValueForObjectParameter) info).getObjectType().getTypeRef().peekType();
+    }
+
+    private int getProfiledFrequency(SpecializedMethod spMethod) {
+      return ((ParameterValueSpecializationContext) spMethod.getSpecializationContext()).getProfiledFrequency();
+    }
+
+    /**
+     * @param spMethod a specialized version
+     * @return <code>true</code> if some parameters must be checked for <code>null</code>
+     *  before the check for the version, e.g. because the length of an array is compared
+     */
+    private boolean needsNullChecksBeforeCheck(SpecializedMethod spMethod) {
+      for (AbstractParameterInfo info : getParameterInformation(spMethod)) {
+        if (info instanceof ArrayLengthParameterProperty) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Appends a block for each parameter that needs a <code>null</code> check
+     * before the check for the version. A <code>null</code> argument leads to
+     * the next step of the dispatch, otherwise the next block is reached.
+     *
+     * @param spMethod the specialized version
+     * @param index the index of the current check block
+     * @param indexForNextBlock the index of the block for the next step of the dispatch
+     * @param nullGuards receives the guards for the checked parameters, indexed like the context
+     * @return the index of the block that follows the <code>null</code> checks, which
+     *  is the current block when this method returns
+     */
+    private int appendNullChecksForSpecializedParameters(SpecializedMethod spMethod, int index,
+        int indexForNextBlock, Operand[] nullGuards) {
+      AbstractParameterInfo[] paramInfos = getParameterInformation(spMethod);
+      for (int indexInContext = 0; indexInContext < paramInfos.length; indexInContext++) {
+        if (!(paramInfos[indexInContext] instanceof ArrayLengthParameterProperty)) {
+          continue;
+        }
+        Operand argument = findArgumentInLocals(indexInContext);
+        BranchOperand nextStep = generateTarget(indexForNextBlock - instrIndex);
+        RegisterOperand argumentGuard = makeNullCheckGuardForArgument(argument);
+        appendInstruction(IfCmp.create(REF_IFCMP, argumentGuard, argument, new NullConstantOperand(),
+            ConditionOperand.EQUAL(), nextStep, new BranchProfileOperand()));
+        nullGuards[indexInContext] = argumentGuard.copyD2U();
+
+        int indexForCheck = getBCIForNextSpecializedCheckBlock();
+        endBasicBlockAtBCI(index);
+        updateRunoff();
+        createFallThroughToIndex(indexForCheck);
+        initializeBBLEState(currentBBLE.fallThrough, indexForCheck);
+        index = indexForCheck;
+      }
+      return index;
+    }
+
+    /**
+     * Generates the dispatch for versions that are specialized on different
+     * final classes for the same parameter or on different classes of the
+     * receiver. The first block branches to the next step if the argument is
+     * <code>null</code>, which is not necessary for the receiver. The second
+     * block loads the id of the type of the argument from its TIB and
+     * switches on it.
+     *
+     * @param versions the versions to dispatch to
+     * @param indexForNullCheck the index of the block for the null check
+     * @param indexForSwitch the index of the block for the switch
+     * @param indexForNextBlock the index of the first block of the next step
+     * @return the call blocks, in the order of the versions
+     */
+    private BasicBlockLE[] insertSwitchOnTypeOfSpecializedParameter(List<SpecializedMethod> versions,
+        int indexForNullCheck, int indexForSwitch, int indexForNextBlock) {
+      int indexInContext = getParameterForSwitch(versions.get(0));
+      boolean switchOnReceiver = indexInContext == RECEIVER;
+
+      Operand argument = switchOnReceiver ? getLocal(0) : findArgumentInLocals(indexInContext);
+      Operand nullGuard;
+      if (switchOnReceiver) {
+        nullGuard = getGuardForReceiver(argument);
+      } else {
+        BranchOperand nextStep = generateTarget(indexForNextBlock - instrIndex);
+        RegisterOperand argumentGuard = makeNullCheckGuardForArgument(argument);
+        appendInstruction(IfCmp.create(REF_IFCMP, argumentGuard, argument, new NullConstantOperand(),
+            ConditionOperand.EQUAL(), nextStep, new BranchProfileOperand()));
+        nullGuard = argumentGuard.copyD2U();
+      }
+      endBasicBlockAtBCI(indexForNullCheck);
+      updateRunoff();
+      createFallThroughToIndex(indexForSwitch);
+
+      initializeBBLEState(currentBBLE.fallThrough, indexForSwitch);
+      argument = switchOnReceiver ? getLocal(0) : findArgumentInLocals(indexInContext);
+      RegisterOperand typeId = appendLoadOfTypeId(argument, nullGuard);
+
+      BasicBlockLE[] callBlocks = appendSwitchForSpecializedVersions(typeId.copyD2U(), versions, indexForNextBlock);
+      endBasicBlockAtBCI(indexForSwitch);
+      updateRunoff();
+      return callBlocks;
+    }
+
+    /**
+     * Appends a lookupswitch that branches to the call blocks of the given
+     * versions. The branch probabilities are derived from the profiled
+     * frequencies of the versions.
+     *
+     * @param value the value to switch on
+     * @param versions the versions to dispatch to
+     * @param indexForDefault the index of the block for the default case
+     * @return the call blocks, in the order of the versions
+     */
+    private BasicBlockLE[] appendSwitchForSpecializedVersions(Operand value, List<SpecializedMethod> versions,
+        int indexForDefault) {
+      int versionCount = versions.size();
+      int[] switchValues = new int[versionCount];
+      int[] callIndexes = new int[versionCount];
+      int[] order = new int[versionCount];
+      int totalFrequency = 0;
+      for (int version = 0; version < versionCount; version++) {
+        switchValues[version] = getSwitchValue(versions.get(version));
+        callIndexes[version] = getBCIForNextSpecializedCallBlockInstruction();
+        totalFrequency += getProfiledFrequency(versions.get(version));
+
+        // the matches of a lookupswitch must be sorted
+        int position = version;
+        while (position > 0 && switchValues[order[position - 1]] > switchValues[version]) {
+          order[position] = order[position - 1];
+          position--;
+        }
+        order[position] = version;
+      }
+
+      float defaultProbability = 1.0f / (versionCount + 1);
+      Instruction s = LookupSwitch.create(LOOKUPSWITCH, value, null, null, generateTarget(indexForDefault - instrIndex),
+          new BranchProfileOperand(defaultProbability), versionCount * 3);
+      BasicBlockLE[] callBlocks = new BasicBlockLE[versionCount];
+      for (int i = 0; i < versionCount; i++) {
+        int version = order[i];
+        float probability = defaultProbability;
+        if (totalFrequency > 0) {
+          probability = (1.0f - defaultProbability) * getProfiledFrequency(versions.get(version)) / totalFrequency;
+        }
+        LookupSwitch.setMatch(s, i, new IntConstantOperand(switchValues[version]));
+        LookupSwitch.setTarget(s, i, generateTarget(callIndexes[version] - instrIndex));
+        LookupSwitch.setBranchProfile(s, i, new BranchProfileOperand(probability));
+        callBlocks[version] = getOrCreateBlock(callIndexes[version]);
+      }
+      appendInstruction(s);
+      return callBlocks;
+    }
+
     private void prepareForStartingAtZero(BasicBlockLE blockAtZero) {
       // Prepare for starting at 0
 
@@ -5874,16 +6593,6 @@ public final class BC2IR {
       stack = new OperandStack(gc.getMethod().getOperandWords());
     }
 
-    private BasicBlockLE startNewCheckAndNewCallBlock(BasicBlockLE checkBlock, int index) {
-      initializeBBLEState(checkBlock, index);
-
-      BasicBlockLE callBlock = appendInstructionsForCheckBlockAndCallBlock(checkBlock, gc);
-
-      endBasicBlockAtBCI(index);
-
-      return callBlock;
-    }
-
     private void endBasicBlockAtBCI(int endBCI) {
       endOfBasicBlock = true;
       currentBBLE.high = endBCI;
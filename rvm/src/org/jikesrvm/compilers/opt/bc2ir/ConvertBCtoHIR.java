@@ -33,7 +33,8 @@ public final class ConvertBCtoHIR extends CompilerPhase {
   @Override
   public void perform(IR ir) {
     // Generate the cfg into gc
-    GenerationContext gc = new GenerationContext(ir.method, ir.params, ir.paramValues, ir.compiledMethod, ir.options, ir.inlinePlan);
+    GenerationContext gc = new GenerationContext(ir.method, ir.params, ir.paramValues, ir.receiverType,
+        ir.compiledMethod, ir.options, ir.inlinePlan);
     BC2IR.generateHIR(gc);
     ir.initializeStateForHIR(gc);
   }
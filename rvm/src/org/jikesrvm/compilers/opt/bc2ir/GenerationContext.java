@@ -44,8 +44,12 @@ import java.util.Set;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.adaptive.parameterprofiling.AbstractParameterProperty;
+import org.jikesrvm.adaptive.parameterprofiling.AbstractParameterValue;
+import org.jikesrvm.adaptive.parameterprofiling.ArrayLengthParameterProperty;
 import org.jikesrvm.adaptive.parameterprofiling.TypeValueForObjectParameter;
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
@@ -58,6 +62,7 @@ import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.opt.ClassLoaderProxy;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.OptimizingCompilerException;
+import org.jikesrvm.compilers.opt.inlining.ClassLoadingDependencyManager;
 import org.jikesrvm.compilers.opt.inlining.InlineOracle;
 import org.jikesrvm.compilers.opt.inlining.InlineSequence;
 import org.jikesrvm.compilers.opt.ir.BasicBlock;
@@ -83,6 +88,8 @@ import org.jikesrvm.compilers.opt.ir.operand.Operand;
 import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TrueGuardOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TypeOperand;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 import org.jikesrvm.runtime.Entrypoints;
 import org.jikesrvm.runtime.Statics;
 import org.vmmagic.unboxed.Offset;
@@ -277,6 +284,26 @@ public final class GenerationContext {
    * @param ip   The InlineOracle to be used for the generation
    */
   GenerationContext(NormalMethod meth, TypeReference[] params, AbstractParameterInfo[] paramValues, CompiledMethod cm, OptOptions opts, InlineOracle ip) {
+    this(meth, params, paramValues, null, cm, opts, ip);
+  }
+
+  /**
+   * Use this constructor to create an outermost (non-inlined)
+   * GenerationContext for a method that may be customized for the
+   * class of its receiver.
+   *
+   * @param meth The NormalMethod whose IR will be generated
+   * @param params The known types of the parameters to the method. For method specialization.
+   * @param paramValues The know values of the parameter to the method. For method specialization.
+   * @param receiverType The exact class of the receiver or <code>null</code> if it is not known.
+   *    The general version of the method only calls the specialized version for receivers of
+   *    exactly this class, so the type of <code>this</code> is precise.
+   * @param cm   The compiled method id to be used for this compilation
+   * @param opts The Options to be used for the generation
+   * @param ip   The InlineOracle to be used for the generation
+   */
+  GenerationContext(NormalMethod meth, TypeReference[] params, AbstractParameterInfo[] paramValues, RVMClass receiverType,
+      CompiledMethod cm, OptOptions opts, InlineOracle ip) {
     parameterValues = paramValues;
 
     original_cm = cm;
@@ -323,6 +350,9 @@ public final class GenerationContext {
 
     if (!method.isStatic()) {
       TypeReference thisType = meth.getDeclaringClass().getTypeRef();
+      if (receiverType != null) {
+        thisType = receiverType.getTypeRef();
+      }
       RegisterOperand thisOp = makeLocal(localNum, thisType);
       // The this param of a virtual method is by definition non null
       RegisterOperand guard = makeNullCheckGuard(thisOp.getRegister());
@@ -330,7 +360,7 @@ public final class GenerationContext {
       appendInstruction(prologue, Move.create(GUARD_MOVE, guard.copyRO(), new TrueGuardOperand()), PROLOGUE_BCI);
       thisOp.setDeclaredType();
       thisOp.setExtant();
-      if (method.getDeclaringClass().isFinal()) {
+      if (method.getDeclaringClass().isFinal() || receiverType != null) {
         thisOp.setPreciseType();
       }
       arguments[0] = thisOp;
@@ -354,6 +384,12 @@ public final class GenerationContext {
       if (argType.isClassType()) {
         argOp.setExtant();
       }
+      if (paramInfo != null && paramInfo.hasTypeInformation() && assumeNoSubclasses(argType)) {
+        argOp.setPreciseType();
+      }
+      if (paramInfo != null && paramInfo.hasPropertyInformation()) {
+        addPropertyOfParameter(argOp, (AbstractParameterProperty) paramInfo);
+      }
       arguments[argIdx] = argOp;
       Prologue.setFormal(prologueInstr, argIdx, argOp.copyU2D());
       argIdx++;
@@ -387,6 +423,30 @@ public final class GenerationContext {
    */
   public GenerationContext createChildContext(ExceptionHandlerBasicBlockBag ebag,
                                                   NormalMethod callee, Instruction callSite) {
+    return createChildContext(ebag, callee, callSite, null);
+  }
+
+  /**
+   * Creates a child generation context from this context
+   * and callerBB to generate IR for callsite. If a specialized version is
+   * given, the values and types of its parameters are used for the arguments
+   * of the call.
+   * <p>
+   * The caller must ensure that the child is only executed for arguments
+   * that match the specialized version, see
+   * {@link org.jikesrvm.compilers.opt.inlining.Inliner Inliner}.
+   *
+   * @param ebag the enclosing exception handlers (null if none)
+   * @param callee the callee method to be inlined
+   *        (may _not_ be equal to Call.getMethod(callSite).method)
+   * @param callSite the Call instruction to be inlined.
+   * @param specializedVersion a specialized version of the callee or
+   *        {@code null} if the general body is inlined
+   * @return the child context
+   */
+  public GenerationContext createChildContext(ExceptionHandlerBasicBlockBag ebag,
+                                                  NormalMethod callee, Instruction callSite,
+                                                  SpecializedMethod specializedVersion) {
     // Note: In this method, use "this" explicitly to refer to parent fields in order
     // to avoid confusing parent/child fields.
 
@@ -402,17 +462,21 @@ public final class GenerationContext {
     child.options = this.options;
     child.temps = this.temps;
     child._ncGuards = this._ncGuards;
+    child.knownArrayLengths = this.knownArrayLengths;
     child.exit = this.exit;
     child.inlinePlan = this.inlinePlan;
 
     // Now inherit state based on callSite
-    child.inlineSequence = new InlineSequence(child.method, callSite.position(), callSite);
+    child.inlineSequence = new InlineSequence(child.method, callSite.position(), callSite, specializedVersion);
     child.enclosingHandlers = ebag;
     child.arguments = new Operand[Call.getNumberOfParams(callSite)];
     for (int i = 0; i < child.arguments.length; i++) {
       child.arguments[i] = Call.getParam(callSite, i).copy(); // copy instead
       // of clearing in case inlining aborts.
     }
+    if (specializedVersion != null) {
+      child.bindSpecializedParameters(specializedVersion);
+    }
     if (Call.hasResult(callSite)) {
       child.resultReg = Call.getResult(callSite).copyD2D().getRegister();
       child.resultReg.setSpansBasicBlock(); // it will...
@@ -693,6 +757,141 @@ public final class GenerationContext {
     return false;
   }
 
+  ///////////
+  // Properties of specialized parameters
+  ///////////
+
+  /**
+   * Maps the guards of parameters with a known array length to the length.
+   * The guard of a specialized parameter is not used for anything else, so
+   * an operand with such a guard always holds the unmodified parameter, even
+   * if the local of the parameter is reassigned. <code>null</code> if no
+   * lengths are known.
+   */
+  private HashMap<Register, Integer> knownArrayLengths;
+
+  /**
+   * Makes the compiler assume a property of a specialized parameter. The
+   * parameter gets its own non-<code>null</code> guard which is also used
+   * to identify the parameter's value.
+   *
+   * @param argOp the operand for the parameter
+   * @param property the property of the parameter
+   */
+  private void addPropertyOfParameter(RegisterOperand argOp, AbstractParameterProperty property) {
+    if (!property.impliesNonNull()) {
+      return;
+    }
+    RegisterOperand guard = temps.makeTempValidation();
+    BC2IR.setGuardForRegOp(argOp, guard);
+    appendInstruction(prologue, Move.create(GUARD_MOVE, guard.copyRO(), new TrueGuardOperand()), PROLOGUE_BCI);
+    if (property instanceof ArrayLengthParameterProperty) {
+      if (knownArrayLengths == null) {
+        knownArrayLengths = new HashMap<Register, Integer>();
+      }
+      int length = ((ArrayLengthParameterProperty) property).getLength();
+      knownArrayLengths.put(guard.getRegister(), Integer.valueOf(length));
+    }
+  }
+
+  /**
+   * @param array an operand for an array
+   * @return the length of the array if the operand holds a specialized
+   *  parameter with a known length, -1 otherwise
+   */
+  int getKnownArrayLength(Operand array) {
+    if (knownArrayLengths == null || !array.isRegister()) {
+      return -1;
+    }
+    Operand guard = array.asRegister().getGuard();
+    if (guard == null || !guard.isRegister()) {
+      return -1;
+    }
+    Integer length = knownArrayLengths.get(guard.asRegister().getRegister());
+    return length == null ? -1 : length.intValue();
+  }
+
+  /**
+   * Checks whether the specialized type of a parameter has subclasses. The
+   * general version of the method checks the parameter with an instanceof
+   * test, so the type of the parameter is only precise if there are no
+   * subclasses. If there are none, the compiled method is registered with the
+   * {@link ClassLoadingDependencyManager} so that it is invalidated once a
+   * subclass is loaded.
+   * <p>
+   * The assumption remains true for activations that were entered before the
+   * subclass was loaded: an instance of the subclass cannot be passed to them.
+   *
+   * @param type the specialized type of a parameter
+   * @return <code>true</code> if the type of the parameter may be treated as
+   *  precise
+   */
+  private boolean assumeNoSubclasses(TypeReference type) {
+    RVMType resolved = type.peekType();
+    if (resolved == null || !resolved.isClassType()) {
+      return false;
+    }
+    RVMClass cls = resolved.asClass();
+    if (cls.isFinal()) {
+      return true;
+    }
+    if (original_cm == null || !VM.runningVM) {
+      return false;
+    }
+    // Prevent the class hierarchy from changing between the check and the
+    // registration of the dependency
+    synchronized (RVMClass.classLoadListener) {
+      if (cls.isInterface() || cls.getSubClasses().length != 0) {
+        return false;
+      }
+      ClassLoadingDependencyManager cldm = (ClassLoadingDependencyManager) RVMClass.classLoadListener;
+      cldm.addNoSubclassDependency(cls, original_cm);
+    }
+    return true;
+  }
+
+  /**
+   * Replaces the arguments of an inlined call by the values of the
+   * parameters of a specialized version and refines the types of
+   * arguments for parameters that are specialized on a type.
+   * <p>
+   * Properties of parameters are not used: the known array lengths are
+   * shared with the parent context, where the argument is not checked.
+   * The type of an argument is only precise if its class is final. Unlike
+   * an outermost specialized version, the inlined body may be entered with
+   * an instance of a subclass that is loaded later.
+   *
+   * @param specializedVersion the specialized version
+   */
+  private void bindSpecializedParameters(SpecializedMethod specializedVersion) {
+    ParameterValueSpecializationContext context =
+        (ParameterValueSpecializationContext) specializedVersion.getSpecializationContext();
+    AbstractParameterInfo[] paramInfos = context.getParameterInformation();
+    int receiverOffset = method.isStatic() ? 0 : 1;
+    for (int param = 0; param < paramInfos.length; param++) {
+      AbstractParameterInfo info = paramInfos[param];
+      int argIdx = param + receiverOffset;
+      if (info == null || info.hasPropertyInformation()) {
+        continue;
+      }
+      if (info.hasTypeInformation()) {
+        if (arguments[argIdx].isRegister()) {
+          RVMType type = ((TypeValueForObjectParameter) info).getObjectType();
+          RegisterOperand argument = arguments[argIdx].asRegister();
+          if (ClassLoaderProxy.includesType(type.getTypeRef(), argument.getType()) != YES) {
+            argument.clearPreciseType();
+            argument.setType(type.getTypeRef());
+            if (type.isClassType() && type.asClass().isFinal()) {
+              argument.setPreciseType();
+            }
+          }
+        }
+      } else {
+        arguments[argIdx] = ((AbstractParameterValue) info).buildOperand();
+      }
+    }
+  }
+
   ///////////
   // Validation operands (guards)
   ///////////
@@ -14,6 +14,7 @@ package org.jikesrvm.compilers.opt.driver;
 
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.inlining.DefaultInlineOracle;
@@ -77,6 +78,13 @@ public final class CompilationPlan {
    */
   public final AbstractParameterInfo[] infoForSpecialization;
 
+  /**
+   * The exact class of the receiver for method specialization or
+   * <code>null</code> if the receiver is not specialized. Only used
+   * together with {@link #infoForSpecialization}.
+   */
+  public final RVMClass receiverTypeForSpecialization;
+
   /**
    * Construct a compilation plan
    *
@@ -96,6 +104,7 @@ public final class CompilationPlan {
     options = opts;
 
     infoForSpecialization = null;
+    receiverTypeForSpecialization = null;
   }
 
   /**
@@ -110,8 +119,25 @@ public final class CompilationPlan {
    *
    */
   public CompilationPlan(NormalMethod m, OptimizationPlanElement[] op, InstrumentationPlan mp, OptOptions opts, AbstractParameterInfo[] infoForSpecialization) {
+    this(m, op, mp, opts, infoForSpecialization, null);
+  }
+
+  /**
+   * Construct a compilation plan for a specialized version that is
+   * customized for an exact receiver class.
+   *
+   * @param m    The NormalMethod representing the source method to be compiled
+   * @param op   The optimization plan to be executed on m
+   * @param mp   The instrumentation plan to be executed on m
+   * @param opts The Options to be used for compiling m
+   * @param infoForSpecialization The information to be used for method specialization.
+   * @param receiverType The exact class of the receiver or <code>null</code>
+   */
+  public CompilationPlan(NormalMethod m, OptimizationPlanElement[] op, InstrumentationPlan mp, OptOptions opts,
+      AbstractParameterInfo[] infoForSpecialization, RVMClass receiverType) {
     method = m;
     this.infoForSpecialization = infoForSpecialization;
+    this.receiverTypeForSpecialization = receiverType;
     inlinePlan = new DefaultInlineOracle();
     optimizationPlan = op;
     instrumentationPlan = mp;
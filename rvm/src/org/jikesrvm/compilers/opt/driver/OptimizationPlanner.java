@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.recompilation.instrumentation.InsertInstructionCounters;
 import org.jikesrvm.adaptive.recompilation.instrumentation.InsertMethodInvocationCounter;
+import org.jikesrvm.adaptive.recompilation.instrumentation.InsertParameterProbes;
 import org.jikesrvm.adaptive.recompilation.instrumentation.InsertYieldpointCounters;
 import org.jikesrvm.adaptive.recompilation.instrumentation.InstrumentationSamplingFramework;
 import org.jikesrvm.adaptive.recompilation.instrumentation.LowerInstrumentation;
@@ -289,6 +290,8 @@ public class OptimizationPlanner {
       addComponent(p, new InsertInstructionCounters());
       // Insert method invocation counters
       addComponent(p, new InsertMethodInvocationCounter());
+      // Insert sampling probes for parameter profiling
+      addComponent(p, new InsertParameterProbes());
     }
   }
 
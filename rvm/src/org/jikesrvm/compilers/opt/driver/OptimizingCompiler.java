@@ -180,9 +180,9 @@ public final class OptimizingCompiler implements Callbacks.StartupMonitor {
         return null;
       }
       // now that we're done compiling, give the specialization
-      // system a chance to eagerly compile any specialized version
-      // that are pending.  TODO: use lazy compilation with specialization.
-      SpecializationDatabase.doDeferredSpecializations();
+      // system a chance to compile any specialized version
+      // that are pending, either eagerly or in the background.
+      SpecializationDatabase.scheduleDeferredSpecializations();
       ir.compiledMethod.compileComplete(ir.MIRInfo.machinecode);
       return ir.compiledMethod;
     } catch (OptimizingCompilerException e) {
@@ -30,6 +30,8 @@ import org.jikesrvm.compilers.opt.ir.Register;
 import org.jikesrvm.compilers.opt.ir.operand.MethodOperand;
 import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
 import org.jikesrvm.compilers.opt.specialization.InvokeeThreadLocalContext;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 
 /**
  * Replace calls to synchronized methods to calls specialized to be
@@ -88,6 +90,32 @@ final class UnsyncReplacer {
     }
   }
 
+  /**
+   * Finds the version of a method to call for a thread local invokee. Calls
+   * of versions that are specialized for the values of parameters (both
+   * calls in the general version of a method and calls whose arguments
+   * are known to match) call a version that combines the parameter values
+   * with the thread local invokee. All other calls call the version for
+   * the thread local invokee.
+   *
+   * @param target the target of the call
+   * @param current the specialized version that the call currently
+   *  calls or <code>null</code>
+   * @return the version to call
+   */
+  private static SpecializedMethod findThreadLocalVersion(NormalMethod target, SpecializedMethod current) {
+    if (current == null) {
+      return context.findOrCreateSpecializedVersion(target);
+    }
+    if (current.getSpecializationContext() instanceof ParameterValueSpecializationContext) {
+      ParameterValueSpecializationContext parameterContext =
+          (ParameterValueSpecializationContext) current.getSpecializationContext();
+      return parameterContext.getInvokeeThreadLocalContext().findOrCreateSpecializedVersion(target);
+    }
+    // already thread local
+    return current;
+  }
+
   /**
    * Perform the transformation for a given register appearance
    *
@@ -104,14 +132,8 @@ final class UnsyncReplacer {
           // replace with equivalent call on the synthetic
           // unsynchronized type
           MethodOperand mop = Call.getMethod(inst);
-          // Call instructions for specialized versions that are thread-local
-          // must not be rewritten.
-          // TODO Ideally, one would want to create a "combined" special version
-          // that is thread-local and specialized. Unfortunately, the current
-          // specialization infrastructure does not support that.
-          boolean safeToChange = !ir.getGc().isSpecializedCallInGeneralMethod(inst);
-          if (mop.getTarget().isSynchronized() && safeToChange) {
-            mop.spMethod = context.findOrCreateSpecializedVersion((NormalMethod) mop.getTarget());
+          if (mop.getTarget().isSynchronized()) {
+            mop.spMethod = findThreadLocalVersion((NormalMethod) mop.getTarget(), mop.spMethod);
             if (DEBUG) {
               VM.sysWrite("Identified call " + inst + " for unsynchronization\n");
             }
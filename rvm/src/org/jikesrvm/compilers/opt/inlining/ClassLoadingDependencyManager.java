@@ -24,6 +24,7 @@ import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
 import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
+import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
 
 /**
  * This class acts as an intermediary between RVMClassLoader and the
@@ -179,6 +180,11 @@ public final class ClassLoadingDependencyManager implements ClassLoadingListener
     //     so that no new invocations will reach the invalid compiled code.
     //     It also marks cm as obsolete so it can eventually be reclaimed by GC.
     m.invalidateCompiledMethod(cm);
+
+    // (4) If cm is a specialized version of m, it is not the current compiled
+    //     method of m but is called by the general versions of m.
+    //     Retire it so that no new invocations will reach it from there.
+    SpecializationDatabase.specializedVersionInvalidated(cm);
   }
 
   void report(String s) {
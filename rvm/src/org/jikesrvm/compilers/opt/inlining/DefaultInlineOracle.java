@@ -14,11 +14,13 @@ package org.jikesrvm.compilers.opt.inlining;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.AdaptiveInlining;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.database.callgraph.WeightedCallTargets;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
@@ -26,6 +28,10 @@ import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.driver.OptimizingCompiler;
 import org.jikesrvm.compilers.opt.runtimesupport.OptCompiledMethod;
+import org.jikesrvm.compilers.opt.specialization.CallSiteSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 import org.jikesrvm.objectmodel.ObjectModel;
 import org.jikesrvm.scheduler.RVMThread;
 
@@ -37,6 +43,10 @@ import org.jikesrvm.scheduler.RVMThread;
  *  <li>At O1 and greater use a mix of profile information and static heuristics
  *      to inline larger methods and methods that require guards.
  * </ol>
+ * If a version of the callee was specialized for the call site (see
+ * {@link CallSiteSpecializationContext}), a single target that does not need
+ * a guard is inlined with the parameter values of that version when this is
+ * cheaper than inlining the general body.
  */
 public final class DefaultInlineOracle extends InlineTools implements InlineOracle {
 
@@ -201,6 +211,7 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
       // Stage 4: We have one or more targets.  Determine what if anything should be done with them.
       final ArrayList<RVMMethod> methodsToInline = new ArrayList<RVMMethod>();
       final ArrayList<Boolean> methodsNeedGuard = new ArrayList<Boolean>();
+      final ArrayList<SpecializedMethod> specializedVersions = new ArrayList<SpecializedMethod>();
       final double callSiteWeight = targets.totalWeight();
       final boolean goosc = guardOverrideOnStaticCallee; // real closures anyone?
       final boolean ps = purelyStatic;                   // real closures anyone?
@@ -248,6 +259,13 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
               }
             }
 
+            // A version that was specialized for this call site can only be
+            // inlined if there is no guard for the dispatch.
+            SpecializedMethod specializedVersion = null;
+            if (!needsGuard || preEx) {
+              specializedVersion = findVersionForCallSite((NormalMethod) callee, state);
+            }
+
             // Estimate cost of performing this inlining action.
             // Includes cost of guard & off-branch call if they are going to be generated.
             boolean decideYes = false;
@@ -270,6 +288,17 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
               if (!decideYes) {
                 int inlinedSizeEstimate = inlinedSizeEstimate((NormalMethod) callee, state);
                 int cost = inliningActionCost(inlinedSizeEstimate, needsGuard, preEx, opts);
+                if (specializedVersion != null) {
+                  AbstractParameterInfo[] values = getParameterInformation(specializedVersion);
+                  int specializedSizeEstimate = inlinedSizeEstimate((NormalMethod) callee, state, values);
+                  int specializedCost = specializedInliningActionCost(specializedSizeEstimate, values);
+                  if (specializedCost < cost) {
+                    if (verbose) VM.sysWriteln("\t\tUsing specialized version " + specializedVersion);
+                    cost = specializedCost;
+                  } else {
+                    specializedVersion = null;
+                  }
+                }
                 int maxCost = opts.INLINE_MAX_TARGET_SIZE;
 
                 if (callSiteWeight > Controller.options.INLINE_AI_SEED_MULTIPLIER) {
@@ -342,6 +371,7 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
               } else {
                 methodsNeedGuard.add(needsGuard);
               }
+              specializedVersions.add(specializedVersion);
             }
           }
         }
@@ -391,7 +421,13 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
             return d;
           }
         } else {
-          InlineDecision d = InlineDecision.YES(target, "Unique and desirable target");
+          SpecializedMethod specializedVersion = specializedVersions.get(0);
+          InlineDecision d;
+          if (specializedVersion != null) {
+            d = InlineDecision.YES(target, specializedVersion, "Unique and desirable target, specialized for call site");
+          } else {
+            d = InlineDecision.YES(target, "Unique and desirable target");
+          }
           if (verbose) VM.sysWriteln("\tDecide: " + d);
           return d;
         }
@@ -466,6 +502,51 @@ public final class DefaultInlineOracle extends InlineTools implements InlineOrac
     return guard;
   }
 
+  /**
+   * Finds a version of the callee that was specialized for the call site
+   * and whose parameter values can be bound in an inlined body.
+   *
+   * @param callee the method to inline
+   * @param state compilation state at this point
+   * @return the specialized version or {@code null} if there is none
+   */
+  private SpecializedMethod findVersionForCallSite(NormalMethod callee, CompilationState state) {
+    if (!VM.runningVM || !state.getOptions().INLINE_SPECIALIZED_VERSIONS) {
+      return null;
+    }
+    List<SpecializedMethod> versions =
+        SpecializationDatabase.getSpecialVersionsForCallSite(callee, state.getMethod(), state.getRealBytecodeIndex());
+    for (SpecializedMethod version : versions) {
+      if (Inliner.canGuardSpecializedCall(version)) {
+        return version;
+      }
+    }
+    return null;
+  }
+
+  private static AbstractParameterInfo[] getParameterInformation(SpecializedMethod version) {
+    return ((ParameterValueSpecializationContext) version.getSpecializationContext()).getParameterInformation();
+  }
+
+  /**
+   * Estimate the expected cost of inlining a specialized version
+   * (includes the inlined body, the checks of the arguments and the
+   * off-branch call of the general version).
+   *
+   * @param inlinedBodyEstimate size estimate for the specialized inlined body
+   * @param values the values of the specialized parameters
+   * @return the estimated cost of the inlining action
+   */
+  private int specializedInliningActionCost(int inlinedBodyEstimate, AbstractParameterInfo[] values) {
+    int guardCost = NormalMethod.CALL_COST;
+    for (AbstractParameterInfo info : values) {
+      if (info != null) {
+        guardCost += 2 * NormalMethod.SIMPLE_OPERATION_COST;
+      }
+    }
+    return guardCost + inlinedBodyEstimate;
+  }
+
   /**
    * Estimate the expected cost of the inlining action
    * (includes both the inline body and the guard/off-branch code).
@@ -14,6 +14,7 @@ package org.jikesrvm.compilers.opt.inlining;
 
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.opt.OptOptions;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 
 /**
  * Instances of this class represent decisions to inline.
@@ -56,6 +57,12 @@ public final class InlineDecision {
    */
   private boolean testFailedOSR = false;
 
+  /**
+   * The specialized version whose parameter values are bound in the
+   * inlined body ({@code null} if the general body is inlined)
+   */
+  private final SpecializedMethod specializedVersion;
+
   /**
    * @param targets   The methods to inline
    * @param guards the chosen guards. will be {@code null} if no guards are necessary
@@ -63,10 +70,23 @@ public final class InlineDecision {
    * @param reason a string rationale
    */
   private InlineDecision(RVMMethod[] targets, byte[] guards, Code code, String reason) {
+    this(targets, guards, null, code, reason);
+  }
+
+  /**
+   * @param targets   The methods to inline
+   * @param guards the chosen guards. will be {@code null} if no guards are necessary
+   * @param specializedVersion the specialized version to inline or {@code null}
+   * @param code the decision code
+   * @param reason a string rationale
+   */
+  private InlineDecision(RVMMethod[] targets, byte[] guards, SpecializedMethod specializedVersion, Code code,
+      String reason) {
     this.code = code;
     this.rationale = reason;
     this.targets = targets;
     this.guards = guards;
+    this.specializedVersion = specializedVersion;
   }
 
   /**
@@ -104,6 +124,24 @@ public final class InlineDecision {
     return new InlineDecision(targets, null, Code.DECIDE_YES, reason);
   }
 
+  /**
+   * Return a decision to inline a specialized version of a method without
+   * a guard for the dispatch. The inlined body is only executed if the
+   * arguments match the specialized parameter values, a call of the
+   * general version covers all other arguments.
+   *
+   * @param target the method to inline
+   * @param specializedVersion the version of target whose parameter
+   *  values are bound in the inlined body
+   * @param reason a rationale for inlining
+   * @return a decision YES to inline
+   */
+  public static InlineDecision YES(RVMMethod target, SpecializedMethod specializedVersion, String reason) {
+    RVMMethod[] targets = new RVMMethod[1];
+    targets[0] = target;
+    return new InlineDecision(targets, null, specializedVersion, Code.DECIDE_YES, reason);
+  }
+
   /**
    * Return a decision YES to do a guarded inline.
    *
@@ -167,6 +205,14 @@ public final class InlineDecision {
     return guards;
   }
 
+  /**
+   * @return the specialized version to inline according to this decision
+   *  or {@code null} if the general body is inlined
+   */
+  public SpecializedMethod getSpecializedVersion() {
+    return specializedVersion;
+  }
+
   /**
    * @return the number methods to inline
    */
@@ -212,6 +258,11 @@ public final class InlineDecision {
         }
       }
     }
+    if (specializedVersion != null) {
+      s.append(" (specialized: ");
+      s.append(specializedVersion);
+      s.append(')');
+    }
     return s.toString();
   }
 }
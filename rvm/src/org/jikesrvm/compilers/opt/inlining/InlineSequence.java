@@ -15,6 +15,7 @@ package org.jikesrvm.compilers.opt.inlining;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.compilers.opt.ir.Instruction;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 import org.jikesrvm.compilers.opt.util.Stack;
 
 /**
@@ -42,6 +43,17 @@ public final class InlineSequence {
    */
   final Instruction callSite;
 
+  /**
+   * The specialized version whose parameter values were bound when the
+   * method was inlined. {@code null} if the general body was inlined.
+   * <p>
+   * A specialized body is generated from the bytecodes of the method, so
+   * bytecode indices, OSR maps and stack traces are the same as for the
+   * general body. This is why the version is not part of the identity of
+   * an inline sequence.
+   */
+  private final SpecializedMethod specializedVersion;
+
   /**
    * @return contents of {@link #method}
    */
@@ -77,6 +89,7 @@ public final class InlineSequence {
     this.caller = caller;
     this.callSite = null;
     this.bcIndex = bcIndex;
+    this.specializedVersion = null;
   }
 
   /**
@@ -87,16 +100,40 @@ public final class InlineSequence {
    * @param callsite the call site instruction of this callee
    */
   public InlineSequence(NormalMethod method, InlineSequence caller, Instruction callsite) {
+    this(method, caller, callsite, null);
+  }
+
+  /**
+   * Constructs a new inline sequence operand for a method whose body was
+   * inlined with the parameter values of a specialized version.
+   *
+   * @param method current method
+   * @param caller caller info
+   * @param callsite the call site instruction of this callee
+   * @param specializedVersion the specialized version whose parameter
+   *  values are bound or {@code null} for the general body
+   */
+  public InlineSequence(NormalMethod method, InlineSequence caller, Instruction callsite,
+      SpecializedMethod specializedVersion) {
     this.method = method;
     this.caller = caller;
     this.callSite = callsite;
     this.bcIndex = callsite.getBytecodeIndex();
+    this.specializedVersion = specializedVersion;
   }
 
   public Instruction getCallSite() {
     return this.callSite;
   }
 
+  /**
+   * @return the specialized version whose parameter values were bound when
+   *  this method was inlined or {@code null} if the general body was inlined
+   */
+  public SpecializedMethod getSpecializedVersion() {
+    return specializedVersion;
+  }
+
   /**
    * Returns the string representation of this inline sequence.
    */
@@ -108,6 +145,9 @@ public final class InlineSequence {
           append(is.method.getName()).append(" ").
           append(is.method.getDescriptor()).append(" ").
           append(is.bcIndex).append(" ");
+      if (is.specializedVersion != null) {
+        sb.append("(specialized) ");
+      }
     }
     return sb.toString();
   }
@@ -15,6 +15,8 @@ package org.jikesrvm.compilers.opt.inlining;
 import java.util.Stack;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.adaptive.parameterprofiling.AbstractParameterValue;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.classloader.NormalMethod;
@@ -122,15 +124,39 @@ public abstract class InlineTools {
    * @return an inlined size estimate (number of machine code instructions)
    */
   public static int inlinedSizeEstimate(NormalMethod callee, CompilationState state) {
+    return inlinedSizeEstimate(callee, state, null);
+  }
+
+  /**
+   * Given the currently available information at the call site and
+   * the values of the parameters of a specialized version of the callee,
+   * what's our best guess on the inlined size of the callee?
+   * @param callee the method to be inlined
+   * @param state the compilation state decribing the call site where it
+   *              is to be inlined
+   * @param knownValues the values of the parameters (not including
+   *              <code>this</code>) that are bound in the inlined body or
+   *              {@code null} if the general body is inlined
+   * @return an inlined size estimate (number of machine code instructions)
+   */
+  public static int inlinedSizeEstimate(NormalMethod callee, CompilationState state,
+      AbstractParameterInfo[] knownValues) {
     int sizeEstimate = callee.inlinedSizeEstimate();
     // Adjust size estimate downward to account for optimizations
     // that are typically enabled by constant parameters.
     Instruction callInstr = state.getCallInstruction();
     int numArgs = Call.getNumberOfParams(callInstr);
+    int receiverOffset = callee.isStatic() ? 0 : 1;
     double reductionFactor = 1.0;               // no reduction.
     OptOptions opts = state.getOptions();
     for (int i = 0; i < numArgs; i++) {
       Operand op = Call.getParam(callInstr, i);
+      if (knownValues != null && i >= receiverOffset) {
+        AbstractParameterInfo info = knownValues[i - receiverOffset];
+        if (info != null && !info.hasTypeInformation() && !info.hasPropertyInformation()) {
+          op = ((AbstractParameterValue) info).buildOperand();
+        }
+      }
       if (op instanceof RegisterOperand) {
         RegisterOperand rop = (RegisterOperand)op;
         TypeReference type = rop.getType();
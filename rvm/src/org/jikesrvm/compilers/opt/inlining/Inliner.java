@@ -13,18 +13,28 @@
 package org.jikesrvm.compilers.opt.inlining;
 
 import static org.jikesrvm.compilers.opt.driver.OptConstants.YES;
+import static org.jikesrvm.compilers.opt.ir.Operators.ARRAYLENGTH;
+import static org.jikesrvm.compilers.opt.ir.Operators.DOUBLE_AS_LONG_BITS;
+import static org.jikesrvm.compilers.opt.ir.Operators.FLOAT_AS_INT_BITS;
 import static org.jikesrvm.compilers.opt.ir.Operators.IG_CLASS_TEST;
 import static org.jikesrvm.compilers.opt.ir.Operators.IG_METHOD_TEST;
 import static org.jikesrvm.compilers.opt.ir.Operators.IG_PATCH_POINT;
+import static org.jikesrvm.compilers.opt.ir.Operators.INSTANCEOF;
 import static org.jikesrvm.compilers.opt.ir.Operators.INSTANCEOF_NOTNULL;
 import static org.jikesrvm.compilers.opt.ir.Operators.INT_IFCMP;
+import static org.jikesrvm.compilers.opt.ir.Operators.LONG_IFCMP;
 import static org.jikesrvm.compilers.opt.ir.Operators.MUST_IMPLEMENT_INTERFACE;
+import static org.jikesrvm.compilers.opt.ir.Operators.REF_IFCMP;
 
 import java.util.Enumeration;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.database.AOSDatabase;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.adaptive.parameterprofiling.AbstractParameterValue;
+import org.jikesrvm.adaptive.parameterprofiling.ArrayLengthParameterProperty;
+import org.jikesrvm.adaptive.parameterprofiling.TypeValueForObjectParameter;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
@@ -39,20 +49,28 @@ import org.jikesrvm.compilers.opt.ir.BasicBlock;
 import org.jikesrvm.compilers.opt.ir.Call;
 import org.jikesrvm.compilers.opt.ir.ExceptionHandlerBasicBlock;
 import org.jikesrvm.compilers.opt.ir.ExceptionHandlerBasicBlockBag;
+import org.jikesrvm.compilers.opt.ir.GuardedUnary;
 import org.jikesrvm.compilers.opt.ir.IR;
 import org.jikesrvm.compilers.opt.ir.IfCmp;
 import org.jikesrvm.compilers.opt.ir.InlineGuard;
 import org.jikesrvm.compilers.opt.ir.InstanceOf;
 import org.jikesrvm.compilers.opt.ir.Instruction;
+import org.jikesrvm.compilers.opt.ir.Operator;
 import org.jikesrvm.compilers.opt.ir.Register;
 import org.jikesrvm.compilers.opt.ir.TypeCheck;
+import org.jikesrvm.compilers.opt.ir.Unary;
 import org.jikesrvm.compilers.opt.ir.operand.BranchProfileOperand;
 import org.jikesrvm.compilers.opt.ir.operand.ConditionOperand;
+import org.jikesrvm.compilers.opt.ir.operand.ConstantOperand;
 import org.jikesrvm.compilers.opt.ir.operand.IntConstantOperand;
+import org.jikesrvm.compilers.opt.ir.operand.LongConstantOperand;
 import org.jikesrvm.compilers.opt.ir.operand.MethodOperand;
+import org.jikesrvm.compilers.opt.ir.operand.NullConstantOperand;
 import org.jikesrvm.compilers.opt.ir.operand.Operand;
 import org.jikesrvm.compilers.opt.ir.operand.RegisterOperand;
 import org.jikesrvm.compilers.opt.ir.operand.TypeOperand;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
 
 /**
  * This class contains the high level logic for executing an inlining decision.
@@ -424,6 +442,9 @@ public class Inliner {
     } else {
       if (VM.VerifyAssertions) VM._assert(inlDec.getNumberOfTargets() == 1);
       NormalMethod callee = (NormalMethod) inlDec.getTargets()[0];
+      if (inlDec.getSpecializedVersion() != null) {
+        return executeSpecializedInline(callee, inlDec.getSpecializedVersion(), parent, ebag, callSite);
+      }
       if (parent.getOptions().PRINT_INLINE_REPORT) {
         VM.sysWrite("\tInline " + callee +
                     " into " + callSite.position().getMethod() +
@@ -435,4 +456,269 @@ public class Inliner {
       return child;
     }
   }
+
+  /**
+   * Can the arguments of a call be checked against the values of the given
+   * specialized version? This is possible for versions that are specialized
+   * on parameter values but not on the class of the receiver, if all
+   * specialized types are resolved.
+   *
+   * @param version a specialized version
+   * @return {@code true} if
+   *  {@link #executeGuardedSpecializedCall(SpecializedMethod, GenerationContext, ExceptionHandlerBasicBlockBag, Instruction)}
+   *  supports the version
+   */
+  public static boolean canGuardSpecializedCall(SpecializedMethod version) {
+    if (!(version.getSpecializationContext() instanceof ParameterValueSpecializationContext)) {
+      return false;
+    }
+    ParameterValueSpecializationContext context = (ParameterValueSpecializationContext) version.getSpecializationContext();
+    if (context.getReceiverType() != null) {
+      return false;
+    }
+    for (AbstractParameterInfo info : context.getParameterInformation()) {
+      if (info != null && info.hasTypeInformation() &&
+          !((TypeValueForObjectParameter) info).getObjectType().isResolved()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return a generation context that calls a specialized version of the
+   * target of callSite if the arguments match the specialized values and
+   * the general version of the target otherwise. This is used for versions
+   * that were created for the calls from a single call site.
+   * <p>
+   * The values are checked one after another. Each check branches to the
+   * call of the general version when it fails, the last check falls through
+   * to the call of the specialized version. Both calls define the result
+   * of callSite.
+   * <p> PRECONDITION: {@link #canGuardSpecializedCall(SpecializedMethod)}
+   *
+   * @param version the specialized version, which must have been compiled
+   * @param parent the caller generation context
+   * @param ebag exception handler scope for the caller
+   * @param callSite the call instruction
+   * @return a generation context that contains the checks and both calls
+   */
+  public static GenerationContext executeGuardedSpecializedCall(SpecializedMethod version, GenerationContext parent,
+                                                                ExceptionHandlerBasicBlockBag ebag, Instruction callSite) {
+    if (parent.getOptions().PRINT_INLINE_REPORT) {
+      VM.sysWrite("\tGuarded call of " + version +
+                  " from " + callSite.position().getMethod() +
+                  " at bytecode " + callSite.getBytecodeIndex() + "\n");
+    }
+    GenerationContext container = GenerationContext.createSynthetic(parent, ebag);
+    container.getCfg().breakCodeOrder(container.getPrologue(), container.getEpilogue());
+    if (Call.hasResult(callSite)) {
+      container.setResult(Call.getResult(callSite).copyRO());
+    }
+
+    BasicBlock specializedCall = createCallBlock(callSite, version, container, parent, ebag);
+    specializedCall.appendInstruction(container.getEpilogue().makeGOTO());
+    BasicBlock generalCall = createCallBlock(callSite, null, container, parent, ebag);
+
+    BasicBlock lastCheck = appendChecksForSpecializedVersion(version, generalCall, container, parent, ebag, callSite);
+
+    lastCheck.insertOut(specializedCall);
+    container.getCfg().linkInCodeOrder(lastCheck, specializedCall);
+    container.getCfg().linkInCodeOrder(specializedCall, generalCall);
+    container.getCfg().linkInCodeOrder(generalCall, container.getEpilogue());
+    return container;
+  }
+
+  /**
+   * Return a generation context that executes the body of callee with
+   * the parameter values of a specialized version if the arguments match
+   * these values and calls the general version of callee otherwise.
+   * <p>
+   * The checks are the same as for
+   * {@link #executeGuardedSpecializedCall(SpecializedMethod, GenerationContext, ExceptionHandlerBasicBlockBag, Instruction)}.
+   * Checks of arguments that are constants at the call site are removed
+   * by later optimizations. Unlike a call of the specialized version, the
+   * inlined body does not require the version to be compiled.
+   * <p> PRECONDITION: {@link #canGuardSpecializedCall(SpecializedMethod)}
+   *
+   * @param callee the method to inline
+   * @param version the specialized version of callee whose values are used
+   * @param parent the caller generation context
+   * @param ebag exception handler scope for the caller
+   * @param callSite the call instruction
+   * @return a generation context that contains the checks, the inlined
+   *  body and the call of the general version
+   */
+  private static GenerationContext executeSpecializedInline(NormalMethod callee, SpecializedMethod version,
+      GenerationContext parent, ExceptionHandlerBasicBlockBag ebag, Instruction callSite) {
+    if (parent.getOptions().PRINT_INLINE_REPORT) {
+      VM.sysWrite("\tSpecialized inline " + version +
+                  " into " + callSite.position().getMethod() +
+                  " at bytecode " + callSite.getBytecodeIndex() + "\n");
+    }
+    GenerationContext container = GenerationContext.createSynthetic(parent, ebag);
+    container.getCfg().breakCodeOrder(container.getPrologue(), container.getEpilogue());
+
+    GenerationContext child = parent.createChildContext(ebag, callee, callSite, version);
+    BC2IR.generateHIR(child);
+    child.transferStateToParent();
+
+    BasicBlock generalCall = createCallBlock(callSite, null, container, parent, ebag);
+    Call.getMethod(generalCall.lastRealInstruction()).setIsGuardedInlineOffBranch(true);
+    generalCall.setInfrequent();
+
+    if (Call.hasResult(callSite)) {
+      Register reg = Call.getResult(callSite).getRegister();
+      RegisterOperand generalResult = Call.getResult(callSite).copyRO();
+      container.setResult((child.getResult() == null) ? generalResult : Operand.meet(child.getResult(), generalResult, reg));
+    }
+
+    BasicBlock lastCheck = appendChecksForSpecializedVersion(version, generalCall, container, parent, ebag, callSite);
+
+    lastCheck.insertOut(child.getPrologue());
+    container.getCfg().linkInCodeOrder(lastCheck, child.getCfg().firstInCodeOrder());
+    if (child.getEpilogue() != null) {
+      child.getEpilogue().appendInstruction(container.getEpilogue().makeGOTO());
+      child.getEpilogue().insertOut(container.getEpilogue());
+    }
+    container.getCfg().linkInCodeOrder(child.getCfg().lastInCodeOrder(), generalCall);
+    container.getCfg().linkInCodeOrder(generalCall, container.getEpilogue());
+    return container;
+  }
+
+  /**
+   * Appends the checks of all specialized parameters of a version to the
+   * prologue of the container.
+   *
+   * @param version the specialized version
+   * @param failed the block that is executed if an argument does not match
+   * @param container the context that contains the checks
+   * @param parent the caller generation context
+   * @param ebag exception handler scope for the caller
+   * @param callSite the call instruction
+   * @return the last block of the checks, which falls through if all
+   *  arguments match
+   */
+  private static BasicBlock appendChecksForSpecializedVersion(SpecializedMethod version, BasicBlock failed,
+      GenerationContext container, GenerationContext parent, ExceptionHandlerBasicBlockBag ebag,
+      Instruction callSite) {
+    ParameterValueSpecializationContext context = (ParameterValueSpecializationContext) version.getSpecializationContext();
+    AbstractParameterInfo[] paramInfos = context.getParameterInformation();
+    int receiverOffset = Call.getMethod(callSite).getTarget().isStatic() ? 0 : 1;
+    BasicBlock lastCheck = container.getPrologue();
+    for (int param = 0; param < paramInfos.length; param++) {
+      if (paramInfos[param] != null) {
+        Operand argument = Call.getParam(callSite, param + receiverOffset);
+        lastCheck = appendCheckForSpecializedValue(lastCheck, paramInfos[param], argument, failed, container, parent,
+            ebag, callSite);
+      }
+    }
+    return lastCheck;
+  }
+
+  private static BasicBlock createCallBlock(Instruction callSite, SpecializedMethod version, GenerationContext container,
+                                            GenerationContext parent, ExceptionHandlerBasicBlockBag ebag) {
+    BasicBlock block = new BasicBlock(callSite.getBytecodeIndex(), callSite.position(), parent.getCfg());
+    block.setExceptionHandlers(ebag);
+    Instruction call = callSite.copyWithoutLinks();
+    Call.getMethod(call).spMethod = version;
+    call.copySourcePositionFrom(callSite);
+    block.appendInstruction(call);
+    block.insertOut(container.getEpilogue());
+    // As for the call in the off branch of guarded inlining, the exception
+    // behavior of the block must be initialized manually.
+    if (ebag != null) {
+      for (Enumeration<BasicBlock> e = ebag.enumerator(); e.hasMoreElements();) {
+        BasicBlock handler = e.nextElement();
+        block.insertOut(handler);
+      }
+    }
+    block.setCanThrowExceptions();
+    block.setMayThrowUncaughtException();
+    return block;
+  }
+
+  private static BasicBlock appendCheckBlock(BasicBlock previous, GenerationContext container, GenerationContext parent,
+                                             ExceptionHandlerBasicBlockBag ebag, Instruction callSite) {
+    BasicBlock block = new BasicBlock(callSite.getBytecodeIndex(), callSite.position(), parent.getCfg());
+    block.setExceptionHandlers(ebag);
+    previous.insertOut(block);
+    container.getCfg().linkInCodeOrder(previous, block);
+    return block;
+  }
+
+  private static void appendToCheckBlock(BasicBlock block, Instruction s, Instruction callSite) {
+    s.copyPosition(callSite);
+    block.appendInstruction(s);
+  }
+
+  /**
+   * Appends the check of an argument against the value of a specialized
+   * parameter.
+   *
+   * @param previous the block that precedes the check
+   * @param info the value of the specialized parameter
+   * @param argument the argument at the call site
+   * @param failed the block that is executed if the argument does not match
+   * @param container the context that contains the checks
+   * @param parent the caller generation context
+   * @param ebag exception handler scope for the caller
+   * @param callSite the call instruction
+   * @return the last block of the check, which falls through if the
+   *  argument matches
+   */
+  private static BasicBlock appendCheckForSpecializedValue(BasicBlock previous, AbstractParameterInfo info, Operand argument,
+      BasicBlock failed, GenerationContext container, GenerationContext parent, ExceptionHandlerBasicBlockBag ebag,
+      Instruction callSite) {
+    BasicBlock block = appendCheckBlock(previous, container, parent, ebag, callSite);
+    RegisterOperand guard = parent.getTemps().makeTempValidation();
+    if (info.hasTypeInformation()) {
+      RVMType type = ((TypeValueForObjectParameter) info).getObjectType();
+      RegisterOperand isInstance = parent.getTemps().makeTempInt();
+      appendToCheckBlock(block, InstanceOf.create(INSTANCEOF, isInstance, new TypeOperand(type), argument.copy()), callSite);
+      appendToCheckBlock(block, IfCmp.create(INT_IFCMP, guard, isInstance.copyD2U(), new IntConstantOperand(0),
+          ConditionOperand.EQUAL(), failed.makeJumpTarget(), BranchProfileOperand.unlikely()), callSite);
+    } else if (info.hasPropertyInformation()) {
+      // the argument must not be null for all properties
+      appendToCheckBlock(block, IfCmp.create(REF_IFCMP, guard, argument.copy(), new NullConstantOperand(),
+          ConditionOperand.EQUAL(), failed.makeJumpTarget(), BranchProfileOperand.unlikely()), callSite);
+      if (info instanceof ArrayLengthParameterProperty) {
+        block.insertOut(failed);
+        block = appendCheckBlock(block, container, parent, ebag, callSite);
+        RegisterOperand length = parent.getTemps().makeTempInt();
+        appendToCheckBlock(block, GuardedUnary.create(ARRAYLENGTH, length, argument.copy(), guard.copyD2U()), callSite);
+        IntConstantOperand expectedLength = new IntConstantOperand(((ArrayLengthParameterProperty) info).getLength());
+        appendToCheckBlock(block, IfCmp.create(INT_IFCMP, parent.getTemps().makeTempValidation(), length.copyD2U(),
+            expectedLength, ConditionOperand.NOT_EQUAL(), failed.makeJumpTarget(), BranchProfileOperand.unlikely()), callSite);
+      }
+    } else {
+      ConstantOperand value = ((AbstractParameterValue) info).buildOperand();
+      Operand actual = argument.copy();
+      Operand expected = value;
+      if (value.isFloat()) {
+        // compare the bits to distinguish 0.0 from -0.0
+        RegisterOperand bits = parent.getTemps().makeTempInt();
+        appendToCheckBlock(block, Unary.create(FLOAT_AS_INT_BITS, bits, actual), callSite);
+        actual = bits.copyD2U();
+        expected = new IntConstantOperand(Float.floatToIntBits(value.asFloatConstant().value));
+      } else if (value.isDouble()) {
+        RegisterOperand bits = parent.getTemps().makeTempLong();
+        appendToCheckBlock(block, Unary.create(DOUBLE_AS_LONG_BITS, bits, actual), callSite);
+        actual = bits.copyD2U();
+        expected = new LongConstantOperand(Double.doubleToLongBits(value.asDoubleConstant().value));
+      }
+      Operator compare;
+      if (expected.isInt()) {
+        compare = INT_IFCMP;
+      } else if (expected.isLong()) {
+        compare = LONG_IFCMP;
+      } else {
+        compare = REF_IFCMP;
+      }
+      appendToCheckBlock(block, IfCmp.create(compare, guard, actual, expected, ConditionOperand.NOT_EQUAL(),
+          failed.makeJumpTarget(), BranchProfileOperand.unlikely()), callSite);
+    }
+    block.insertOut(failed);
+    return block;
+  }
 }
@@ -41,6 +41,7 @@ import java.util.Stack;
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.common.CompiledMethods;
@@ -152,6 +153,12 @@ public final class IR {
    */
   public final AbstractParameterInfo[] paramValues;
 
+  /**
+   * The exact class of the receiver in a specialized version that is
+   * customized for a receiver class, <code>null</code> otherwise.
+   */
+  public final RVMClass receiverType;
+
   /**
    * @return The {@link NormalMethod} object corresponding to the
    * method being compiled. Other methods may have been inlined into
@@ -327,6 +334,7 @@ public final class IR {
     method = m;
     params = null;
     paramValues = null;
+    receiverType = null;
     options = opts;
     inlinePlan = ip;
     instrumentationPlan = null;
@@ -341,6 +349,7 @@ public final class IR {
     method = m;
     params = cp.params;
     paramValues = cp.infoForSpecialization;
+    receiverType = cp.receiverTypeForSpecialization;
     options = cp.options;
     inlinePlan = cp.inlinePlan;
     instrumentationPlan = cp.instrumentationPlan;
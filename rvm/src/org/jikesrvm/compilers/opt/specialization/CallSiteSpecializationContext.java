@@ -0,0 +1,65 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.NormalMethod;
+
+/**
+ * A context for versions of a method that are specialized on the values that
+ * are passed from a single call site.
+ * <p>
+ * The general version of the method does not check for the values of such a
+ * version. Instead, the opt compiler calls the version only from the call
+ * site that it was created for: the call is redirected to the version if the
+ * arguments are known to match and guarded by a check of the arguments
+ * otherwise (see
+ * {@link org.jikesrvm.compilers.opt.inlining.Inliner#executeGuardedSpecializedCall
+ * Inliner.executeGuardedSpecializedCall}). This allows specializing on values
+ * that are frequent at some call sites but not for the method as a whole.
+ */
+public final class CallSiteSpecializationContext extends ParameterValueSpecializationContext {
+
+  private final CallSite callSite;
+
+  /**
+   * @param nm the method to specialize
+   * @param callSite the call site that the specialized version is called from
+   * @param paramValues the values of the parameters, excluding the receiver
+   */
+  public CallSiteSpecializationContext(NormalMethod nm, CallSite callSite, AbstractParameterInfo[] paramValues) {
+    super(nm, paramValues);
+    this.callSite = callSite;
+  }
+
+  public CallSite getCallSite() {
+    return callSite;
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * Versions for a call site are only called from that call site.
+   */
+  @Override
+  boolean isCalledFromGeneralVersion() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " Call site: " + callSite;
+  }
+
+}
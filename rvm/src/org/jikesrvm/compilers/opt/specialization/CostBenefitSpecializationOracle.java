@@ -0,0 +1,175 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.controller.SpecializationCostModel;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.compilers.opt.driver.CompilationPlan;
+import org.jikesrvm.util.Pair;
+
+/**
+ * A {@link SpecializationOracle} that only specializes when the expected
+ * benefit outweighs the cost of compiling the specialized version.
+ * <p>
+ * The candidates are the context chosen by the {@link DefaultSpecializationOracle}
+ * and the most frequent value of each single parameter. For each candidate,
+ * a {@link SimplificationEstimate} is computed and compared with the estimate
+ * for the general version. The reduction of the weighted size, scaled by how
+ * often the candidate values occurred during profiling and reduced by the
+ * cost of the guards, approximates the fraction of execution time that the
+ * specialized version saves. The best candidate is specialized if the
+ * {@link SpecializationCostModel} considers it profitable.
+ */
+public class CostBenefitSpecializationOracle extends DefaultSpecializationOracle {
+
+  private static final boolean DEBUG = false;
+
+  /**
+   * The maximum number of single parameter candidates that are estimated in
+   * addition to the default candidate. Each estimate needs a trial compilation.
+   */
+  private static final int MAX_SINGLE_PARAMETER_CANDIDATES = 4;
+
+  /**
+   * The cost of checking a specialized value in the general version of the
+   * method, in the units of {@link SimplificationEstimate#getWeightedSize()}.
+   */
+  private static final double GUARD_COST_PER_PARAMETER = 3.0;
+
+  @Override
+  public SpecializationDecision shouldSpecialize(RVMMethod method, List<ParameterProfileInformation> profiles, CompilationPlan plan) {
+    SpecializationDecision defaultDecision = super.shouldSpecialize(method, profiles, plan);
+    if (!defaultDecision.isYES()) {
+      return defaultDecision;
+    }
+
+    NormalMethod nm = (NormalMethod) method;
+    MethodProfile mp = (MethodProfile) profiles.get(0);
+    int sampleCount = mp.getSampleCount();
+    SimplificationEstimate general = SimplificationEstimate.estimateGeneralVersion(nm);
+    if (sampleCount == 0 || general == null || general.getWeightedSize() <= 0) {
+      return SpecializationDecision.newNO(method, profiles, "NO_ESTIMATE");
+    }
+
+    ParameterValueSpecializationContext best = null;
+    double bestSavedFraction = 0.0;
+    for (ParameterValueSpecializationContext candidate : collectCandidates(nm, mp, defaultDecision.getContext())) {
+      AbstractParameterInfo[] values = candidate.getParameterInformation();
+      SimplificationEstimate specialized = SimplificationEstimate.estimate(nm, values, candidate.getReceiverType());
+      if (specialized == null) {
+        continue;
+      }
+      double savedFraction = savedFraction(general, specialized, values, candidate.getReceiverType() != null,
+          candidate.getProfiledFrequency() / (double) sampleCount);
+      if (DEBUG) {
+        VM.sysWriteln("Estimate for " + method + " with " + candidate + ": " + specialized +
+            " (general: " + general + "), saved fraction " + savedFraction);
+      }
+      if (savedFraction > bestSavedFraction) {
+        best = candidate;
+        bestSavedFraction = savedFraction;
+      }
+    }
+
+    if (best == null) {
+      return SpecializationDecision.newNO(method, profiles, "NO_SIMPLIFICATION");
+    }
+    if (!SpecializationCostModel.isProfitable(nm, Controller.options.MAX_OPT_LEVEL, bestSavedFraction)) {
+      return SpecializationDecision.newNO(method, profiles, "NOT_PROFITABLE");
+    }
+    return SpecializationDecision.newYES(method, profiles, best);
+  }
+
+  /**
+   * @param method the method to specialize
+   * @param mp the profile of the method
+   * @param defaultContext the context chosen by the default oracle
+   * @return the candidate contexts, starting with the default context
+   */
+  private List<ParameterValueSpecializationContext> collectCandidates(NormalMethod method, MethodProfile mp,
+      ParameterValueSpecializationContext defaultContext) {
+    List<ParameterValueSpecializationContext> candidates = new LinkedList<ParameterValueSpecializationContext>();
+    candidates.add(defaultContext);
+
+    int paramCount = method.getParameterTypes().length;
+    int startParam = method.isStatic() ? 0 : 1;
+    int offset = method.isStatic() ? 0 : -1;
+    int singleCandidates = 0;
+    for (int i = startParam; i < paramCount - offset && singleCandidates < MAX_SINGLE_PARAMETER_CANDIDATES; i++) {
+      List<Pair<AbstractParameterInfo, Integer>> candidatesForParameter = mp.getCandidatesForParameter(i);
+      if (candidatesForParameter.isEmpty()) {
+        continue;
+      }
+      Pair<AbstractParameterInfo, Integer> pair = candidatesForParameter.get(0);
+      AbstractParameterInfo[] paramValues = new AbstractParameterInfo[paramCount];
+      paramValues[i + offset] = pair.first;
+      if (sameValues(paramValues, defaultContext.getParameterInformation())) {
+        continue;
+      }
+      ParameterValueSpecializationContext context = new ParameterValueSpecializationContext(method, paramValues);
+      context.setProfiledFrequency(pair.second.intValue());
+      candidates.add(context);
+      singleCandidates++;
+    }
+    return candidates;
+  }
+
+  private static boolean sameValues(AbstractParameterInfo[] first, AbstractParameterInfo[] second) {
+    for (int i = 0; i < first.length; i++) {
+      AbstractParameterInfo a = first[i];
+      AbstractParameterInfo b = second[i];
+      if (a == null ? b != null : !a.equals(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Estimates the fraction of the execution time of the method that a
+   * specialized version saves.
+   *
+   * @param general the estimate for the general version
+   * @param specialized the estimate for the specialized version
+   * @param values the specialized values
+   * @param specializedReceiver whether the receiver is specialized, which
+   *  needs a guard like a specialized parameter
+   * @param skew the fraction of the profiled invocations that had the
+   *  specialized values
+   * @return the estimated saved fraction, which is negative if the guards
+   *  cost more than specialization saves
+   */
+  static double savedFraction(SimplificationEstimate general, SimplificationEstimate specialized,
+      AbstractParameterInfo[] values, boolean specializedReceiver, double skew) {
+    int specializedParameters = specializedReceiver ? 1 : 0;
+    for (AbstractParameterInfo value : values) {
+      if (value != null) {
+        specializedParameters++;
+      }
+    }
+    double generalSize = general.getWeightedSize();
+    double reduction = (generalSize - specialized.getWeightedSize()) / generalSize;
+    double guardCost = GUARD_COST_PER_PARAMETER * specializedParameters / generalSize;
+    return skew * reduction - guardCost;
+  }
+
+}
@@ -15,6 +15,7 @@ package org.jikesrvm.compilers.opt.specialization;
 import java.util.List;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterValueFactoryImpl;
@@ -62,6 +63,12 @@ public class DebugSpecializationOracle implements SpecializationOracle, ClassRes
     return nextDecision;
   }
 
+  @Override
+  public SpecializationDecision shouldSpecializeCallSite(RVMMethod method, CallSite callSite, List<ParameterProfileInformation> profiles,
+      CompilationPlan plan) {
+    return SpecializationDecision.newNO(method, profiles, "CALL_SITES_NOT_SUPPORTED");
+  }
+
   private SpecializationDecision pickNextDecision() {
     if (index >= classDescriptors.length || waitingForClassToBeLoaded) {
       return null;
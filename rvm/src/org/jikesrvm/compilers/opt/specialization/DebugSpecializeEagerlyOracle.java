@@ -15,6 +15,7 @@ package org.jikesrvm.compilers.opt.specialization;
 import java.util.List;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
@@ -45,6 +46,12 @@ public class DebugSpecializeEagerlyOracle implements SpecializationOracle {
     return SpecializationDecision.newNO(method, profiles);
   }
 
+  @Override
+  public SpecializationDecision shouldSpecializeCallSite(RVMMethod method, CallSite callSite, List<ParameterProfileInformation> profiles,
+      CompilationPlan plan) {
+    return SpecializationDecision.newNO(method, profiles, "CALL_SITES_NOT_SUPPORTED");
+  }
+
   private ParameterValueSpecializationContext createContext(RVMMethod method, List<ParameterProfileInformation> profiles) {
     ParameterProfileInformation singleProfile = profiles.get(0);
     MethodProfile mp = (MethodProfile) singleProfile;
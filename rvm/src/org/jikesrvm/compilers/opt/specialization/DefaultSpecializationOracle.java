@@ -18,16 +18,62 @@ import java.util.List;
 
 import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
+import org.jikesrvm.adaptive.parameterprofiling.NonNullParameterProperty;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterValueCombination;
+import org.jikesrvm.adaptive.parameterprofiling.TypeValueForObjectParameter;
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.classloader.RVMType;
+import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
 import org.jikesrvm.util.Pair;
 
+/**
+ * Chooses a single specialized version for a method based on its
+ * {@link MethodProfile}. The version is specialized either on the most
+ * frequent value of a parameter, on a frequent combination of parameter
+ * values or, if the most frequent concrete class of the receiver occurs more
+ * often than any parameter value, on that class of the receiver
+ * (see {@link ReceiverTypeSpecializationContext}). Parameter values include
+ * the lengths of arrays and object literals. If there are no candidates at all,
+ * the version is specialized on a reference parameter being non-<code>null</code>.
+ * <p>
+ * Versions for single call sites are chosen the same way from the profile of
+ * the call site. They are only created if most calls from the call site match
+ * the values of the version because the values are checked at the call site.
+ */
 public class DefaultSpecializationOracle implements SpecializationOracle {
 
+  /**
+   * The maximum number of parameters that a single specialized version is
+   * specialized on.
+   */
+  static final int MAX_SPECIALIZED_PARAMETERS = 3;
+
+  /**
+   * The maximum number of parameters of a combination that are considered
+   * when searching for parameters to specialize on. Limits the number of
+   * subsets that need to be checked.
+   */
+  private static final int MAX_PARAMETERS_FOR_COMBINATIONS = 8;
+
+  /**
+   * The minimum number of samples from a call site that are needed to
+   * specialize a method for the call site.
+   */
+  private static final int MIN_SAMPLES_FOR_CALL_SITE = 10;
+
+  /**
+   * The minimum fraction of the calls from a call site that must match
+   * the values of a version for the call site.
+   */
+  private static final double MIN_MATCHING_FRACTION_FOR_CALL_SITE = 0.8d;
+
   @Override
   public SpecializationDecision shouldSpecialize(RVMMethod method, List<ParameterProfileInformation> profiles, CompilationPlan plan) {
     LinkedList<String> reasons = new LinkedList<String>();
@@ -38,8 +84,8 @@ public class DefaultSpecializationOracle implements SpecializationOracle {
       reasons.add("NO_PROFILES");
     }
 
-    // ignore methods without parameters for now
-    if (method.getParameterTypes().length == 0) {
+    // methods without parameters can only be customized for their receiver
+    if (method.getParameterTypes().length == 0 && !canSpecializeOnReceiver(method)) {
       yes = false;
       reasons.add("NO_NON_RECEIVER_PARAMS");
     }
@@ -84,6 +130,37 @@ public class DefaultSpecializationOracle implements SpecializationOracle {
     return SpecializationDecision.newYES(method, profiles, context);
   }
 
+  @Override
+  public SpecializationDecision shouldSpecializeCallSite(RVMMethod method, CallSite callSite, List<ParameterProfileInformation> profiles,
+      CompilationPlan plan) {
+    MethodProfile mp = (MethodProfile) profiles.get(0);
+    int sampleCount = mp.getSampleCount();
+    if (sampleCount < MIN_SAMPLES_FOR_CALL_SITE) {
+      return SpecializationDecision.newNO(method, profiles, "TOO_FEW_SAMPLES_FOR_CALL_SITE");
+    }
+    if (method.getParameterTypes().length == 0) {
+      return SpecializationDecision.newNO(method, profiles, "NO_NON_RECEIVER_PARAMS");
+    }
+    if (plan.options.getOptLevel() < Math.min(2, Controller.options.MAX_OPT_LEVEL)) {
+      return SpecializationDecision.newNO(method, profiles, "OPT_LEVEL_TOO_LOW");
+    }
+
+    // the class of the receiver is not checked at call sites
+    ParameterValueSpecializationContext context = createContext(method, profiles);
+    if (context == null || context.getReceiverType() != null) {
+      return SpecializationDecision.newNO(method, profiles, "NO_CANDIDATES_FOUND");
+    }
+    int frequency = context.getProfiledFrequency();
+    if (frequency < MIN_MATCHING_FRACTION_FOR_CALL_SITE * sampleCount) {
+      return SpecializationDecision.newNO(method, profiles, "CANDIDATE_TOO_RARE_AT_CALL_SITE");
+    }
+
+    CallSiteSpecializationContext callSiteContext =
+        new CallSiteSpecializationContext((NormalMethod) method, callSite, context.getParameterInformation());
+    callSiteContext.setProfiledFrequency(frequency);
+    return SpecializationDecision.newYES(method, profiles, callSiteContext);
+  }
+
   private ParameterValueSpecializationContext createContext(RVMMethod method, List<ParameterProfileInformation> profiles) {
     ParameterProfileInformation singleProfile = profiles.get(0);
     MethodProfile mp = (MethodProfile) singleProfile;
@@ -91,7 +168,7 @@ public class DefaultSpecializationOracle implements SpecializationOracle {
     if (!method.isStatic()) {
       paramCount++;
     }
-    // ignore receiver for now
+    // the receiver is handled separately, see findReceiverCandidate
     int startParam = method.isStatic() ? 0 : 1;
     int maxCount = Integer.MIN_VALUE;
     AbstractParameterInfo mostFrequentCandidate = null;
@@ -117,11 +194,22 @@ public class DefaultSpecializationOracle implements SpecializationOracle {
       }
     }
 
+    Pair<RVMClass, Integer> receiverCandidate = null;
+    if (canSpecializeOnReceiver(method)) {
+      receiverCandidate = findReceiverCandidate(mp);
+    }
+
     // No candidate found: Can happen for methods with one reference parameter
     // when no types other than the one from the signature were seen during
-    // profiling.
-    if (mostFrequentCandidate == null) {
-      return null;
+    // profiling. Such a parameter can still be assumed to be non-null.
+    if (mostFrequentCandidate == null && receiverCandidate == null) {
+      int nonNullParam = findNonNullCandidate(method, mp, startParam, paramCount);
+      if (nonNullParam < 0) {
+        return null;
+      }
+      mostFrequentCandidate = NonNullParameterProperty.NON_NULL;
+      paramIndex = nonNullParam;
+      maxCount = mp.getNonNullCount(nonNullParam);
     }
 
     if (VM.VerifyAssertions) {
@@ -136,8 +224,159 @@ public class DefaultSpecializationOracle implements SpecializationOracle {
     NormalMethod nm = (NormalMethod) method;
     AbstractParameterInfo[] paramValues = new AbstractParameterInfo[method.getParameterTypes().length];
     int offset = method.isStatic() ? 0 : -1;
-    paramValues[paramIndex + offset] = mostFrequentCandidate;
-    return new ParameterValueSpecializationContext(nm, paramValues);
+
+    if (receiverCandidate != null && receiverCandidate.second.intValue() > maxCount) {
+      ParameterValueSpecializationContext context =
+          new ReceiverTypeSpecializationContext(nm, receiverCandidate.first, paramValues);
+      context.setProfiledFrequency(receiverCandidate.second.intValue());
+      return context;
+    }
+
+    AbstractParameterInfo[] combination = findBestCombination(mp, startParam, paramCount, maxCount);
+    int frequency = maxCount;
+    if (combination != null) {
+      for (int i = startParam; i < paramCount; i++) {
+        paramValues[i + offset] = combination[i];
+      }
+      frequency = mp.getCountForParameterValues(combination);
+    } else {
+      paramValues[paramIndex + offset] = mostFrequentCandidate;
+    }
+    ParameterValueSpecializationContext context = new ParameterValueSpecializationContext(nm, paramValues);
+    context.setProfiledFrequency(frequency);
+    return context;
+  }
+
+  /**
+   * Can the method be customized for the class of its receiver? This is
+   * pointless if the declaring class is final because the type of the
+   * receiver is already known exactly.
+   *
+   * @param method the method to specialize
+   * @return <code>true</code> if receiver types should be considered
+   */
+  static boolean canSpecializeOnReceiver(RVMMethod method) {
+    return Controller.options.SPECIALIZE_ON_RECEIVER_TYPE && !method.isStatic() &&
+        !method.getDeclaringClass().isFinal();
+  }
+
+  /**
+   * @param mp the profile of the method
+   * @return the most frequent class of the receiver and its count or
+   *  <code>null</code> if no class was recorded
+   */
+  static Pair<RVMClass, Integer> findReceiverCandidate(MethodProfile mp) {
+    List<Pair<AbstractParameterInfo, Integer>> receiverTypes = mp.getDataForParameter(0);
+    if (receiverTypes.isEmpty()) {
+      return null;
+    }
+    Pair<AbstractParameterInfo, Integer> mostFrequent = receiverTypes.get(0);
+    if (!mostFrequent.first.hasTypeInformation()) {
+      return null;
+    }
+    RVMType type = ((TypeValueForObjectParameter) mostFrequent.first).getObjectType();
+    if (!type.isClassType() || !type.isResolved()) {
+      return null;
+    }
+    return new Pair<RVMClass, Integer>(type.asClass(), mostFrequent.second);
+  }
+
+  /**
+   * @param method the method to specialize
+   * @param mp the profile of the method
+   * @param startParam the first parameter that may be specialized
+   * @param paramCount the number of parameters (including <code>this</code>)
+   * @return the reference parameter that was most often non-<code>null</code>
+   *  or -1 if there is none
+   */
+  private static int findNonNullCandidate(RVMMethod method, MethodProfile mp, int startParam, int paramCount) {
+    TypeReference[] parameterTypes = method.getParameterTypes();
+    int offset = method.isStatic() ? 0 : -1;
+    int bestParam = -1;
+    int bestCount = 0;
+    for (int i = startParam; i < paramCount; i++) {
+      TypeReference type = parameterTypes[i + offset];
+      if (!type.isReferenceType() || type.isUnboxedType() ||
+          !mp.isCandidateForParameter(i, NonNullParameterProperty.NON_NULL)) {
+        continue;
+      }
+      int count = mp.getNonNullCount(i);
+      if (count > bestCount) {
+        bestParam = i;
+        bestCount = count;
+      }
+    }
+    return bestParam;
+  }
+
+  /**
+   * Searches the recorded combinations of parameter values for a combination
+   * of values that is worth more than specializing on the best single
+   * parameter value.
+   * <p>
+   * A combination of k parameter values is scored with k times the number of
+   * samples that contain all of its values, i.e. the score approximates the
+   * number of arguments that can be folded. A single value has a score of its
+   * count. To keep the guard successful most of the time, combinations that
+   * match less than half as often as the best single value are not considered.
+   *
+   * @param mp the profile of the method
+   * @param startParam the first parameter that may be specialized
+   * @param paramCount the number of parameters (including <code>this</code>)
+   * @param bestSingleCount the count of the best single candidate
+   * @return the values of the best combination, indexed by parameter number
+   *  (including <code>this</code>), or <code>null</code> if no combination
+   *  is better than the best single value
+   */
+  private AbstractParameterInfo[] findBestCombination(MethodProfile mp, int startParam, int paramCount, int bestSingleCount) {
+    int bestScore = bestSingleCount;
+    AbstractParameterInfo[] bestCombination = null;
+
+    for (Pair<ParameterValueCombination, Integer> pair : mp.getDataForParameterCombinations()) {
+      ParameterValueCombination combination = pair.first;
+      if (pair.second.intValue() * 2 < bestSingleCount) {
+        // sorted by count: no combination that follows can match often enough
+        break;
+      }
+
+      int[] usableParams = new int[MAX_PARAMETERS_FOR_COMBINATIONS];
+      int usableCount = 0;
+      for (int i = startParam; i < paramCount && usableCount < usableParams.length; i++) {
+        if (mp.isCandidateForParameter(i, combination.getValue(i))) {
+          usableParams[usableCount++] = i;
+        }
+      }
+      if (usableCount < 2) {
+        continue;
+      }
+
+      // Check all subsets of the usable parameters with the right size
+      for (int subset = 1; subset < (1 << usableCount); subset++) {
+        int subsetSize = Integer.bitCount(subset);
+        if (subsetSize < 2 || subsetSize > MAX_SPECIALIZED_PARAMETERS) {
+          continue;
+        }
+        AbstractParameterInfo[] values = new AbstractParameterInfo[paramCount];
+        for (int bit = 0; bit < usableCount; bit++) {
+          if ((subset & (1 << bit)) != 0) {
+            int param = usableParams[bit];
+            values[param] = combination.getValue(param);
+          }
+        }
+
+        int matchingSamples = mp.getCountForParameterValues(values);
+        if (matchingSamples * 2 < bestSingleCount) {
+          continue;
+        }
+        int score = matchingSamples * subsetSize;
+        if (score > bestScore) {
+          bestScore = score;
+          bestCombination = values;
+        }
+      }
+    }
+
+    return bestCombination;
   }
 
 }
@@ -0,0 +1,127 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.AosEntrypoints;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.vmmagic.pragma.Uninterruptible;
+
+/**
+ * Counters for the dispatch from general versions of methods to their
+ * specialized versions.
+ * <p>
+ * Each method set in the {@link SpecializationDatabase} has a counter
+ * for the entries into the dispatch of its general version and each
+ * specialized version has a counter for the successful checks of its
+ * values. The {@link SpecializationDatabase} uses the counters to retire
+ * specialized versions whose values no longer occur.
+ * <p>
+ * The counters are incremented by the dispatch code without
+ * synchronization. Lost updates only make the hit rates slightly less
+ * precise.
+ * <p>
+ * The counter of a retired version is released once the general version
+ * no longer calls it and is handed out again for the next version.
+ * Activations of an old general version can still increment it for a
+ * while, which is as imprecise as a lost update.
+ */
+public final class GuardHitCounters {
+
+  private static final int INITIAL_COUNTER_COUNT = 1024;
+
+  /**
+   * The counters, indexed by counter id. The array is replaced by a larger
+   * copy when more counters are needed, so compiled code always loads it
+   * from this field.
+   * <p>
+   * Accessed via {@link AosEntrypoints}.
+   */
+  static int[] counts = new int[INITIAL_COUNTER_COUNT];
+
+  /**
+   * The number of counters that were handed out. Counter 0 is never
+   * handed out.
+   */
+  private static int counterCount = 1;
+
+  /**
+   * Released counters that can be handed out again
+   */
+  private static int[] freeCounters = new int[16];
+
+  /**
+   * The number of entries in {@link #freeCounters}
+   */
+  private static int freeCounterCount = 0;
+
+  private GuardHitCounters() {
+    // prevent instantiation
+  }
+
+  /**
+   * @return whether compiled code should count the entries into the
+   *  dispatch and the hits of the specialized versions. The counts are
+   *  only read when rarely hit versions are retired.
+   */
+  public static boolean isEnabled() {
+    return Controller.options != null && Controller.options.DESPECIALIZATION_FREQUENCY > 0;
+  }
+
+  /**
+   * @return the id of a new counter
+   */
+  static synchronized int createCounter() {
+    if (freeCounterCount > 0) {
+      int counter = freeCounters[--freeCounterCount];
+      counts[counter] = 0;
+      return counter;
+    }
+    int counter = counterCount++;
+    if (counter >= counts.length) {
+      int[] newCounts = new int[2 * counts.length];
+      System.arraycopy(counts, 0, newCounts, 0, counts.length);
+      counts = newCounts;
+    }
+    return counter;
+  }
+
+  /**
+   * Releases a counter so that it can be handed out again.
+   *
+   * @param counter the id of the counter
+   */
+  static synchronized void releaseCounter(int counter) {
+    if (VM.VerifyAssertions) VM._assert(counter > 0 && counter < counterCount);
+    if (freeCounterCount == freeCounters.length) {
+      int[] newFreeCounters = new int[2 * freeCounters.length];
+      System.arraycopy(freeCounters, 0, newFreeCounters, 0, freeCounters.length);
+      freeCounters = newFreeCounters;
+    }
+    freeCounters[freeCounterCount++] = counter;
+  }
+
+  /**
+   * Returns the value of a counter and resets it to zero.
+   *
+   * @param counter the id of the counter
+   * @return the value of the counter before the reset
+   */
+  @Uninterruptible
+  static int getAndReset(int counter) {
+    int[] currentCounts = counts;
+    int value = currentCounts[counter];
+    currentCounts[counter] = 0;
+    return value;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.compilers.common.CompiledMethod;
+
+/**
+ * A context that combines a {@link ParameterValueSpecializationContext} with
+ * the context of {@link InvokeeThreadLocalContext}: the specialized version
+ * uses the values of the parameters and the invokee is thread local.
+ * <p>
+ * The opt compiler uses this context when escape analysis finds that the
+ * receiver of a call to a specialized version for parameter values
+ * is thread local, see
+ * {@link org.jikesrvm.compilers.opt.escape.UnsyncReplacer UnsyncReplacer}.
+ * Each parameter context has a single combined context, see
+ * {@link ParameterValueSpecializationContext#getInvokeeThreadLocalContext()}.
+ */
+public final class InvokeeThreadLocalParameterValueContext extends SpecializationContext {
+
+  private final ParameterValueSpecializationContext parameterContext;
+
+  InvokeeThreadLocalParameterValueContext(ParameterValueSpecializationContext parameterContext) {
+    this.parameterContext = parameterContext;
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * Namely, invoke the opt compiler with the parameter values of the
+   * parameter context and the INVOKEE_THREAD_LOCAL option.
+   * @param source the method to compile
+   */
+  @Override
+  CompiledMethod specialCompile(NormalMethod source) {
+    return parameterContext.specialCompile(source, true);
+  }
+
+  public ParameterValueSpecializationContext getParameterContext() {
+    return parameterContext;
+  }
+
+  @Override
+  public String toString() {
+    return "Invokee thread local, " + parameterContext;
+  }
+}
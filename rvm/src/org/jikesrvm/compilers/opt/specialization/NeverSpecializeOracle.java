@@ -14,6 +14,7 @@ package org.jikesrvm.compilers.opt.specialization;
 
 import java.util.List;
 
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
@@ -25,4 +26,10 @@ public class NeverSpecializeOracle implements SpecializationOracle {
     return SpecializationDecision.newNO(method, profiles, "SPECIALIZATION DISABLED");
   }
 
+  @Override
+  public SpecializationDecision shouldSpecializeCallSite(RVMMethod method, CallSite callSite, List<ParameterProfileInformation> profiles,
+      CompilationPlan plan) {
+    return SpecializationDecision.newNO(method, profiles, "SPECIALIZATION DISABLED");
+  }
+
 }
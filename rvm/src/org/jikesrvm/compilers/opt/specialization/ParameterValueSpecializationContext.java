@@ -16,13 +16,14 @@ import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.controller.Controller;
 import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.RuntimeCompiler;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
 import org.jikesrvm.compilers.opt.driver.OptimizationPlanElement;
 import org.jikesrvm.compilers.opt.driver.OptimizationPlanner;
-import org.jikesrvm.compilers.opt.driver.OptimizingCompiler;
 
 public class ParameterValueSpecializationContext extends SpecializationContext {
 
@@ -33,6 +34,10 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
    * initialized.
    */
   private static OptOptions options;
+  /**
+   * The standard options with the INVOKEE_THREAD_LOCAL flag set true
+   */
+  private static OptOptions threadLocalOptions;
   private static OptimizationPlanElement[] optimizationPlan;
 
   private final AbstractParameterInfo[] parameterInformation;
@@ -46,6 +51,19 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
    */
   private final OptOptions overridingOptions;
 
+  /**
+   * How often the specialized values occurred together during profiling.
+   * Used to order the checks for the specialized versions in the general
+   * version of the method.
+   */
+  private int profiledFrequency;
+
+  /**
+   * The context for versions that are also specialized for a thread local
+   * invokee or <code>null</code> if it has not been created. Guarded by this.
+   */
+  private InvokeeThreadLocalParameterValueContext invokeeThreadLocalContext;
+
   /**
    * NB: Use only in testcases.
    * @param method the method to specialize
@@ -79,16 +97,39 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
   /**
    * Generates code to specialize a method in this context. Namely, builds a
    * {@link CompilationPlan} for the specialized method and invokes the opt
-   * compiler with the built plan and the options.
+   * compiler with the built plan and the options. The compilation may run
+   * on a thread that compiles specialized versions in the background, so it
+   * must be serialized with all other opt compilations.
    *
    * @param source the method to specialize
    */
   @Override
   CompiledMethod specialCompile(NormalMethod source) {
+    return specialCompile(source, false);
+  }
+
+  /**
+   * Generates code to specialize a method in this context.
+   *
+   * @param source the method to specialize
+   * @param invokeeThreadLocal whether the invokee is known to be thread local,
+   *  see {@link InvokeeThreadLocalParameterValueContext}
+   * @return the compiled method
+   */
+  CompiledMethod specialCompile(NormalMethod source, boolean invokeeThreadLocal) {
     OptOptions optsToUse = (overridingOptions == null) ? options : overridingOptions;
+    if (invokeeThreadLocal) {
+      if (overridingOptions == null) {
+        optsToUse = threadLocalOptions;
+      } else {
+        optsToUse = overridingOptions.dup();
+        optsToUse.ESCAPE_INVOKEE_THREAD_LOCAL = true;
+      }
+    }
 
-    CompilationPlan cp = new CompilationPlan(normalMethod, optimizationPlan, null, optsToUse, parameterInformation);
-    return OptimizingCompiler.compile(cp);
+    CompilationPlan cp = new CompilationPlan(normalMethod, optimizationPlan, null, optsToUse, parameterInformation,
+        getReceiverType());
+    return RuntimeCompiler.optCompileWithoutInstalling(cp);
   }
 
   /**
@@ -101,10 +142,43 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
   @Override
   protected SpecializedMethod createSpecializedMethod(NormalMethod method) {
     SpecializedMethod sp = super.createSpecializedMethod(method);
-    SpecializationDatabase.registerContextWithSpecializedParameters(this, sp);
+    if (isCalledFromGeneralVersion()) {
+      SpecializationDatabase.registerContextWithSpecializedParameters(this, sp);
+    }
     return sp;
   }
 
+  /**
+   * @return <code>true</code> if the general version of the method checks
+   *  for the specialized values and calls the specialized versions for this
+   *  context
+   */
+  boolean isCalledFromGeneralVersion() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * The general version of the method only calls specialized versions that
+   * have been compiled, so the specialized versions may be compiled later.
+   */
+  @Override
+  boolean canCompileInBackground() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}<p>
+   *
+   * For specialization on parameters, the benefit is estimated by the profiled
+   * frequency of the specialized values.
+   */
+  @Override
+  double getExpectedBenefit() {
+    return profiledFrequency;
+  }
+
   /**
    * Initializes options to the standard options and builds the optimization
    * plan that will be used for all compiles.
@@ -112,10 +186,10 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
   public static void init() {
     options = new OptOptions();
 
-    // To reduce the chance that a specialized method will be invalidated,
-    // disable OSR for inlining and disable code-patch guards.
-    options.OSR_GUARDED_INLINING = false;
-    options.INLINE_GUARD_KIND = OptOptions.INLINE_GUARD_METHOD_TEST;
+    // Specialized versions use the default inline guards: if class loading
+    // invalidates a specialized version, the SpecializationDatabase retires
+    // it and its activations leave it through the patched guards like those
+    // of any other invalidated method.
 
     if (DEBUG) {
       options.PRINT_ALL_IR = true;
@@ -126,12 +200,43 @@ public class ParameterValueSpecializationContext extends SpecializationContext {
     options.setOptLevel(Controller.options.MAX_OPT_LEVEL);
 
     optimizationPlan = OptimizationPlanner.createOptimizationPlan(options);
+
+    // all objects in the combined versions will be thread local
+    threadLocalOptions = options.dup();
+    threadLocalOptions.ESCAPE_INVOKEE_THREAD_LOCAL = true;
   }
 
   public AbstractParameterInfo[] getParameterInformation() {
     return parameterInformation;
   }
 
+  /**
+   * @return the exact class of the receiver that the specialized version is
+   *  customized for or <code>null</code> if the receiver is not specialized
+   */
+  public RVMClass getReceiverType() {
+    return null;
+  }
+
+  /**
+   * @return the context that combines this context with a thread local
+   *  invokee
+   */
+  public synchronized InvokeeThreadLocalParameterValueContext getInvokeeThreadLocalContext() {
+    if (invokeeThreadLocalContext == null) {
+      invokeeThreadLocalContext = new InvokeeThreadLocalParameterValueContext(this);
+    }
+    return invokeeThreadLocalContext;
+  }
+
+  public int getProfiledFrequency() {
+    return profiledFrequency;
+  }
+
+  public void setProfiledFrequency(int profiledFrequency) {
+    this.profiledFrequency = profiledFrequency;
+  }
+
   @Override
   public String toString() {
     StringBuilder rep = new StringBuilder();
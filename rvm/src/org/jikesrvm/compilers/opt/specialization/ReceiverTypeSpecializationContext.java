@@ -0,0 +1,56 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
+
+/**
+ * A context for versions of a method that are customized for a single
+ * concrete class of the receiver, in addition to the values of the
+ * parameters (if any).
+ * <p>
+ * The general version of the method only calls such a version if the
+ * receiver is exactly of the given class. The type of <code>this</code>
+ * is therefore precise in the specialized version, so virtual calls on
+ * <code>this</code> can be devirtualized and inlined. This is most useful
+ * for inherited methods that are called for receivers of several subclasses
+ * which override the methods that are called on <code>this</code>.
+ */
+public class ReceiverTypeSpecializationContext extends ParameterValueSpecializationContext {
+
+  private final RVMClass receiverType;
+
+  /**
+   * @param nm the method to specialize
+   * @param receiverType the exact class of the receiver
+   * @param paramValues the values of the parameters, excluding the receiver.
+   *  All entries may be <code>null</code>.
+   */
+  public ReceiverTypeSpecializationContext(NormalMethod nm, RVMClass receiverType, AbstractParameterInfo[] paramValues) {
+    super(nm, paramValues);
+    this.receiverType = receiverType;
+  }
+
+  @Override
+  public RVMClass getReceiverType() {
+    return receiverType;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " Receiver: " + receiverType;
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import java.util.Enumeration;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMClass;
+import org.jikesrvm.compilers.opt.OptOptions;
+import org.jikesrvm.compilers.opt.OptimizingCompilerException;
+import org.jikesrvm.compilers.opt.Simple;
+import org.jikesrvm.compilers.opt.bc2ir.ConvertBCtoHIR;
+import org.jikesrvm.compilers.opt.controlflow.BranchOptimizations;
+import org.jikesrvm.compilers.opt.driver.CompilationPlan;
+import org.jikesrvm.compilers.opt.driver.OptimizationPlanCompositeElement;
+import org.jikesrvm.compilers.opt.driver.OptimizationPlanElement;
+import org.jikesrvm.compilers.opt.ir.Call;
+import org.jikesrvm.compilers.opt.ir.IR;
+import org.jikesrvm.compilers.opt.ir.InstanceOf;
+import org.jikesrvm.compilers.opt.ir.Instruction;
+import org.jikesrvm.compilers.opt.ir.TypeCheck;
+import org.jikesrvm.compilers.opt.ir.operand.MethodOperand;
+
+/**
+ * Estimates the size of a method after simplification, optionally with some
+ * of its parameters bound to specialized values.
+ * <p>
+ * The estimate builds the HIR of the method without inlining, propagates
+ * constants and types, folds branches and removes unreachable code. It then
+ * counts the remaining instructions, conditional branches, virtual calls and
+ * type checks. Comparing the estimate for a specialized binding with the
+ * estimate for the general method shows how much code specialization
+ * eliminates.
+ */
+final class SimplificationEstimate {
+
+  /*
+   * Rough costs of the counted instructions relative to a simple instruction.
+   * Branches may be mispredicted, virtual calls prevent inlining and need
+   * a dispatch and type checks load and compare type information.
+   */
+  private static final double BRANCH_WEIGHT = 2.0;
+  private static final double VIRTUAL_CALL_WEIGHT = 5.0;
+  private static final double TYPE_CHECK_WEIGHT = 3.0;
+
+  private static OptOptions options;
+  private static OptimizationPlanElement[] optimizationPlan;
+
+  private int instructions;
+  private int conditionalBranches;
+  private int virtualCalls;
+  private int typeChecks;
+
+  private SimplificationEstimate() {
+    // use estimate(..)
+  }
+
+  /**
+   * Initializes the options and the plan for the trial compilations.
+   */
+  private static synchronized void init() {
+    if (optimizationPlan != null) {
+      return;
+    }
+    OptOptions opts = new OptOptions();
+    opts.setOptLevel(0);
+    // Only the code of the method itself is of interest. Inlining would make
+    // the trial compilations much more expensive.
+    opts.INLINE = false;
+    options = opts;
+    OptimizationPlanElement plan = OptimizationPlanCompositeElement.compose("Specialization Estimate",
+        new Object[]{new ConvertBCtoHIR(),
+                     new Simple(1, true, true, true, false),
+                     new BranchOptimizations(0, false, false)});
+    optimizationPlan = new OptimizationPlanElement[] {plan};
+  }
+
+  /**
+   * Estimates the size of the given method when the given parameter values
+   * are known.
+   *
+   * @param method the method to estimate
+   * @param paramValues the known values, indexed by parameter number
+   *  (excluding <code>this</code>). <code>null</code> entries stand for
+   *  unknown values.
+   * @return the estimate or <code>null</code> if the method could not
+   *  be compiled
+   */
+  static SimplificationEstimate estimate(NormalMethod method, AbstractParameterInfo[] paramValues) {
+    return estimate(method, paramValues, null);
+  }
+
+  /**
+   * Estimates the size of the given method when the given parameter values
+   * and the exact class of the receiver are known.
+   *
+   * @param method the method to estimate
+   * @param paramValues the known values, indexed by parameter number
+   *  (excluding <code>this</code>). <code>null</code> entries stand for
+   *  unknown values.
+   * @param receiverType the exact class of the receiver or <code>null</code>
+   *  if it is unknown
+   * @return the estimate or <code>null</code> if the method could not
+   *  be compiled
+   */
+  static SimplificationEstimate estimate(NormalMethod method, AbstractParameterInfo[] paramValues, RVMClass receiverType) {
+    init();
+    CompilationPlan cp = new CompilationPlan(method, optimizationPlan, null, options, paramValues, receiverType);
+    cp.analyzeOnly = true;
+    IR ir;
+    try {
+      ir = cp.execute();
+    } catch (OptimizingCompilerException e) {
+      return null;
+    }
+
+    SimplificationEstimate estimate = new SimplificationEstimate();
+    for (Enumeration<Instruction> e = ir.forwardInstrEnumerator(); e.hasMoreElements();) {
+      Instruction s = e.nextElement();
+      if (!s.isBbInside()) {
+        continue;
+      }
+      estimate.instructions++;
+      if (s.isConditionalBranch()) {
+        estimate.conditionalBranches++;
+      } else if (Call.conforms(s)) {
+        MethodOperand target = Call.getMethod(s);
+        if (target != null && (target.isVirtual() || target.isInterface()) && !target.hasPreciseTarget()) {
+          estimate.virtualCalls++;
+        }
+      } else if (InstanceOf.conforms(s) || TypeCheck.conforms(s)) {
+        estimate.typeChecks++;
+      }
+    }
+    return estimate;
+  }
+
+  /**
+   * Estimates the size of the general version of the method.
+   *
+   * @param method the method to estimate
+   * @return the estimate or <code>null</code> if the method could not
+   *  be compiled
+   */
+  static SimplificationEstimate estimateGeneralVersion(NormalMethod method) {
+    // Use an array without known values instead of null. Otherwise, the
+    // general version would contain the dispatch to specialized versions.
+    return estimate(method, new AbstractParameterInfo[method.getParameterTypes().length]);
+  }
+
+  /**
+   * @return the size of the method with branches, virtual calls and type
+   *  checks weighted by their relative cost
+   */
+  double getWeightedSize() {
+    int simpleInstructions = instructions - conditionalBranches - virtualCalls - typeChecks;
+    return simpleInstructions + BRANCH_WEIGHT * conditionalBranches +
+        VIRTUAL_CALL_WEIGHT * virtualCalls + TYPE_CHECK_WEIGHT * typeChecks;
+  }
+
+  int getInstructions() {
+    return instructions;
+  }
+
+  int getConditionalBranches() {
+    return conditionalBranches;
+  }
+
+  int getVirtualCalls() {
+    return virtualCalls;
+  }
+
+  int getTypeChecks() {
+    return typeChecks;
+  }
+
+  @Override
+  public String toString() {
+    return instructions + " instructions, " + conditionalBranches + " branches, " +
+        virtualCalls + " virtual calls, " + typeChecks + " type checks";
+  }
+
+}
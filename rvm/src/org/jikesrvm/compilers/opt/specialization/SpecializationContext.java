@@ -28,7 +28,8 @@ abstract class SpecializationContext {
    * Compilation of the specialized version can be forced via a call to
    * {@link SpecializationDatabase#doDeferredSpecializations()}.
    * <p>
-   * The opt compiler will make such a call after compiling a method, see
+   * The opt compiler will make such a call after compiling a method, unless
+   * the specialized version can be compiled in the background, see
    * {@link org.jikesrvm.compilers.opt.driver.OptimizingCompiler#compile(org.jikesrvm.compilers.opt.driver.CompilationPlan)}.
    *
    *
@@ -82,6 +83,26 @@ abstract class SpecializationContext {
    */
   abstract CompiledMethod specialCompile(NormalMethod source);
 
+  /**
+   * May specialized versions for this context be compiled in the background?
+   * This is only possible if the code that uses the specialized versions
+   * does not need them to be compiled when it is installed.
+   *
+   * @return <code>true</code> if the specialized versions may be compiled
+   *  after the method that requested them was installed
+   */
+  boolean canCompileInBackground() {
+    return false;
+  }
+
+  /**
+   * @return the expected benefit of a specialized version for this context.
+   *  Specialized versions with a higher benefit are compiled first.
+   */
+  double getExpectedBenefit() {
+    return 0.0d;
+  }
+
   /**
    * Create specialized method in this context.
    *
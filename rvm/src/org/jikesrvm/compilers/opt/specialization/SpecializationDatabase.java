@@ -13,16 +13,21 @@
 package org.jikesrvm.compilers.opt.specialization;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
+import org.jikesrvm.adaptive.util.BlockingPriorityQueue;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMMethod;
-import org.jikesrvm.util.HashMapRVM;
-import org.jikesrvm.util.HashSetRVM;
+import org.jikesrvm.compilers.common.CodeArray;
+import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.util.ImmutableEntryHashMapRVM;
+import org.jikesrvm.util.LinkedListRVM;
 import org.vmmagic.pragma.Uninterruptible;
 
 /**
@@ -34,36 +39,120 @@ import org.vmmagic.pragma.Uninterruptible;
  * and the value is a method set. The method set is a list of
  * specialized versions of the method pointed by the key. Specialized
  * versions are represented by using the SpecializedMethod class.
- * There is no provision for removing/deleting method versions as classes
- * are never unloaded and the ClassLoader.compiledMethods[] is never cleaned.
+ * Classes are never unloaded, so versions are only removed when they are
+ * retired because their values no longer occur, see
+ * {@link #retireRarelyHitVersions(double)}, or because class loading
+ * invalidated their code, see {@link #specializedVersionInvalidated(CompiledMethod)}.
+ *
+ * <p> The opt compiler queries the database for every method that it
+ * compiles, so queries do not take any locks. The methods are distributed
+ * over a fixed number of stripes. Each stripe holds a map that is never
+ * modified after it was published: adding a method replaces the map of
+ * its stripe with an updated copy. Likewise, the method sets replace their
+ * arrays of versions on every update. Updates of a stripe are serialized by
+ * the monitor of the stripe.
+ *
+ * <p> Compilation of deferred specialized versions is serialized. This
+ * guarantees that a thread which returns from
+ * {@link #doDeferredSpecializations()} does not install code that calls
+ * specialized versions that have not been compiled yet.
+ *
+ * <p> If background compilation is enabled, specialized versions whose
+ * context allows it are compiled by separate threads instead, see
+ * {@link SpecializedMethodCompilationPlan}. The general versions of methods
+ * only call such specialized versions once they have been installed.
+ *
+ * <p> The dispatch in the general version of a method counts how often it is
+ * entered and how often the checks for each specialized version succeed,
+ * see {@link GuardHitCounters}. Specialized versions whose checks rarely
+ * succeed are retired: the general version is recompiled without their
+ * checks and remaining calls are redirected to the new general version.
  */
 public final class SpecializationDatabase {
 
   private static boolean DEBUG = false;
 
+  /**
+   * The number of stripes. Must be a power of two.
+   */
+  private static final int STRIPE_COUNT = 16;
+
+  /**
+   * The minimum number of entries into the dispatch of a general version
+   * between two checks of the hit rates. Hit rates of methods that are
+   * called less often are not meaningful.
+   */
+  private static final int MIN_ENTRIES_FOR_RETIREMENT = 1000;
+
+  /**
+   * For how many checks of the hit rates a specialized version must have been
+   * installed before it can be retired. A version that was installed during
+   * the last period was not called for the whole period.
+   */
+  private static final int MIN_CHECKS_BEFORE_RETIREMENT = 2;
+
   private static int[] smidsForParameterSpecializedMethods;
 
   private static int currentIndexForSavedSmids;
 
-  private static SpecializationDatabase instance = new SpecializationDatabase();
+  /**
+   * Guards {@link #smidsForParameterSpecializedMethods} and
+   * {@link #currentIndexForSavedSmids}.
+   */
+  private static final Object smidLock = new Object();
+
+  private static volatile SpecializationDatabase instance = new SpecializationDatabase();
+
+  /**
+   * The queue of the threads that compile specialized versions in the
+   * background or {@code null} if background compilation is disabled.
+   */
+  private static volatile BlockingPriorityQueue backgroundCompilationQueue;
 
   public SpecializationDatabase() {
-    smidsForParameterSpecializedMethods = new int[16];
-    currentIndexForSavedSmids = 0;
+    synchronized (smidLock) {
+      smidsForParameterSpecializedMethods = new int[16];
+      currentIndexForSavedSmids = 0;
+    }
+    stripes = new Stripe[STRIPE_COUNT];
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
   }
 
-  private static boolean specializationInProgress;
+  /**
+   * Is a thread currently compiling deferred specialized versions?
+   * Guarded by {@link #deferredCompilationLock}.
+   */
+  private boolean specializationInProgress;
 
-  private HashSetRVM<SpecializedMethod> deferredMethods =
-    new HashSetRVM<SpecializedMethod>();
+  /**
+   * The thread that currently compiles deferred specialized versions
+   * or {@code null}. Only used to detect contention.
+   */
+  private volatile Thread compilingThread;
 
-  private ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>> specialVersionsHash =
-      new ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>>();
+  /**
+   * Serializes the compilation of deferred specialized versions.
+   */
+  private final Object deferredCompilationLock = new Object();
 
-  private HashMapRVM<RVMMethod, HashSetRVM<SpecializationContext>> methodsWithSpecializedParameters =
-      new HashMapRVM<RVMMethod, HashSetRVM<SpecializationContext>>();
+  /**
+   * Specialized versions that need to be compiled. Guarded by its own monitor.
+   */
+  private final LinkedListRVM<SpecializedMethod> deferredMethods =
+    new LinkedListRVM<SpecializedMethod>();
 
-  private static synchronized SpecializationDatabase getInstance() {
+  private final Stripe[] stripes;
+
+  /**
+   * How often a thread had to wait for compilation of deferred
+   * specialized versions by another thread. Guarded by
+   * {@link #deferredCompilationLock}.
+   */
+  private int waitsForDeferredCompilation;
+
+  private static SpecializationDatabase getInstance() {
     return instance;
   }
 
@@ -76,50 +165,164 @@ public final class SpecializationDatabase {
     instance = new SpecializationDatabase();
   }
 
+  /**
+   * Enables compilation of specialized versions in the background.
+   *
+   * @param queue the queue of the threads that compile specialized versions
+   */
+  public static void enableBackgroundCompilation(BlockingPriorityQueue queue) {
+    backgroundCompilationQueue = queue;
+  }
+
+  /**
+   * Hands the methods waiting for specialized code generation to the
+   * threads that compile specialized versions in the background. Methods
+   * that cannot be compiled in the background are compiled immediately.
+   * If background compilation is disabled, this is equivalent to
+   * {@link #doDeferredSpecializations()}.
+   */
+  public static void scheduleDeferredSpecializations() {
+    BlockingPriorityQueue queue = backgroundCompilationQueue;
+    if (queue == null || getInstance().moveDeferredMethodsToBackground(queue)) {
+      doDeferredSpecializations();
+    }
+  }
+
   /**
    * Drain the queue of methods waiting for specialized code
    * generation.
    */
-  public static synchronized void doDeferredSpecializations() {
-    // prevent recursive entry to this method
-    if (specializationInProgress) {
-      return;
-    }
-    specializationInProgress = true;
-    Iterator<SpecializedMethod> methods = getInstance().deferredMethods.iterator();
-    while (methods.hasNext()) {
-      SpecializedMethod m = methods.next();
-      if (m.getCompiledMethod() == null) {
+  public static void doDeferredSpecializations() {
+    SpecializationDatabase db = getInstance();
+    Thread currentThread = Thread.currentThread();
+    Thread otherThread = db.compilingThread;
+    boolean contended = otherThread != null && otherThread != currentThread;
+    synchronized (db.deferredCompilationLock) {
+      if (contended) {
+        db.waitsForDeferredCompilation++;
+      }
+      // prevent recursive entry to this method
+      if (db.specializationInProgress) {
+        return;
+      }
+      db.specializationInProgress = true;
+      db.compilingThread = currentThread;
+      try {
+        for (SpecializedMethod m = db.pollDeferredMethod(); m != null; m = db.pollDeferredMethod()) {
+          try {
+            if (m.getCompiledMethod() == null) {
 
-        if (DEBUG) {
-          VM.sysWriteln("Starting opt-compilation of specialized method " + m);
-        }
+              if (DEBUG) {
+                VM.sysWriteln("Starting opt-compilation of specialized method " + m);
+              }
 
-        m.compile();
+              m.compile();
 
-        if (DEBUG) {
-          VM.sysWriteln("Finished opt-compilation of specialized method " + m + ". Will register method now!");
+              if (DEBUG) {
+                VM.sysWriteln("Finished opt-compilation of specialized method " + m + ". Will register method now!");
+              }
+
+              registerCompiledMethod(m);
+
+              if (DEBUG) {
+                VM.sysWriteln("Successfully registered specialized method " + m);
+              }
+
+            }
+          } finally {
+            finishDeferredMethod(m);
+          }
         }
+      } finally {
+        db.compilingThread = null;
+        db.specializationInProgress = false;
+      }
+    }
+  }
 
-        registerCompiledMethod(m);
+  /**
+   * Removes the next method from the queue of deferred methods. The method
+   * remains marked as deferred until {@link #finishDeferredMethod(SpecializedMethod)}
+   * is called so that it is not queued again while it is compiled.
+   *
+   * @return the next method or {@code null} if the queue is empty
+   */
+  private SpecializedMethod pollDeferredMethod() {
+    synchronized (deferredMethods) {
+      if (deferredMethods.isEmpty()) {
+        return null;
+      }
+      return deferredMethods.remove(0);
+    }
+  }
 
-        if (DEBUG) {
-          VM.sysWriteln("Successfully registered specialized method " + m);
+  /**
+   * Marks a method as no longer deferred after an attempt to compile it.
+   *
+   * @param m a method that was removed from the queue of deferred methods
+   */
+  static void finishDeferredMethod(SpecializedMethod m) {
+    SpecializationDatabase db = getInstance();
+    synchronized (db.deferredMethods) {
+      m.deferred = false;
+    }
+  }
+
+  /**
+   * Moves all deferred methods that can be compiled in the background to the
+   * given queue. Methods with a higher expected benefit are compiled first.
+   *
+   * @param queue the queue of the threads that compile specialized versions
+   * @return {@code true} if deferred methods remain that must be compiled
+   *  immediately
+   */
+  private boolean moveDeferredMethodsToBackground(BlockingPriorityQueue queue) {
+    synchronized (deferredMethods) {
+      int count = deferredMethods.size();
+      for (int i = 0; i < count; i++) {
+        SpecializedMethod m = deferredMethods.remove(0);
+        SpecializationContext context = m.getSpecializationContext();
+        if (context.canCompileInBackground()) {
+          queue.insert(context.getExpectedBenefit(), new SpecializedMethodCompilationPlan(m));
+        } else {
+          deferredMethods.add(m);
         }
+      }
+      return !deferredMethods.isEmpty();
+    }
+  }
 
+  private void addDeferredMethod(SpecializedMethod spMethod) {
+    synchronized (deferredMethods) {
+      if (!spMethod.deferred) {
+        spMethod.deferred = true;
+        deferredMethods.add(spMethod);
       }
-      getInstance().deferredMethods.remove(m);
-      // since we modified the set, reset the iterator.
-      // TODO: use a better abstraction
-      // (ModifiableSetIterator of some kind?)
-      methods = getInstance().deferredMethods.iterator();
     }
-    specializationInProgress = false;
   }
 
   // write the new compiled method in the specialized method pool
   private static void registerCompiledMethod(SpecializedMethod m) {
-    SpecializedMethodPool.registerCompiledMethod(m);
+    m.install();
+  }
+
+  /**
+   * @return how often threads had to wait for each other when updating the
+   *  database or when compiling deferred specialized versions. Queries never
+   *  wait.
+   */
+  public static int getWaitCount() {
+    SpecializationDatabase db = getInstance();
+    int waits;
+    synchronized (db.deferredCompilationLock) {
+      waits = db.waitsForDeferredCompilation;
+    }
+    for (Stripe stripe : db.stripes) {
+      synchronized (stripe) {
+        waits += stripe.waitsForUpdates;
+      }
+    }
+    return waits;
   }
 
   /**
@@ -127,8 +330,8 @@ public final class SpecializationDatabase {
    * @return an iteration of specialized compiled versions, {@code null}
    *  if no specialized versions
    */
-  static synchronized Iterator<SpecializedMethod> getSpecialVersions(RVMMethod m) {
-    MethodSet<RVMMethod> s = getInstance().specialVersionsHash.get(m);
+  static Iterator<SpecializedMethod> getSpecialVersions(RVMMethod m) {
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(m);
     if (s == null) {
       return null;
     } else {
@@ -141,38 +344,104 @@ public final class SpecializationDatabase {
    * general method version.
    * @param method a given method
    * @return a (possibly empty) list of the specialized methods that need to be invoked via the general
-   *  method version.
+   *  method version, ordered by decreasing profiled frequency
    */
-  public static synchronized List<SpecializedMethod> getSpecialVersionsThatNeedToBeCalledFromGeneralMethod(NormalMethod method) {
+  public static List<SpecializedMethod> getSpecialVersionsThatNeedToBeCalledFromGeneralMethod(NormalMethod method) {
     List<SpecializedMethod> specializedMethods = new ArrayList<SpecializedMethod>();
 
-    Iterator<SpecializedMethod> methodsIter = getSpecialVersions(method);
-    if (methodsIter == null) {
-      return Collections.emptyList();
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(method);
+    if (s != null) {
+      Collections.addAll(specializedMethods, s.calledFromGeneralMethod);
     }
+    return specializedMethods;
+  }
 
-    while (methodsIter.hasNext()) {
-      SpecializedMethod spMethod = methodsIter.next();
-      SpecializationContext context = spMethod.getSpecializationContext();
-      NormalMethod normalMethod = spMethod.getMethod();
-      HashSetRVM<SpecializationContext> contexts = getInstance().methodsWithSpecializedParameters.get(normalMethod);
-      if (contexts.contains(context)) {
-        specializedMethods.add(spMethod);
-      }
+  /**
+   * Returns those specialized methods of a method that the general version of the
+   * method can call when it is compiled now. These are all versions returned by
+   * {@link #getSpecialVersionsThatNeedToBeCalledFromGeneralMethod(NormalMethod)},
+   * except those that are compiled in the background and have not been
+   * installed yet. The general version will be recompiled once they are installed.
+   *
+   * @param method a given method
+   * @return a (possibly empty) list of the specialized methods that the general
+   *  version of the method should call, ordered by decreasing profiled frequency
+   */
+  public static List<SpecializedMethod> getSpecialVersionsToCallFromGeneralMethod(NormalMethod method) {
+    List<SpecializedMethod> specializedMethods = getSpecialVersionsThatNeedToBeCalledFromGeneralMethod(method);
+    if (backgroundCompilationQueue == null) {
+      return specializedMethods;
     }
 
+    Iterator<SpecializedMethod> iter = specializedMethods.iterator();
+    while (iter.hasNext()) {
+      SpecializedMethod spMethod = iter.next();
+      if (spMethod.getSpecializationContext().canCompileInBackground() &&
+          !spMethod.isInstalledOrRememberMissingCall()) {
+        iter.remove();
+      }
+    }
     return specializedMethods;
   }
 
-  static int getSpecialVersionCount(RVMMethod m) {
-    Iterator<SpecializedMethod> versions = getSpecialVersions(m);
-    int count = 0;
-    if (versions != null) {
-      while (versions.hasNext() && (versions.next() != null)) {
-        count++;
+  /**
+   * Returns the specialized versions of a method that were created for the
+   * calls from a single call site, see {@link CallSiteSpecializationContext}.
+   *
+   * @param method the called method
+   * @param caller the method that contains the call site
+   * @param bcIndex the bytecode index of the call site in the caller
+   * @return a (possibly empty) list of the versions for the call site
+   */
+  public static List<SpecializedMethod> getSpecialVersionsForCallSite(NormalMethod method, RVMMethod caller, int bcIndex) {
+    List<SpecializedMethod> specializedMethods = new ArrayList<SpecializedMethod>();
+
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(method);
+    if (s != null) {
+      for (SpecializedMethod spMethod : s.methods) {
+        SpecializationContext context = spMethod.getSpecializationContext();
+        if (context instanceof CallSiteSpecializationContext) {
+          CallSite callSite = ((CallSiteSpecializationContext) context).getCallSite();
+          if (callSite.getMethod() == caller && callSite.getBytecodeIndex() == bcIndex) {
+            specializedMethods.add(spMethod);
+          }
+        }
       }
     }
-    return count;
+    return specializedMethods;
+  }
+
+  /**
+   * Orders specialized versions so that the versions whose values were seen
+   * most often during profiling come first. The checks for these versions are
+   * generated first in the general version of the method.
+   */
+  private static final Comparator<SpecializedMethod> BY_DECREASING_PROFILED_FREQUENCY =
+      new Comparator<SpecializedMethod>() {
+        @Override
+        public int compare(SpecializedMethod first, SpecializedMethod second) {
+          int firstFrequency = getProfiledFrequency(first);
+          int secondFrequency = getProfiledFrequency(second);
+          if (firstFrequency > secondFrequency) {
+            return -1;
+          } else if (firstFrequency < secondFrequency) {
+            return 1;
+          }
+          return 0;
+        }
+      };
+
+  private static int getProfiledFrequency(SpecializedMethod spMethod) {
+    SpecializationContext context = spMethod.getSpecializationContext();
+    if (context instanceof ParameterValueSpecializationContext) {
+      return ((ParameterValueSpecializationContext) context).getProfiledFrequency();
+    }
+    return 0;
+  }
+
+  static int getSpecialVersionCount(RVMMethod m) {
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(m);
+    return (s == null) ? 0 : s.methods.length;
   }
 
   /**
@@ -182,11 +451,17 @@ public final class SpecializationDatabase {
    *
    * @param spMethod the method to register
    */
-  static synchronized void registerSpecialVersion(SpecializedMethod spMethod) {
+  static void registerSpecialVersion(SpecializedMethod spMethod) {
+    SpecializationDatabase db = getInstance();
     RVMMethod source = spMethod.getMethod();
-    MethodSet<RVMMethod> s = findOrCreateMethodSet(getInstance().specialVersionsHash, source);
-    s.add(spMethod);
-    getInstance().deferredMethods.add(spMethod);
+    Stripe stripe = db.getStripe(source);
+    boolean contended = stripe.updateInProgress;
+    synchronized (stripe) {
+      stripe.startUpdate(contended);
+      findOrCreateMethodSet(stripe, source).add(spMethod);
+      stripe.updateInProgress = false;
+    }
+    db.addDeferredMethod(spMethod);
   }
 
   /**
@@ -198,19 +473,23 @@ public final class SpecializationDatabase {
    * @param context the specialized method's specialization context
    * @param spMethod the specialized method
    */
-  static synchronized void registerContextWithSpecializedParameters(SpecializationContext context, SpecializedMethod spMethod) {
+  static void registerContextWithSpecializedParameters(SpecializationContext context, SpecializedMethod spMethod) {
+    SpecializationDatabase db = getInstance();
     RVMMethod method = spMethod.getMethod();
-    HashSetRVM<SpecializationContext> specializationContexts = getInstance().methodsWithSpecializedParameters.get(method);
-    if (specializationContexts == null) {
-      specializationContexts = new HashSetRVM<SpecializationContext>();
-      getInstance().methodsWithSpecializedParameters.put(method, specializationContexts);
+    Stripe stripe = db.getStripe(method);
+    boolean contended = stripe.updateInProgress;
+    synchronized (stripe) {
+      stripe.startUpdate(contended);
+      findOrCreateMethodSet(stripe, method).addContextWithSpecializedParameters(context);
+      stripe.updateInProgress = false;
     }
-    specializationContexts.add(context);
 
-    growSMIDArrayIfNecessary();
+    synchronized (smidLock) {
+      growSMIDArrayIfNecessary();
 
-    smidsForParameterSpecializedMethods[currentIndexForSavedSmids] = spMethod.getSpecializedMethodIndex();
-    currentIndexForSavedSmids++;
+      smidsForParameterSpecializedMethods[currentIndexForSavedSmids] = spMethod.getSpecializedMethodIndex();
+      currentIndexForSavedSmids++;
+    }
   }
 
   private static void growSMIDArrayIfNecessary() {
@@ -235,36 +514,251 @@ public final class SpecializationDatabase {
    * @return <code>true</code> if this method has specialized versions that should
    *  to be called in the general method, if parameters match
    */
-  public static synchronized boolean shouldCallSpecialVersions(RVMMethod method) {
-    HashSetRVM<SpecializationContext> contexts = getInstance().methodsWithSpecializedParameters.get(method);
-    boolean hasSpecialVersions = contexts != null && contexts.size() > 0;
+  public static boolean shouldCallSpecialVersions(RVMMethod method) {
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(method);
+    boolean hasSpecialVersions = s != null && s.contextsWithSpecializedParameters.length > 0;
     return hasSpecialVersions;
   }
 
+  /**
+   * Removes a retired specialized method from the specialized methods
+   * that have specialized parameters.
+   *
+   * @param smid the id of the retired method
+   */
+  static void unregisterParamSpecializedMethod(int smid) {
+    synchronized (smidLock) {
+      for (int i = 0; i < currentIndexForSavedSmids; i++) {
+        if (smidsForParameterSpecializedMethods[i] == smid) {
+          // smid 0 is never used and has no code
+          smidsForParameterSpecializedMethods[i] = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param method a method that should call its specialized versions
+   * @return the {@link GuardHitCounters counter} for the entries into the
+   *  dispatch to the specialized versions of the method
+   */
+  public static int getEntryCounter(RVMMethod method) {
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(method);
+    if (VM.VerifyAssertions) VM._assert(s != null);
+    return s.entryCounter;
+  }
+
+  /**
+   * Checks the hit rates of all specialized versions that are called from
+   * general versions and resets the counters. Versions whose checks succeeded
+   * for less than the given fraction of the entries into the dispatch since
+   * the last check are retired and the general versions of their methods are
+   * recompiled.
+   *
+   * @param minimumHitRate the minimum fraction of entries into the dispatch
+   *  that must call a specialized version
+   */
+  public static void retireRarelyHitVersions(double minimumHitRate) {
+    SpecializationDatabase db = getInstance();
+    List<NormalMethod> methodsToRecompile = new ArrayList<NormalMethod>();
+    for (Stripe stripe : db.stripes) {
+      ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>> methodSets = stripe.methodSets;
+      for (RVMMethod method : methodSets.keys()) {
+        MethodSet<RVMMethod> s = methodSets.get(method);
+        if (retireRarelyHitVersions(stripe, s, minimumHitRate)) {
+          methodsToRecompile.add((NormalMethod) method);
+        }
+      }
+    }
+
+    for (NormalMethod method : methodsToRecompile) {
+      if (DEBUG) {
+        VM.sysWriteln("Recompiling " + method + " without retired specialized versions");
+      }
+      SpecializedMethodCompilationPlan.recompileGeneralVersion(method);
+    }
+  }
+
+  /**
+   * @param stripe the stripe of the method set
+   * @param s a method set
+   * @param minimumHitRate the minimum hit rate
+   * @return <code>true</code> if a version was retired
+   */
+  private static boolean retireRarelyHitVersions(Stripe stripe, MethodSet<RVMMethod> s, double minimumHitRate) {
+    int entries = GuardHitCounters.getAndReset(s.entryCounter);
+    boolean retired = false;
+    for (SpecializedMethod spMethod : s.calledFromGeneralMethod) {
+      int hits = GuardHitCounters.getAndReset(spMethod.hitCounter);
+      if (!spMethod.isInstalled()) {
+        continue;
+      }
+      spMethod.checksSinceInstallation++;
+      boolean rarelyHit = entries >= MIN_ENTRIES_FOR_RETIREMENT && hits < minimumHitRate * entries;
+      if (rarelyHit && spMethod.checksSinceInstallation >= MIN_CHECKS_BEFORE_RETIREMENT) {
+        if (DEBUG) {
+          VM.sysWriteln("Retiring " + spMethod + ": " + hits + " hits for " + entries + " entries");
+        }
+        boolean contended = stripe.updateInProgress;
+        synchronized (stripe) {
+          stripe.startUpdate(contended);
+          s.retire(spMethod);
+          stripe.updateInProgress = false;
+        }
+        retired = true;
+      }
+    }
+    return retired;
+  }
+
+  /**
+   * Called when a new version of a method is installed. Redirects the calls
+   * to retired specialized versions of the method to the new version.
+   *
+   * @param method the method
+   * @param generalVersion the new version or <code>null</code> if the method
+   *  will be compiled on its next invocation
+   * @param entry the entry of the new version
+   */
+  public static void generalVersionReplaced(RVMMethod method, CompiledMethod generalVersion, CodeArray entry) {
+    MethodSet<RVMMethod> s = getInstance().getMethodSet(method);
+    if (s == null) {
+      return;
+    }
+    for (SpecializedMethod retired : s.retiredMethods) {
+      retired.redirectCalls(generalVersion, entry);
+    }
+  }
+
+  /**
+   * Called by the {@link org.jikesrvm.compilers.opt.inlining.ClassLoadingDependencyManager
+   * ClassLoadingDependencyManager} when compiled code was invalidated because
+   * a class was loaded that breaks one of the assumptions of the code. If the
+   * code belongs to a specialized version, the version is retired and the
+   * current general version of the method is discarded: it calls the invalid
+   * code, so the method is compiled again on its next invocation, this time
+   * without a call to the retired version.
+   *
+   * @param cm the invalid compiled method
+   */
+  public static void specializedVersionInvalidated(CompiledMethod cm) {
+    RVMMethod method = cm.getMethod();
+    Stripe stripe = getInstance().getStripe(method);
+    MethodSet<RVMMethod> s = stripe.methodSets.get(method);
+    if (s == null) {
+      return;
+    }
+    SpecializedMethod invalidated = null;
+    boolean contended = stripe.updateInProgress;
+    synchronized (stripe) {
+      stripe.startUpdate(contended);
+      for (SpecializedMethod spMethod : s.methods) {
+        if (spMethod.getCompiledMethod() == cm) {
+          s.retire(spMethod);
+          invalidated = spMethod;
+          break;
+        }
+      }
+      stripe.updateInProgress = false;
+    }
+    if (invalidated == null) {
+      // A version that was retired before may still be called by old general versions
+      for (SpecializedMethod retired : s.retiredMethods) {
+        if (retired.getCompiledMethod() == cm) {
+          invalidated = retired;
+          break;
+        }
+      }
+    }
+    if (invalidated == null) {
+      return;
+    }
+    if (DEBUG) {
+      VM.sysWriteln("Class loading invalidated " + invalidated);
+    }
+    if (invalidated.invalidate()) {
+      method.replaceCompiledMethod(null);
+    }
+  }
+
   @Uninterruptible
   public static int[] getSMIDsForParamSpecializedMethods() {
     return smidsForParameterSpecializedMethods;
   }
 
+  private Stripe getStripe(RVMMethod method) {
+    return stripes[method.getId() & (STRIPE_COUNT - 1)];
+  }
+
+  private MethodSet<RVMMethod> getMethodSet(RVMMethod method) {
+    return getStripe(method).methodSets.get(method);
+  }
+
   /**
    * Looks up the MethodSet corresponding to a given key in the database.
+   * The caller must hold the monitor of the stripe.
    *
-   * @param <T> type of the key in the database
-   * @param hash the database
+   * @param stripe the stripe of the key
    * @param key the key
    * @return the method set for the given key
    */
-  private static <T> MethodSet<T> findOrCreateMethodSet(ImmutableEntryHashMapRVM<T, MethodSet<T>> hash, T key) {
-    MethodSet<T> result = hash.get(key);
+  private static MethodSet<RVMMethod> findOrCreateMethodSet(Stripe stripe, RVMMethod key) {
+    ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>> hash = stripe.methodSets;
+    MethodSet<RVMMethod> result = hash.get(key);
     if (result == null) {
-      result = new MethodSet<T>(key);
-      hash.put(key, result);
+      result = new MethodSet<RVMMethod>(key);
+      ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>> copy =
+          new ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>>(2 * hash.size() + 1);
+      for (RVMMethod method : hash.keys()) {
+        copy.put(method, hash.get(method));
+      }
+      copy.put(key, result);
+      stripe.methodSets = copy;
     }
     return result;
   }
 
   /**
-   * The following defines a set of methods that share a common "key"
+   * A part of the database. All methods with the same stripe share a
+   * map and a monitor for updates.
+   */
+  private static final class Stripe {
+
+    /**
+     * Maps methods to their specialized versions. The map is never modified
+     * after it was published: updates replace it with a modified copy.
+     */
+    volatile ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>> methodSets =
+        new ImmutableEntryHashMapRVM<RVMMethod, MethodSet<RVMMethod>>();
+
+    /**
+     * Is an update of this stripe in progress? Only used to detect contention.
+     */
+    volatile boolean updateInProgress;
+
+    /**
+     * How often an update had to wait for another update. Guarded by the
+     * monitor of this stripe.
+     */
+    int waitsForUpdates;
+
+    void startUpdate(boolean contended) {
+      if (contended) {
+        waitsForUpdates++;
+      }
+      updateInProgress = true;
+    }
+  }
+
+  private static final SpecializedMethod[] NO_METHODS = new SpecializedMethod[0];
+  private static final SpecializationContext[] NO_CONTEXTS = new SpecializationContext[0];
+
+  /**
+   * The following defines a set of methods that share a common "key".
+   * <p>
+   * The arrays of this set are never modified after they were published:
+   * updates replace them with modified copies. Updates must hold the
+   * monitor of the stripe of the key.
    */
   static class MethodSet<T> {
     final T key;
@@ -272,18 +766,112 @@ public final class SpecializationDatabase {
     /**
      * a set of SpecializedMethod
      */
-    final HashSetRVM<SpecializedMethod> methods = new HashSetRVM<SpecializedMethod>();
+    volatile SpecializedMethod[] methods = NO_METHODS;
+
+    /**
+     * The contexts of specialized versions that are called from the general
+     * version of the method
+     */
+    volatile SpecializationContext[] contextsWithSpecializedParameters = NO_CONTEXTS;
+
+    /**
+     * The specialized versions that are called from the general version of
+     * the method, ordered by decreasing profiled frequency
+     */
+    volatile SpecializedMethod[] calledFromGeneralMethod = NO_METHODS;
+
+    /**
+     * The specialized versions that were retired
+     */
+    volatile SpecializedMethod[] retiredMethods = NO_METHODS;
+
+    /**
+     * The {@link GuardHitCounters counter} for the entries into the dispatch
+     * in the general version of the method
+     */
+    final int entryCounter;
 
     MethodSet(T key) {
       this.key = key;
+      this.entryCounter = GuardHitCounters.createCounter();
     }
 
     void add(SpecializedMethod spMethod) {
-      methods.add(spMethod);
+      SpecializedMethod[] oldMethods = methods;
+      for (SpecializedMethod m : oldMethods) {
+        if (m == spMethod) {
+          return;
+        }
+      }
+      SpecializedMethod[] newMethods = Arrays.copyOf(oldMethods, oldMethods.length + 1);
+      newMethods[oldMethods.length] = spMethod;
+      methods = newMethods;
+      updateVersionsCalledFromGeneralMethod();
+    }
+
+    void addContextWithSpecializedParameters(SpecializationContext context) {
+      SpecializationContext[] oldContexts = contextsWithSpecializedParameters;
+      for (SpecializationContext c : oldContexts) {
+        if (c.equals(context)) {
+          return;
+        }
+      }
+      SpecializationContext[] newContexts = Arrays.copyOf(oldContexts, oldContexts.length + 1);
+      newContexts[oldContexts.length] = context;
+      contextsWithSpecializedParameters = newContexts;
+      updateVersionsCalledFromGeneralMethod();
+    }
+
+    /**
+     * Removes a specialized version and its context so that the general
+     * version no longer calls it.
+     *
+     * @param spMethod the version to retire
+     */
+    void retire(SpecializedMethod spMethod) {
+      spMethod.retire();
+      methods = without(methods, spMethod);
+      SpecializationContext retiredContext = spMethod.getSpecializationContext();
+      List<SpecializationContext> contexts = new ArrayList<SpecializationContext>();
+      for (SpecializationContext c : contextsWithSpecializedParameters) {
+        if (!c.equals(retiredContext)) {
+          contexts.add(c);
+        }
+      }
+      contextsWithSpecializedParameters = contexts.toArray(new SpecializationContext[contexts.size()]);
+      SpecializedMethod[] oldRetired = retiredMethods;
+      SpecializedMethod[] newRetired = Arrays.copyOf(oldRetired, oldRetired.length + 1);
+      newRetired[oldRetired.length] = spMethod;
+      retiredMethods = newRetired;
+      updateVersionsCalledFromGeneralMethod();
+    }
+
+    private static SpecializedMethod[] without(SpecializedMethod[] versions, SpecializedMethod spMethod) {
+      List<SpecializedMethod> remaining = new ArrayList<SpecializedMethod>();
+      for (SpecializedMethod m : versions) {
+        if (m != spMethod) {
+          remaining.add(m);
+        }
+      }
+      return remaining.toArray(new SpecializedMethod[remaining.size()]);
+    }
+
+    private void updateVersionsCalledFromGeneralMethod() {
+      List<SpecializedMethod> called = new ArrayList<SpecializedMethod>();
+      for (SpecializedMethod spMethod : methods) {
+        for (SpecializationContext context : contextsWithSpecializedParameters) {
+          if (context.equals(spMethod.getSpecializationContext())) {
+            called.add(spMethod);
+            break;
+          }
+        }
+      }
+      Collections.sort(called, BY_DECREASING_PROFILED_FREQUENCY);
+      calledFromGeneralMethod = called.toArray(new SpecializedMethod[called.size()]);
     }
 
     public Iterator<SpecializedMethod> iterator() {
-      return methods.iterator();
+      return Arrays.asList(methods).iterator();
     }
   }
 
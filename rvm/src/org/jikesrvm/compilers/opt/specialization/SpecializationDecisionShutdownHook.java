@@ -68,6 +68,8 @@ public class SpecializationDecisionShutdownHook implements Runnable {
       }
 
       bfw.write("End of specialization decisions.\n");
+      bfw.write("Threads waited on the specialization database " +
+          SpecializationDatabase.getWaitCount() + " times.\n");
       bfw.flush();
     } catch (Exception e) {
       VM.sysWriteln("Exception during writing of specialization decisions!");
@@ -14,6 +14,7 @@ package org.jikesrvm.compilers.opt.specialization;
 
 import java.util.List;
 
+import org.jikesrvm.adaptive.database.callgraph.CallSite;
 import org.jikesrvm.adaptive.parameterprofiling.ParameterProfileInformation;
 import org.jikesrvm.classloader.RVMMethod;
 import org.jikesrvm.compilers.opt.driver.CompilationPlan;
@@ -34,4 +35,18 @@ public interface SpecializationOracle {
    */
   SpecializationDecision shouldSpecialize(RVMMethod method, List<ParameterProfileInformation> profiles, CompilationPlan plan);
 
+  /**
+   * Decides whether the calls from a single call site should get their own
+   * specialized version of a method. Positive decisions contain a
+   * {@link CallSiteSpecializationContext}.
+   *
+   * @param method the method to be evaluated for specialization
+   * @param callSite the call site
+   * @param profiles the profile data for the calls from the call site
+   * @param plan the compilation plan for the method (to read out info about it)
+   * @return a decision whether the method should be specialized for the call site
+   */
+  SpecializationDecision shouldSpecializeCallSite(RVMMethod method, CallSite callSite, List<ParameterProfileInformation> profiles,
+      CompilationPlan plan);
+
 }
@@ -13,7 +13,9 @@
 package org.jikesrvm.compilers.opt.specialization;
 
 import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.compilers.common.CodeArray;
 import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
 
 /**
  * This is the top-level class to support specialized versions of Java methods
@@ -45,10 +47,50 @@ public final class SpecializedMethod {
    */
   final SpecializationContext context;
 
+  /**
+   * Is this method waiting for compilation? Guarded by the queue of deferred
+   * methods in the {@link SpecializationDatabase}.
+   */
+  boolean deferred;
+
+  /**
+   * Has the compiled code of this method been stored in the
+   * {@link SpecializedMethodPool}? Guarded by this.
+   */
+  private boolean installed;
+
+  /**
+   * Was a general version of the method compiled without a call to this
+   * method because this method had not been installed? Guarded by this.
+   */
+  private boolean missingInGeneralVersion;
+
+  /**
+   * The {@link GuardHitCounters counter} for the successful checks of the
+   * values of this method in the general version of the method or 0 if the
+   * counter was released after the method was retired. Only released while
+   * holding the lock on this.
+   */
+  int hitCounter;
+
+  /**
+   * For how many checks of the hit rates this method has been installed.
+   * Only accessed by the thread that checks the hit rates.
+   */
+  int checksSinceInstallation;
+
+  /**
+   * The number of compiled methods when this method was retired or -1 if
+   * it has not been retired. General versions with a higher compiled method
+   * id do not call this method. Guarded by this.
+   */
+  private int retiredAtCompiledMethodCount = -1;
+
   SpecializedMethod(NormalMethod source, SpecializationContext context) {
     this.method = source;
     this.context = context;
     this.smid = SpecializedMethodPool.createSpecializedMethodID();
+    this.hitCounter = GuardHitCounters.createCounter();
   }
 
   /**
@@ -58,6 +100,124 @@ public final class SpecializedMethod {
     compiledMethod = context.specialCompile(method);
   }
 
+  /**
+   * Stores the compiled code of this method in the
+   * {@link SpecializedMethodPool}.
+   *
+   * @return <code>true</code> if a general version of the method was compiled
+   *  without a call to this method and needs to be recompiled
+   */
+  boolean install() {
+    CompiledMethod cm = compiledMethod;
+    if (cm != null && cm.isInvalid()) {
+      // Class loading broke an assumption of the code while it was compiled,
+      // possibly before the code was assigned to this method.
+      SpecializationDatabase.specializedVersionInvalidated(cm);
+    }
+    return store();
+  }
+
+  private synchronized boolean store() {
+    if (compiledMethod == null || compiledMethod.isInvalid()) {
+      return false;
+    }
+    SpecializedMethodPool.registerCompiledMethod(this);
+    installed = true;
+    return missingInGeneralVersion;
+  }
+
+  /**
+   * Checks whether this method has been installed. If it has not, the caller
+   * must not generate a call to this method and the general version of the
+   * method will be recompiled once this method is installed.
+   *
+   * @return <code>true</code> if this method has been installed
+   */
+  synchronized boolean isInstalledOrRememberMissingCall() {
+    if (!installed) {
+      missingInGeneralVersion = true;
+    }
+    return installed;
+  }
+
+  synchronized boolean isInstalled() {
+    return installed;
+  }
+
+  /**
+   * Marks this method as retired. New general versions of the method will
+   * not call it. Calls that were compiled before are redirected once a new
+   * general version is installed, see {@link #redirectCalls(CompiledMethod, CodeArray)}.
+   */
+  synchronized void retire() {
+    retiredAtCompiledMethodCount = CompiledMethods.numCompiledMethods();
+  }
+
+  /**
+   * Redirects the calls to this retired method to a general version of the
+   * method. This is only done if the general version was compiled after this
+   * method was retired: an older general version could call this method and
+   * would call itself instead.
+   * <p>
+   * The compiled code of this method is obsolete after the first redirection
+   * and will be reclaimed once it is no longer executed. Until then, the calls
+   * are not redirected to the lazy compilation stub: general versions that
+   * still call this method must keep calling compiled code.
+   *
+   * @param generalVersion the new general version or <code>null</code> if the
+   *  method will be compiled on its next invocation
+   * @param entry the entry of the new general version
+   */
+  synchronized void redirectCalls(CompiledMethod generalVersion, CodeArray entry) {
+    boolean canRedirect;
+    if (generalVersion == null) {
+      canRedirect = compiledMethod == null;
+    } else {
+      canRedirect = generalVersion.getId() >= retiredAtCompiledMethodCount;
+    }
+    if (!canRedirect) {
+      return;
+    }
+    SpecializedMethodPool.redirectSpecializedMethod(smid, entry);
+    if (hitCounter != 0) {
+      GuardHitCounters.releaseCounter(hitCounter);
+      hitCounter = 0;
+    }
+    if (compiledMethod != null) {
+      SpecializationDatabase.unregisterParamSpecializedMethod(smid);
+      CompiledMethods.setCompiledMethodObsolete(compiledMethod);
+      compiledMethod = null;
+    }
+  }
+
+  /**
+   * Discards the compiled code of this retired method because class loading
+   * broke an assumption that the code was compiled under. Unlike the code of
+   * a method that was retired because of its hit rate, the code must not be
+   * called anymore. The caller must therefore make the general versions that
+   * still call this method obsolete, which redirects the calls to the lazy
+   * compilation stub, see {@link #redirectCalls(CompiledMethod, CodeArray)}.
+   * Activations of the invalid code are protected by its code patches or do
+   * not depend on the broken assumption because their parameters existed
+   * before the class was loaded.
+   *
+   * @return <code>true</code> if the code was installed and general versions
+   *  of the method may call it
+   */
+  synchronized boolean invalidate() {
+    if (compiledMethod == null) {
+      return false;
+    }
+    SpecializationDatabase.unregisterParamSpecializedMethod(smid);
+    CompiledMethods.setCompiledMethodObsolete(compiledMethod);
+    compiledMethod = null;
+    return installed;
+  }
+
+  public synchronized int getHitCounter() {
+    return hitCounter;
+  }
+
   public NormalMethod getMethod() {
     return method;
   }
@@ -0,0 +1,107 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.compilers.opt.specialization;
+
+import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.controller.Controller;
+import org.jikesrvm.adaptive.controller.ControllerMemory;
+import org.jikesrvm.adaptive.controller.ControllerPlan;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.opt.OptimizingCompilerException;
+
+/**
+ * A request to compile a specialized version of a method in the background.
+ * Plans are placed in a queue by the {@link SpecializationDatabase} and
+ * performed by the threads that compile specialized versions, see
+ * {@link org.jikesrvm.adaptive.recompilation.CompilationThread}.
+ * <p>
+ * The compiled code is installed in the {@link SpecializedMethodPool} by a
+ * single store, so the general version of the method either sees the complete
+ * specialized version or none. If a general version was compiled without a
+ * call to the specialized version because the specialized version had not been
+ * installed yet, the general version is recompiled.
+ */
+public final class SpecializedMethodCompilationPlan {
+
+  private static final boolean DEBUG = false;
+
+  private final SpecializedMethod spMethod;
+
+  SpecializedMethodCompilationPlan(SpecializedMethod spMethod) {
+    this.spMethod = spMethod;
+  }
+
+  /**
+   * Compiles and installs the specialized version.
+   */
+  public void execute() {
+    boolean recompileGeneralVersion = false;
+    try {
+      if (spMethod.getCompiledMethod() == null) {
+        if (DEBUG) {
+          VM.sysWriteln("Starting background compilation of specialized method " + spMethod);
+        }
+        spMethod.compile();
+      }
+      recompileGeneralVersion = spMethod.install();
+    } catch (OptimizingCompilerException e) {
+      // The general version only calls installed specialized versions, so
+      // a failed compilation only loses the benefit of the specialization.
+      String msg = "Background compilation of specialized method " + spMethod + " failed: " + e;
+      if (e.isFatal && VM.ErrorsFatal) {
+        e.printStackTrace();
+        VM.sysFail(msg);
+      } else if (DEBUG) {
+        VM.sysWriteln(msg);
+      }
+    } finally {
+      SpecializationDatabase.finishDeferredMethod(spMethod);
+    }
+
+    if (recompileGeneralVersion) {
+      if (DEBUG) {
+        VM.sysWriteln("Recompiling " + spMethod.getMethod() + " to call specialized method " + spMethod);
+      }
+      recompileGeneralVersion(spMethod.getMethod());
+    }
+  }
+
+  /**
+   * Requests a recompilation of the general version of a method with the
+   * plan that was used for its last recompilation. Nothing is done if the
+   * controller never recompiled the method.
+   *
+   * @param method the method to recompile
+   */
+  static void recompileGeneralVersion(NormalMethod method) {
+    ControllerPlan latestPlan = ControllerMemory.findLatestPlan(method);
+    if (latestPlan == null) {
+      return;
+    }
+    CompiledMethod current = method.getCurrentCompiledMethod();
+    int prevCMID = (current == null) ? -1 : current.getId();
+    ControllerPlan plan = new ControllerPlan(latestPlan.getCompPlan(),
+                                             Controller.controllerClock,
+                                             prevCMID,
+                                             latestPlan.getExpectedSpeedup(),
+                                             latestPlan.getExpectedCompilationTime(),
+                                             latestPlan.getPriority());
+    plan.execute();
+  }
+
+  @Override
+  public String toString() {
+    return "Compilation of " + spMethod;
+  }
+}
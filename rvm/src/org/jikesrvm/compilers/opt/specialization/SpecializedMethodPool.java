@@ -18,7 +18,11 @@ import org.vmmagic.pragma.Uninterruptible;
 
 /**
  * This class holds the static array of pointers to instructions
- * of specialized methods
+ * of specialized methods.
+ * <p>
+ * Specialized methods may be compiled by several threads at once. Updates
+ * of the array are synchronized so that growing the array cannot lose the
+ * code of a method that is stored at the same time.
  */
 public final class SpecializedMethodPool {
   private static final int SPECIALIZED_METHOD_COUNT = 1024;
@@ -42,10 +46,21 @@ public final class SpecializedMethodPool {
    * @param cm the compiled method
    * @param smid the id of the specialized method
    */
-  public static void storeSpecializedMethod(CompiledMethod cm, int smid) {
+  public static synchronized void storeSpecializedMethod(CompiledMethod cm, int smid) {
     specializedMethods[smid] = cm.getEntryCodeArray();
   }
 
+  /**
+   * Makes the calls to a retired specialized method call the given code
+   * instead.
+   *
+   * @param smid the id of the retired specialized method
+   * @param entry the entry of a general version of the method
+   */
+  static synchronized void redirectSpecializedMethod(int smid, CodeArray entry) {
+    specializedMethods[smid] = entry;
+  }
+
   /**
    * @param smid the id of the specialized method
    * @return whether thereis  a compiled version of a particular specialized method
@@ -63,7 +78,7 @@ public final class SpecializedMethodPool {
   /**
    * @return a new unique integer identifier for a specialized method
    */
-  public static int createSpecializedMethodID() {
+  public static synchronized int createSpecializedMethodID() {
     specializedMethodCount++;
     if (specializedMethodCount >= specializedMethods.length) {
       growSpecializedMethods();
@@ -75,7 +90,7 @@ public final class SpecializedMethodPool {
    * Increase the capacity of the internal data structures to track
    * specialized methods.
    */
-  public static void growSpecializedMethods() {
+  public static synchronized void growSpecializedMethods() {
     int org_length = specializedMethods.length;
     int new_length = 2 * org_length;
     CodeArray[] temp = new CodeArray[new_length];
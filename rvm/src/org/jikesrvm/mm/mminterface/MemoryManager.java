@@ -127,6 +127,7 @@ public final class MemoryManager {
     DebugUtil.boot(theBootRecord);
     Selected.Plan.get().enableAllocation();
     SynchronizedCounter.boot();
+    SpecializedScanMethod.boot();
 
     Callbacks.addExitMonitor(new Callbacks.ExitMonitor() {
       @Override
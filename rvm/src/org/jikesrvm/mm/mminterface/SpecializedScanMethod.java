@@ -26,7 +26,9 @@ import org.jikesrvm.classloader.TypeReference;
 import org.jikesrvm.compilers.common.CodeArray;
 import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.objectmodel.ObjectModel;
+import org.jikesrvm.runtime.Callbacks;
 import org.jikesrvm.runtime.Magic;
+import org.jikesrvm.scheduler.RVMThread;
 import org.mmtk.plan.TransitiveClosure;
 import org.vmmagic.pragma.Inline;
 import org.vmmagic.pragma.Interruptible;
@@ -64,6 +66,13 @@ public final class SpecializedScanMethod extends SpecializedMethod {
   /** Our type reference */
   private static final TypeReference specializedScanMethodType = TypeReference.findOrCreate(SpecializedScanMethod.class);
 
+  /**
+   * Count the scans of types without a specialized pattern and measure
+   * the cycles spent in specialized scans?  The results are reported on
+   * exit.
+   */
+  public static final boolean STATS = false;
+
   /** Objects with no references or primitive arrays */
   private static final int NULL_PATTERN = 0;
   /** Number of patterns we will specialize */
@@ -72,8 +81,10 @@ public final class SpecializedScanMethod extends SpecializedMethod {
   private static final int REFARRAY_PATTERN = 64;
   /** Fallback to a slower path that is not specialized */
   private static final int FALLBACK_PATTERN = 65;
+  /** Fallback that counts the scans of each type, only compiled if {@link #STATS} */
+  private static final int PROFILED_FALLBACK_PATTERN = 66;
   /** The total number of patterns */
-  private static final int PATTERNS = 66;
+  private static final int PATTERNS = STATS ? 67 : 66;
   /** Maximum field offset we can deal with */
   private static final int MAX_SPECIALIZED_OFFSET = 6 << LOG_BYTES_IN_ADDRESS;
 
@@ -83,6 +94,24 @@ public final class SpecializedScanMethod extends SpecializedMethod {
   /** The specialized signature of the method */
   private final TypeReference[] specializedSignature;
 
+  /**
+   * The distance between the counters of two threads in {@link #scanStats},
+   * in longs, so that threads do not share cache lines
+   */
+  private static final int STATS_STRIDE = 16;
+
+  /**
+   * The number of scans through the profiled fallback pattern, indexed
+   * by type id. Updates are not synchronized, lost updates are acceptable.
+   */
+  private static int[] fallbackScanCounts = new int[0];
+
+  /**
+   * Cycles spent in specialized scans and number of objects scanned, at
+   * {@code slot * STATS_STRIDE} and the following index for each thread slot
+   */
+  private static final long[] scanStats = STATS ? new long[RVMThread.MAX_THREADS * STATS_STRIDE] : null;
+
   public SpecializedScanMethod(int id, TypeReference specializedTrace) {
     super(id);
     this.specializedSignature = new TypeReference[] { TypeReference.JavaLangObject, specializedTrace };
@@ -155,6 +184,11 @@ public final class SpecializedScanMethod extends SpecializedMethod {
       return null;
     }
 
+    if (STATS && pattern == FALLBACK_PATTERN) {
+      ensureFallbackScanCountCapacity(type.getId());
+      pattern = PROFILED_FALLBACK_PATTERN;
+    }
+
     /* Ensure we have a compiled method cached. */
     if (VM.VerifyAssertions) VM._assert(specializedMethods[pattern] != null);
 
@@ -162,6 +196,66 @@ public final class SpecializedScanMethod extends SpecializedMethod {
     return specializedMethods[pattern].getEntryCodeArray();
   }
 
+  /**
+   * Set up a callback to report the statistics.
+   */
+  @Interruptible
+  public static void boot() {
+    if (STATS) {
+      Callbacks.addExitMonitor(new Callbacks.ExitMonitor() {
+        @Override
+        public void notifyExit(int value) {
+          report();
+        }
+      });
+    }
+  }
+
+  @Interruptible
+  private static synchronized void ensureFallbackScanCountCapacity(int typeId) {
+    if (typeId >= fallbackScanCounts.length) {
+      int[] newCounts = new int[Math.max(typeId + 1, fallbackScanCounts.length * 2)];
+      System.arraycopy(fallbackScanCounts, 0, newCounts, 0, fallbackScanCounts.length);
+      fallbackScanCounts = newCounts;
+    }
+  }
+
+  /**
+   * Records the scan of one object by the current thread.
+   *
+   * @param cycles the cycles spent scanning the object
+   */
+  @Inline
+  public static void recordScan(long cycles) {
+    int index = RVMThread.getCurrentThreadSlot() * STATS_STRIDE;
+    scanStats[index] += cycles;
+    scanStats[index + 1]++;
+  }
+
+  /**
+   * Reports the time spent in specialized scans and the types that
+   * were scanned through the fallback pattern.
+   */
+  @Interruptible
+  private static void report() {
+    long scanCycles = 0;
+    long scannedObjects = 0;
+    for (int i = 0; i < scanStats.length; i += STATS_STRIDE) {
+      scanCycles += scanStats[i];
+      scannedObjects += scanStats[i + 1];
+    }
+    VM.sysWriteln("Specialized Scan Statistics");
+    VM.sysWriteln("SCANNED_OBJECTS\t", scannedObjects);
+    VM.sysWriteln("SCAN_CYCLES\t", scanCycles);
+    VM.sysWriteln("SCAN_CYCLES_PER_OBJECT\t", scannedObjects == 0 ? 0 : scanCycles / scannedObjects);
+    int[] counts = fallbackScanCounts;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        VM.sysWriteln("FALLBACK_SCANS\t" + RVMType.getType(i) + "\t", counts[i]);
+      }
+    }
+  }
+
   @Override
   public TypeReference[] getSignature() {
     return signature;
@@ -217,6 +311,16 @@ public final class SpecializedScanMethod extends SpecializedMethod {
     }
   }
 
+  // Scalars that are counted per type
+  public static void profiledScalar(Object object, TransitiveClosure trace) {
+    int[] counts = fallbackScanCounts;
+    int typeId = ObjectModel.getObjectType(object).getId();
+    if (typeId < counts.length) {
+      counts[typeId]++;
+    }
+    scalar(object, trace);
+  }
+
   // Reference Arrays
   public static void referenceArray(Object object, TransitiveClosure trace) {
     Address base = Magic.objectAsAddress(object);
@@ -326,6 +430,7 @@ public final class SpecializedScanMethod extends SpecializedMethod {
       case 63: return Names.scalarRRRRRR;
       case NULL_PATTERN:     return Names.noReferences;
       case REFARRAY_PATTERN: return Names.referenceArray;
+      case PROFILED_FALLBACK_PATTERN: return Names.profiledScalar;
       case FALLBACK_PATTERN:
       default:               return Names.scalar;
     }
@@ -339,6 +444,7 @@ public final class SpecializedScanMethod extends SpecializedMethod {
     static final Atom fallback       = Atom.findOrCreateAsciiAtom("fallback");
     static final Atom referenceArray = Atom.findOrCreateAsciiAtom("referenceArray");
     static final Atom scalar         = Atom.findOrCreateAsciiAtom("scalar");
+    static final Atom profiledScalar = Atom.findOrCreateAsciiAtom("profiledScalar");
     static final Atom noReferences   = Atom.findOrCreateAsciiAtom("noReferences");
     static final Atom scalarRNNNNN = Atom.findOrCreateAsciiAtom("scalarRNNNNN");
     static final Atom scalarNRNNNN = Atom.findOrCreateAsciiAtom("scalarNRNNNN");
@@ -26,6 +26,7 @@ import org.jikesrvm.VM;
 import org.jikesrvm.adaptive.OSRListener;
 import org.jikesrvm.adaptive.OnStackReplacementEvent;
 import org.jikesrvm.adaptive.measurements.RuntimeMeasurements;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterSampleBuffer;
 import org.jikesrvm.architecture.AbstractRegisters;
 import org.jikesrvm.architecture.ArchitectureFactory;
 import org.jikesrvm.architecture.StackFrameLayout;
@@ -612,6 +613,26 @@ public final class RVMThread extends ThreadContext {
    */
   public int thread_cbs_counter;
 
+  /**
+   * For builds using parameter profiling. The buffer that the
+   * ParameterListener records the samples of this thread in or
+   * {@code null} if the thread has not been given a buffer yet.
+   */
+  public ParameterSampleBuffer parameterSampleBuffer;
+
+  /**
+   * For builds using parameter profiling. Holds the empty buffer that
+   * replaces {@link #parameterSampleBuffer} when an exchange is requested
+   * and the full buffer after the exchange.
+   */
+  public ParameterSampleBuffer exchangedParameterSampleBuffer;
+
+  /**
+   * Is there a request to exchange the parameter sample buffer? This is
+   * handled via a soft handshake.
+   */
+  public boolean parameterSampleBufferExchangeRequested;
+
   /**
    * Should this thread yield at yieldpoints? A value of: 1 means "yes"
    * (yieldpoints enabled) &lt;= 0 means "no" (yieldpoints disabled)
@@ -3940,6 +3961,10 @@ public final class RVMThread extends ThreadContext {
       MemoryManager.flushMutatorContext();
       flushRequested = false;
     }
+    // hand the parameter samples of this thread over to the organizer
+    if (VM.BuildForAdaptiveSystem && parameterSampleBufferExchangeRequested) {
+      ParameterSampleBuffer.exchange(this);
+    }
     // not really a "soft handshake" request but we handle it here anyway
     if (asyncDebugRequestedForThisThread) {
       asyncDebugRequestedForThisThread = false;
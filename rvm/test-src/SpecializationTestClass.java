@@ -161,4 +161,8 @@ public class SpecializationTestClass {
     } while (begin++ != end);
   }
 
+  public static void parametersAreRecordedByProbes(int i, double d, Object obj, String[] strings) {
+    System.out.println("Parameters are : " + i + " " + d + " " + obj + " " + strings.length);
+  }
+
 }
@@ -437,6 +437,9 @@ public class EncodingHelperTest {
 
     TypeReference objectTypeRef = TypeReference.JavaLangClass;
     assertEquals(JavaSizeConstants.BYTES_IN_INT, EncodingHelper.getBytesForTypeReference(objectTypeRef));
+
+    TypeReference arrayTypeRef = TypeReference.IntArray;
+    assertEquals(2 * JavaSizeConstants.BYTES_IN_INT, EncodingHelper.getBytesForTypeReference(arrayTypeRef));
   }
 
 }
@@ -14,6 +14,7 @@ package org.jikesrvm.adaptive.parameterprofiling;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -93,6 +94,17 @@ public class MethodProfileTest {
     assertThat(secondEntry.second, is(1));
   }
 
+  @Test
+  public void frequentValuesAreKeptWhenManyDistinctValuesAreSeen() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      mp.addNewIntValue(ONE);
+      mp.addNewIntValue(TEN + i);
+    }
+
+    getAndVerifyList(0, ParameterValueSketch.CAPACITY);
+    assertFirstEntryIsOneWithCount(100);
+  }
+
   protected void addOneTwoTimes() {
     mp.addNewIntValue(ONE);
     mp.addNewIntValue(ONE);
@@ -149,6 +161,144 @@ public class MethodProfileTest {
     assertThat(firstEntry.second, is(3));
   }
 
+  @Test
+  public void combinationsOfValuesAreRecordedForCompleteSamples() throws Exception {
+    useTwoParameters();
+
+    mp.addNewIntValue(ONE);
+    mp.addNewIntValue(TEN);
+    mp.addNewIntValue(ONE);
+    mp.addNewIntValue(TEN);
+    mp.addNewIntValue(TEN);
+    mp.addNewIntValue(TEN);
+    mp.addNewIntValue(ONE);
+
+    assertThat(mp.getSampleCount(), is(3));
+    List<Pair<ParameterValueCombination, Integer>> combinations = mp.getDataForParameterCombinations();
+    assertThat(combinations.size(), is(2));
+    Pair<ParameterValueCombination, Integer> firstCombination = combinations.get(0);
+    assertEquals(new IntParameterValue(ONE), firstCombination.first.getValue(0));
+    assertEquals(new IntParameterValue(TEN), firstCombination.first.getValue(1));
+    assertThat(firstCombination.second, is(2));
+  }
+
+  @Test
+  public void samplesCanBeAddedIndependentlyOfTheCurrentParameter() throws Exception {
+    useTwoParameters();
+
+    mp.addNewIntValue(TEN);
+    ParameterSample sample = mp.acquireSample();
+    sample.setInt(0, ONE);
+    sample.setInt(1, TEN);
+    mp.addSample(sample);
+    mp.addNewIntValue(TEN);
+
+    getAndVerifyList(0, 2);
+    getAndVerifyList(1, 1);
+    assertThat(getEntry(0).second, is(2));
+
+    AbstractParameterInfo[] values = new AbstractParameterInfo[2];
+    values[1] = new IntParameterValue(TEN);
+    assertThat(mp.getCountForParameterValues(values), is(2));
+    values[0] = new IntParameterValue(ONE);
+    assertThat(mp.getCountForParameterValues(values), is(1));
+  }
+
+  @Test
+  public void addedSamplesAreRecycledWithoutTheirValues() throws Exception {
+    useTwoParameters();
+
+    ParameterSample sample = mp.acquireSample();
+    sample.setInt(0, ONE);
+    sample.setInt(1, TEN);
+    mp.addSample(sample);
+
+    ParameterSample recycled = mp.acquireSample();
+    assertSame(sample, recycled);
+    recycled.setInt(1, TEN);
+    mp.addSample(recycled);
+
+    getAndVerifyList(0, 1);
+    assertThat(getEntry(0).second, is(1));
+    getAndVerifyList(1, 1);
+    assertThat(getEntry(0).second, is(2));
+    assertThat(mp.getDataForParameterCombinations().size(), is(2));
+  }
+
+  @Test
+  public void leastFrequentCombinationIsReplacedWhenTheLimitIsReached() throws Exception {
+    addOneTwoTimes();
+    for (int i = 0; i < MethodProfile.MAX_COMBINATIONS; i++) {
+      mp.addNewIntValue(TEN + i);
+    }
+
+    List<Pair<ParameterValueCombination, Integer>> combinations = mp.getDataForParameterCombinations();
+    assertThat(combinations.size(), is(MethodProfile.MAX_COMBINATIONS));
+    assertEquals(new IntParameterValue(ONE), combinations.get(0).first.getValue(0));
+    assertThat(combinations.get(0).second, is(2));
+    assertThat(mp.getCombinationError(0), is(0));
+    Pair<ParameterValueCombination, Integer> newest = combinations.get(1);
+    assertEquals(new IntParameterValue(TEN + MethodProfile.MAX_COMBINATIONS - 1), newest.first.getValue(0));
+    assertThat(newest.second, is(2));
+    assertThat(mp.getCombinationError(1), is(1));
+  }
+
+  @Test
+  public void onlyClosedSamplesOfABatchAreAdded() throws Exception {
+    useTwoParameters();
+
+    ParameterSampleBatch batch = new ParameterSampleBatch();
+    batch.setIntLike(0, ParameterSampleBatch.kindOfIntLike(TypeReference.Int), TEN);
+    batch.open(null, 2);
+    batch.setIntLike(0, ParameterSampleBatch.kindOfIntLike(TypeReference.Int), ONE);
+    batch.setIntLike(1, ParameterSampleBatch.kindOfIntLike(TypeReference.Int), TEN);
+    batch.close();
+    batch.open(null, 2);
+    batch.setIntLike(1, ParameterSampleBatch.kindOfIntLike(TypeReference.Int), ONE);
+    assertThat(batch.getSampleCount(), is(1));
+
+    batch.resolveObjectLiterals();
+    mp.addSample(batch, 0);
+
+    assertThat(mp.getSampleCount(), is(1));
+    getAndVerifyList(0, 1);
+    assertEquals(new IntParameterValue(ONE), getEntry(0).first);
+    getAndVerifyList(1, 1);
+    assertEquals(new IntParameterValue(TEN), getEntry(0).first);
+  }
+
+  @Test
+  public void arrayLengthsAreRecordedAsNonNullValues() throws Exception {
+    useTwoParameters();
+
+    mp.addNewArrayLength(TEN);
+    mp.addNewIntValue(ONE);
+    mp.addNewArrayLength(TEN);
+    mp.addNewIntValue(TEN);
+    mp.addNewType(null);
+    mp.addNewIntValue(ONE);
+
+    getAndVerifyList(0, 2);
+    Pair<AbstractParameterInfo, Integer> firstEntry = getEntry(0);
+    assertEquals(new ArrayLengthParameterProperty(TEN), firstEntry.first);
+    assertThat(firstEntry.second, is(2));
+    assertThat(mp.getNonNullCount(0), is(2));
+
+    AbstractParameterInfo[] values = new AbstractParameterInfo[2];
+    values[0] = NonNullParameterProperty.NON_NULL;
+    assertThat(mp.getCountForParameterValues(values), is(2));
+    values[1] = new IntParameterValue(ONE);
+    assertThat(mp.getCountForParameterValues(values), is(1));
+  }
+
+  protected void useTwoParameters() {
+    TypeReference[] twoParameters = new TypeReference[2];
+    when(methodData.getParameterTypes()).thenReturn(twoParameters);
+    when(methodData.isInstanceMethod()).thenReturn(false);
+    when(methodData.getParameterCountIncludingThis()).thenReturn(2);
+    mp = new MethodProfile(methodData);
+  }
+
   @Test
   public void allStandardPrimitiveTypesAreSupported() throws Exception {
     TypeReference[] sevenParameters = new TypeReference[6];
@@ -0,0 +1,219 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.jikesrvm.tests.util.TestingTools.getNormalMethod;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.classloader.NormalMethod;
+import org.jikesrvm.classloader.RVMMethod;
+import org.jikesrvm.compilers.opt.specialization.ParameterValueSpecializationContext;
+import org.jikesrvm.junit.runners.RequiresBootstrapVM;
+import org.jikesrvm.junit.runners.RequiresBuiltJikesRVM;
+import org.jikesrvm.junit.runners.VMRequirements;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+
+@RunWith(VMRequirements.class)
+@Category(RequiresBootstrapVM.class)
+public class ParameterProfileFileTest {
+
+  private static final int ONE = 1;
+  private static final int TEN = 10;
+
+  private File file;
+
+  public static class Methods {
+    public static int add(int a, int b) {
+      return a + b;
+    }
+  }
+
+  @Before
+  public void createFile() throws IOException {
+    file = File.createTempFile("ParameterProfileFileTest", ".ppf");
+  }
+
+  @After
+  public void deleteFile() {
+    file.delete();
+  }
+
+  @Test
+  public void fileWithWrongMagicNumberIsIgnored() throws Exception {
+    int[] header = writeEmptyFileAndReadHeader();
+    writeFile(header[0] + 1, header[1], 0);
+    assertNull(ParameterProfileFile.read(file.getPath()));
+  }
+
+  @Test
+  public void fileWithWrongVersionIsIgnored() throws Exception {
+    int[] header = writeEmptyFileAndReadHeader();
+    writeFile(header[0], header[1] + 1, 0);
+    assertNull(ParameterProfileFile.read(file.getPath()));
+  }
+
+  @Test
+  public void emptyFileCanBeRead() throws Exception {
+    writeEmptyFileAndReadHeader();
+    assertNotNull(ParameterProfileFile.read(file.getPath()));
+  }
+
+  @Test
+  public void truncatedFileIsIgnored() throws Exception {
+    int[] header = writeEmptyFileAndReadHeader();
+    // announces a record for a method but ends after the header
+    writeFile(header[0], header[1], 1);
+    assertNull(ParameterProfileFile.read(file.getPath()));
+  }
+
+  @Test
+  public void missingFileIsIgnored() throws Exception {
+    file.delete();
+    assertNull(ParameterProfileFile.read(file.getPath()));
+  }
+
+  @Category(RequiresBuiltJikesRVM.class)
+  @Test
+  public void profilesAndPlansSurviveRoundTrip() throws Exception {
+    NormalMethod method = getNormalMethod(Methods.class, "add", int.class, int.class);
+
+    MethodProfile profile = new MethodProfile(new MethodDataProviderImpl(method));
+    for (int i = 0; i < 3; i++) {
+      profile.addNewIntValue(ONE);
+      profile.addNewIntValue(TEN + i);
+    }
+    Map<RVMMethod, MethodProfile> profiles = new HashMap<RVMMethod, MethodProfile>();
+    profiles.put(method, profile);
+
+    ParameterValueSpecializationContext context = new ParameterValueSpecializationContext(method,
+        new AbstractParameterInfo[] {new IntParameterValue(ONE), new IntParameterValue(TEN)});
+    context.setProfiledFrequency(3);
+    List<ParameterValueSpecializationContext> contexts = new ArrayList<ParameterValueSpecializationContext>();
+    contexts.add(context);
+    Map<RVMMethod, List<ParameterValueSpecializationContext>> plans =
+        new HashMap<RVMMethod, List<ParameterValueSpecializationContext>>();
+    plans.put(method, contexts);
+
+    ParameterProfileFile.write(file.getPath(), profiles, plans);
+    ParameterProfileFile read = ParameterProfileFile.read(file.getPath());
+    assertNotNull(read);
+
+    MethodProfile restored = new MethodProfile(new MethodDataProviderImpl(method));
+    assertTrue(read.restoreProfile(method, restored));
+    assertThat(restored.getSampleCount(), is(3));
+    assertThat(restored.getDataForParameter(0).size(), is(1));
+    assertEquals(new IntParameterValue(ONE), restored.getDataForParameter(0).get(0).first);
+    assertThat(restored.getDataForParameter(0).get(0).second, is(3));
+    assertThat(restored.getDataForParameter(1).size(), is(3));
+
+    List<ParameterValueSpecializationContext> restoredPlans = read.takeSpecializationPlans(method);
+    assertNotNull(restoredPlans);
+    assertThat(restoredPlans.size(), is(1));
+    AbstractParameterInfo[] values = restoredPlans.get(0).getParameterInformation();
+    assertEquals(new IntParameterValue(ONE), values[0]);
+    assertEquals(new IntParameterValue(TEN), values[1]);
+    assertThat(restoredPlans.get(0).getProfiledFrequency(), is(3));
+
+    // both are consumed
+    assertNull(read.takeSpecializationPlans(method));
+    MethodProfile empty = new MethodProfile(new MethodDataProviderImpl(method));
+    assertTrue(read.restoreProfile(method, empty));
+    assertThat(empty.getSampleCount(), is(0));
+  }
+
+  @Category(RequiresBuiltJikesRVM.class)
+  @Test
+  public void planWithWrongParameterCountIsDropped() throws Exception {
+    NormalMethod method = getNormalMethod(Methods.class, "add", int.class, int.class);
+    int[] header = writeEmptyFileAndReadHeader();
+
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(header[0]);
+      out.writeInt(header[1]);
+      out.writeInt(1);
+      out.writeUTF(method.getDeclaringClass().getDescriptor() + "." + method.getName() + method.getDescriptor());
+      // no profile
+      out.writeInt(-1);
+      // one plan with three values for a method with two parameters
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream plan = new DataOutputStream(bytes);
+      plan.writeInt(1);
+      plan.writeInt(5);
+      plan.writeInt(3);
+      for (int i = 0; i < 3; i++) {
+        ParameterValueSketch.writeValue(plan, ParameterValueSketch.INT, ONE);
+      }
+      ParameterValueSketch.writeValue(plan, ParameterValueSketch.UNKNOWN, 0);
+      plan.flush();
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+    } finally {
+      out.close();
+    }
+
+    ParameterProfileFile read = ParameterProfileFile.read(file.getPath());
+    assertNotNull(read);
+    assertNull(read.takeSpecializationPlans(method));
+  }
+
+  /**
+   * Writes a file without records and reads back its header.
+   *
+   * @return the magic number and the version
+   */
+  private int[] writeEmptyFileAndReadHeader() throws IOException {
+    ParameterProfileFile.write(file.getPath(), new HashMap<RVMMethod, MethodProfile>(),
+        new HashMap<RVMMethod, List<ParameterValueSpecializationContext>>());
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return new int[] {in.readInt(), in.readInt()};
+    } finally {
+      in.close();
+    }
+  }
+
+  private void writeFile(int magic, int version, int methods) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(magic);
+      out.writeInt(version);
+      out.writeInt(methods);
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.adaptive.parameterprofiling;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.jikesrvm.junit.runners.RequiresBootstrapVM;
+import org.jikesrvm.junit.runners.VMRequirements;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+
+@RunWith(VMRequirements.class)
+@Category(RequiresBootstrapVM.class)
+public class ParameterValueSketchTest {
+
+  private ParameterValueSketch sketch;
+
+  /** The true counts of the values that were added, for checking the estimates */
+  private Map<Long, Integer> trueCounts;
+
+  private int added;
+
+  @Before
+  public void setup() {
+    sketch = new ParameterValueSketch();
+    trueCounts = new HashMap<Long, Integer>();
+    added = 0;
+  }
+
+  private void add(long value) {
+    sketch.add(ParameterValueSketch.INT, value);
+    Integer count = trueCounts.get(value);
+    trueCounts.put(value, count == null ? 1 : count + 1);
+    added++;
+  }
+
+  private int indexOf(long value) {
+    for (int i = 0; i < sketch.size(); i++) {
+      if (sketch.getValue(i).equals(new IntParameterValue((int) value))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  public void heavyHittersAreRetainedWithManyDistinctValues() {
+    for (int i = 0; i < 1000; i++) {
+      add(1);
+      add(1000 + i);
+      if (i % 3 == 0) {
+        add(2);
+      }
+    }
+
+    // 1 occurs in 43% and 2 in 14% of the samples, more than 1 / CAPACITY
+    assertThat(sketch.size(), is(ParameterValueSketch.CAPACITY));
+    assertThat(indexOf(1), is(0));
+    assertThat(indexOf(2), is(1));
+    assertThat(sketch.getCount(0), is(1000));
+    assertThat(sketch.getError(0), is(0));
+  }
+
+  @Test
+  public void countsExceedTrueCountsByAtMostTheirError() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      // a skewed distribution over 64 values
+      add(Integer.numberOfLeadingZeros(random.nextInt()) + 64 * random.nextInt(2));
+    }
+
+    int sum = 0;
+    for (int i = 0; i < sketch.size(); i++) {
+      sum += sketch.getCount(i);
+      int trueCount = trueCounts.get((long) ((IntParameterValue) sketch.getValue(i)).getIntValue());
+      assertTrue(sketch.getCount(i) >= trueCount);
+      assertTrue(sketch.getCount(i) - sketch.getError(i) <= trueCount);
+      assertTrue(sketch.getError(i) <= added / ParameterValueSketch.CAPACITY);
+    }
+    // every sample is counted exactly once
+    assertThat(sum, is(added));
+  }
+
+  @Test
+  public void entriesStaySortedByDescendingCount() {
+    add(1);
+    add(1);
+    add(2);
+    assertThat(indexOf(1), is(0));
+    assertThat(indexOf(2), is(1));
+
+    add(2);
+    add(2);
+    assertThat(indexOf(2), is(0));
+    assertThat(indexOf(1), is(1));
+
+    Random random = new Random(7);
+    for (int i = 0; i < 1000; i++) {
+      add(random.nextInt(20));
+      for (int entry = 1; entry < sketch.size(); entry++) {
+        assertTrue(sketch.getCount(entry - 1) >= sketch.getCount(entry));
+      }
+    }
+  }
+
+  @Test
+  public void newValueReplacesTheEntryWithTheLowestCount() {
+    for (int value = 0; value < ParameterValueSketch.CAPACITY; value++) {
+      for (int i = 0; i <= value; i++) {
+        add(value);
+      }
+    }
+    assertThat(indexOf(0), is(ParameterValueSketch.CAPACITY - 1));
+
+    add(100);
+    assertThat(sketch.size(), is(ParameterValueSketch.CAPACITY));
+    assertThat(indexOf(0), is(-1));
+    int index = indexOf(100);
+    assertThat(sketch.getCount(index), is(2));
+    assertThat(sketch.getError(index), is(1));
+    assertEquals(new IntParameterValue(100), sketch.getValue(index));
+  }
+
+}
@@ -49,6 +49,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMType;
 import org.jikesrvm.classloader.TypeReference;
@@ -523,6 +524,32 @@ public class GenerationContextTest {
     assertThatNumberOfParametersIs(gc, 0);
   }
 
+  @Test
+  public void receiverOfMethodCustomizedForReceiverTypeHasPreciseType() throws Exception {
+    NormalMethod nm = getNormalMethodForTest("emptyInstanceMethodWithoutAnnotations");
+    assertFalse(nm.getDeclaringClass().isFinal());
+    CompiledMethod cm = new OptCompiledMethod(-1, nm);
+    OptOptions opts = new OptOptions();
+    InlineOracle io = new DefaultInlineOracle();
+    GenerationContext gc = new GenerationContext(nm, null, new AbstractParameterInfo[0], nm.getDeclaringClass(), cm, opts, io);
+
+    assertThatNumberOfParametersIs(gc, 1);
+    RegisterOperand thisOperand = getThisOperand(gc);
+    assertThat(thisOperand.getType(), is(nm.getDeclaringClass().getTypeRef()));
+    assertTrue(thisOperand.isPreciseType());
+  }
+
+  @Test
+  public void receiverOfGeneralVersionOfMethodInNonFinalClassIsNotPrecise() throws Exception {
+    NormalMethod nm = getNormalMethodForTest("emptyInstanceMethodWithoutAnnotations");
+    CompiledMethod cm = new OptCompiledMethod(-1, nm);
+    OptOptions opts = new OptOptions();
+    InlineOracle io = new DefaultInlineOracle();
+    GenerationContext gc = new GenerationContext(nm, null, null, cm, opts, io);
+
+    assertFalse(getThisOperand(gc).isPreciseType());
+  }
+
   @Test
   public void prologueAndEpilogueForSynchronizedStaticMethodHaveMonitorEnterAndExit() throws Exception {
     NormalMethod nm = getNormalMethodForTest("emptySynchronizedStaticMethod");
@@ -92,6 +92,25 @@ public class InlineSequenceTest {
     assertNull(s0.getCallSite());
   }
 
+  @Test
+  public void testGeneralBodyHasNoSpecializedVersion() throws Exception {
+    InlineSequence s0 = createInlineSequence(Methods.class, "root");
+    InlineSequence s1 = createInlineSequence(s0, 0, Methods.class, "m");
+
+    assertNull(s0.getSpecializedVersion());
+    assertNull(s1.getSpecializedVersion());
+  }
+
+  @Test
+  public void testEqualsForSequenceWithoutSpecializedVersion() throws Exception {
+    InlineSequence s0 = createInlineSequence(Methods.class, "root");
+    InlineSequence s1 = createInlineSequence(s0, 3, Methods.class, "m");
+    InlineSequence t1 = new InlineSequence(s1.getMethod(), s0, s1.getCallSite(), null);
+
+    assertEquals(s1, t1);
+    assertEquals(s1.hashCode(), t1.hashCode());
+  }
+
   @Test
   public void testGetInlineDepthWithEmptySequence() throws Exception {
     InlineSequence s0 = createInlineSequence(Methods.class, "root");
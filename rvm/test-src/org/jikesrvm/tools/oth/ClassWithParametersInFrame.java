@@ -0,0 +1,59 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.jikesrvm.tools.oth;
+
+import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.baseline.BaselineCompiledMethod;
+import org.jikesrvm.compilers.baseline.BaselineFrameAccessor;
+import org.jikesrvm.compilers.common.CompiledMethod;
+import org.jikesrvm.compilers.common.CompiledMethods;
+import org.jikesrvm.runtime.Magic;
+import org.vmmagic.pragma.NoInline;
+import org.vmmagic.unboxed.Address;
+
+/**
+ * The solo purpose of this class is to be loaded via a test case for the
+ * OptTestHarness. {@link #storeParameters(int, long, float, double, short)}
+ * is baseline-compiled by the test and reads its own parameters from its
+ * stack frame.
+ */
+public class ClassWithParametersInFrame {
+
+  static boolean readFromBaselineFrame;
+  static int intValue;
+  static long longValue;
+  static float floatValue;
+  static double doubleValue;
+  static short shortValue;
+
+  public static void storeParameters(int i, long l, float f, double d, short s) {
+    readParametersOfCaller();
+  }
+
+  @NoInline
+  private static void readParametersOfCaller() {
+    Address fp = Magic.getCallerFramePointer(Magic.getFramePointer());
+    CompiledMethod cm = CompiledMethods.getCompiledMethod(Magic.getCompiledMethodID(fp));
+    readFromBaselineFrame = cm.getCompilerType() == CompiledMethod.BASELINE;
+    if (!readFromBaselineFrame) {
+      return;
+    }
+    BaselineCompiledMethod baselineCM = (BaselineCompiledMethod) cm;
+    intValue = BaselineFrameAccessor.getLocalAddress(fp, baselineCM, 0, TypeReference.Int).loadInt();
+    longValue = BaselineFrameAccessor.getLocalAddress(fp, baselineCM, 1, TypeReference.Long).loadLong();
+    floatValue = BaselineFrameAccessor.getLocalAddress(fp, baselineCM, 3, TypeReference.Float).loadFloat();
+    doubleValue = BaselineFrameAccessor.getLocalAddress(fp, baselineCM, 4, TypeReference.Double).loadDouble();
+    shortValue = (short) BaselineFrameAccessor.getLocalAddress(fp, baselineCM, 6, TypeReference.Short).loadInt();
+  }
+
+}
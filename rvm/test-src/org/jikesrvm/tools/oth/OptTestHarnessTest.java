@@ -26,11 +26,22 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.jikesrvm.VM;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.AbstractParameterInfo;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterListener;
+import org.jikesrvm.adaptive.measurements.listeners.parameterprofiling.ParameterSampleBuffer;
+import org.jikesrvm.adaptive.measurements.organizers.ParameterProfileOrganizer;
+import org.jikesrvm.adaptive.parameterprofiling.MethodProfile;
+import org.jikesrvm.adaptive.parameterprofiling.ParameterValueFactoryImpl;
+import org.jikesrvm.adaptive.recompilation.instrumentation.ParameterProbes;
+import org.jikesrvm.adaptive.util.AOSOptions;
 import org.jikesrvm.classloader.ApplicationClassLoader;
 import org.jikesrvm.classloader.Atom;
 import org.jikesrvm.classloader.NormalMethod;
 import org.jikesrvm.classloader.RVMClass;
 import org.jikesrvm.classloader.TypeReference;
+import org.jikesrvm.compilers.baseline.BaselineCompiledMethod;
+import org.jikesrvm.compilers.baseline.BaselineFrameAccessor;
+import org.jikesrvm.compilers.common.CompiledMethod;
 import org.jikesrvm.compilers.opt.OptOptions;
 import org.jikesrvm.compilers.opt.specialization.SpecializationDatabase;
 import org.jikesrvm.compilers.opt.specialization.SpecializedMethod;
@@ -38,7 +49,9 @@ import org.jikesrvm.junit.runners.RequiresBuiltJikesRVM;
 import org.jikesrvm.junit.runners.RequiresLackOfOptCompiler;
 import org.jikesrvm.junit.runners.RequiresOptCompiler;
 import org.jikesrvm.junit.runners.VMRequirements;
+import org.jikesrvm.scheduler.RVMThread;
 import org.jikesrvm.tests.util.TestingTools;
+import org.jikesrvm.util.Pair;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -63,6 +76,7 @@ public class OptTestHarnessTest {
   private static final String CLASS_WITH_MAIN_METHOD = "org.jikesrvm.tools.oth.ClassWithMainMethod";
   private static final String CLASS_WITH_INSTANCE_METHOD = "org.jikesrvm.tools.oth.ClassWithInstanceMethod";
   private static final String CLASS_WITH_PRIVATE_CONSTRUCTOR = "org.jikesrvm.tools.oth.ClassWithPrivateConstructor";
+  private static final String CLASS_WITH_PARAMETERS_IN_FRAME = "org.jikesrvm.tools.oth.ClassWithParametersInFrame";
   private static final String SPECIALIZATION_TEST_CLASS = "SpecializationTestClass";
 
   private TestOutput output;
@@ -367,6 +381,28 @@ public class OptTestHarnessTest {
     assertThatRemainingOutputIsEmptyWhenTrimmed();
   }
 
+  @Test
+  public void parametersCanBeReadFromFramesOfBaselineCompiledMethods() throws Exception {
+    String[] compileMethod = {"-methodBase", CLASS_WITH_PARAMETERS_IN_FRAME, "storeParameters", "-"};
+    executeOptTestHarness(compileMethod);
+    assertThatNoAdditionalErrorsHaveOccurred();
+
+    NormalMethod storeParameters = TestingTools.getNormalMethod(ClassWithParametersInFrame.class, "storeParameters",
+        int.class, long.class, float.class, double.class, short.class);
+    CompiledMethod cm = storeParameters.getCurrentCompiledMethod();
+    assertThat(cm.getCompilerType(), is(CompiledMethod.BASELINE));
+    // the PowerPC baseline compiler may keep parameters in registers
+    assumeThat(BaselineFrameAccessor.areParametersInMemory((BaselineCompiledMethod) cm), is(true));
+
+    ClassWithParametersInFrame.storeParameters(-3, 0x123456789AL, 1.5f, -2.25d, (short) 7);
+    assertThat(ClassWithParametersInFrame.readFromBaselineFrame, is(true));
+    assertThat(ClassWithParametersInFrame.intValue, is(-3));
+    assertThat(ClassWithParametersInFrame.longValue, is(0x123456789AL));
+    assertThat(ClassWithParametersInFrame.floatValue, is(1.5f));
+    assertThat(ClassWithParametersInFrame.doubleValue, is(-2.25d));
+    assertThat(ClassWithParametersInFrame.shortValue, is((short) 7));
+  }
+
   @Test
   public void baselineCompilationCanBeSwitchedOnAndOff() throws Exception {
     String[] args = { "+baseline" };
@@ -1965,6 +2001,57 @@ public class OptTestHarnessTest {
     assertThatNoAdditionalErrorsHaveOccurred();
   }
 
+  @Test
+  @Category(RequiresOptCompiler.class)
+  public void parameterProbesRecordSamplesInTheProfile() throws Exception {
+    assumeThat(VM.BuildForAdaptiveSystem, is(true));
+    assumeThat(ParameterProbes.isEnabled(), is(false));
+    Class<?> declaringClass = Class.forName(SPECIALIZATION_TEST_CLASS);
+    NormalMethod method = TestingTools.getNormalMethod(declaringClass, "parametersAreRecordedByProbes",
+        int.class, double.class, Object.class, String[].class);
+    assumeThat(ParameterListener.isProfiledMethod(method), is(true));
+
+    ParameterProfileOrganizer organizer = new ParameterProfileOrganizer();
+    AOSOptions options = new AOSOptions();
+    options.PARAMETER_PROBE_SAMPLE_INTERVAL = 1;
+    // The probes record into the buffer of the current thread which
+    // this organizer has no thread to collect
+    RVMThread me = RVMThread.getCurrentThread();
+    ParameterSampleBuffer previousBuffer = me.parameterSampleBuffer;
+    ParameterSampleBuffer buffer = new ParameterSampleBuffer();
+    me.parameterSampleBuffer = buffer;
+    ParameterProbes.boot(organizer, options);
+    try {
+      String[] executeAndRun = {"-er", SPECIALIZATION_TEST_CLASS, "parametersAreRecordedByProbes", "-",
+          "7", "1.5", "null", "a", "b"};
+      executeOTHWithStreamRedirection(executeAndRun);
+    } finally {
+      // Probes cannot be disabled again because code that was compiled in
+      // the meantime may contain probes. Go back to the default interval.
+      ParameterProbes.boot(organizer, new AOSOptions());
+      me.parameterSampleBuffer = previousBuffer;
+    }
+    assertThatNoAdditionalErrorsHaveOccurred();
+    assertThat(getStandardOutput().contains("Parameters are : 7 1.5 null 2"), is(true));
+
+    organizer.processProbeSamples(buffer.getProbeSamples());
+    MethodProfile profile = organizer.getMethodProfile(method);
+    assertThat(profile.getSampleCount(), is(1));
+    ParameterValueFactoryImpl values = new ParameterValueFactoryImpl();
+    assertThatOnlyValueForParameterIs(profile, 0, values.createIntParameter(7));
+    assertThatOnlyValueForParameterIs(profile, 1, values.createDoubleParameter(1.5d));
+    assertThatOnlyValueForParameterIs(profile, 2, values.createNullParameter());
+    assertThatOnlyValueForParameterIs(profile, 3, values.createArrayLengthParameter(2));
+    assertThat(profile.getDataForParameterCombinations().size(), is(1));
+  }
+
+  private void assertThatOnlyValueForParameterIs(MethodProfile profile, int param, AbstractParameterInfo value) {
+    List<Pair<AbstractParameterInfo, Integer>> data = profile.getDataForParameter(param);
+    assertThat(data.size(), is(1));
+    assertThat(data.get(0).first, equalTo(value));
+    assertThat(data.get(0).second, is(1));
+  }
+
   // TODO more tests for instance methods
   // TODO more tests, e.g. for returns
   // TODO more tests ...
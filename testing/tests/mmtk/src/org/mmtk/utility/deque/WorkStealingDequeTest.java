@@ -0,0 +1,418 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package org.mmtk.utility.deque;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.Assert;
+import org.mmtk.harness.Harness;
+import org.mmtk.harness.lang.Trace;
+import org.mmtk.harness.lang.Trace.Item;
+import org.mmtk.harness.scheduler.Scheduler;
+import org.mmtk.plan.CollectorContext;
+import org.mmtk.plan.Plan;
+import org.vmmagic.unboxed.Address;
+
+/**
+ * Junit unit-tests for WorkStealingDeque and the work-stealing mode
+ * of SharedDeque.
+ */
+public class WorkStealingDequeTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    Harness.initOnce();
+    Trace.enable(Item.SCHEDULER);
+    Scheduler.setThreadModel(Scheduler.Model.DETERMINISTIC);
+    Harness.policy.setValue("FIXED");
+    Harness.yieldInterval.setValue(1);
+    /* Must call this after switching scheduler */
+    org.mmtk.harness.scheduler.Scheduler.initCollectors();
+  }
+
+  /**
+   * Helper method to create addresses
+   * @param val
+   * @return
+   */
+  private static Address a(int val) {
+    return Address.fromIntSignExtend(val);
+  }
+
+  /**
+   * Run a test, ie a list of threads, all run in GC context.
+   * @param items
+   */
+  private void runTest(final CollectorContext... items) {
+    for (CollectorContext item : items) {
+      Scheduler.scheduleCollectorContext(item);
+    }
+    Scheduler.scheduleGcThreads();
+  }
+
+  /**
+   * A collector context that acts as one worker of a parallel
+   * collector group.
+   */
+  private abstract static class Worker extends CollectorContext {
+
+    private final int workers;
+    private final int ordinal;
+
+    Worker(int workers, int ordinal) {
+      this.workers = workers;
+      this.ordinal = ordinal;
+    }
+
+    @Override
+    public int parallelWorkerCount() {
+      return workers;
+    }
+
+    @Override
+    public int parallelWorkerOrdinal() {
+      return ordinal;
+    }
+  }
+
+  @Test
+  public void testPushPopSteal() {
+    runTest(new Worker(1,0) {
+      @Override
+      public void run() {
+        SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+        WorkStealingDeque deque = new WorkStealingDeque(shared);
+
+        Assert.assertTrue(deque.push(a(1)));
+        Assert.assertTrue(deque.push(a(2)));
+        Assert.assertTrue(deque.push(a(3)));
+        Assert.assertEquals(3,deque.size());
+        Assert.assertEquals(a(3),deque.pop());
+        Assert.assertEquals(a(1),deque.steal());
+        Assert.assertEquals(a(2),deque.pop());
+        Assert.assertTrue(deque.pop().isZero());
+        Assert.assertTrue(deque.steal().isZero());
+        Assert.assertEquals(0,deque.size());
+        deque.release();
+      }
+    });
+  }
+
+  @Test
+  public void testWrapAround() {
+    runTest(new Worker(1,0) {
+      @Override
+      public void run() {
+        SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+        WorkStealingDeque deque = new WorkStealingDeque(shared);
+
+        for (int i = 1; i <= 3 * WorkStealingDeque.CAPACITY; i++) {
+          Assert.assertTrue(deque.push(a(2 * i)));
+          Assert.assertTrue(deque.push(a(2 * i + 1)));
+          Assert.assertEquals(a(2 * i),deque.steal());
+          Assert.assertEquals(a(2 * i + 1),deque.pop());
+        }
+        Assert.assertEquals(0,deque.size());
+        deque.release();
+      }
+    });
+  }
+
+  @Test
+  public void testLastElement() {
+    runTest(new Worker(1,0) {
+      @Override
+      public void run() {
+        SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+        WorkStealingDeque deque = new WorkStealingDeque(shared);
+
+        deque.push(a(1));
+        Assert.assertEquals(a(1),deque.steal());
+        Assert.assertTrue(deque.pop().isZero());
+        Assert.assertEquals(0,deque.size());
+
+        deque.push(a(2));
+        Assert.assertEquals(a(2),deque.pop());
+        Assert.assertTrue(deque.steal().isZero());
+        Assert.assertEquals(0,deque.size());
+
+        /* The deque is still usable after losing the race */
+        deque.push(a(3));
+        Assert.assertEquals(a(3),deque.pop());
+        deque.release();
+      }
+    });
+  }
+
+  /**********************************************************************/
+
+  private final Object lock = new Object();
+  private int counter = 0;
+  private volatile boolean ownerDone;
+
+  /**
+   * The owner pushes one buffer at a time and pops it straight back,
+   * so that every pop races the thieves for the last buffer.
+   */
+  private class Owner extends Worker {
+    private final WorkStealingDeque deque;
+    private final boolean[] taken;
+
+    Owner(WorkStealingDeque deque, boolean[] taken) {
+      super(2,0);
+      this.deque = deque;
+      this.taken = taken;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 1; i < taken.length; i++) {
+        Assert.assertTrue(deque.push(a(i)));
+        take(taken, deque.pop());
+      }
+      ownerDone = true;
+    }
+  }
+
+  /**
+   * A thief steals until the owner is done and the deque is empty.
+   */
+  private class Thief extends Worker {
+    private final WorkStealingDeque deque;
+    private final boolean[] taken;
+
+    Thief(WorkStealingDeque deque, boolean[] taken) {
+      super(2,1);
+      this.deque = deque;
+      this.taken = taken;
+    }
+
+    @Override
+    public void run() {
+      while (!ownerDone || deque.size() > 0) {
+        take(taken, deque.steal());
+        Scheduler.yield();
+      }
+    }
+  }
+
+  /**
+   * Record that a buffer has been dequeued, and check that no other
+   * thread dequeued it before.
+   */
+  private void take(boolean[] taken, Address buf) {
+    if (buf.isZero()) return;
+    synchronized (lock) {
+      Assert.assertFalse(taken[buf.toInt()]);
+      taken[buf.toInt()] = true;
+      counter++;
+    }
+  }
+
+  @Test
+  public void testLastElementRace() {
+    final int N = 2000;
+    final SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+    final WorkStealingDeque deque = new WorkStealingDeque(shared);
+    final boolean[] taken = new boolean[N + 1];
+    counter = 0;
+    ownerDone = false;
+    runTest(
+        new Owner(deque,taken),
+        new Thief(deque,taken));
+    Assert.assertEquals(N,counter);
+    Assert.assertEquals(0,deque.size());
+    deque.release();
+  }
+
+  @Test
+  public void testOverflowToSharedList() {
+    runTest(new Worker(1,0) {
+      @Override
+      public void run() {
+        SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+        Address[] bufs = new Address[WorkStealingDeque.CAPACITY + 1];
+
+        shared.prepareNonBlocking();
+        for (int i = 0; i < bufs.length; i++) {
+          bufs[i] = shared.alloc();
+          shared.enqueue(bufs[i],1,false);
+        }
+        /* Only the buffer that did not fit went to the shared list */
+        Assert.assertEquals(bufs[WorkStealingDeque.CAPACITY],shared.head);
+        Assert.assertEquals(bufs.length * Deque.PAGES_PER_BUFFER,shared.enqueuedPages());
+
+        /* The own deque is drained first, newest buffer first */
+        for (int i = WorkStealingDeque.CAPACITY - 1; i >= 0; i--) {
+          Assert.assertEquals(bufs[i],shared.dequeue(1));
+        }
+        Assert.assertEquals(bufs[WorkStealingDeque.CAPACITY],shared.dequeue(1));
+        Assert.assertTrue(shared.dequeue(1).isZero());
+        for (Address buf : bufs) {
+          shared.free(buf);
+        }
+        shared.reset();
+      }
+    });
+  }
+
+  /**
+   * A worker of a group that shares a work-stealing deque.  Worker 0
+   * produces all the buffers, the others can only get work by stealing.
+   * Every worker consumes until the shared deque signals completion.
+   */
+  private class Consumer extends Worker {
+    private final SharedDeque shared;
+    private final int produce;
+
+    Consumer(SharedDeque shared, int workers, int ordinal, int produce) {
+      super(workers,ordinal);
+      this.shared = shared;
+      this.produce = produce;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < produce; i++) {
+        shared.enqueue(shared.alloc(),1,false);
+      }
+      Address buf = shared.dequeueAndWait(1);
+      while (!buf.isZero()) {
+        synchronized (lock) {
+          counter++;
+        }
+        shared.free(buf);
+        buf = shared.dequeueAndWait(1);
+      }
+    }
+  }
+
+  @Test
+  public void testTermination() {
+    final int WORKERS = 4;
+    final int N = WorkStealingDeque.CAPACITY + 500;
+    final SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+    runTest(new Worker(WORKERS,0) {
+      @Override
+      public void run() {
+        shared.prepare();
+      }
+    });
+    counter = 0;
+    runTest(
+        new Consumer(shared,WORKERS,0,N),
+        new Consumer(shared,WORKERS,1,0),
+        new Consumer(shared,WORKERS,2,0),
+        new Consumer(shared,WORKERS,3,0));
+    Assert.assertEquals(N,counter);
+    shared.assertExhausted();
+    shared.reset();
+  }
+
+  private int outstanding = 0;
+
+  /**
+   * A worker that expands a tree of buffers.  Each buffer holds its
+   * depth, and a buffer above depth zero yields {@code fanout} buffers of
+   * the next lower depth, so most of the work derives from stolen
+   * buffers.  With a fanout of one, the buffers form a chain like a deep
+   * linked list.  No worker may see completion while a buffer is
+   * outstanding.
+   */
+  private class TreeWorker extends Worker {
+    private final SharedDeque shared;
+    private final int rootDepth;
+    private final int fanout;
+
+    TreeWorker(SharedDeque shared, int workers, int ordinal, int rootDepth, int fanout) {
+      super(workers,ordinal);
+      this.shared = shared;
+      this.rootDepth = rootDepth;
+      this.fanout = fanout;
+    }
+
+    private void produce(int depth) {
+      Address buf = shared.alloc();
+      buf.store(depth);
+      synchronized (lock) {
+        outstanding++;
+      }
+      shared.enqueue(buf,1,false);
+    }
+
+    @Override
+    public void run() {
+      if (rootDepth >= 0) produce(rootDepth);
+      Address buf = shared.dequeueAndWait(1);
+      while (!buf.isZero()) {
+        int depth = buf.loadInt();
+        shared.free(buf);
+        if (depth > 0) {
+          for (int i = 0; i < fanout; i++) {
+            produce(depth - 1);
+          }
+        }
+        synchronized (lock) {
+          counter++;
+          outstanding--;
+        }
+        Scheduler.yield();
+        buf = shared.dequeueAndWait(1);
+      }
+      synchronized (lock) {
+        Assert.assertEquals(0,outstanding);
+      }
+    }
+  }
+
+  /**
+   * Expand a tree of buffers on four workers, starting from a single
+   * root on worker 0.
+   *
+   * @param depth the depth of the root
+   * @param fanout the number of buffers derived from each inner buffer
+   * @return the number of buffers that were processed
+   */
+  private int expandTree(int depth, int fanout) {
+    final int WORKERS = 4;
+    final SharedDeque shared = new SharedDeque("shared",Plan.metaDataSpace,1,true);
+    runTest(new Worker(WORKERS,0) {
+      @Override
+      public void run() {
+        shared.prepare();
+      }
+    });
+    counter = 0;
+    outstanding = 0;
+    runTest(
+        new TreeWorker(shared,WORKERS,0,depth,fanout),
+        new TreeWorker(shared,WORKERS,1,-1,fanout),
+        new TreeWorker(shared,WORKERS,2,-1,fanout),
+        new TreeWorker(shared,WORKERS,3,-1,fanout));
+    shared.assertExhausted();
+    shared.reset();
+    return counter;
+  }
+
+  @Test
+  public void testTerminationWithDerivedWork() {
+    final int DEPTH = 10;
+    Assert.assertEquals((1 << (DEPTH + 1)) - 1,expandTree(DEPTH,2));
+  }
+
+  @Test
+  public void testTerminationOnAChain() {
+    final int LENGTH = 500;
+    Assert.assertEquals(LENGTH + 1,expandTree(LENGTH,1));
+  }
+}
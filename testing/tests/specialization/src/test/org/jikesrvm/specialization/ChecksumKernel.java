@@ -0,0 +1,66 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.specialization;
+
+import org.vmmagic.pragma.NoInline;
+
+/**
+ * Computes checksums of small arrays. The flag that selects the checksum
+ * algorithm is always <code>true</code>, so a specialized version can drop
+ * the test of the flag from the loop and the code for the other algorithm.
+ */
+final class ChecksumKernel extends Kernel {
+
+  private static final int DATA_LENGTH = 16;
+  private static final int DIFFERENT_ARRAYS = 64;
+
+  private int[][] data;
+
+  @Override
+  String getName() {
+    return "checksum";
+  }
+
+  @Override
+  void prepareArguments(int calls) {
+    data = new int[DIFFERENT_ARRAYS][DATA_LENGTH];
+    for (int[] array : data) {
+      for (int i = 0; i < array.length; i++) {
+        array[i] = random.nextInt();
+      }
+    }
+  }
+
+  @Override
+  long runRound(int calls) {
+    long sum = 0;
+    for (int i = 0; i < calls; i++) {
+      sum += checksum(data[i % DIFFERENT_ARRAYS], true);
+    }
+    return sum;
+  }
+
+  @NoInline
+  static int checksum(int[] values, boolean rotate) {
+    int checksum = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (rotate) {
+        checksum = Integer.rotateLeft(checksum, 5) ^ values[i];
+      } else {
+        checksum = checksum * 31 + values[i];
+      }
+    }
+    return checksum;
+  }
+
+}
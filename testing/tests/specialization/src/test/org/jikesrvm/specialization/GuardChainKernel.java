@@ -0,0 +1,166 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.specialization;
+
+import org.vmmagic.pragma.NoInline;
+
+/**
+ * Calls a small method whose second parameter takes one of a fixed number of
+ * equally likely values. If the adaptive system creates a specialized
+ * version for each of the values, every call passes through the guards in
+ * the general version, so the time per call grows with the number of
+ * versions.
+ * <p>
+ * Profiles are kept per method, so each distribution has its own copy of
+ * the called method. The copies are not inlined because inlining would
+ * bypass the guards.
+ */
+abstract class GuardChainKernel extends Kernel {
+
+  /**
+   * The number of distinct values for a distribution that is too flat to
+   * be worth specializing. Calls to this kernel show the cost of the general
+   * version without any guards.
+   */
+  private static final int MANY_VALUES = 64;
+
+  private final int numberOfValues;
+
+  protected int[] values;
+
+  protected int[] shifts;
+
+  GuardChainKernel(int numberOfValues) {
+    this.numberOfValues = numberOfValues;
+  }
+
+  @Override
+  String getName() {
+    return "guardChain" + numberOfValues;
+  }
+
+  @Override
+  void prepareArguments(int calls) {
+    values = new int[calls];
+    shifts = new int[calls];
+    for (int i = 0; i < calls; i++) {
+      values[i] = random.nextInt();
+      shifts[i] = 1 + random.nextInt(numberOfValues);
+    }
+  }
+
+  static int mixBits(int value, int shift) {
+    return Integer.rotateLeft(value, shift) ^ (value >>> shift);
+  }
+
+  static final class OneValue extends GuardChainKernel {
+    OneValue() {
+      super(1);
+    }
+
+    @Override
+    long runRound(int calls) {
+      long sum = 0;
+      for (int i = 0; i < calls; i++) {
+        sum += mix(values[i], shifts[i]);
+      }
+      return sum;
+    }
+
+    @NoInline
+    static int mix(int value, int shift) {
+      return mixBits(value, shift);
+    }
+  }
+
+  static final class TwoValues extends GuardChainKernel {
+    TwoValues() {
+      super(2);
+    }
+
+    @Override
+    long runRound(int calls) {
+      long sum = 0;
+      for (int i = 0; i < calls; i++) {
+        sum += mix(values[i], shifts[i]);
+      }
+      return sum;
+    }
+
+    @NoInline
+    static int mix(int value, int shift) {
+      return mixBits(value, shift);
+    }
+  }
+
+  static final class FourValues extends GuardChainKernel {
+    FourValues() {
+      super(4);
+    }
+
+    @Override
+    long runRound(int calls) {
+      long sum = 0;
+      for (int i = 0; i < calls; i++) {
+        sum += mix(values[i], shifts[i]);
+      }
+      return sum;
+    }
+
+    @NoInline
+    static int mix(int value, int shift) {
+      return mixBits(value, shift);
+    }
+  }
+
+  static final class EightValues extends GuardChainKernel {
+    EightValues() {
+      super(8);
+    }
+
+    @Override
+    long runRound(int calls) {
+      long sum = 0;
+      for (int i = 0; i < calls; i++) {
+        sum += mix(values[i], shifts[i]);
+      }
+      return sum;
+    }
+
+    @NoInline
+    static int mix(int value, int shift) {
+      return mixBits(value, shift);
+    }
+  }
+
+  static final class ManyValues extends GuardChainKernel {
+    ManyValues() {
+      super(MANY_VALUES);
+    }
+
+    @Override
+    long runRound(int calls) {
+      long sum = 0;
+      for (int i = 0; i < calls; i++) {
+        sum += mix(values[i], shifts[i]);
+      }
+      return sum;
+    }
+
+    @NoInline
+    static int mix(int value, int shift) {
+      return mixBits(value, shift);
+    }
+  }
+
+}
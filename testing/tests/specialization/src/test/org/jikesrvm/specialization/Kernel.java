@@ -0,0 +1,49 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.specialization;
+
+import java.util.Random;
+
+/**
+ * A kernel whose calls are timed by the {@link SpecializationBenchmark}.
+ * The arguments for the calls are computed in advance so that computing
+ * them does not contribute to the measured time.
+ */
+abstract class Kernel {
+
+  /**
+   * The seed for the random numbers that are used to draw arguments. A fixed
+   * seed makes the argument distributions the same for all runs.
+   */
+  private static final long SEED = 0x5eed;
+
+  protected final Random random = new Random(SEED);
+
+  abstract String getName();
+
+  /**
+   * Computes the arguments for the calls of a round.
+   *
+   * @param calls the number of calls per round
+   */
+  abstract void prepareArguments(int calls);
+
+  /**
+   * Calls the kernel with the prepared arguments.
+   *
+   * @param calls the number of calls per round
+   * @return a value that depends on the results of all calls
+   */
+  abstract long runRound(int calls);
+
+}
@@ -0,0 +1,58 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.specialization;
+
+import org.vmmagic.pragma.NoInline;
+
+/**
+ * Computes powers with a loop over the exponent. The exponent is the same
+ * for all calls, so a specialized version can drop the loop.
+ */
+final class PowerKernel extends Kernel {
+
+  private static final int EXPONENT = 7;
+
+  private double[] bases;
+
+  @Override
+  String getName() {
+    return "power";
+  }
+
+  @Override
+  void prepareArguments(int calls) {
+    bases = new double[calls];
+    for (int i = 0; i < calls; i++) {
+      bases[i] = 1.0 + random.nextDouble();
+    }
+  }
+
+  @Override
+  long runRound(int calls) {
+    double sum = 0;
+    for (int i = 0; i < calls; i++) {
+      sum += power(bases[i], EXPONENT);
+    }
+    return (long) sum;
+  }
+
+  @NoInline
+  static double power(double base, int exponent) {
+    double result = 1.0;
+    for (int i = 0; i < exponent; i++) {
+      result *= base;
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ *  This file is part of the Jikes RVM project (http://jikesrvm.org).
+ *
+ *  This file is licensed to You under the Eclipse Public License (EPL);
+ *  You may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/eclipse-1.0.php
+ *
+ *  See the COPYRIGHT.txt file distributed with this work for information
+ *  regarding copyright ownership.
+ */
+package test.org.jikesrvm.specialization;
+
+import java.util.Arrays;
+
+/**
+ * Measures the steady-state cost of calls to a few kernels whose arguments
+ * follow controlled distributions. The kernels are chosen so that their
+ * cost changes when the adaptive system specializes them:
+ * <ul>
+ *   <li>{@link PowerKernel} and {@link ChecksumKernel} always receive the same
+ *   value for one of their parameters. They show the payoff of specialized
+ *   code compared to general code.</li>
+ *   <li>The {@link GuardChainKernel}s receive one of <i>n</i> equally likely
+ *   values. They show the cost of dispatching from the general version to
+ *   <i>n</i> specialized versions.</li>
+ * </ul>
+ * Each kernel is run for a number of warmup rounds so that the adaptive
+ * system can profile, specialize and recompile it. Afterwards, the median
+ * time per call of the measured rounds is printed as
+ * <code>RESULT &lt;kernel&gt;.ns_per_call &lt;value&gt;</code> so that the
+ * results can be extracted by the test harness.
+ * <p>
+ * The run is only meaningful when compared with runs of the same benchmark
+ * with other VM options, e.g. with parameter profiling and specialization
+ * switched off.
+ */
+public class SpecializationBenchmark {
+
+  private static final int DEFAULT_WARMUP_ROUNDS = 50;
+  private static final int DEFAULT_MEASURED_ROUNDS = 15;
+  private static final int CALLS_PER_ROUND = 100000;
+
+  /**
+   * Keeps the results of the kernels alive so that the compilers cannot
+   * remove the calls.
+   */
+  static long sink;
+
+  public static void main(String[] args) {
+    int warmupRounds = DEFAULT_WARMUP_ROUNDS;
+    int measuredRounds = DEFAULT_MEASURED_ROUNDS;
+    if (args.length >= 1) {
+      warmupRounds = Integer.parseInt(args[0]);
+    }
+    if (args.length >= 2) {
+      measuredRounds = Integer.parseInt(args[1]);
+    }
+
+    Kernel[] kernels = {
+        new PowerKernel(),
+        new ChecksumKernel(),
+        new GuardChainKernel.OneValue(),
+        new GuardChainKernel.TwoValues(),
+        new GuardChainKernel.FourValues(),
+        new GuardChainKernel.EightValues(),
+        new GuardChainKernel.ManyValues()
+    };
+
+    for (Kernel kernel : kernels) {
+      kernel.prepareArguments(CALLS_PER_ROUND);
+      for (int round = 0; round < warmupRounds; round++) {
+        sink += kernel.runRound(CALLS_PER_ROUND);
+      }
+      double[] nanosPerCall = new double[measuredRounds];
+      for (int round = 0; round < measuredRounds; round++) {
+        long start = System.nanoTime();
+        sink += kernel.runRound(CALLS_PER_ROUND);
+        long end = System.nanoTime();
+        nanosPerCall[round] = (end - start) / (double) CALLS_PER_ROUND;
+      }
+      System.out.println("RESULT " + kernel.getName() + ".ns_per_call " + median(nanosPerCall));
+    }
+    System.out.println("Sink: " + sink);
+  }
+
+  private static double median(double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int middle = sorted.length / 2;
+    if (sorted.length % 2 == 0) {
+      return (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+    return sorted[middle];
+  }
+
+}